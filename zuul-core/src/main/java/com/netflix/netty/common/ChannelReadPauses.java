@@ -0,0 +1,110 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ *      Licensed under the Apache License, Version 2.0 (the "License");
+ *      you may not use this file except in compliance with the License.
+ *      You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *      Unless required by applicable law or agreed to in writing, software
+ *      distributed under the License is distributed on an "AS IS" BASIS,
+ *      WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *      See the License for the specific language governing permissions and
+ *      limitations under the License.
+ */
+
+package com.netflix.netty.common;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.Attribute;
+import io.netty.util.AttributeKey;
+import org.junit.Test;
+
+import java.util.EnumSet;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The reasons reading from a channel is currently paused for. Handlers that turn off a channel's autoRead do so through
+ * here, so that one of them resuming reads doesn't undo a pause that another still needs. The channel only goes back
+ * to autoRead once no reason for pausing it remains.
+ *
+ * Must only be used from the channel's event-loop.
+ */
+public final class ChannelReadPauses {
+	private static final AttributeKey<EnumSet<Reason>> ATTR_REASONS = AttributeKey.newInstance("_read_pause_reasons");
+
+	public enum Reason {
+		/** Waiting for a slot to do the TLS handshake in, see SslHandshakeThrottleHandler. */
+		SSL_HANDSHAKE_QUEUED,
+		/** The queue of pipelined requests is full, see {@link HttpPipeliningHandler}. */
+		PIPELINED_REQUESTS_QUEUED,
+		/** The origin isn't taking the request body as fast as the client is sending it, see ProxyEndpoint. */
+		ORIGIN_BACKPRESSURE
+	}
+
+	private ChannelReadPauses() {
+	}
+
+	public static void pause(Channel ch, Reason reason) {
+		final Attribute<EnumSet<Reason>> attr = ch.attr(ATTR_REASONS);
+		EnumSet<Reason> reasons = attr.get();
+		if (reasons == null) {
+			reasons = EnumSet.noneOf(Reason.class);
+			attr.set(reasons);
+		}
+		reasons.add(reason);
+		ch.config().setAutoRead(false);
+	}
+
+	/**
+	 * Removes the reason for pausing reads, and resumes them if there are no others.
+	 *
+	 * @return whether reads were resumed
+	 */
+	public static boolean resume(Channel ch, Reason reason) {
+		final EnumSet<Reason> reasons = ch.attr(ATTR_REASONS).get();
+		if (reasons == null || !reasons.remove(reason) || !reasons.isEmpty()) {
+			return false;
+		}
+		ch.config().setAutoRead(true);
+		return true;
+	}
+
+	public static boolean isPaused(Channel ch, Reason reason) {
+		final EnumSet<Reason> reasons = ch.attr(ATTR_REASONS).get();
+		return reasons != null && reasons.contains(reason);
+	}
+
+
+	public static class UnitTest {
+		@Test
+		public void testResumedOnceNoReasonRemains() {
+			final EmbeddedChannel channel = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+			pause(channel, Reason.PIPELINED_REQUESTS_QUEUED);
+			pause(channel, Reason.ORIGIN_BACKPRESSURE);
+			assertFalse(channel.config().isAutoRead());
+
+			assertFalse(resume(channel, Reason.PIPELINED_REQUESTS_QUEUED));
+			assertFalse(channel.config().isAutoRead());
+			assertTrue(isPaused(channel, Reason.ORIGIN_BACKPRESSURE));
+
+			assertTrue(resume(channel, Reason.ORIGIN_BACKPRESSURE));
+			assertTrue(channel.config().isAutoRead());
+			channel.finishAndReleaseAll();
+		}
+
+		@Test
+		public void testResumeWithoutPause() {
+			final EmbeddedChannel channel = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+			channel.config().setAutoRead(false);
+			assertFalse(resume(channel, Reason.ORIGIN_BACKPRESSURE));
+			assertFalse(channel.config().isAutoRead());
+			channel.finishAndReleaseAll();
+		}
+	}
+}
@@ -16,6 +16,7 @@
 
 package com.netflix.netty.common;
 
+import com.netflix.zuul.context.SessionContextRecycler;
 import com.netflix.zuul.passport.CurrentPassport;
 import com.netflix.zuul.passport.PassportState;
 import io.netty.channel.*;
@@ -90,6 +91,9 @@ public abstract class HttpLifecycleChannelHandler extends CombinedChannelDuplexH
 		// Fire the event to whole pipeline.
 		ctx.pipeline().fireUserEventTriggered(new CompleteEvent(reason, request, response));
 
+		// Every handler has now seen the CompleteEvent, so the request's context can be reused if recycling is enabled.
+		SessionContextRecycler.releaseFromChannel(ctx.channel());
+
 		return true;
 	}
 
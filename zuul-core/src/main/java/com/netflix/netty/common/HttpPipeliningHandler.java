@@ -0,0 +1,245 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ *      Licensed under the Apache License, Version 2.0 (the "License");
+ *      you may not use this file except in compliance with the License.
+ *      You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *      Unless required by applicable law or agreed to in writing, software
+ *      distributed under the License is distributed on an "AS IS" BASIS,
+ *      WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *      See the License for the specific language governing permissions and
+ *      limitations under the License.
+ */
+
+package com.netflix.netty.common;
+
+import com.netflix.netty.common.HttpLifecycleChannelHandler.CompleteEvent;
+import com.netflix.netty.common.HttpLifecycleChannelHandler.CompleteReason;
+import com.netflix.spectator.api.Counter;
+import com.netflix.spectator.api.Spectator;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.DefaultHttpRequest;
+import io.netty.handler.codec.http.DefaultLastHttpContent;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.util.ReferenceCountUtil;
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Accepts pipelined HTTP/1.1 requests, ie. a client sending further requests on a connection before the response to
+ * the first has been written, instead of closing the connection on them.
+ *
+ * Requests that arrive while one is in flight are held in a per-connection queue, and each is passed on once the
+ * response to the one before has completed. So requests on a connection are still proxied one at a time, which keeps
+ * responses in request order and lets the rest of the pipeline carry on assuming a single request per channel, but the
+ * client doesn't pay a round-trip between each of them.
+ *
+ * The queue is bounded by request count and by buffered body bytes. Once either is reached the connection stops reading
+ * until the queue has drained.
+ *
+ * Must be added after the HttpServerCodec and before the HttpServerLifecycleChannelHandler.
+ */
+public class HttpPipeliningHandler extends ChannelInboundHandlerAdapter {
+	private static final Counter queuedCounter = Spectator.globalRegistry().counter("server.http.requests.pipelining.queued");
+	private static final Counter pausedCounter = Spectator.globalRegistry().counter("server.http.requests.pipelining.paused");
+
+	private final int maxQueuedRequests;
+	private final int maxQueuedBytes;
+
+	private final ArrayDeque<Object> queue = new ArrayDeque<>();
+	private int queuedRequests = 0;
+	private int queuedBytes = 0;
+	private boolean inFlight = false;
+	private boolean drainScheduled = false;
+	private boolean pausedReads = false;
+
+	public HttpPipeliningHandler(int maxQueuedRequests, int maxQueuedBytes) {
+		this.maxQueuedRequests = maxQueuedRequests;
+		this.maxQueuedBytes = maxQueuedBytes;
+	}
+
+	@Override
+	public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+		// Once anything is queued, everything after it has to queue too, to keep the messages in order.
+		if (!queue.isEmpty() || (inFlight && msg instanceof HttpRequest)) {
+			enqueue(ctx, msg);
+			return;
+		}
+		if (msg instanceof HttpRequest) {
+			inFlight = true;
+		}
+		super.channelRead(ctx, msg);
+	}
+
+	@Override
+	public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+		if (evt instanceof CompleteEvent) {
+			inFlight = false;
+			if (((CompleteEvent) evt).getReason() == CompleteReason.SESSION_COMPLETE) {
+				scheduleDrain(ctx);
+			} else {
+				// The connection is being closed, so the queued requests won't get a response.
+				releaseQueue();
+			}
+		}
+		super.userEventTriggered(ctx, evt);
+	}
+
+	@Override
+	public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+		releaseQueue();
+		super.channelInactive(ctx);
+	}
+
+	@Override
+	public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+		releaseQueue();
+	}
+
+	private void enqueue(ChannelHandlerContext ctx, Object msg) {
+		queue.add(msg);
+		if (msg instanceof HttpRequest) {
+			queuedRequests++;
+			queuedCounter.increment();
+		}
+		if (msg instanceof HttpContent) {
+			queuedBytes += ((HttpContent) msg).content().readableBytes();
+		}
+
+		if (!pausedReads && (queuedRequests >= maxQueuedRequests || queuedBytes >= maxQueuedBytes)) {
+			pausedReads = true;
+			pausedCounter.increment();
+			ChannelReadPauses.pause(ctx.channel(), ChannelReadPauses.Reason.PIPELINED_REQUESTS_QUEUED);
+		}
+	}
+
+	private void scheduleDrain(ChannelHandlerContext ctx) {
+		if (queue.isEmpty() || drainScheduled) {
+			return;
+		}
+		// Let the CompleteEvent finish going through the pipeline before starting on the next request.
+		drainScheduled = true;
+		ctx.executor().execute(() -> drain(ctx));
+	}
+
+	private void drain(ChannelHandlerContext ctx) {
+		drainScheduled = false;
+		if (inFlight || !ctx.channel().isActive()) {
+			return;
+		}
+
+		// Pass on the next request along with whatever of its body has arrived so far.
+		boolean passedRequest = false;
+		Object msg;
+		while ((msg = queue.peek()) != null) {
+			if (msg instanceof HttpRequest) {
+				if (passedRequest) {
+					break;
+				}
+				passedRequest = true;
+				queuedRequests--;
+				inFlight = true;
+			}
+			queue.poll();
+			if (msg instanceof HttpContent) {
+				queuedBytes -= ((HttpContent) msg).content().readableBytes();
+			}
+			ctx.fireChannelRead(msg);
+		}
+		ctx.fireChannelReadComplete();
+
+		if (pausedReads && queuedRequests < maxQueuedRequests && queuedBytes < maxQueuedBytes) {
+			pausedReads = false;
+			ChannelReadPauses.resume(ctx.channel(), ChannelReadPauses.Reason.PIPELINED_REQUESTS_QUEUED);
+		}
+	}
+
+	private void releaseQueue() {
+		Object msg;
+		while ((msg = queue.poll()) != null) {
+			ReferenceCountUtil.release(msg);
+		}
+		queuedRequests = 0;
+		queuedBytes = 0;
+	}
+
+
+	public static class UnitTest {
+		private static HttpRequest request(String uri) {
+			return new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, uri);
+		}
+
+		private static void complete(EmbeddedChannel channel) {
+			channel.pipeline().fireUserEventTriggered(new CompleteEvent(CompleteReason.SESSION_COMPLETE, null, null));
+			channel.runPendingTasks();
+		}
+
+		@Test
+		public void testRequestsPassedOnInOrder() {
+			EmbeddedChannel channel = new EmbeddedChannel(new HttpPipeliningHandler(10, 1024));
+			channel.writeInbound(request("/1"), LastHttpContent.EMPTY_LAST_CONTENT);
+			channel.writeInbound(request("/2"), LastHttpContent.EMPTY_LAST_CONTENT);
+			channel.writeInbound(request("/3"), LastHttpContent.EMPTY_LAST_CONTENT);
+
+			assertEquals("/1", ((HttpRequest) channel.readInbound()).uri());
+			assertEquals(LastHttpContent.EMPTY_LAST_CONTENT, channel.readInbound());
+			assertNull(channel.readInbound());
+
+			complete(channel);
+			assertEquals("/2", ((HttpRequest) channel.readInbound()).uri());
+			assertEquals(LastHttpContent.EMPTY_LAST_CONTENT, channel.readInbound());
+			assertNull(channel.readInbound());
+
+			complete(channel);
+			assertEquals("/3", ((HttpRequest) channel.readInbound()).uri());
+			assertEquals(LastHttpContent.EMPTY_LAST_CONTENT, channel.readInbound());
+			assertNull(channel.readInbound());
+
+			channel.close();
+		}
+
+		@Test
+		public void testReadsPausedWhenQueueFull() {
+			EmbeddedChannel channel = new EmbeddedChannel(new HttpPipeliningHandler(10, 4));
+			channel.writeInbound(request("/1"), LastHttpContent.EMPTY_LAST_CONTENT);
+			channel.writeInbound(request("/2"));
+			assertTrue(channel.config().isAutoRead());
+
+			channel.writeInbound(new DefaultLastHttpContent(Unpooled.wrappedBuffer(new byte[8])));
+			assertFalse(channel.config().isAutoRead());
+
+			complete(channel);
+			assertTrue(channel.config().isAutoRead());
+			channel.finishAndReleaseAll();
+		}
+
+		@Test
+		public void testQueueReleasedOnClose() {
+			EmbeddedChannel channel = new EmbeddedChannel(new HttpPipeliningHandler(10, 1024));
+			ByteBuf body = Unpooled.buffer().writeBytes(new byte[8]);
+			channel.writeInbound(request("/1"), LastHttpContent.EMPTY_LAST_CONTENT);
+			channel.writeInbound(request("/2"), new DefaultLastHttpContent(body));
+
+			channel.close();
+			assertEquals(0, body.refCnt());
+			channel.finishAndReleaseAll();
+		}
+	}
+}
@@ -20,6 +20,8 @@ import com.netflix.netty.common.proxyprotocol.StripUntrustedProxyHeadersHandler;
 import com.netflix.netty.common.ssl.ServerSslConfig;
 import com.netflix.zuul.netty.ssl.SslContextFactory;
 
+import java.util.Map;
+
 /**
  * 公共ChannelConfigKeys
  * User: michaels@netflix.com
@@ -39,10 +41,19 @@ public class CommonChannelConfigKeys {
 	public static final ChannelConfigKey<Integer> maxRequestsPerConnectionInBrownout = new ChannelConfigKey<>("maxRequestsPerConnectionInBrownout", 100);
 	public static final ChannelConfigKey<Integer> connectionExpiry = new ChannelConfigKey<>("connectionExpiry", 20 * 60 * 1000);
 
+	// Max number of pipelined HTTP/1.1 requests to queue behind the one in flight. 0 rejects pipelined requests.
+	public static final ChannelConfigKey<Integer> maxPipelinedRequests = new ChannelConfigKey<>("maxPipelinedRequests", 0);
+	public static final ChannelConfigKey<Integer> maxPipelinedBytes = new ChannelConfigKey<>("maxPipelinedBytes", 1024 * 1024);
+
+	// Max number of flushes to coalesce before an explicit flush is forced. 0 disables flush consolidation.
+	public static final ChannelConfigKey<Integer> flushConsolidationMaxFlushes = new ChannelConfigKey<>("flushConsolidationMaxFlushes", 0);
+
 	// SSL:
 	public static final ChannelConfigKey<Boolean> isSSlFromIntermediary = new ChannelConfigKey<>("isSSlFromIntermediary", false);
 	public static final ChannelConfigKey<ServerSslConfig> serverSslConfig = new ChannelConfigKey<>("serverSslConfig");
 	public static final ChannelConfigKey<SslContextFactory> sslContextFactory = new ChannelConfigKey<>("sslContextFactory");
+	// Additional certificates to serve by SNI hostname, eg. "api.example.com" or "*.example.com".
+	public static final ChannelConfigKey<Map<String, SslContextFactory>> sniSslContextFactories = new ChannelConfigKey<>("sniSslContextFactories");
 
 	// HTTP/2 specific:
 	public static final ChannelConfigKey<Integer> maxConcurrentStreams = new ChannelConfigKey<>("maxConcurrentStreams", 100);
@@ -22,6 +22,7 @@ import javax.inject.Inject;
 import javax.inject.Singleton;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * User: michaels@netflix.com
@@ -31,7 +32,7 @@ import java.util.Map;
 @Singleton
 public class EventLoopGroupMetrics {
 	private final ThreadLocal<EventLoopMetrics> metricsForCurrentThread;
-	private final Map<Thread, EventLoopMetrics> byEventLoop = new HashMap<>();
+	private final Map<Thread, EventLoopMetrics> byEventLoop = new ConcurrentHashMap<>();
 	private final Registry registry;
 
 	@Inject
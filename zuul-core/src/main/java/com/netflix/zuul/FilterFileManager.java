@@ -96,6 +96,7 @@ public class FilterFileManager {
 
 		filterLoader.putFiltersForClasses(config.getClassNames());
 		manageFiles();
+		filterLoader.prepareFiltersByType();
 		startPoller();
 
 		LOG.warn("Finished loading all zuul filters. Duration = " + (System.currentTimeMillis() - startTime) + " ms.");
@@ -54,6 +54,7 @@ public class FilterLoader {
 	private final ConcurrentHashMap<String, String> filterClassCode = new ConcurrentHashMap<String, String>();
 	private final ConcurrentHashMap<String, String> filterCheck = new ConcurrentHashMap<String, String>();
 	private final ConcurrentHashMap<FilterType, List<ZuulFilter>> hashFiltersByType = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<FilterType, ZuulFilter<?, ?>[]> filterArraysByType = new ConcurrentHashMap<>();
 	private final ConcurrentHashMap<String, ZuulFilter> filtersByNameAndType = new ConcurrentHashMap<>();
 
 	private final FilterRegistry filterRegistry;
@@ -159,6 +160,7 @@ public class FilterLoader {
 			// 如果存在同种类型的filter，直接重构
 			hashFiltersByType.remove(filter.filterType());
 		}
+		filterArraysByType.remove(filter.filterType());
 		// 添加filter
 		String nameAndType = filter.filterType() + ":" + filter.filterName();
 		filtersByNameAndType.put(nameAndType, filter);
@@ -227,6 +229,31 @@ public class FilterLoader {
 		return list;
 	}
 
+	/**
+	 * Returns the filters of the filterType specified, sorted by filterOrder, as an array that is shared with other
+	 * callers and so must not be modified. Rebuilt only when a filter of that type is added or reloaded.
+	 *
+	 * @param filterType
+	 * @return a ZuulFilter[]
+	 */
+	public ZuulFilter<?, ?>[] getFilterArrayByType(FilterType filterType) {
+		ZuulFilter<?, ?>[] filters = filterArraysByType.get(filterType);
+		if (filters != null) return filters;
+
+		filters = getFiltersByType(filterType).toArray(new ZuulFilter<?, ?>[0]);
+		filterArraysByType.putIfAbsent(filterType, filters);
+		return filters;
+	}
+
+	/**
+	 * Sorts the loaded filters of every type up front, so that isn't left to the first requests once the server is up.
+	 */
+	public void prepareFiltersByType() {
+		for (FilterType filterType : FilterType.values()) {
+			getFilterArrayByType(filterType);
+		}
+	}
+
 	public ZuulFilter getFilterByNameAndType(String name, FilterType type) {
 		if (name == null || type == null)
 			return null;
@@ -333,6 +360,20 @@ public class FilterLoader {
 			assertTrue(filter.filterType().equals(FilterType.INBOUND));
 		}
 
+		@Test
+		public void testFilterArrayRebuiltOnPut() throws Exception {
+			when(registry.getAllFilters()).thenReturn(new ArrayList<>());
+			loader.prepareFiltersByType();
+			assertTrue(loader.getFilterArrayByType(FilterType.INBOUND).length == 0);
+
+			assertTrue(loader.putFilter(file));
+			when(registry.getAllFilters()).thenReturn(Collections.singletonList(filter));
+
+			ZuulFilter<?, ?>[] filters = loader.getFilterArrayByType(FilterType.INBOUND);
+			assertTrue(filters.length == 1);
+			assertTrue(filters == loader.getFilterArrayByType(FilterType.INBOUND));
+		}
+
 
 		@Test
 		public void testGetFilterFromString() throws Exception {
@@ -42,6 +42,8 @@ public class CommonContextKeys {
 	public static final String USE_FULL_VIP_NAME = "use_full_vip_name";
 	public static final String ACTUAL_VIP = "origin_vip_actual";
 	public static final String ORIGIN_VIP_SECURE = "origin_vip_secure";
+	public static final String ROUTE_ID = "route_id";
+	public static final String ROUTE_CONFIG = "route_config";
 
 	public static final String SSL_HANDSHAKE_INFO = "ssl_handshake_info";
 
@@ -59,5 +61,7 @@ public class CommonContextKeys {
 	public static final String RESP_BODY_SIZE_PROVIDER = "response_body_size";
 
 	public static final String PASSPORT = "_passport";
+	public static final String REQUEST_DEADLINE = "_request_deadline";
+	public static final String ORIGIN_QUEUE_PRIORITY = "_origin_queue_priority";
 	public static final String ZUUL_USE_DECODED_URI = "zuul_use_decoded_uri";
 }
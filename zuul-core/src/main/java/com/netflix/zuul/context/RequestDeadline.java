@@ -0,0 +1,281 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ *      Licensed under the Apache License, Version 2.0 (the "License");
+ *      you may not use this file except in compliance with the License.
+ *      You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *      Unless required by applicable law or agreed to in writing, software
+ *      distributed under the License is distributed on an "AS IS" BASIS,
+ *      WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *      See the License for the specific language governing permissions and
+ *      limitations under the License.
+ */
+
+package com.netflix.zuul.context;
+
+import com.netflix.config.CachedDynamicBooleanProperty;
+import com.netflix.config.CachedDynamicLongProperty;
+import com.netflix.config.ConfigurationManager;
+import com.netflix.config.DynamicLongProperty;
+import com.netflix.config.DynamicStringProperty;
+import com.netflix.zuul.message.Headers;
+import com.netflix.zuul.message.http.HttpQueryParams;
+import com.netflix.zuul.message.http.HttpRequestMessage;
+import com.netflix.zuul.message.http.HttpRequestMessageImpl;
+import com.netflix.zuul.passport.CurrentPassport;
+import com.netflix.zuul.passport.PassportItem;
+import com.netflix.zuul.passport.PassportState;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The time by which a request must be completed, after which the client will have given up on it.
+ *
+ * The deadline is the soonest of the timeout set in the "deadlineMs" config of the matched route, the timeout
+ * configured for the origin in zuul.origin.[name].deadline.ms (or zuul.deadline.default.ms), and the timeout the
+ * client asked for in the zuul.deadline.header.inbound header, all in milliseconds. It's measured from when the request
+ * headers were received. Filters can also set a deadline of their own with {@link #setOnSessionContext}, which then
+ * takes precedence.
+ *
+ * The inbound header isn't read by default, as any client could then shorten the timeouts used for its requests or
+ * have them rejected outright. Only set zuul.deadline.header.inbound where the header comes from a trusted hop.
+ *
+ * Origin attempts use the remaining time as an upper bound for their read timeout, retries are only made if there's
+ * time left for them, and the remaining time is sent to the origin in the zuul.deadline.header.outbound header.
+ */
+public final class RequestDeadline {
+	private static final CachedDynamicBooleanProperty ENABLED = new CachedDynamicBooleanProperty("zuul.deadline.enabled", true);
+	private static final DynamicStringProperty INBOUND_HEADER =
+			new DynamicStringProperty("zuul.deadline.header.inbound", "");
+	private static final DynamicStringProperty OUTBOUND_HEADER =
+			new DynamicStringProperty("zuul.deadline.header.outbound", "x-request-timeout-ms");
+	private static final CachedDynamicLongProperty MAX_TIMEOUT_MS =
+			new CachedDynamicLongProperty("zuul.deadline.max.ms", TimeUnit.MINUTES.toMillis(5));
+	private static final CachedDynamicLongProperty DEFAULT_TIMEOUT_MS =
+			new CachedDynamicLongProperty("zuul.deadline.default.ms", -1);
+
+	/** The key of the timeout in the per-route config. */
+	public static final String ROUTE_CONFIG_KEY = "deadlineMs";
+
+	private static final ConcurrentHashMap<String, DynamicLongProperty> ORIGIN_TIMEOUTS = new ConcurrentHashMap<>();
+
+	private final long deadlineNanos;
+
+	private RequestDeadline(long deadlineNanos) {
+		this.deadlineNanos = deadlineNanos;
+	}
+
+	/**
+	 * @param startNanos when the request started, from {@link System#nanoTime()}
+	 */
+	public static RequestDeadline withTimeout(long startNanos, long timeoutMs) {
+		return new RequestDeadline(startNanos + TimeUnit.MILLISECONDS.toNanos(timeoutMs));
+	}
+
+	public static RequestDeadline fromSessionContext(SessionContext context) {
+		return (RequestDeadline) context.get(CommonContextKeys.REQUEST_DEADLINE);
+	}
+
+	public static void setOnSessionContext(SessionContext context, RequestDeadline deadline) {
+		context.set(CommonContextKeys.REQUEST_DEADLINE, deadline);
+	}
+
+	/**
+	 * Finds the deadline of a request about to be proxied to the given origin, storing it in the request's context.
+	 *
+	 * @return the deadline, or null if the request doesn't have one
+	 */
+	public static RequestDeadline establish(HttpRequestMessage request, String originName) {
+		final SessionContext context = request.getContext();
+		final RequestDeadline existing = fromSessionContext(context);
+		if (existing != null || !ENABLED.get()) {
+			return existing;
+		}
+
+		final String inboundHeader = INBOUND_HEADER.get();
+		long timeoutMs = inboundHeader.isEmpty() ? -1 : parseTimeout(request.getHeaders().getFirst(inboundHeader));
+		timeoutMs = sooner(timeoutMs, originName == null ? -1 : getOriginTimeout(originName));
+		timeoutMs = sooner(timeoutMs, getRouteTimeout(context));
+		if (timeoutMs < 0) {
+			return null;
+		}
+
+		final RequestDeadline deadline = withTimeout(requestStartNanos(context), Math.min(timeoutMs, MAX_TIMEOUT_MS.get()));
+		setOnSessionContext(context, deadline);
+		return deadline;
+	}
+
+	public long remainingMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime());
+	}
+
+	public boolean isExpired() {
+		return deadlineNanos - System.nanoTime() <= 0;
+	}
+
+	/**
+	 * @return whether there's more than the given time left before the deadline
+	 */
+	public boolean hasTimeFor(long millis) {
+		return remainingMillis() > millis;
+	}
+
+	/**
+	 * @return the timeout, reduced to the time remaining before the deadline, and at least 1ms
+	 */
+	public int capTimeout(int timeoutMs) {
+		return (int) Math.max(1, Math.min(timeoutMs, remainingMillis()));
+	}
+
+	/**
+	 * Tells the origin how long it has left, by setting the outbound deadline header on the request to it.
+	 */
+	public void propagate(Headers headers) {
+		final String header = OUTBOUND_HEADER.get();
+		if (!header.isEmpty()) {
+			headers.set(header, String.valueOf(Math.max(0, remainingMillis())));
+		}
+	}
+
+	private static long getOriginTimeout(String originName) {
+		DynamicLongProperty prop = ORIGIN_TIMEOUTS.get(originName);
+		if (prop == null) {
+			prop = ORIGIN_TIMEOUTS.computeIfAbsent(originName,
+					name -> new DynamicLongProperty("zuul.origin." + name + ".deadline.ms", -1));
+		}
+		final long timeoutMs = prop.get();
+		return timeoutMs > 0 ? timeoutMs : DEFAULT_TIMEOUT_MS.get();
+	}
+
+	@SuppressWarnings("unchecked")
+	private static long getRouteTimeout(SessionContext context) {
+		final Map<String, String> config = (Map<String, String>) context.get(CommonContextKeys.ROUTE_CONFIG);
+		return config == null ? -1 : parseTimeout(config.get(ROUTE_CONFIG_KEY));
+	}
+
+	private static long sooner(long timeoutMs, long otherMs) {
+		return otherMs > 0 && (timeoutMs < 0 || otherMs < timeoutMs) ? otherMs : timeoutMs;
+	}
+
+	private static long parseTimeout(String value) {
+		if (value == null) {
+			return -1;
+		}
+		try {
+			final long timeoutMs = Long.parseLong(value.trim());
+			return timeoutMs >= 0 ? timeoutMs : -1;
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	private static long requestStartNanos(SessionContext context) {
+		final CurrentPassport passport = CurrentPassport.fromSessionContext(context);
+		final PassportItem received = passport == null ? null : passport.findState(PassportState.IN_REQ_HEADERS_RECEIVED);
+		return received == null ? System.nanoTime() : received.getTime();
+	}
+
+
+	public static class UnitTest {
+		@Before
+		public void setup() {
+			ConfigurationManager.getConfigInstance().setProperty("zuul.deadline.header.inbound", "x-request-timeout-ms");
+		}
+
+		@After
+		public void teardown() {
+			ConfigurationManager.getConfigInstance().clearProperty("zuul.deadline.header.inbound");
+			ConfigurationManager.getConfigInstance().clearProperty("zuul.origin.deadline-test.deadline.ms");
+			ConfigurationManager.getConfigInstance().clearProperty("zuul.deadline.default.ms");
+		}
+
+		private static HttpRequestMessage request(String timeoutHeader) {
+			final Headers headers = new Headers();
+			if (timeoutHeader != null) {
+				headers.add("x-request-timeout-ms", timeoutHeader);
+			}
+			return new HttpRequestMessageImpl(new SessionContext(), "HTTP/1.1", "GET", "/api", new HttpQueryParams(),
+					headers, "127.0.0.1", "http", 7001, "localhost");
+		}
+
+		@Test
+		public void testFromHeader() {
+			final HttpRequestMessage request = request("2000");
+			final RequestDeadline deadline = establish(request, "deadline-test");
+			assertTrue(deadline.remainingMillis() > 1000 && deadline.remainingMillis() <= 2000);
+			assertSame(deadline, fromSessionContext(request.getContext()));
+			assertSame(deadline, establish(request, "deadline-test"));
+		}
+
+		@Test
+		public void testNoDeadline() {
+			assertNull(establish(request(null), "deadline-test"));
+			assertNull(establish(request("soon"), "deadline-test"));
+		}
+
+		@Test
+		public void testSoonerOfHeaderAndOriginConfig() {
+			ConfigurationManager.getConfigInstance().setProperty("zuul.origin.deadline-test.deadline.ms", 500);
+			assertTrue(establish(request("2000"), "deadline-test").remainingMillis() <= 500);
+			assertTrue(establish(request(null), "deadline-test").remainingMillis() <= 500);
+			assertTrue(establish(request("100"), "deadline-test").remainingMillis() <= 100);
+		}
+
+		@Test
+		public void testHeaderIgnoredUnlessConfigured() {
+			ConfigurationManager.getConfigInstance().clearProperty("zuul.deadline.header.inbound");
+			assertNull(establish(request("0"), "deadline-test"));
+			assertNull(establish(request("2000"), "deadline-test"));
+		}
+
+		@Test
+		public void testFromRouteConfig() {
+			final HttpRequestMessage request = request(null);
+			request.getContext().set(CommonContextKeys.ROUTE_CONFIG, Collections.singletonMap(ROUTE_CONFIG_KEY, "400"));
+			assertTrue(establish(request, "deadline-test").remainingMillis() <= 400);
+
+			ConfigurationManager.getConfigInstance().setProperty("zuul.origin.deadline-test.deadline.ms", 200);
+			final HttpRequestMessage sooner = request("2000");
+			sooner.getContext().set(CommonContextKeys.ROUTE_CONFIG, Collections.singletonMap(ROUTE_CONFIG_KEY, "400"));
+			assertTrue(establish(sooner, "deadline-test").remainingMillis() <= 200);
+		}
+
+		@Test
+		public void testDefault() {
+			ConfigurationManager.getConfigInstance().setProperty("zuul.deadline.default.ms", 300);
+			assertTrue(establish(request(null), "deadline-test").remainingMillis() <= 300);
+		}
+
+		@Test
+		public void testCapAndExpiry() {
+			final RequestDeadline deadline = withTimeout(System.nanoTime(), 1000);
+			assertEquals(200, deadline.capTimeout(200));
+			assertTrue(deadline.capTimeout(5000) <= 1000);
+			assertTrue(deadline.hasTimeFor(100));
+			assertFalse(deadline.hasTimeFor(1000));
+
+			final RequestDeadline expired = withTimeout(System.nanoTime() - TimeUnit.SECONDS.toNanos(2), 1000);
+			assertTrue(expired.isExpired());
+			assertEquals(1, expired.capTimeout(5000));
+
+			final Headers headers = new Headers();
+			expired.propagate(headers);
+			assertEquals("0", headers.getFirst("x-request-timeout-ms"));
+		}
+	}
+}
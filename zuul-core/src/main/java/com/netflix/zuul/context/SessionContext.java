@@ -26,6 +26,7 @@ import com.netflix.zuul.filters.FilterError;
 import com.netflix.zuul.message.http.HttpResponseMessage;
 import com.netflix.zuul.stats.Timings;
 import com.netflix.zuul.util.DeepCopy;
+import io.netty.util.Recycler;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.runners.MockitoJUnitRunner;
@@ -33,6 +34,7 @@ import org.mockito.runners.MockitoJUnitRunner;
 import java.io.NotSerializableException;
 import java.net.URL;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 import static org.junit.Assert.assertEquals;
 
@@ -56,6 +58,14 @@ public class SessionContext extends HashMap<String, Object> implements Cloneable
 
 	private Timings timings = new Timings();
 
+	/* Set when this context came from the SessionContextRecycler, and so is returned to it once the request completes */
+	private final Recycler.Handle<SessionContext> recyclerHandle;
+	private boolean released = false;
+	/* Holders of a recyclable context, eg. the client channel and the proxy endpoint, see SessionContextRecycler */
+	private volatile int refCnt = 0;
+	private static final AtomicIntegerFieldUpdater<SessionContext> REF_CNT =
+			AtomicIntegerFieldUpdater.newUpdater(SessionContext.class, "refCnt");
+
 
 	private static final String KEY_UUID = "_uuid";
 	private static final String KEY_VIP = "routeVIP";
@@ -67,15 +77,122 @@ public class SessionContext extends HashMap<String, Object> implements Cloneable
 	private static final String KEY_FILTER_EXECS = "_filter_executions";
 
 	public SessionContext() {
+		this(null);
+	}
+
+	SessionContext(Recycler.Handle<SessionContext> recyclerHandle) {
 		// Use a higher than default initial capacity for the hashmap as we generally have more than the default
 		// 16 entries.
 		super(INITIAL_SIZE);
+		this.recyclerHandle = recyclerHandle;
 
 		put(KEY_FILTER_EXECS, new StringBuilder());
 		put(KEY_EVENT_PROPS, new HashMap<String, Object>());
 		put(KEY_FILTER_ERRORS, new ArrayList<FilterError>());
 	}
 
+	boolean isRecyclable() {
+		return recyclerHandle != null;
+	}
+
+	boolean isReleased() {
+		return released;
+	}
+
+	void setReleased(boolean released) {
+		this.released = released;
+	}
+
+	void setRefCnt(int refCnt) {
+		REF_CNT.set(this, refCnt);
+	}
+
+	int retain() {
+		return REF_CNT.incrementAndGet(this);
+	}
+
+	/**
+	 * @return the number of holders left
+	 */
+	int releaseRef() {
+		return REF_CNT.decrementAndGet(this);
+	}
+
+	/* Counts, and in poison mode fails, any use of the context once it has been released */
+	private void checkNotReleased() {
+		if (released) {
+			SessionContextRecycler.onUseAfterRelease(this);
+		}
+	}
+
+	/**
+	 * Clears all state so this context can be reused for another request, keeping the map's capacity and the standard
+	 * entries' instances.
+	 */
+	void reset() {
+		final Object filterExecs = super.get(KEY_FILTER_EXECS);
+		final Object eventProps = super.get(KEY_EVENT_PROPS);
+		final Object filterErrors = super.get(KEY_FILTER_ERRORS);
+		super.clear();
+
+		brownoutMode = false;
+		shouldStopFilterProcessing = false;
+		shouldSendErrorResponse = false;
+		errorResponseSent = false;
+		debugRouting = false;
+		debugRequest = false;
+		debugRequestHeadersOnly = false;
+		cancelled = false;
+		timings.reset();
+
+		if (filterExecs instanceof StringBuilder) {
+			((StringBuilder) filterExecs).setLength(0);
+			super.put(KEY_FILTER_EXECS, filterExecs);
+		} else {
+			super.put(KEY_FILTER_EXECS, new StringBuilder());
+		}
+		if (eventProps instanceof HashMap) {
+			((HashMap) eventProps).clear();
+			super.put(KEY_EVENT_PROPS, eventProps);
+		} else {
+			super.put(KEY_EVENT_PROPS, new HashMap<String, Object>());
+		}
+		if (filterErrors instanceof ArrayList) {
+			((ArrayList) filterErrors).clear();
+			super.put(KEY_FILTER_ERRORS, filterErrors);
+		} else {
+			super.put(KEY_FILTER_ERRORS, new ArrayList<FilterError>());
+		}
+	}
+
+	void recycle() {
+		recyclerHandle.recycle(this);
+	}
+
+	@Override
+	public Object get(Object key) {
+		checkNotReleased();
+		return super.get(key);
+	}
+
+	@Override
+	public Object put(String key, Object value) {
+		checkNotReleased();
+		return super.put(key, value);
+	}
+
+	@Override
+	public Object remove(Object key) {
+		checkNotReleased();
+		return super.remove(key);
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		checkNotReleased();
+		return super.containsKey(key);
+	}
+
 	/**
 	 * Makes a copy of the RequestContext. This is used for debugging.
 	 *
@@ -83,6 +200,7 @@ public class SessionContext extends HashMap<String, Object> implements Cloneable
 	 */
 	@Override
 	public SessionContext clone() {
+		// NOTE that the clone shares the recycler handle, but is never registered with the recycler itself.
 		return (SessionContext) super.clone();
 	}
 
@@ -141,6 +259,7 @@ public class SessionContext extends HashMap<String, Object> implements Cloneable
 	 * @return
 	 */
 	public SessionContext copy() {
+		checkNotReleased();
 		SessionContext copy = new SessionContext();
 		copy.brownoutMode = brownoutMode;
 		copy.cancelled = cancelled;
@@ -225,6 +344,7 @@ public class SessionContext extends HashMap<String, Object> implements Cloneable
 	 * @param bDebug
 	 */
 	public void setDebugRouting(boolean bDebug) {
+		checkNotReleased();
 		this.debugRouting = bDebug;
 	}
 
@@ -232,6 +352,7 @@ public class SessionContext extends HashMap<String, Object> implements Cloneable
 	 * @return "debugRouting"
 	 */
 	public boolean debugRouting() {
+		checkNotReleased();
 		return debugRouting;
 	}
 
@@ -241,6 +362,7 @@ public class SessionContext extends HashMap<String, Object> implements Cloneable
 	 * @param bHeadersOnly
 	 */
 	public void setDebugRequestHeadersOnly(boolean bHeadersOnly) {
+		checkNotReleased();
 		this.debugRequestHeadersOnly = bHeadersOnly;
 
 	}
@@ -249,6 +371,7 @@ public class SessionContext extends HashMap<String, Object> implements Cloneable
 	 * @return "debugRequestHeadersOnly"
 	 */
 	public boolean debugRequestHeadersOnly() {
+		checkNotReleased();
 		return this.debugRequestHeadersOnly;
 	}
 
@@ -258,6 +381,7 @@ public class SessionContext extends HashMap<String, Object> implements Cloneable
 	 * @param bDebug
 	 */
 	public void setDebugRequest(boolean bDebug) {
+		checkNotReleased();
 		this.debugRequest = bDebug;
 	}
 
@@ -267,6 +391,7 @@ public class SessionContext extends HashMap<String, Object> implements Cloneable
 	 * @return debugRequest
 	 */
 	public boolean debugRequest() {
+		checkNotReleased();
 		return this.debugRequest;
 	}
 
@@ -312,6 +437,7 @@ public class SessionContext extends HashMap<String, Object> implements Cloneable
 
 
 	public boolean shouldSendErrorResponse() {
+		checkNotReleased();
 		return this.shouldSendErrorResponse;
 	}
 
@@ -322,15 +448,18 @@ public class SessionContext extends HashMap<String, Object> implements Cloneable
 	 * @param should
 	 */
 	public void setShouldSendErrorResponse(boolean should) {
+		checkNotReleased();
 		this.shouldSendErrorResponse = should;
 	}
 
 
 	public boolean errorResponseSent() {
+		checkNotReleased();
 		return this.errorResponseSent;
 	}
 
 	public void setErrorResponseSent(boolean should) {
+		checkNotReleased();
 		this.errorResponseSent = should;
 	}
 
@@ -342,10 +471,12 @@ public class SessionContext extends HashMap<String, Object> implements Cloneable
 	 * @return
 	 */
 	public boolean isInBrownoutMode() {
+		checkNotReleased();
 		return brownoutMode;
 	}
 
 	public void setInBrownoutMode() {
+		checkNotReleased();
 		this.brownoutMode = true;
 	}
 
@@ -354,10 +485,12 @@ public class SessionContext extends HashMap<String, Object> implements Cloneable
 	 * by not processing any subsequent filters for this request.
 	 */
 	public void stopFilterProcessing() {
+		checkNotReleased();
 		shouldStopFilterProcessing = true;
 	}
 
 	public boolean shouldStopFilterProcessing() {
+		checkNotReleased();
 		return shouldStopFilterProcessing;
 	}
 
@@ -401,6 +534,7 @@ public class SessionContext extends HashMap<String, Object> implements Cloneable
 	}
 
 	public Timings getTimings() {
+		checkNotReleased();
 		return timings;
 	}
 
@@ -416,11 +550,19 @@ public class SessionContext extends HashMap<String, Object> implements Cloneable
 		return -1;
 	}
 
+	/**
+	 * A released context always reports itself as cancelled, so that anything still holding on to it stops.
+	 */
 	public boolean isCancelled() {
+		if (released) {
+			SessionContextRecycler.onUseAfterRelease(this);
+			return true;
+		}
 		return cancelled;
 	}
 
 	public void cancel() {
+		checkNotReleased();
 		this.cancelled = true;
 	}
 
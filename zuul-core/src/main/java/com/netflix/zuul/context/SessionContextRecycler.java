@@ -0,0 +1,248 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ *      Licensed under the Apache License, Version 2.0 (the "License");
+ *      you may not use this file except in compliance with the License.
+ *      You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *      Unless required by applicable law or agreed to in writing, software
+ *      distributed under the License is distributed on an "AS IS" BASIS,
+ *      WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *      See the License for the specific language governing permissions and
+ *      limitations under the License.
+ */
+
+package com.netflix.zuul.context;
+
+import com.netflix.config.CachedDynamicBooleanProperty;
+import com.netflix.spectator.api.Counter;
+import com.netflix.spectator.api.Spectator;
+import com.netflix.spectator.api.patterns.PolledMeter;
+import io.netty.channel.Channel;
+import io.netty.util.AttributeKey;
+import io.netty.util.Recycler;
+import org.junit.After;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Opt-in recycling of per-request {@link SessionContext}s, using a netty {@link Recycler} so that each event-loop
+ * thread reuses its own pool of contexts.
+ *
+ * A recycled context is registered on the client channel when the request starts, and the channel's hold on it is
+ * released by {@link com.netflix.netty.common.HttpLifecycleChannelHandler} once the CompleteEvent has been handled by
+ * the whole pipeline. Anything that keeps using the context after that, such as the proxy endpoint and its origin
+ * callbacks, must {@link #retain} it and {@link #release} it when done. The context is only cleared and reused once
+ * the last holder has released it.
+ *
+ * A released context reports itself as cancelled. Any code that keeps a reference to it without retaining it would
+ * otherwise see it cleared and reused, so the poison mode can be turned on to catch that: released contexts are then
+ * never reused, and any later access to one is counted and fails with an IllegalStateException.
+ */
+public final class SessionContextRecycler {
+	private static final Logger LOG = LoggerFactory.getLogger(SessionContextRecycler.class);
+
+	private static final CachedDynamicBooleanProperty ENABLED =
+			new CachedDynamicBooleanProperty("zuul.context.recycle.enabled", false);
+	private static final CachedDynamicBooleanProperty POISON =
+			new CachedDynamicBooleanProperty("zuul.context.recycle.poison", false);
+
+	private static final AttributeKey<SessionContext> ATTR_RECYCLABLE_CONTEXT = AttributeKey.newInstance("_recyclable_session_context");
+
+	private static final Recycler<SessionContext> RECYCLER = new Recycler<SessionContext>() {
+		@Override
+		protected SessionContext newObject(Handle<SessionContext> handle) {
+			return new SessionContext(handle);
+		}
+	};
+
+	private static final Counter acquiredCounter = Spectator.globalRegistry().counter("zuul.context.recycle", "event", "acquired");
+	private static final Counter releasedCounter = Spectator.globalRegistry().counter("zuul.context.recycle", "event", "released");
+	private static final Counter doubleReleaseCounter = Spectator.globalRegistry().counter("zuul.context.recycle", "event", "doubleRelease");
+	private static final Counter useAfterReleaseCounter = Spectator.globalRegistry().counter("zuul.context.recycle", "event", "useAfterRelease");
+	private static final AtomicInteger outstanding = PolledMeter.using(Spectator.globalRegistry())
+			.withName("zuul.context.recycle.outstanding").monitorValue(new AtomicInteger());
+
+	private SessionContextRecycler() {
+	}
+
+	public static boolean isEnabled() {
+		return ENABLED.get();
+	}
+
+	/**
+	 * Returns a recycled context if recycling is enabled, otherwise a new one. The context is registered on the given
+	 * channel, to be released when the current request completes.
+	 */
+	public static SessionContext acquire(Channel channel) {
+		if (!isEnabled()) {
+			return new SessionContext();
+		}
+		final SessionContext context = acquireRecycled();
+
+		final SessionContext previous = channel.attr(ATTR_RECYCLABLE_CONTEXT).getAndSet(context);
+		if (previous != null) {
+			// The previous request never completed, so don't risk reusing its context.
+			LOG.debug("Replacing unreleased recyclable context on channel {}", channel.id());
+			outstanding.decrementAndGet();
+		}
+		return context;
+	}
+
+	/* A recycled context, held once on behalf of the caller */
+	static SessionContext acquireRecycled() {
+		final SessionContext context = RECYCLER.get();
+		context.setReleased(false);
+		context.setRefCnt(1);
+		acquiredCounter.increment();
+		outstanding.incrementAndGet();
+		return context;
+	}
+
+	/**
+	 * Holds on to the context until a matching {@link #release}, for use beyond the completion of its request.
+	 * Does nothing for contexts that aren't recycled.
+	 */
+	public static void retain(SessionContext context) {
+		if (context.isRecyclable() && !context.isReleased()) {
+			context.retain();
+		}
+	}
+
+	/**
+	 * Releases any context registered on the channel for the request that has just completed.
+	 */
+	public static void releaseFromChannel(Channel channel) {
+		final SessionContext context = channel.attr(ATTR_RECYCLABLE_CONTEXT).getAndSet(null);
+		if (context != null) {
+			release(context);
+		}
+	}
+
+	/**
+	 * Releases a hold on the context, and recycles it once no holders are left.
+	 */
+	public static void release(SessionContext context) {
+		if (!context.isRecyclable()) {
+			return;
+		}
+		if (context.isReleased()) {
+			doubleReleaseCounter.increment();
+			LOG.warn("SessionContext released more than once!");
+			return;
+		}
+		if (context.releaseRef() > 0) {
+			return;
+		}
+
+		context.reset();
+		context.setReleased(true);
+		releasedCounter.increment();
+		outstanding.decrementAndGet();
+
+		// In poison mode the released context is left for the GC instead, so that late users keep failing on it.
+		if (!POISON.get()) {
+			context.recycle();
+		}
+	}
+
+	static void onUseAfterRelease(SessionContext context) {
+		useAfterReleaseCounter.increment();
+		if (POISON.get()) {
+			throw new IllegalStateException("SessionContext used after its request completed and it was released");
+		}
+	}
+
+	public static class UnitTest {
+		@After
+		public void teardown() {
+			com.netflix.config.ConfigurationManager.getConfigInstance().clearProperty("zuul.context.recycle.enabled");
+			com.netflix.config.ConfigurationManager.getConfigInstance().clearProperty("zuul.context.recycle.poison");
+		}
+
+		@Test
+		public void testDisabledByDefault() {
+			SessionContext context = acquire(new io.netty.channel.embedded.EmbeddedChannel());
+			assertFalse(context.isRecyclable());
+		}
+
+		@Test
+		public void testReleaseResetsContext() {
+			SessionContext context = acquireRecycled();
+			context.set("key", "value");
+			context.setDebugRequest(true);
+			context.getTimings().getRequest().start();
+
+			release(context);
+			assertTrue(context.isReleased());
+
+			context.setReleased(false);
+			assertNull(context.get("key"));
+			assertFalse(context.debugRequest());
+			assertEquals(0, context.getTimings().getRequest().getStartTime());
+			assertEquals(0, context.getFilterErrors().size());
+		}
+
+		@Test
+		public void testRecycledOnlyOnceLastHolderReleases() {
+			SessionContext context = acquireRecycled();
+			retain(context);
+			context.cancel();
+
+			release(context);
+			assertFalse(context.isReleased());
+			assertTrue(context.isCancelled());
+
+			release(context);
+			assertTrue(context.isReleased());
+			assertTrue(context.isCancelled());
+		}
+
+		@Test(expected = IllegalStateException.class)
+		public void testPoisonedContextFailsOnFieldAccess() {
+			com.netflix.config.ConfigurationManager.getConfigInstance().setProperty("zuul.context.recycle.poison", true);
+			SessionContext context = acquireRecycled();
+			release(context);
+			context.isCancelled();
+		}
+
+		@Test
+		public void testRecycledOnSameThread() {
+			// Netty only starts pooling a fraction of newly created objects, so release a few until one comes back.
+			final Set<SessionContext> released = Collections.newSetFromMap(new IdentityHashMap<>());
+			for (int i = 0; i < 32; i++) {
+				SessionContext context = acquireRecycled();
+				if (released.contains(context)) {
+					return;
+				}
+				release(context);
+				released.add(context);
+			}
+			fail("No released context was reused");
+		}
+
+		@Test(expected = IllegalStateException.class)
+		public void testPoisonedContextFailsOnUse() {
+			com.netflix.config.ConfigurationManager.getConfigInstance().setProperty("zuul.context.recycle.poison", true);
+			SessionContext context = acquireRecycled();
+			release(context);
+			assertNotSame(context, RECYCLER.get());
+			context.get("key");
+		}
+	}
+}
@@ -37,6 +37,7 @@ public interface ErrorType {
 	DynamicIntProperty ERROR_TYPE_NOSERVERS_STATUS = new DynamicIntProperty(PROP_PREFIX + ".noservers.status", 502);
 	DynamicIntProperty ERROR_TYPE_ORIGIN_SERVER_MAX_CONNS_STATUS = new DynamicIntProperty(PROP_PREFIX + ".servermaxconns.status", 503);
 	DynamicIntProperty ERROR_TYPE_ORIGIN_RESET_CONN_STATUS = new DynamicIntProperty(PROP_PREFIX + ".originresetconnection.status", 504);
+	DynamicIntProperty ERROR_TYPE_DEADLINE_EXCEEDED_STATUS = new DynamicIntProperty(PROP_PREFIX + ".deadlineexceeded.status", 504);
 	DynamicIntProperty ERROR_TYPE_OTHER_STATUS = new DynamicIntProperty(PROP_PREFIX + ".other.status", 500);
 
 
@@ -39,6 +39,7 @@ public enum OutboundErrorType implements ErrorType {
 	RESET_CONNECTION(ERROR_TYPE_ORIGIN_RESET_CONN_STATUS.get(), FAILURE_ORIGIN_RESET_CONNECTION, CONNECT_EXCEPTION),
 	CANCELLED(400, FAILURE_CLIENT_CANCELLED, SOCKET_TIMEOUT_EXCEPTION),
 	ORIGIN_CONCURRENCY_EXCEEDED(ERROR_TYPE_ORIGIN_CONCURRENCY_EXCEEDED_STATUS.get(), FAILURE_LOCAL_THROTTLED_ORIGIN_CONCURRENCY, SERVER_THROTTLED),
+	DEADLINE_EXCEEDED(ERROR_TYPE_DEADLINE_EXCEEDED_STATUS.get(), FAILURE_CLIENT_TIMEOUT, READ_TIMEOUT_EXCEPTION),
 	OTHER(ERROR_TYPE_OTHER_STATUS.get(), FAILURE_LOCAL, GENERAL);
 
 	private static final String NAME_PREFIX = "ORIGIN_";
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ *      Licensed under the Apache License, Version 2.0 (the "License");
+ *      you may not use this file except in compliance with the License.
+ *      You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *      Unless required by applicable law or agreed to in writing, software
+ *      distributed under the License is distributed on an "AS IS" BASIS,
+ *      WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *      See the License for the specific language governing permissions and
+ *      limitations under the License.
+ */
+
+package com.netflix.zuul.filters;
+
+import com.netflix.zuul.message.ZuulMessage;
+import org.junit.Test;
+import rx.Observable;
+import rx.observers.TestSubscriber;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Base class for filters implementing {@link CompletableZuulFilter}. The Observable based applyAsync() is kept as an
+ * adapter over applyCompletable(), for callers that still consume filters through RxJava.
+ */
+public abstract class BaseCompletableFilter<I extends ZuulMessage, O extends ZuulMessage> extends BaseFilter<I, O>
+		implements CompletableZuulFilter<I, O> {
+
+	@Override
+	public Observable<O> applyAsync(I input) {
+		return Observable.create(subscriber -> {
+			final CompletionStage<O> stage;
+			try {
+				stage = applyCompletable(input);
+			} catch (Throwable t) {
+				subscriber.onError(t);
+				return;
+			}
+			stage.whenComplete((output, ex) -> {
+				if (subscriber.isUnsubscribed()) {
+					return;
+				}
+				if (ex != null) {
+					subscriber.onError(unwrap(ex));
+				} else {
+					subscriber.onNext(output);
+					subscriber.onCompleted();
+				}
+			});
+		});
+	}
+
+	@Override
+	public FilterSyncType getSyncType() {
+		return FilterSyncType.ASYNC;
+	}
+
+	/**
+	 * Exceptions thrown by dependent stages are wrapped in a CompletionException, so unwrap them to report the
+	 * original failure.
+	 */
+	public static Throwable unwrap(Throwable ex) {
+		return (ex instanceof CompletionException && ex.getCause() != null) ? ex.getCause() : ex;
+	}
+
+	public static class UnitTest {
+		private static class TestFilter extends BaseCompletableFilter<ZuulMessage, ZuulMessage> {
+			private final CompletableFuture<ZuulMessage> result;
+
+			TestFilter(CompletableFuture<ZuulMessage> result) {
+				this.result = result;
+			}
+
+			@Override
+			public CompletionStage<ZuulMessage> applyCompletable(ZuulMessage input) {
+				return result.thenApply(m -> m);
+			}
+
+			@Override
+			public int filterOrder() {
+				return 0;
+			}
+
+			@Override
+			public FilterType filterType() {
+				return FilterType.INBOUND;
+			}
+
+			@Override
+			public boolean shouldFilter(ZuulMessage msg) {
+				return true;
+			}
+		}
+
+		@Test
+		public void testRxAdapterEmitsResult() {
+			final ZuulMessage msg = mock(ZuulMessage.class);
+			final CompletableFuture<ZuulMessage> result = new CompletableFuture<>();
+			final TestSubscriber<ZuulMessage> subscriber = new TestSubscriber<>();
+
+			new TestFilter(result).applyAsync(msg).subscribe(subscriber);
+			subscriber.assertNoValues();
+
+			result.complete(msg);
+			subscriber.assertValue(msg);
+			subscriber.assertCompleted();
+		}
+
+		@Test
+		public void testRxAdapterUnwrapsFailure() {
+			final IllegalStateException failure = new IllegalStateException("boom");
+			final CompletableFuture<ZuulMessage> result = new CompletableFuture<>();
+			result.completeExceptionally(failure);
+			final TestSubscriber<ZuulMessage> subscriber = new TestSubscriber<>();
+
+			new TestFilter(result).applyAsync(mock(ZuulMessage.class)).subscribe(subscriber);
+			subscriber.assertError(failure);
+			assertEquals(0, subscriber.getOnNextEvents().size());
+		}
+	}
+}
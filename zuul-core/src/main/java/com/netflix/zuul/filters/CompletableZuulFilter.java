@@ -0,0 +1,32 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ *      Licensed under the Apache License, Version 2.0 (the "License");
+ *      you may not use this file except in compliance with the License.
+ *      You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *      Unless required by applicable law or agreed to in writing, software
+ *      distributed under the License is distributed on an "AS IS" BASIS,
+ *      WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *      See the License for the specific language governing permissions and
+ *      limitations under the License.
+ */
+
+package com.netflix.zuul.filters;
+
+import com.netflix.zuul.message.ZuulMessage;
+
+import java.util.concurrent.CompletionStage;
+
+/**
+ * An async filter whose result is a {@link CompletionStage} rather than an Observable.
+ *
+ * The filter runners resume the filter chain inline when the returned stage is already complete and they are on the
+ * channel's event-loop, so filters that usually complete from a cache don't pay for a task queue hop. Otherwise the
+ * chain is resumed on the event-loop once the stage completes.
+ */
+public interface CompletableZuulFilter<I extends ZuulMessage, O extends ZuulMessage> extends ZuulFilter<I, O> {
+	CompletionStage<O> applyCompletable(I input);
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ *      Licensed under the Apache License, Version 2.0 (the "License");
+ *      you may not use this file except in compliance with the License.
+ *      You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *      Unless required by applicable law or agreed to in writing, software
+ *      distributed under the License is distributed on an "AS IS" BASIS,
+ *      WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *      See the License for the specific language governing permissions and
+ *      limitations under the License.
+ */
+
+package com.netflix.zuul.filters.common;
+
+import com.netflix.config.CachedDynamicIntProperty;
+import com.netflix.config.ConfigurationManager;
+import com.netflix.config.DynamicStringProperty;
+import com.netflix.zuul.filters.BaseFilterTest;
+import com.netflix.zuul.filters.http.HttpOutboundSyncFilter;
+import com.netflix.zuul.message.http.HttpRequestInfo;
+import com.netflix.zuul.message.http.HttpResponseMessage;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+
+/**
+ * Advertises an HTTP/3 (QUIC) endpoint to clients with the Alt-Svc header, on HTTPS responses to HTTP/1.1 and HTTP/2
+ * requests.
+ *
+ * Zuul doesn't terminate QUIC itself, so this is for when an HTTP/3 endpoint is provided in front of it, eg. by the
+ * load-balancer. It is off until "zuul.altsvc.h3.port" is set, and any Alt-Svc header from the origin is replaced, as
+ * that would describe the origin's endpoints rather than ours.
+ */
+public class AltSvcResponseFilter extends HttpOutboundSyncFilter {
+	private static final String ALT_SVC = "Alt-Svc";
+
+	private static final CachedDynamicIntProperty H3_PORT = new CachedDynamicIntProperty("zuul.altsvc.h3.port", 0);
+	private static final CachedDynamicIntProperty MAX_AGE = new CachedDynamicIntProperty("zuul.altsvc.maxAgeSec", 86400);
+	private static final DynamicStringProperty PROTOCOL_IDS = new DynamicStringProperty("zuul.altsvc.h3.protocolIds", "h3");
+
+	private volatile CachedValue cachedValue;
+
+	@Override
+	public int filterOrder() {
+		return 10;
+	}
+
+	@Override
+	public boolean shouldFilter(HttpResponseMessage response) {
+		if (H3_PORT.get() <= 0) {
+			return false;
+		}
+		final HttpRequestInfo request = response.getInboundRequest();
+		final String protocol = request.getProtocol();
+		return "https".equalsIgnoreCase(request.getScheme())
+				&& ("HTTP/1.1".equals(protocol) || "HTTP/2".equals(protocol));
+	}
+
+	@Override
+	public HttpResponseMessage apply(HttpResponseMessage response) {
+		response.getHeaders().set(ALT_SVC, getAltSvcValue());
+		return response;
+	}
+
+	protected String getAltSvcValue() {
+		final int port = H3_PORT.get();
+		final int maxAge = MAX_AGE.get();
+		final String protocolIds = PROTOCOL_IDS.get();
+
+		CachedValue cached = cachedValue;
+		if (cached == null || cached.port != port || cached.maxAge != maxAge || !cached.protocolIds.equals(protocolIds)) {
+			final StringBuilder value = new StringBuilder();
+			for (String protocolId : protocolIds.split(",")) {
+				if (protocolId.trim().isEmpty()) {
+					continue;
+				}
+				if (value.length() > 0) {
+					value.append(", ");
+				}
+				value.append(protocolId.trim()).append("=\":").append(port).append("\"; ma=").append(maxAge);
+			}
+			cached = new CachedValue(port, maxAge, protocolIds, value.toString());
+			cachedValue = cached;
+		}
+		return cached.value;
+	}
+
+	private static final class CachedValue {
+		final int port;
+		final int maxAge;
+		final String protocolIds;
+		final String value;
+
+		CachedValue(int port, int maxAge, String protocolIds, String value) {
+			this.port = port;
+			this.maxAge = maxAge;
+			this.protocolIds = protocolIds;
+			this.value = value;
+		}
+	}
+
+	@RunWith(MockitoJUnitRunner.class)
+	public static class TestUnit extends BaseFilterTest {
+		AltSvcResponseFilter filter;
+
+		@Before
+		public void setup() {
+			super.setup();
+			filter = new AltSvcResponseFilter();
+			when(originalRequest.getScheme()).thenReturn("https");
+			when(originalRequest.getProtocol()).thenReturn("HTTP/2");
+		}
+
+		@After
+		public void teardown() {
+			ConfigurationManager.getConfigInstance().clearProperty("zuul.altsvc.h3.port");
+			ConfigurationManager.getConfigInstance().clearProperty("zuul.altsvc.h3.protocolIds");
+		}
+
+		@Test
+		public void testDisabledByDefault() {
+			assertFalse(filter.shouldFilter(response));
+		}
+
+		@Test
+		public void testAdvertisesH3() {
+			ConfigurationManager.getConfigInstance().setProperty("zuul.altsvc.h3.port", 443);
+			responseHeaders.set("Alt-Svc", "h2=\"origin:8443\"");
+
+			assertTrue(filter.shouldFilter(response));
+			filter.apply(response);
+			assertEquals("h3=\":443\"; ma=86400", responseHeaders.getFirst("Alt-Svc"));
+			assertEquals(1, responseHeaders.get("Alt-Svc").size());
+		}
+
+		@Test
+		public void testMultipleProtocolIds() {
+			ConfigurationManager.getConfigInstance().setProperty("zuul.altsvc.h3.port", 8443);
+			ConfigurationManager.getConfigInstance().setProperty("zuul.altsvc.h3.protocolIds", "h3, h3-29");
+			assertEquals("h3=\":8443\"; ma=86400, h3-29=\":8443\"; ma=86400", filter.getAltSvcValue());
+		}
+
+		@Test
+		public void testNotOnPlainHttp() {
+			ConfigurationManager.getConfigInstance().setProperty("zuul.altsvc.h3.port", 443);
+			when(originalRequest.getScheme()).thenReturn("http");
+			assertFalse(filter.shouldFilter(response));
+		}
+	}
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ *      Licensed under the Apache License, Version 2.0 (the "License");
+ *      you may not use this file except in compliance with the License.
+ *      You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *      Unless required by applicable law or agreed to in writing, software
+ *      distributed under the License is distributed on an "AS IS" BASIS,
+ *      WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *      See the License for the specific language governing permissions and
+ *      limitations under the License.
+ */
+
+package com.netflix.zuul.filters.common;
+
+import com.netflix.spectator.api.Counter;
+import com.netflix.spectator.api.Spectator;
+import com.netflix.zuul.context.CommonContextKeys;
+import com.netflix.zuul.context.SessionContext;
+import com.netflix.zuul.filters.http.HttpInboundSyncFilter;
+import com.netflix.zuul.message.http.HttpRequestMessage;
+import com.netflix.zuul.routing.Route;
+import com.netflix.zuul.routing.RouteTableLoader;
+
+/**
+ * Routes requests using the compiled {@link com.netflix.zuul.routing.RouteTable} of a {@link RouteTableLoader},
+ * setting the endpoint, VIP and per-route config of the matching route on the SessionContext.
+ *
+ * Requests that an earlier filter has already set an endpoint for are left alone, as are requests that don't match any
+ * route, so that a later filter can provide a fallback.
+ */
+public class RoutingFilter extends HttpInboundSyncFilter {
+
+	private final RouteTableLoader loader;
+	private final Counter matchedCounter;
+	private final Counter unmatchedCounter;
+
+	public RoutingFilter() {
+		this(RouteTableLoader.getInstance());
+	}
+
+	public RoutingFilter(RouteTableLoader loader) {
+		this.loader = loader;
+		this.matchedCounter = Spectator.globalRegistry().counter("zuul.routing.match", "matched", "true");
+		this.unmatchedCounter = Spectator.globalRegistry().counter("zuul.routing.match", "matched", "false");
+	}
+
+	@Override
+	public int filterOrder() {
+		return 0;
+	}
+
+	@Override
+	public boolean shouldFilter(HttpRequestMessage request) {
+		return request.getContext().getEndpoint() == null && loader.getRouteTable().size() > 0;
+	}
+
+	@Override
+	public HttpRequestMessage apply(HttpRequestMessage request) {
+		final Route route = loader.getRouteTable().match(request);
+		if (route == null) {
+			unmatchedCounter.increment();
+			return request;
+		}
+		matchedCounter.increment();
+
+		final SessionContext context = request.getContext();
+		context.setEndpoint(route.getEndpoint());
+		if (route.getVip() != null) {
+			context.setRouteVIP(route.getVip());
+		}
+		context.set(CommonContextKeys.ROUTE_ID, route.getId());
+		if (!route.getConfig().isEmpty()) {
+			context.set(CommonContextKeys.ROUTE_CONFIG, route.getConfig());
+		}
+		return request;
+	}
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ *      Licensed under the Apache License, Version 2.0 (the "License");
+ *      you may not use this file except in compliance with the License.
+ *      You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *      Unless required by applicable law or agreed to in writing, software
+ *      distributed under the License is distributed on an "AS IS" BASIS,
+ *      WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *      See the License for the specific language governing permissions and
+ *      limitations under the License.
+ */
+
+package com.netflix.zuul.filters.endpoint;
+
+import com.netflix.config.ConfigurationManager;
+import com.netflix.zuul.ExecutionStatus;
+import com.netflix.zuul.filters.BaseFilterTest;
+import com.netflix.zuul.filters.FilterType;
+import com.netflix.zuul.filters.ZuulFilter;
+import com.netflix.zuul.filters.http.HttpSyncEndpoint;
+import com.netflix.zuul.message.http.HttpRequestMessage;
+import com.netflix.zuul.message.http.HttpResponseMessage;
+import com.netflix.zuul.message.http.HttpResponseMessageImpl;
+import com.netflix.zuul.netty.filter.FilterProfiler;
+import com.netflix.zuul.stats.status.StatusCategoryUtils;
+import com.netflix.zuul.stats.status.ZuulStatusCategory;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Serves the {@link FilterProfiler}'s slowest filters as JSON, eg. for an admin route. The number of filters
+ * returned is taken from the "n" query param, defaulting to 20.
+ */
+public class FilterProfileEndpoint extends HttpSyncEndpoint {
+	private static final int DEFAULT_COUNT = 20;
+
+	@Override
+	public HttpResponseMessage apply(HttpRequestMessage request) {
+		int count = DEFAULT_COUNT;
+		final String n = request.getQueryParams().getFirst("n");
+		if (n != null) {
+			try {
+				count = Math.max(0, Integer.parseInt(n));
+			} catch (NumberFormatException e) {
+				// Use the default.
+			}
+		}
+
+		final HttpResponseMessage resp = new HttpResponseMessageImpl(request.getContext(), request, 200);
+		resp.getHeaders().set("Content-Type", "application/json");
+		resp.setBodyAsText(FilterProfiler.toJSON(count));
+
+		// Not going through the ProxyEndpoint, so set this here.
+		StatusCategoryUtils.setStatusCategory(request.getContext(), ZuulStatusCategory.SUCCESS);
+		return resp;
+	}
+
+
+	@RunWith(MockitoJUnitRunner.class)
+	public static class TestUnit extends BaseFilterTest {
+		@After
+		public void teardown() {
+			ConfigurationManager.getConfigInstance().clearProperty("zuul.filters.profiling.enabled");
+			FilterProfiler.reset();
+		}
+
+		@Test
+		public void testServesSlowestFilters() {
+			ConfigurationManager.getConfigInstance().setProperty("zuul.filters.profiling.enabled", true);
+			for (String name : new String[]{"a", "b", "c"}) {
+				final ZuulFilter<?, ?> filter = mock(ZuulFilter.class);
+				when(filter.filterName()).thenReturn(name);
+				when(filter.filterType()).thenReturn(FilterType.INBOUND);
+				FilterProfiler.record(filter, ExecutionStatus.SUCCESS, 1000);
+			}
+			requestParams.set("n", "2");
+
+			final HttpResponseMessage resp = new FilterProfileEndpoint().apply(request);
+			assertEquals(200, resp.getStatus());
+			assertEquals("application/json", resp.getHeaders().getFirst("Content-Type"));
+			assertTrue(resp.getBodyAsText().startsWith("[{\"name\":"));
+			assertEquals(2, resp.getBodyAsText().split("\"name\"").length - 1);
+		}
+	}
+}
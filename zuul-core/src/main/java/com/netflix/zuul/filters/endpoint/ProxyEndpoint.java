@@ -19,17 +19,24 @@ package com.netflix.zuul.filters.endpoint;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Sets;
 import com.netflix.client.ClientException;
+import com.netflix.client.config.DefaultClientConfigImpl;
 import com.netflix.client.config.IClientConfig;
 import com.netflix.client.config.IClientConfigKey;
+import com.netflix.config.CachedDynamicBooleanProperty;
 import com.netflix.config.CachedDynamicIntProperty;
+import com.netflix.config.ConfigurationManager;
 import com.netflix.config.DynamicBooleanProperty;
 import com.netflix.config.DynamicIntegerSetProperty;
 import com.netflix.loadbalancer.Server;
 import com.netflix.loadbalancer.reactive.ExecutionContext;
+import com.netflix.netty.common.ChannelReadPauses;
 import com.netflix.spectator.api.Counter;
+import com.netflix.spectator.api.Timer;
 import com.netflix.zuul.context.CommonContextKeys;
 import com.netflix.zuul.context.Debug;
+import com.netflix.zuul.context.RequestDeadline;
 import com.netflix.zuul.context.SessionContext;
+import com.netflix.zuul.context.SessionContextRecycler;
 import com.netflix.zuul.exception.ErrorType;
 import com.netflix.zuul.exception.OutboundErrorType;
 import com.netflix.zuul.exception.OutboundException;
@@ -53,40 +60,71 @@ import com.netflix.zuul.niws.RequestAttempt;
 import com.netflix.zuul.niws.RequestAttempts;
 import com.netflix.zuul.origins.NettyOrigin;
 import com.netflix.zuul.origins.Origin;
+import com.netflix.zuul.origins.LatencyEstimate;
 import com.netflix.zuul.origins.OriginManager;
+import com.netflix.zuul.origins.OriginRequestQueue;
+import com.netflix.zuul.origins.RetryBudget;
 import com.netflix.zuul.passport.CurrentPassport;
 import com.netflix.zuul.passport.PassportState;
+import com.netflix.zuul.routing.Route;
+import com.netflix.zuul.stats.Timing;
 import com.netflix.zuul.stats.status.StatusCategory;
 import com.netflix.zuul.stats.status.StatusCategoryUtils;
 import com.netflix.zuul.stats.status.ZuulStatusCategory;
+import com.netflix.zuul.tracing.RequestTrace;
+import com.netflix.zuul.tracing.Span;
+import com.netflix.zuul.tracing.Tracing;
 import com.netflix.zuul.util.HttpUtils;
 import com.netflix.zuul.util.ProxyUtils;
 import com.netflix.zuul.util.VipUtils;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
 import io.netty.channel.ChannelPipeline;
+import io.netty.channel.embedded.EmbeddedChannel;
 import io.netty.handler.codec.http.*;
 import io.netty.util.concurrent.Future;
 import io.netty.util.concurrent.GenericFutureListener;
 import io.netty.util.concurrent.Promise;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang3.tuple.Pair;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InOrder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
 import static com.netflix.client.config.CommonClientConfigKey.ReadTimeout;
 import static com.netflix.zuul.netty.server.ClientRequestReceiver.ATTR_ZUUL_RESP;
 import static com.netflix.zuul.passport.PassportState.*;
 import static com.netflix.zuul.stats.status.ZuulStatusCategory.*;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 /**
  * Not thread safe! New instance of this class is created per HTTP/1.1 request proxied to the origin but NOT for each
@@ -106,12 +144,14 @@ public class ProxyEndpoint extends SyncZuulFilterAdapter<HttpRequestMessage, Htt
 	private final NettyOrigin origin;
 	private final RequestAttempts requestAttempts;
 	private final CurrentPassport passport;
+	private final RequestTrace trace;
 	private final NettyRequestAttemptFactory requestAttemptFactory;
 
 	private MethodBinding<?> methodBinding;
 	private HttpResponseMessage zuulResponse;
 	private boolean startedSendingResponseToClient;
 	private Object originalReadTimeout;
+	private RequestDeadline deadline;
 
 	/* Individual retry related state */
 	private volatile PooledConnection originConn;
@@ -121,13 +161,23 @@ public class ProxyEndpoint extends SyncZuulFilterAdapter<HttpRequestMessage, Htt
 	private int attemptNum;
 	private RequestAttempt currentRequestAttempt;
 	private RequestStat requestStat;
+	private Span attemptSpan;
+	private Span connectSpan;
+	private OriginRequestQueue.Waiter queuedWaiter;
+	private boolean admittedFromQueue;
+	private boolean contextReleased;
 	private final byte[] sslRetryBodyCache;
 
+	/* Back-pressure state, see readFromOrigin() and processContentChunk() */
+	private long originReadPausedAt;
+	private long clientReadPausedAt;
+
 	public static final Set<String> IDEMPOTENT_HTTP_METHODS = Sets.newHashSet("GET", "HEAD", "OPTIONS");
 	private static final DynamicIntegerSetProperty RETRIABLE_STATUSES_FOR_IDEMPOTENT_METHODS = new DynamicIntegerSetProperty("zuul.retry.allowed.statuses.idempotent", "500");
 	private static final DynamicBooleanProperty ENABLE_CACHING_SSL_BODIES = new DynamicBooleanProperty("zuul.cache.ssl.bodies", true);
 
 	private static final CachedDynamicIntProperty MAX_OUTBOUND_READ_TIMEOUT = new CachedDynamicIntProperty("zuul.origin.readtimeout.max", 90 * 1000);
+	private static final CachedDynamicBooleanProperty ENABLE_BACKPRESSURE = new CachedDynamicBooleanProperty("zuul.proxy.backpressure.enabled", true);
 
 	private static final Set<HeaderName> REQUEST_HEADERS_TO_REMOVE = Sets.newHashSet(HttpHeaderNames.CONNECTION, HttpHeaderNames.KEEP_ALIVE);
 	private static final Set<HeaderName> RESPONSE_HEADERS_TO_REMOVE = Sets.newHashSet(HttpHeaderNames.CONNECTION, HttpHeaderNames.KEEP_ALIVE);
@@ -137,6 +187,14 @@ public class ProxyEndpoint extends SyncZuulFilterAdapter<HttpRequestMessage, Htt
 	private static final Counter NO_RETRY_RESP_STARTED = SpectatorUtils.newCounter("zuul.no.retry", "resp_started");
 	private final Counter populatedSslRetryBody;
 
+	/* Per-origin deadline counters, by origin name */
+	private static final ConcurrentHashMap<String, Counter> DEADLINE_REJECTED = new ConcurrentHashMap<>();
+	private static final ConcurrentHashMap<String, Counter> DEADLINE_RETRY_SKIPPED = new ConcurrentHashMap<>();
+
+	/* Per-origin back-pressure pause timers, by origin name */
+	private static final ConcurrentHashMap<String, Timer> UPLOAD_PAUSE_TIMERS = new ConcurrentHashMap<>();
+	private static final ConcurrentHashMap<String, Timer> DOWNLOAD_PAUSE_TIMERS = new ConcurrentHashMap<>();
+
 
 	public ProxyEndpoint(final HttpRequestMessage inMesg, final ChannelHandlerContext ctx,
 						 final FilterRunner<HttpResponseMessage, ?> filters, MethodBinding<?> methodBinding) {
@@ -150,9 +208,12 @@ public class ProxyEndpoint extends SyncZuulFilterAdapter<HttpRequestMessage, Htt
 		responseFilters = filters;
 		zuulRequest = transformRequest(inMesg);
 		context = zuulRequest.getContext();
+		// Held until finish(), as the client channel lets go of a recycled context once its request completes.
+		SessionContextRecycler.retain(context);
 		origin = getOrigin(zuulRequest);
 		requestAttempts = RequestAttempts.getFromSessionContext(context);
 		passport = CurrentPassport.fromSessionContext(context);
+		trace = RequestTrace.fromSessionContext(context);
 		chosenServer = new AtomicReference<>();
 		chosenHostAddr = new AtomicReference<>();
 
@@ -189,6 +250,13 @@ public class ProxyEndpoint extends SyncZuulFilterAdapter<HttpRequestMessage, Htt
 
 	//Unlink OriginResponseReceiver from origin channel pipeline so that we no longer receive events
 	private Channel unlinkFromOrigin() {
+		// Never leave the client side of the proxy stalled once we stop relaying between them.
+		if (originReadPausedAt != 0) {
+			recordPause(DOWNLOAD_PAUSE_TIMERS, "download", originReadPausedAt);
+			originReadPausedAt = 0;
+		}
+		resumeClientReads();
+
 		if (originResponseReceiver != null) {
 			originResponseReceiver.unlinkFromClientRequest();
 			originResponseReceiver = null;
@@ -208,13 +276,17 @@ public class ProxyEndpoint extends SyncZuulFilterAdapter<HttpRequestMessage, Htt
 	}
 
 	public void finish(boolean error) {
-		final Channel origCh = unlinkFromOrigin();
-
-		while (concurrentReqCount > 0) {
-			origin.recordProxyRequestEnd();
-			concurrentReqCount--;
+		if (queuedWaiter != null) {
+			if (!queuedWaiter.cancel() && queuedWaiter.isAdmitted()) {
+				// Admitted but not yet started, so the concurrency slot handed to it is still ours to release.
+				concurrentReqCount++;
+			}
+			queuedWaiter = null;
 		}
 
+		final Channel origCh = unlinkFromOrigin();
+		releaseOriginConcurrency();
+
 		if (requestStat != null) {
 			if (error) requestStat.generalError();
 			requestStat.finishIfNotAlready();
@@ -223,6 +295,18 @@ public class ProxyEndpoint extends SyncZuulFilterAdapter<HttpRequestMessage, Htt
 		if ((error) && (origCh != null)) {
 			origCh.close();
 		}
+
+		if (!contextReleased) {
+			contextReleased = true;
+			SessionContextRecycler.release(context);
+		}
+	}
+
+	private void releaseOriginConcurrency() {
+		while (concurrentReqCount > 0) {
+			origin.recordProxyRequestEnd();
+			concurrentReqCount--;
+		}
 	}
 
 	/* Zuul filter methods */
@@ -244,6 +328,15 @@ public class ProxyEndpoint extends SyncZuulFilterAdapter<HttpRequestMessage, Htt
 
 			origin.getProxyTiming(zuulRequest).start();
 
+			deadline = RequestDeadline.establish(zuulRequest, origin.getName());
+			if (!hasTimeForAttempt()) {
+				// Started, so that the origin sees the final error for an execution it knows about.
+				origin.onRequestExecutionStart(zuulRequest);
+				originCounter(DEADLINE_REJECTED, "zuul.origin.deadline.rejected").increment();
+				failWithDeadlineExceeded();
+				return null;
+			}
+
 			// To act the same as Ribbon, we must do this before starting execution (as well as before each attempt).
 			IClientConfig requestConfig = origin.getExecutionContext(zuulRequest).getRequestConfig();
 			originalReadTimeout = requestConfig.getProperty(ReadTimeout, null);
@@ -265,7 +358,13 @@ public class ProxyEndpoint extends SyncZuulFilterAdapter<HttpRequestMessage, Htt
 		if (originConn != null) {
 			//Connected to origin, stream request body without buffering
 			proxiedRequestWithoutBuffering = true;
-			originConn.getChannel().writeAndFlush(chunk);
+			final Channel originCh = originConn.getChannel();
+			originCh.writeAndFlush(chunk);
+			if (ENABLE_BACKPRESSURE.get() && !originCh.isWritable()) {
+				// Origin is not draining the request body as fast as the client is sending it, so stop reading from
+				// the client until originWritabilityChanged() tells us the outbound buffer has drained.
+				pauseClientReads();
+			}
 			return null;
 		}
 
@@ -321,6 +420,82 @@ public class ProxyEndpoint extends SyncZuulFilterAdapter<HttpRequestMessage, Htt
 		}
 	}
 
+	/**
+	 * Called by the OriginResponseReceiver once it has handed a response message or chunk to us, to request the next
+	 * one from the origin. If the client channel can't currently accept more data, then the read is deferred until
+	 * {@link #clientWritabilityChanged(boolean)} reports that it can, so that a slow client doesn't cause origin
+	 * response data to pile up in our outbound buffer.
+	 */
+	public void readFromOrigin(final Channel originCh) {
+		if (ENABLE_BACKPRESSURE.get() && !channelCtx.channel().isWritable()) {
+			if (originReadPausedAt == 0) {
+				originReadPausedAt = System.nanoTime();
+				passport.add(ORIGIN_CH_READ_PAUSED);
+				if (originConn != null) {
+					// We're choosing not to read here, so don't let the origin get blamed for it.
+					originConn.suspendReadTimeoutHandler();
+				}
+			}
+		} else {
+			originCh.read();
+		}
+	}
+
+	/**
+	 * Invoked when the writability of the client channel changes.
+	 */
+	public void clientWritabilityChanged(final boolean writable) {
+		if (writable) {
+			resumeOriginReads();
+		}
+	}
+
+	/**
+	 * Invoked when the writability of the origin channel changes.
+	 */
+	public void originWritabilityChanged(final boolean writable) {
+		if (writable) {
+			resumeClientReads();
+		}
+	}
+
+	private void resumeOriginReads() {
+		if (originReadPausedAt == 0) {
+			return;
+		}
+		recordPause(DOWNLOAD_PAUSE_TIMERS, "download", originReadPausedAt);
+		originReadPausedAt = 0;
+		passport.add(ORIGIN_CH_READ_RESUMED);
+		if (originConn != null) {
+			originConn.resumeReadTimeoutHandler();
+			originConn.getChannel().read();
+		}
+	}
+
+	private void pauseClientReads() {
+		if (clientReadPausedAt == 0) {
+			clientReadPausedAt = System.nanoTime();
+			passport.add(SERVER_CH_READ_PAUSED);
+			ChannelReadPauses.pause(channelCtx.channel(), ChannelReadPauses.Reason.ORIGIN_BACKPRESSURE);
+		}
+	}
+
+	private void resumeClientReads() {
+		if (clientReadPausedAt == 0) {
+			return;
+		}
+		recordPause(UPLOAD_PAUSE_TIMERS, "upload", clientReadPausedAt);
+		clientReadPausedAt = 0;
+		passport.add(SERVER_CH_READ_RESUMED);
+		ChannelReadPauses.resume(channelCtx.channel(), ChannelReadPauses.Reason.ORIGIN_BACKPRESSURE);
+	}
+
+	private void recordPause(ConcurrentHashMap<String, Timer> timers, final String direction, final long pausedAt) {
+		timers.computeIfAbsent(origin.getName(),
+				name -> SpectatorUtils.newTimer("zuul.proxy.backpressure.pause", name, "direction", direction))
+				.record(System.nanoTime() - pausedAt, TimeUnit.NANOSECONDS);
+	}
+
 	private void storeAndLogOriginRequestInfo() {
 		final Map<String, Object> eventProps = context.getEventProperties();
 		Map<Integer, String> attempToIpAddressMap = (Map) eventProps.get(CommonContextKeys.ZUUL_ORIGIN_ATTEMPT_IPADDR_MAP_KEY);
@@ -349,10 +524,22 @@ public class ProxyEndpoint extends SyncZuulFilterAdapter<HttpRequestMessage, Htt
 	private void proxyRequestToOrigin() {
 		Promise<PooledConnection> promise = null;
 		try {
-			attemptNum += 1;
-			requestStat = createRequestStat();
-			origin.preRequestChecks(zuulRequest);
+			if (admittedFromQueue) {
+				// The origin's queue has already handed this attempt a concurrency slot.
+				admittedFromQueue = false;
+			} else {
+				attemptNum += 1;
+				requestStat = createRequestStat();
+				// A retry mustn't hold on to the previous attempt's slot while it waits for another one.
+				releaseOriginConcurrency();
+				if (enqueueIfOriginBusy()) {
+					// Carried on by admittedFromQueue() once the origin has capacity for the request.
+					return;
+				}
+				origin.preRequestChecks(zuulRequest);
+			}
 			concurrentReqCount++;
+			startAttemptSpans();
 
 			// We pass this AtomicReference<Server> here and the origin impl will assign the chosen server to it.
 			promise = origin.connectToOrigin(zuulRequest, channelCtx.channel().eventLoop(), attemptNum, passport, chosenServer, chosenHostAddr);
@@ -365,7 +552,10 @@ public class ProxyEndpoint extends SyncZuulFilterAdapter<HttpRequestMessage, Htt
 			if (promise.isDone()) {
 				operationComplete(promise);
 			} else {
+				// The connect may complete after the request has finished, so hold the context until it does.
+				SessionContextRecycler.retain(context);
 				promise.addListener(this);
+				promise.addListener(future -> SessionContextRecycler.release(context));
 			}
 		} catch (Exception ex) {
 			LOG.error("Error while connecting to origin, UUID {} " + context.getUUID(), ex);
@@ -378,6 +568,56 @@ public class ProxyEndpoint extends SyncZuulFilterAdapter<HttpRequestMessage, Htt
 		}
 	}
 
+	/**
+	 * Waits in the origin's request queue if the origin is at its concurrency limit, for at most the time left
+	 * before the request's deadline.
+	 *
+	 * @return whether the request was queued
+	 */
+	private boolean enqueueIfOriginBusy() {
+		final OriginRequestQueue requestQueue = origin.getRequestQueue();
+		if (requestQueue == null) {
+			return false;
+		}
+		final long timeLeftMs = deadline == null ? Long.MAX_VALUE : deadline.remainingMillis();
+		queuedWaiter = requestQueue.enqueueIfBusy(zuulRequest, channelCtx.channel().eventLoop(), timeLeftMs,
+				this::admittedFromQueue, this::rejectedFromQueue);
+		if (queuedWaiter == null) {
+			return false;
+		}
+		passport.add(PassportState.ORIGIN_QUEUE_START);
+		return true;
+	}
+
+	private void admittedFromQueue() {
+		if (queuedWaiter == null) {
+			// Already finished, which released the slot.
+			return;
+		}
+		queuedWaiter = null;
+		passport.add(PassportState.ORIGIN_QUEUE_END);
+		if (!hasTimeForAttempt()) {
+			// Waited too long in the queue, so give the slot to the next request instead.
+			origin.recordProxyRequestEnd();
+			originCounter(DEADLINE_REJECTED, "zuul.origin.deadline.rejected").increment();
+			storeAndLogOriginRequestInfo();
+			failWithDeadlineExceeded();
+			return;
+		}
+		admittedFromQueue = true;
+		proxyRequestToOrigin();
+	}
+
+	private void rejectedFromQueue(Throwable ex) {
+		if (queuedWaiter == null) {
+			return;
+		}
+		queuedWaiter = null;
+		passport.add(PassportState.ORIGIN_QUEUE_END);
+		storeAndLogOriginRequestInfo();
+		errorFromOrigin(ex);
+	}
+
 	/**
 	 * Override to track your own request stats
 	 *
@@ -389,8 +629,45 @@ public class ProxyEndpoint extends SyncZuulFilterAdapter<HttpRequestMessage, Htt
 		return basicRequestStat;
 	}
 
+	private void startAttemptSpans() {
+		if (trace != null && trace.isRecording()) {
+			attemptSpan = trace.startSpan("origin.attempt", null)
+					.tag("origin", origin.getName())
+					.tag("attempt", attemptNum);
+			connectSpan = trace.startSpan("origin.connect", attemptSpan);
+		}
+	}
+
+	private void finishConnectSpan(Throwable cause) {
+		if (connectSpan != null) {
+			final Server server = chosenServer.get();
+			if (server != null) {
+				attemptSpan.tag("server", server.getHostPort());
+			}
+			if (cause != null) {
+				connectSpan.error(cause);
+			}
+			connectSpan.finish();
+			connectSpan = null;
+		}
+	}
+
+	private void finishAttemptSpan(int status, Throwable ex) {
+		if (attemptSpan != null) {
+			attemptSpan.tag("http.status", status);
+			if (ex != null) {
+				attemptSpan.error(ex);
+			}
+			attemptSpan.finish();
+			attemptSpan = null;
+		}
+	}
+
 	private Integer setReadTimeoutOnContext(IClientConfig requestConfig, int attempt) {
 		Integer readTimeout = getReadTimeout(requestConfig, attempt);
+		if (deadline != null && readTimeout != null) {
+			readTimeout = deadline.capTimeout(readTimeout);
+		}
 		requestConfig.set(ReadTimeout, readTimeout);
 		return readTimeout;
 	}
@@ -459,13 +736,18 @@ public class ProxyEndpoint extends SyncZuulFilterAdapter<HttpRequestMessage, Htt
 
 	private void onOriginConnectSucceeded(PooledConnection conn, int readTimeout) {
 		passport.add(ORIGIN_CONN_ACQUIRE_END);
+		finishConnectSpan(null);
 
 		if (context.isCancelled()) {
 			conn.release();
 		} else {
 			// Set the read timeout (we only do this late because this timeout can be adjusted dynamically by the niws RequestExpiryExecutionListener
 			// that is run as part of onRequestStartWithServer() above.
-			// Add a ReadTimeoutHandler to the channel before we send a request on it.
+			// Add a ReadTimeoutHandler to the channel before we send a request on it, that won't wait past the
+			// request's deadline.
+			if (deadline != null) {
+				readTimeout = deadline.capTimeout(readTimeout);
+			}
 			conn.startReadTimeoutHandler(readTimeout);
 
 			// Also update the RequestAttempt to reflect the readTimeout chosen.
@@ -477,7 +759,11 @@ public class ProxyEndpoint extends SyncZuulFilterAdapter<HttpRequestMessage, Htt
 	}
 
 	protected Integer getReadTimeout(IClientConfig requestConfig, int attemptNum) {
-		Integer originTimeout = parseReadTimeout(origin.getClientConfig().getProperty(IClientConfigKey.Keys.ReadTimeout, null));
+		// A read timeout in the matched route's config takes the place of the origin's.
+		Integer originTimeout = getRouteReadTimeout();
+		if (originTimeout == null) {
+			originTimeout = parseReadTimeout(origin.getClientConfig().getProperty(IClientConfigKey.Keys.ReadTimeout, null));
+		}
 		Integer requestTimeout = parseReadTimeout(requestConfig.getProperty(IClientConfigKey.Keys.ReadTimeout, null));
 
 		if (originTimeout == null && requestTimeout == null) {
@@ -490,6 +776,21 @@ public class ProxyEndpoint extends SyncZuulFilterAdapter<HttpRequestMessage, Htt
 		}
 	}
 
+	@SuppressWarnings("unchecked")
+	private Integer getRouteReadTimeout() {
+		final Map<String, String> routeConfig = (Map<String, String>) context.get(CommonContextKeys.ROUTE_CONFIG);
+		final String timeout = routeConfig == null ? null : routeConfig.get(Route.CONFIG_READ_TIMEOUT);
+		if (timeout == null) {
+			return null;
+		}
+		try {
+			return parseReadTimeout(timeout.trim());
+		} catch (NumberFormatException e) {
+			LOG.warn("Invalid readTimeout in config of route {}: {}", context.get(CommonContextKeys.ROUTE_ID), timeout);
+			return null;
+		}
+	}
+
 	private Integer parseReadTimeout(Object p) {
 		if (p instanceof String && StringUtils.isNotBlank((String) p)) {
 			return Integer.valueOf((String) p);
@@ -502,6 +803,7 @@ public class ProxyEndpoint extends SyncZuulFilterAdapter<HttpRequestMessage, Htt
 
 	private void onOriginConnectFailed(Throwable cause) {
 		passport.add(ORIGIN_CONN_ACQUIRE_FAILED);
+		finishConnectSpan(cause);
 		if (!context.isCancelled()) {
 			errorFromOrigin(cause);
 		}
@@ -534,6 +836,10 @@ public class ProxyEndpoint extends SyncZuulFilterAdapter<HttpRequestMessage, Htt
 		context.set(POOLED_ORIGIN_CONNECTION_KEY, conn);
 
 		preWriteToOrigin(chosenServer.get(), context);
+		Tracing.propagate(context, zuulRequest.getHeaders(), attemptSpan);
+		if (deadline != null) {
+			deadline.propagate(zuulRequest.getHeaders());
+		}
 
 		final ChannelPipeline pipeline = ch.pipeline();
 		originResponseReceiver = getOriginResponseReceiver();
@@ -578,6 +884,54 @@ public class ProxyEndpoint extends SyncZuulFilterAdapter<HttpRequestMessage, Htt
 				isRemoteZuulRetriesBelowRetryLimit(maxAllowedRetries);
 	}
 
+	/**
+	 * Whether the request has enough time left before its deadline for the origin to respond.
+	 */
+	protected boolean hasTimeForAttempt() {
+		if (deadline == null) {
+			return true;
+		}
+		final LatencyEstimate latencyEstimate = origin.getLatencyEstimate();
+		return deadline.hasTimeFor(latencyEstimate == null ? 0 : latencyEstimate.getExpectedLatencyMs());
+	}
+
+	protected boolean isRetryWithinDeadline() {
+		if (hasTimeForAttempt()) {
+			return true;
+		}
+		originCounter(DEADLINE_RETRY_SKIPPED, "zuul.origin.deadline.retry.skipped").increment();
+		LOG.debug("Not enough time left before the request deadline to retry. origin = {}, attemptNum = {}, UUID {}",
+				origin.getName(), attemptNum, context.getUUID());
+		return false;
+	}
+
+	private Counter originCounter(ConcurrentHashMap<String, Counter> counters, String metricName) {
+		return counters.computeIfAbsent(origin.getName(), name -> SpectatorUtils.newCounter(metricName, name));
+	}
+
+	private void failWithDeadlineExceeded() {
+		final OutboundException ex = new OutboundException(OutboundErrorType.DEADLINE_EXCEEDED, requestAttempts);
+		context.setError(ex);
+		context.setShouldSendErrorResponse(true);
+		StatusCategoryUtils.storeStatusCategoryIfNotAlreadyFailure(context, OutboundErrorType.DEADLINE_EXCEEDED.getStatusCategory());
+		origin.getProxyTiming(zuulRequest).end();
+		origin.recordFinalError(zuulRequest, ex);
+		handleError(ex);
+	}
+
+	/**
+	 * Checked last before retrying, as it withdraws the retry from the origin's retry budget.
+	 */
+	protected boolean isRetryWithinBudget() {
+		final RetryBudget retryBudget = origin.getRetryBudget();
+		if (retryBudget == null || retryBudget.tryAcquireRetry()) {
+			return true;
+		}
+		LOG.debug("Retry budget exhausted, not retrying. origin = {}, attemptNum = {}, UUID {}",
+				origin.getName(), attemptNum, context.getUUID());
+		return false;
+	}
+
 	public void errorFromOrigin(final Throwable ex) {
 		try {
 			// Flag that there was an origin server related error for the loadbalancer to choose
@@ -587,6 +941,7 @@ public class ProxyEndpoint extends SyncZuulFilterAdapter<HttpRequestMessage, Htt
 				// so don't need to be here.
 				originConn.getServerStats().incrementSuccessiveConnectionFailureCount();
 				originConn.getServerStats().addToFailureCount();
+				originConn.recordFailure();
 
 				originConn.flagShouldClose();
 			}
@@ -626,6 +981,7 @@ public class ProxyEndpoint extends SyncZuulFilterAdapter<HttpRequestMessage, Htt
 			if (currentRequestAttempt != null) {
 				currentRequestAttempt.complete(-1, requestStat.duration(), ex);
 			}
+			finishAttemptSpan(-1, ex);
 
 			postErrorProcessing(ex, zuulCtx, err, chosenServer.get(), attemptNum);
 
@@ -634,7 +990,7 @@ public class ProxyEndpoint extends SyncZuulFilterAdapter<HttpRequestMessage, Htt
 				origin.onRequestExceptionWithServer(zuulRequest, chosenServer.get(), attemptNum, niwsEx);
 			}
 
-			if ((isBelowRetryLimit()) && (isRetryable(err))) {
+			if ((isBelowRetryLimit()) && (isRetryable(err)) && (isRetryWithinDeadline()) && (isRetryWithinBudget())) {
 				//retry request with different origin
 				passport.add(ORIGIN_RETRY_START);
 				proxyRequestToOrigin();
@@ -756,9 +1112,16 @@ public class ProxyEndpoint extends SyncZuulFilterAdapter<HttpRequestMessage, Htt
 			requestStat.finishIfNotAlready();
 			duration = requestStat.duration();
 		}
+		if (originConn != null) {
+			originConn.recordResponse(respStatus, duration);
+		}
 		if (currentRequestAttempt != null) {
 			currentRequestAttempt.complete(respStatus, duration, null);
 		}
+		if (origin.getLatencyEstimate() != null) {
+			origin.getLatencyEstimate().record(duration);
+		}
+		finishAttemptSpan(respStatus, null);
 		// separate nfstatus for 404 so that we can notify origins
 		final StatusCategory statusCategory = respStatus == 404 ? SUCCESS_NOT_FOUND : SUCCESS;
 		zuulResponse = buildZuulHttpResponse(originResponse, statusCategory, context.getError());
@@ -855,10 +1218,14 @@ public class ProxyEndpoint extends SyncZuulFilterAdapter<HttpRequestMessage, Htt
 			requestStat.finishIfNotAlready();
 			duration = requestStat.duration();
 		}
+		if (originConn != null) {
+			originConn.recordResponse(respStatus, duration);
+		}
 
 		if (currentRequestAttempt != null) {
 			currentRequestAttempt.complete(respStatus, duration, obe);
 		}
+		finishAttemptSpan(respStatus, obe);
 
 		// If throttled by origin server, then we also need to invoke onRequestExceptionWithServer().
 		if (statusCategory == FAILURE_ORIGIN_THROTTLED) {
@@ -866,7 +1233,8 @@ public class ProxyEndpoint extends SyncZuulFilterAdapter<HttpRequestMessage, Htt
 					new ClientException(ClientException.ErrorType.SERVER_THROTTLED));
 		}
 
-		if ((isBelowRetryLimit()) && (isRetryable5xxResponse(zuulRequest, originResponse))) {
+		if ((isBelowRetryLimit()) && (isRetryable5xxResponse(zuulRequest, originResponse)) && (isRetryWithinDeadline())
+				&& (isRetryWithinBudget())) {
 			LOG.debug("Retrying: status={}, attemptNum={}, maxRetries={}, startedSendingResponseToClient={}, hasCompleteBody={}, method={}",
 					respStatus, attemptNum, origin.getMaxRetriesForRequest(context),
 					startedSendingResponseToClient, zuulRequest.hasCompleteBody(), zuulRequest.getMethod());
@@ -1077,4 +1445,191 @@ public class ProxyEndpoint extends SyncZuulFilterAdapter<HttpRequestMessage, Htt
 		// override for metrics or custom processing
 	}
 
+
+	public static class UnitTest {
+		private final AtomicInteger concurrent = new AtomicInteger();
+		private EmbeddedChannel channel;
+		private NettyOrigin origin;
+
+		@Before
+		public void setup() {
+			ConfigurationManager.getConfigInstance().setProperty("zuul.origin.test.queue.enabled", true);
+			channel = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+
+			origin = mock(NettyOrigin.class);
+			when(origin.getName()).thenReturn("test");
+			when(origin.getVip()).thenReturn("test");
+			when(origin.getClientConfig()).thenReturn(new DefaultClientConfigImpl());
+			when(origin.getProxyTiming(any(HttpRequestMessage.class))).thenReturn(mock(Timing.class));
+			final ExecutionContext<?> executionContext = mock(ExecutionContext.class);
+			when(executionContext.getRequestConfig()).thenReturn(new DefaultClientConfigImpl());
+			doReturn(executionContext).when(origin).getExecutionContext(any(HttpRequestMessage.class));
+			// Busy once more than one request is in flight.
+			when(origin.getRequestQueue()).thenReturn(new OriginRequestQueue("test", concurrent, () -> 1));
+			doAnswer(invocation -> concurrent.decrementAndGet()).when(origin).recordProxyRequestEnd();
+		}
+
+		@After
+		public void teardown() {
+			ConfigurationManager.getConfigInstance().clearProperty("zuul.origin.test.queue.enabled");
+			channel.finishAndReleaseAll();
+		}
+
+		private ProxyEndpoint newEndpoint() {
+			final SessionContext context = new SessionContext();
+			context.put(CommonContextKeys.PASSPORT, CurrentPassport.create());
+			final HttpRequestMessage request = new HttpRequestMessageImpl(context, "HTTP/1.1", "GET", "/",
+					new HttpQueryParams(), new Headers(), "127.0.0.1", "http", 80, "localhost");
+			final NettyOrigin testOrigin = origin;
+			return new ProxyEndpoint(request, channel.pipeline().firstContext(), null, MethodBinding.NO_OP_BINDING) {
+				@Override
+				protected NettyOrigin getOrigin(HttpRequestMessage request) {
+					return testOrigin;
+				}
+			};
+		}
+
+		@Test
+		public void testFinishReleasesSlotAdmittedFromQueue() {
+			concurrent.set(2);
+			final ProxyEndpoint endpoint = newEndpoint();
+			endpoint.apply(endpoint.getZuulRequest());
+			assertEquals(1, origin.getRequestQueue().size());
+
+			// Another request completes and hands its slot over, but this one finishes before it gets to use it.
+			concurrent.decrementAndGet();
+			origin.getRequestQueue().dispatch();
+			assertEquals(2, concurrent.get());
+			endpoint.finish(true);
+			channel.runPendingTasks();
+
+			assertEquals(1, concurrent.get());
+			verify(origin, never()).connectToOrigin(any(), any(), anyInt(), any(), any(), any());
+		}
+
+		@Test
+		public void testDeadlineRejectionStartsExecution() {
+			final LatencyEstimate latencyEstimate = mock(LatencyEstimate.class);
+			when(latencyEstimate.getExpectedLatencyMs()).thenReturn(120_000L);
+			when(origin.getLatencyEstimate()).thenReturn(latencyEstimate);
+			final ProxyEndpoint endpoint = newEndpoint();
+			RequestDeadline.setOnSessionContext(endpoint.getZuulRequest().getContext(),
+					RequestDeadline.withTimeout(System.nanoTime(), 60_000));
+
+			endpoint.apply(endpoint.getZuulRequest());
+
+			final InOrder inOrder = inOrder(origin);
+			inOrder.verify(origin).onRequestExecutionStart(any(HttpRequestMessage.class));
+			inOrder.verify(origin).recordFinalError(any(HttpRequestMessage.class), any(OutboundException.class));
+			verify(origin, never()).connectToOrigin(any(), any(), anyInt(), any(), any(), any());
+		}
+
+		@Test
+		public void testDeadlineRecheckedWhenAdmittedFromQueue() {
+			final LatencyEstimate latencyEstimate = mock(LatencyEstimate.class);
+			when(origin.getLatencyEstimate()).thenReturn(latencyEstimate);
+			concurrent.set(2);
+			final ProxyEndpoint endpoint = newEndpoint();
+			RequestDeadline.setOnSessionContext(endpoint.getZuulRequest().getContext(),
+					RequestDeadline.withTimeout(System.nanoTime(), 60_000));
+			endpoint.apply(endpoint.getZuulRequest());
+			assertEquals(1, origin.getRequestQueue().size());
+
+			// Not enough time left for the origin by the time the request gets a slot.
+			when(latencyEstimate.getExpectedLatencyMs()).thenReturn(120_000L);
+			concurrent.decrementAndGet();
+			origin.getRequestQueue().dispatch();
+			channel.runPendingTasks();
+
+			assertEquals(1, concurrent.get());
+			verify(origin).recordFinalError(any(HttpRequestMessage.class), any(OutboundException.class));
+			verify(origin, never()).connectToOrigin(any(), any(), anyInt(), any(), any(), any());
+
+			endpoint.finish(true);
+			assertEquals(1, concurrent.get());
+		}
+
+		private static PooledConnection connect(ProxyEndpoint endpoint) {
+			final Channel originCh = mock(Channel.class);
+			when(originCh.isWritable()).thenReturn(true);
+			final PooledConnection conn = mock(PooledConnection.class);
+			when(conn.getChannel()).thenReturn(originCh);
+			endpoint.originConn = conn;
+			return conn;
+		}
+
+		@Test
+		public void testSlowClientPausesOriginReads() {
+			final ProxyEndpoint endpoint = newEndpoint();
+			final PooledConnection conn = connect(endpoint);
+			final Channel originCh = conn.getChannel();
+
+			channel.unsafe().outboundBuffer().setUserDefinedWritability(1, false);
+			endpoint.readFromOrigin(originCh);
+			verify(originCh, never()).read();
+			verify(conn).suspendReadTimeoutHandler();
+
+			channel.unsafe().outboundBuffer().setUserDefinedWritability(1, true);
+			endpoint.clientWritabilityChanged(true);
+			verify(conn).resumeReadTimeoutHandler();
+			verify(originCh).read();
+		}
+
+		@Test
+		public void testSlowOriginPausesClientReads() {
+			final ProxyEndpoint endpoint = newEndpoint();
+			final PooledConnection conn = connect(endpoint);
+			final Channel originCh = conn.getChannel();
+
+			endpoint.processContentChunk(endpoint.getZuulRequest(), new DefaultHttpContent(Unpooled.EMPTY_BUFFER));
+			assertTrue(channel.config().isAutoRead());
+
+			when(originCh.isWritable()).thenReturn(false);
+			endpoint.processContentChunk(endpoint.getZuulRequest(), new DefaultHttpContent(Unpooled.EMPTY_BUFFER));
+			assertFalse(channel.config().isAutoRead());
+
+			endpoint.originWritabilityChanged(true);
+			assertTrue(channel.config().isAutoRead());
+		}
+
+		@Test
+		public void testFinishResumesClientReads() {
+			final ProxyEndpoint endpoint = newEndpoint();
+			final PooledConnection conn = connect(endpoint);
+			when(conn.getChannel().isWritable()).thenReturn(false);
+
+			endpoint.processContentChunk(endpoint.getZuulRequest(), new DefaultHttpContent(Unpooled.EMPTY_BUFFER));
+			assertFalse(channel.config().isAutoRead());
+
+			endpoint.finish(false);
+			assertTrue(channel.config().isAutoRead());
+		}
+
+		@Test
+		public void testReadTimeoutFromRouteConfig() {
+			origin.getClientConfig().set(IClientConfigKey.Keys.ReadTimeout, 5000);
+			final ProxyEndpoint endpoint = newEndpoint();
+			assertEquals(Integer.valueOf(5000), endpoint.getReadTimeout(new DefaultClientConfigImpl(), 1));
+
+			endpoint.getZuulRequest().getContext().set(CommonContextKeys.ROUTE_CONFIG,
+					Collections.singletonMap(Route.CONFIG_READ_TIMEOUT, "2000"));
+			assertEquals(Integer.valueOf(2000), endpoint.getReadTimeout(new DefaultClientConfigImpl(), 1));
+
+			endpoint.getZuulRequest().getContext().set(CommonContextKeys.ROUTE_CONFIG,
+					Collections.singletonMap(Route.CONFIG_READ_TIMEOUT, "soon"));
+			assertEquals(Integer.valueOf(5000), endpoint.getReadTimeout(new DefaultClientConfigImpl(), 1));
+		}
+
+		@Test
+		public void testFinishRemovesQueuedRequest() {
+			concurrent.set(2);
+			final ProxyEndpoint endpoint = newEndpoint();
+			endpoint.apply(endpoint.getZuulRequest());
+
+			endpoint.finish(true);
+			assertEquals(0, origin.getRequestQueue().size());
+			assertEquals(2, concurrent.get());
+			verify(origin, never()).recordProxyRequestEnd();
+		}
+	}
 }
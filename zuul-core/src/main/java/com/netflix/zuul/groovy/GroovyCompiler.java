@@ -16,6 +16,10 @@
 
 package com.netflix.zuul.groovy;
 
+import com.netflix.config.DynamicBooleanProperty;
+import com.netflix.config.DynamicStringProperty;
+import com.netflix.spectator.api.Counter;
+import com.netflix.spectator.api.Spectator;
 import com.netflix.zuul.DynamicCodeCompiler;
 import groovy.lang.GroovyClassLoader;
 import groovy.lang.GroovyObject;
@@ -27,6 +31,15 @@ import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Properties;
 
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.spy;
@@ -42,6 +55,25 @@ public class GroovyCompiler implements DynamicCodeCompiler {
 
 	private static final Logger LOG = LoggerFactory.getLogger(GroovyCompiler.class);
 
+	private static final DynamicBooleanProperty PRECOMPILED_ENABLED =
+			new DynamicBooleanProperty("zuul.filters.precompiled.enabled", true);
+	private static final DynamicStringProperty PRECOMPILED_PATH =
+			new DynamicStringProperty("zuul.filters.precompiled.path", "");
+
+	private static final Counter precompiledCounter = Spectator.globalRegistry().counter("zuul.filters.groovy.load", "source", "precompiled");
+	private static final Counter runtimeCounter = Spectator.globalRegistry().counter("zuul.filters.groovy.load", "source", "runtime");
+
+	/* Loads all the precompiled filters, so that they share one class loader rather than one per filter */
+	private volatile ClassLoader precompiledClassLoader;
+	private volatile Properties precompiledIndex;
+
+	public GroovyCompiler() {
+	}
+
+	GroovyCompiler(ClassLoader precompiledClassLoader) {
+		this.precompiledClassLoader = precompiledClassLoader;
+	}
+
 	/**
 	 * Compiles Groovy code and returns the Class of the compiles code.
 	 *
@@ -71,11 +103,89 @@ public class GroovyCompiler implements DynamicCodeCompiler {
 	 * @throws java.io.IOException
 	 */
 	public Class compile(File file) throws IOException {
+		Class<?> precompiled = loadPrecompiled(file);
+		if (precompiled != null) {
+			precompiledCounter.increment();
+			return precompiled;
+		}
+
 		GroovyClassLoader loader = getGroovyClassLoader();
 		Class groovyClass = loader.parseClass(file);
+		runtimeCounter.increment();
 		return groovyClass;
 	}
 
+	/**
+	 * Returns the class compiled at build time by the {@link GroovyFilterPrecompiler} from the same source as the file,
+	 * or null if there isn't one, eg. because the file has been changed since.
+	 */
+	Class<?> loadPrecompiled(File file) throws IOException {
+		if (!PRECOMPILED_ENABLED.get()) {
+			return null;
+		}
+		ClassLoader classLoader = getPrecompiledClassLoader();
+		String className = getPrecompiledIndex(classLoader).getProperty(
+				GroovyFilterPrecompiler.sourceHash(Files.readAllBytes(file.toPath())));
+		if (className == null) {
+			return null;
+		}
+		try {
+			return Class.forName(className, true, classLoader);
+		} catch (ClassNotFoundException | LinkageError e) {
+			LOG.warn("Precompiled filter class could not be loaded, so compiling instead. class = " + className, e);
+			return null;
+		}
+	}
+
+	private ClassLoader getPrecompiledClassLoader() {
+		if (precompiledClassLoader == null) {
+			synchronized (this) {
+				if (precompiledClassLoader == null) {
+					precompiledClassLoader = newPrecompiledClassLoader(PRECOMPILED_PATH.get());
+				}
+			}
+		}
+		return precompiledClassLoader;
+	}
+
+	/**
+	 * A class loader over the comma-separated jars or directories of precompiled filters, or just this class's own
+	 * loader if they are already on the classpath.
+	 */
+	static ClassLoader newPrecompiledClassLoader(String path) {
+		List<URL> urls = new ArrayList<>();
+		for (String entry : path.split(",")) {
+			if (!entry.trim().isEmpty()) {
+				try {
+					urls.add(new File(entry.trim()).toURI().toURL());
+				} catch (MalformedURLException e) {
+					throw new IllegalArgumentException("Invalid precompiled filters path: " + entry, e);
+				}
+			}
+		}
+		ClassLoader parent = GroovyCompiler.class.getClassLoader();
+		return urls.isEmpty() ? parent : new URLClassLoader(urls.toArray(new URL[0]), parent);
+	}
+
+	private Properties getPrecompiledIndex(ClassLoader classLoader) throws IOException {
+		if (precompiledIndex == null) {
+			synchronized (this) {
+				if (precompiledIndex == null) {
+					Properties index = new Properties();
+					Enumeration<URL> resources = classLoader.getResources(GroovyFilterPrecompiler.INDEX_RESOURCE_NAME);
+					while (resources.hasMoreElements()) {
+						try (InputStream in = resources.nextElement().openStream()) {
+							index.load(in);
+						}
+					}
+					LOG.info("Found " + index.size() + " precompiled filters");
+					precompiledIndex = index;
+				}
+			}
+		}
+		return precompiledIndex;
+	}
+
 	@RunWith(MockitoJUnitRunner.class)
 	public static class UnitTest {
 		@Test
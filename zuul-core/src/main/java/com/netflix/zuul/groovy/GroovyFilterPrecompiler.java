@@ -0,0 +1,264 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ *      Licensed under the Apache License, Version 2.0 (the "License");
+ *      you may not use this file except in compliance with the License.
+ *      You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *      Unless required by applicable law or agreed to in writing, software
+ *      distributed under the License is distributed on an "AS IS" BASIS,
+ *      WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *      See the License for the specific language governing permissions and
+ *      limitations under the License.
+ */
+
+package com.netflix.zuul.groovy;
+
+import groovy.lang.GroovyClassLoader;
+import groovy.transform.CompileStatic;
+import org.codehaus.groovy.ast.AnnotationNode;
+import org.codehaus.groovy.ast.ClassHelper;
+import org.codehaus.groovy.ast.ClassNode;
+import org.codehaus.groovy.classgen.GeneratorContext;
+import org.codehaus.groovy.control.CompilePhase;
+import org.codehaus.groovy.control.CompilationFailedException;
+import org.codehaus.groovy.control.CompilationUnit;
+import org.codehaus.groovy.control.CompilerConfiguration;
+import org.codehaus.groovy.control.Phases;
+import org.codehaus.groovy.control.SourceUnit;
+import org.codehaus.groovy.control.customizers.CompilationCustomizer;
+import org.codehaus.groovy.tools.GroovyClass;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compiles directories of Groovy filters to class files at build time, so that they can be loaded from a jar at
+ * startup rather than compiled there.
+ *
+ * Each filter is first compiled with @CompileStatic, and if it doesn't pass static type checking then compiled
+ * dynamically as it would have been at runtime. An index of the SHA-256 of each source file to the class compiled from
+ * it is written alongside the classes, which the {@link GroovyCompiler} uses to find the precompiled class for a filter
+ * file. A filter file that has changed since the build no longer matches the index and so is compiled at runtime.
+ *
+ * Run with the output directory followed by the filter directories, eg. from a Gradle JavaExec task.
+ */
+public class GroovyFilterPrecompiler {
+	private static final Logger LOG = LoggerFactory.getLogger(GroovyFilterPrecompiler.class);
+
+	public static final String INDEX_RESOURCE_NAME = "META-INF/zuul/precompiled-filters.properties";
+
+	private final File outputDir;
+	private final ClassLoader classLoader;
+
+	public GroovyFilterPrecompiler(File outputDir, ClassLoader classLoader) {
+		this.outputDir = outputDir;
+		this.classLoader = classLoader;
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 2) {
+			System.err.println("Usage: GroovyFilterPrecompiler <output dir> <filter dir>...");
+			System.exit(1);
+		}
+		final List<File> filterDirs = new ArrayList<>();
+		for (int i = 1; i < args.length; i++) {
+			filterDirs.add(new File(args[i]));
+		}
+		new GroovyFilterPrecompiler(new File(args[0]), GroovyFilterPrecompiler.class.getClassLoader()).precompile(filterDirs);
+	}
+
+	/**
+	 * Compiles all the filters in the directories and their sub-directories, and writes the index.
+	 *
+	 * @return the index of source hash to class name
+	 */
+	public Properties precompile(List<File> filterDirs) throws IOException {
+		final Properties index = new Properties();
+		int staticCount = 0;
+		for (File source : findSources(filterDirs)) {
+			final byte[] code = Files.readAllBytes(source.toPath());
+			List<GroovyClass> classes;
+			try {
+				classes = compile(source, code, true);
+				staticCount++;
+			} catch (CompilationFailedException e) {
+				LOG.info("Filter doesn't pass static type checking, so compiling dynamically. file = " + source);
+				classes = compile(source, code, false);
+			}
+			for (GroovyClass clazz : classes) {
+				writeClass(clazz);
+			}
+			index.setProperty(sourceHash(code), primaryClassName(source, classes));
+		}
+		writeIndex(index);
+
+		LOG.info("Precompiled " + index.size() + " filters, " + staticCount + " of them statically, into " + outputDir);
+		return index;
+	}
+
+	/**
+	 * Hex SHA-256 of a filter's source, as used for the keys of the index.
+	 */
+	public static String sourceHash(byte[] code) {
+		try {
+			final byte[] digest = MessageDigest.getInstance("SHA-256").digest(code);
+			final StringBuilder sb = new StringBuilder(digest.length * 2);
+			for (byte b : digest) {
+				sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+			}
+			return sb.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private List<File> findSources(List<File> filterDirs) throws IOException {
+		final GroovyFileFilter groovyFileFilter = new GroovyFileFilter();
+		final List<File> sources = new ArrayList<>();
+		for (File dir : filterDirs) {
+			try (Stream<Path> paths = Files.walk(dir.toPath())) {
+				paths.map(Path::toFile)
+						.filter(file -> file.isFile() && groovyFileFilter.accept(file.getParentFile(), file.getName()))
+						.sorted(Comparator.comparing(File::getPath))
+						.forEach(sources::add);
+			}
+		}
+		return sources;
+	}
+
+	@SuppressWarnings("unchecked")
+	private List<GroovyClass> compile(File source, byte[] code, boolean compileStatic) {
+		final CompilerConfiguration config = new CompilerConfiguration();
+		if (compileStatic) {
+			config.addCompilationCustomizers(new CompileStaticCustomizer());
+		}
+		final CompilationUnit unit = new CompilationUnit(config, null, new GroovyClassLoader(classLoader, config));
+		unit.addSource(source.getName(), new String(code, Charset.forName(config.getSourceEncoding())));
+		unit.compile(Phases.CLASS_GENERATION);
+		return unit.getClasses();
+	}
+
+	private static String primaryClassName(File source, List<GroovyClass> classes) {
+		final String simpleName = source.getName().substring(0, source.getName().length() - ".groovy".length());
+		for (GroovyClass clazz : classes) {
+			final String name = clazz.getName();
+			if (name.equals(simpleName) || name.endsWith("." + simpleName)) {
+				return name;
+			}
+		}
+		return classes.get(0).getName();
+	}
+
+	private void writeClass(GroovyClass clazz) throws IOException {
+		final File file = new File(outputDir, clazz.getName().replace('.', File.separatorChar) + ".class");
+		file.getParentFile().mkdirs();
+		Files.write(file.toPath(), clazz.getBytes());
+	}
+
+	private void writeIndex(Properties index) throws IOException {
+		final File file = new File(outputDir, INDEX_RESOURCE_NAME);
+		file.getParentFile().mkdirs();
+		try (OutputStream out = Files.newOutputStream(file.toPath())) {
+			index.store(out, "Generated by " + GroovyFilterPrecompiler.class.getSimpleName());
+		}
+	}
+
+	/**
+	 * Annotates each class with @CompileStatic before the AST transforms are collected, as if it was in the source.
+	 */
+	private static class CompileStaticCustomizer extends CompilationCustomizer {
+		CompileStaticCustomizer() {
+			super(CompilePhase.CONVERSION);
+		}
+
+		@Override
+		public void call(SourceUnit source, GeneratorContext context, ClassNode classNode) {
+			classNode.addAnnotation(new AnnotationNode(ClassHelper.make(CompileStatic.class)));
+		}
+	}
+
+
+	public static class UnitTest {
+		private File sourceDir;
+		private File outputDir;
+
+		@Before
+		public void setup() throws IOException {
+			sourceDir = Files.createTempDirectory("filtersrc").toFile();
+			outputDir = Files.createTempDirectory("filterout").toFile();
+		}
+
+		@After
+		public void teardown() throws IOException {
+			for (File dir : Arrays.asList(sourceDir, outputDir)) {
+				try (Stream<Path> paths = Files.walk(dir.toPath())) {
+					paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+				}
+			}
+		}
+
+		private File writeSource(String name, String code) throws IOException {
+			final File file = new File(sourceDir, name);
+			Files.write(file.toPath(), code.getBytes("UTF-8"));
+			return file;
+		}
+
+		@Test
+		public void testPrecompileStaticAndDynamic() throws Exception {
+			final File typed = writeSource("Typed.groovy", "package test.filters\nclass Typed { String hello() { 'hello' } }");
+			final File untyped = writeSource("Untyped.groovy", "package test.filters\nclass Untyped { def hello() { def m = [:]; m.foo.bar() } }");
+			writeSource("README.txt", "not a filter");
+
+			final Properties index = new GroovyFilterPrecompiler(outputDir, getClass().getClassLoader())
+					.precompile(Arrays.asList(sourceDir));
+
+			assertEquals(2, index.size());
+			assertEquals("test.filters.Typed", index.getProperty(sourceHash(Files.readAllBytes(typed.toPath()))));
+			assertEquals("test.filters.Untyped", index.getProperty(sourceHash(Files.readAllBytes(untyped.toPath()))));
+			assertTrue(new File(outputDir, "test/filters/Typed.class").isFile());
+			assertTrue(new File(outputDir, "test/filters/Untyped.class").isFile());
+			assertTrue(new File(outputDir, INDEX_RESOURCE_NAME).isFile());
+		}
+
+		@Test
+		public void testGroovyCompilerLoadsPrecompiledUnlessChanged() throws Exception {
+			final File typed = writeSource("Typed.groovy", "package test.filters\nclass Typed { String hello() { 'hello' } }");
+			new GroovyFilterPrecompiler(outputDir, getClass().getClassLoader()).precompile(Arrays.asList(sourceDir));
+
+			final GroovyCompiler compiler = new GroovyCompiler(GroovyCompiler.newPrecompiledClassLoader(outputDir.getPath()));
+			final Class<?> precompiled = compiler.compile(typed);
+			assertNotNull(precompiled);
+			assertTrue(precompiled == compiler.compile(typed));
+
+			Files.write(typed.toPath(), "package test.filters\nclass Typed { String hello() { 'changed' } }".getBytes("UTF-8"));
+			final Class<?> recompiled = compiler.compile(typed);
+			assertTrue(precompiled != recompiled);
+			assertNull(compiler.loadPrecompiled(typed));
+		}
+	}
+}
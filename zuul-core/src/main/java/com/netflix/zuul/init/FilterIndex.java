@@ -0,0 +1,168 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ *      Licensed under the Apache License, Version 2.0 (the "License");
+ *      you may not use this file except in compliance with the License.
+ *      You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *      Unless required by applicable law or agreed to in writing, software
+ *      distributed under the License is distributed on an "AS IS" BASIS,
+ *      WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *      See the License for the specific language governing permissions and
+ *      limitations under the License.
+ */
+
+package com.netflix.zuul.init;
+
+import com.google.common.reflect.ClassPath;
+import com.netflix.zuul.filters.ZuulFilter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.reflect.Modifier;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Reads the index of filter classes written into each jar at compile time by the {@link FilterIndexProcessor}, so
+ * that the filters in a package can be found without scanning the classpath or loading every class in it.
+ *
+ * The index is one fully qualified class name per line. Blank lines and lines starting with '#' are ignored.
+ */
+public final class FilterIndex {
+	public static final String RESOURCE_NAME = "META-INF/zuul/filters.idx";
+
+	private FilterIndex() {
+	}
+
+	/**
+	 * Names of all indexed filter classes visible to the classloader, in classpath order, or an empty list if no
+	 * jar on the classpath has an index.
+	 */
+	public static List<String> load(ClassLoader classLoader) {
+		final Set<String> classNames = new LinkedHashSet<>();
+		try {
+			final Enumeration<URL> resources = classLoader.getResources(RESOURCE_NAME);
+			while (resources.hasMoreElements()) {
+				classNames.addAll(read(resources.nextElement()));
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("Error attempting to read filter index!", e);
+		}
+		return new ArrayList<>(classNames);
+	}
+
+	/**
+	 * Indexed classes directly in the package, ie. not in its sub-packages, which is what the classpath scan matched.
+	 */
+	public static List<String> classesInPackage(List<String> classNames, String packageName) {
+		return classNames.stream()
+				.filter(className -> {
+					final int lastDot = className.lastIndexOf('.');
+					return lastDot > 0 && className.substring(0, lastDot).equals(packageName);
+				})
+				.collect(Collectors.toList());
+	}
+
+	private static List<String> read(URL resource) throws IOException {
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(resource.openStream(), StandardCharsets.UTF_8))) {
+			return reader.lines()
+					.map(String::trim)
+					.filter(line -> !line.isEmpty() && !line.startsWith("#"))
+					.collect(Collectors.toList());
+		}
+	}
+
+
+	public static class UnitTest {
+		private File dir;
+
+		@Before
+		public void setup() throws IOException {
+			dir = Files.createTempDirectory("filterindex").toFile();
+		}
+
+		@After
+		public void teardown() {
+			new File(dir, RESOURCE_NAME).delete();
+			new File(dir, "META-INF/zuul").delete();
+			new File(dir, "META-INF").delete();
+			dir.delete();
+		}
+
+		@Test
+		public void testLoadAndFilterByPackage() throws IOException {
+			final File index = new File(dir, RESOURCE_NAME);
+			index.getParentFile().mkdirs();
+			Files.write(index.toPath(), Arrays.asList(
+					"# generated",
+					"com.example.filters.InboundOne",
+					"",
+					"com.example.filters.sub.InboundTwo",
+					"com.example.other.OutboundOne"), StandardCharsets.UTF_8);
+
+			final List<String> classNames;
+			try (URLClassLoader classLoader = new URLClassLoader(new URL[]{dir.toURI().toURL()}, null)) {
+				classNames = load(classLoader);
+			}
+			assertEquals(3, classNames.size());
+			assertEquals(Collections.singletonList("com.example.filters.InboundOne"),
+					classesInPackage(classNames, "com.example.filters"));
+		}
+
+		/**
+		 * zuul-core isn't compiled with the processor, so its index is kept by hand. As indexed packages are no longer
+		 * scanned, check that it lists exactly the filters a scan of those packages would find.
+		 */
+		@Test
+		public void testZuulCoreIndexMatchesScan() throws IOException {
+			final ClassLoader classLoader = FilterIndex.class.getClassLoader();
+			final Set<String> indexed = new TreeSet<>(load(classLoader));
+			final Set<String> packageNames = indexed.stream()
+					.map(className -> className.substring(0, className.lastIndexOf('.')))
+					.collect(Collectors.toSet());
+			assertFalse(indexed.isEmpty());
+
+			final Set<String> scanned = new TreeSet<>();
+			final ClassPath classPath = ClassPath.from(classLoader);
+			for (String packageName : packageNames) {
+				for (ClassPath.ClassInfo classInfo : classPath.getTopLevelClasses(packageName)) {
+					final Class<?> clazz = classInfo.load();
+					if (ZuulFilter.class.isAssignableFrom(clazz) && !Modifier.isAbstract(clazz.getModifiers())) {
+						scanned.add(clazz.getName());
+					}
+				}
+			}
+			assertEquals(scanned, indexed);
+		}
+
+		@Test
+		public void testNoIndex() throws IOException {
+			try (URLClassLoader classLoader = new URLClassLoader(new URL[]{dir.toURI().toURL()}, null)) {
+				assertTrue(load(classLoader).isEmpty());
+			}
+		}
+	}
+}
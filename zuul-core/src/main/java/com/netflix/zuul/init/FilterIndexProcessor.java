@@ -0,0 +1,166 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ *      Licensed under the Apache License, Version 2.0 (the "License");
+ *      you may not use this file except in compliance with the License.
+ *      You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *      Unless required by applicable law or agreed to in writing, software
+ *      distributed under the License is distributed on an "AS IS" BASIS,
+ *      WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *      See the License for the specific language governing permissions and
+ *      limitations under the License.
+ */
+
+package com.netflix.zuul.init;
+
+import com.netflix.zuul.filters.IndexedFilter;
+import org.junit.Assume;
+import org.junit.Test;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Annotation processor that writes the {@link FilterIndex} for the filters being compiled that are annotated with
+ * {@link IndexedFilter}, into the class output so that it ends up in the jar.
+ *
+ * The processor isn't registered as a service, so that builds depending on zuul-core don't run it unless they ask to,
+ * eg. with javac's -processor com.netflix.zuul.init.FilterIndexProcessor. Only the class names are indexed, as a
+ * filter's type and order come from its instance methods and so aren't known until it has been constructed.
+ */
+@SupportedAnnotationTypes("com.netflix.zuul.filters.IndexedFilter")
+public class FilterIndexProcessor extends AbstractProcessor {
+	private static final String ZUUL_FILTER_CLASS = "com.netflix.zuul.filters.ZuulFilter";
+
+	private final Set<String> filterClassNames = new TreeSet<>();
+
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+		final TypeElement filterElement = processingEnv.getElementUtils().getTypeElement(ZUUL_FILTER_CLASS);
+		final TypeMirror filterType = processingEnv.getTypeUtils().erasure(filterElement.asType());
+
+		for (Element element : roundEnv.getElementsAnnotatedWith(IndexedFilter.class)) {
+			if (element.getKind() == ElementKind.CLASS
+					&& element.getEnclosingElement().getKind() == ElementKind.PACKAGE
+					&& !element.getModifiers().contains(Modifier.ABSTRACT)
+					&& processingEnv.getTypeUtils().isAssignable(processingEnv.getTypeUtils().erasure(element.asType()), filterType)) {
+				filterClassNames.add(processingEnv.getElementUtils().getBinaryName((TypeElement) element).toString());
+			} else {
+				processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+						"@IndexedFilter is only for concrete, top-level ZuulFilter classes", element);
+			}
+		}
+
+		if (roundEnv.processingOver() && !filterClassNames.isEmpty()) {
+			writeIndex();
+		}
+		return false;
+	}
+
+	private void writeIndex() {
+		try {
+			final FileObject index = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", FilterIndex.RESOURCE_NAME);
+			try (Writer writer = index.openWriter()) {
+				for (String className : filterClassNames) {
+					writer.write(className);
+					writer.write('\n');
+				}
+			}
+		} catch (IOException e) {
+			// Without an index the filter packages are scanned at startup instead, so don't fail the build over it.
+			processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING,
+					"Unable to write zuul filter index: " + e.getMessage());
+		}
+	}
+
+
+	public static class UnitTest {
+		private static JavaFileObject source(String className, String code) {
+			return new SimpleJavaFileObject(URI.create("string:///" + className.replace('.', '/') + ".java"), JavaFileObject.Kind.SOURCE) {
+				@Override
+				public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+					return code;
+				}
+			};
+		}
+
+		private static boolean compile(File outDir, JavaFileObject... sources) {
+			final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+			Assume.assumeTrue(compiler != null);
+
+			final List<String> options = Arrays.asList(
+					"-proc:only", "-processor", FilterIndexProcessor.class.getName(),
+					"-classpath", System.getProperty("java.class.path"),
+					"-d", outDir.getAbsolutePath());
+			return compiler.getTask(null, null, null, options, null, Arrays.asList(sources)).call();
+		}
+
+		@Test
+		public void testIndexesAnnotatedFilters() throws IOException {
+			final File outDir = Files.createTempDirectory("filterindexprocessor").toFile();
+			assertTrue(compile(outDir,
+					source("test.filters.MyFilter",
+							"package test.filters; @com.netflix.zuul.filters.IndexedFilter "
+									+ "public class MyFilter extends com.netflix.zuul.filters.common.AltSvcResponseFilter {}"),
+					source("test.filters.NotIndexedFilter",
+							"package test.filters; public class NotIndexedFilter extends com.netflix.zuul.filters.common.AltSvcResponseFilter {}"),
+					source("test.filters.NotAFilter",
+							"package test.filters; public class NotAFilter {}")));
+
+			final File index = new File(outDir, FilterIndex.RESOURCE_NAME);
+			assertEquals(Arrays.asList("test.filters.MyFilter"), Files.readAllLines(index.toPath(), StandardCharsets.UTF_8));
+
+			index.delete();
+			index.getParentFile().delete();
+			index.getParentFile().getParentFile().delete();
+			outDir.delete();
+		}
+
+		@Test
+		public void testRejectsAbstractFilter() throws IOException {
+			final File outDir = Files.createTempDirectory("filterindexprocessor").toFile();
+			assertFalse(compile(outDir,
+					source("test.filters.MyBaseFilter",
+							"package test.filters; @com.netflix.zuul.filters.IndexedFilter "
+									+ "public abstract class MyBaseFilter extends com.netflix.zuul.filters.common.AltSvcResponseFilter {}")));
+			assertFalse(new File(outDir, FilterIndex.RESOURCE_NAME).exists());
+			outDir.delete();
+		}
+	}
+}
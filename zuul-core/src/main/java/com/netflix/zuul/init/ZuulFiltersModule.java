@@ -16,6 +16,8 @@
 package com.netflix.zuul.init;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
 import com.google.common.reflect.ClassPath;
 import com.google.inject.AbstractModule;
 import com.google.inject.Provides;
@@ -34,6 +36,8 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.function.Predicate;
 import java.util.stream.Stream;
 
@@ -83,22 +87,21 @@ public class ZuulFiltersModule extends AbstractModule {
 				.map(String::trim)
 				.filter(blank.negate());
 
-		// Find filter classes in specified packages.
+		// Find filter classes in specified packages, from the index written at build time if there is one, as
+		// otherwise every class in the packages has to be loaded to check whether it's a filter.
 		String[] packageNamesStrArray = config.getStringArray("zuul.filters.packages");
-		ClassPath cp;
-		try {
-			cp = ClassPath.from(this.getClass().getClassLoader());
-		} catch (IOException e) {
-			throw new RuntimeException("Error attempting to read classpath to find filters!", e);
-		}
+		List<String> filterIndex = config.getBoolean("zuul.filters.index.enabled", true)
+				? FilterIndex.load(this.getClass().getClassLoader())
+				: Collections.emptyList();
+		Supplier<ClassPath> classPath = Suppliers.memoize(this::readClassPath);
 		Stream<String> packageStream = Arrays.stream(packageNamesStrArray)
 				.map(String::trim)
 				.filter(blank.negate())
-				.flatMap(packageName -> cp.getTopLevelClasses(packageName).stream())
-				.map(ClassPath.ClassInfo::load)
-				.filter(ZuulFilter.class::isAssignableFrom)
-				.map(Class::getCanonicalName);
-
+				.flatMap(packageName -> {
+					// Not every jar has an index, so packages without any indexed filters are still scanned.
+					List<String> indexed = FilterIndex.classesInPackage(filterIndex, packageName);
+					return indexed.isEmpty() ? scanPackageForFilters(classPath.get(), packageName) : indexed.stream();
+				});
 
 		String[] filterClassNames = Stream.concat(classNameStream, packageStream).toArray(String[]::new);
 		if (filterClassNames.length != 0) {
@@ -111,6 +114,21 @@ public class ZuulFiltersModule extends AbstractModule {
 		return filterClassNames;
 	}
 
+	private ClassPath readClassPath() {
+		try {
+			return ClassPath.from(this.getClass().getClassLoader());
+		} catch (IOException e) {
+			throw new RuntimeException("Error attempting to read classpath to find filters!", e);
+		}
+	}
+
+	private Stream<String> scanPackageForFilters(ClassPath cp, String packageName) {
+		return cp.getTopLevelClasses(packageName).stream()
+				.map(ClassPath.ClassInfo::load)
+				.filter(ZuulFilter.class::isAssignableFrom)
+				.map(Class::getCanonicalName);
+	}
+
 	@VisibleForTesting
 	String[] findFilterLocations(AbstractConfiguration config) {
 		String[] locations = config.getStringArray("zuul.filters.locations");
@@ -25,11 +25,13 @@ import org.junit.runner.RunWith;
 import org.mockito.runners.MockitoJUnitRunner;
 
 import java.io.UnsupportedEncodingException;
-import java.net.URLDecoder;
 import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 
-import static junit.framework.Assert.assertEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 
 /**
  * User: michaels
@@ -37,67 +39,143 @@ import static junit.framework.Assert.assertEquals;
  * Time: 10:58 AM
  */
 public class HttpQueryParams implements Cloneable {
-	private final ListMultimap<String, String> delegate;
+	/* Parsed from the raw query on first access. Volatile, as immutable copies may be shared between threads. */
+	private volatile ListMultimap<String, String> delegate;
 	private final boolean immutable;
 	private final HashMap<String, Boolean> trailingEquals;
 
+	/* The query string these params were parsed from, or null once the params have been modified. */
+	private String rawQuery;
+
 	public HttpQueryParams() {
 		delegate = ArrayListMultimap.create();
 		immutable = false;
 		trailingEquals = new HashMap<>();
 	}
 
-	private HttpQueryParams(ListMultimap<String, String> delegate) {
+	private HttpQueryParams(ListMultimap<String, String> delegate, Map<String, Boolean> trailingEquals, String rawQuery) {
+		this.immutable = ImmutableListMultimap.class.isAssignableFrom(delegate.getClass());
+		this.trailingEquals = new HashMap<>(trailingEquals);
+		this.rawQuery = rawQuery;
 		this.delegate = delegate;
-		immutable = ImmutableListMultimap.class.isAssignableFrom(delegate.getClass());
+	}
+
+	private HttpQueryParams(String rawQuery) {
+		this.rawQuery = rawQuery;
+		this.immutable = false;
 		trailingEquals = new HashMap<>();
 	}
 
+	/**
+	 * Creates params for the given raw query string. The query string isn't decoded until the params are first
+	 * accessed, and is forwarded as-is by {@link #toRawOrEncodedString()} if they are never modified.
+	 */
 	public static HttpQueryParams parse(String queryString) {
-		HttpQueryParams queryParams = new HttpQueryParams();
 		if (queryString == null) {
-			return queryParams;
+			return new HttpQueryParams();
 		}
+		return new HttpQueryParams(queryString);
+	}
 
-		StringTokenizer st = new StringTokenizer(queryString, "&");
-		int i;
-		while (st.hasMoreTokens()) {
-			String s = st.nextToken();
-			i = s.indexOf("=");
-			// key-value query param
-			if (i > 0) {
-				String name = s.substring(0, i);
-				String value = s.substring(i + 1);
-
-				try {
-					name = URLDecoder.decode(name, "UTF-8");
-					value = URLDecoder.decode(value, "UTF-8");
-				} catch (Exception e) {
-					// do nothing
-				}
+	private ListMultimap<String, String> params() {
+		ListMultimap<String, String> params = delegate;
+		if (params == null) {
+			params = ArrayListMultimap.create();
+			decodeQuery(rawQuery, params, trailingEquals);
+			delegate = params;
+		}
+		return params;
+	}
 
-				queryParams.add(name, value);
+	private ListMultimap<String, String> paramsForUpdate() {
+		final ListMultimap<String, String> params = params();
+		rawQuery = null;
+		return params;
+	}
 
-				// respect trailing equals for key-only params
-				if (s.endsWith("=") && StringUtils.isBlank(value)) {
-					queryParams.setTrailingEquals(name, true);
-				}
+	/**
+	 * Single pass over the query string, splitting on '&' and the first '=' of each param and decoding each name and
+	 * value in place. Behaves the same as decoding each name and value with URLDecoder, including keeping the raw text
+	 * of a name or value that isn't validly encoded.
+	 */
+	private static void decodeQuery(String query, ListMultimap<String, String> params, Map<String, Boolean> trailingEquals) {
+		final int len = query.length();
+		int start = 0;
+		while (start < len) {
+			int end = query.indexOf('&', start);
+			if (end == -1) {
+				end = len;
 			}
-			// key only
-			else if (s.length() > 0) {
-				String name = s;
-
-				try {
-					name = URLDecoder.decode(name, "UTF-8");
-				} catch (Exception e) {
-					// do nothing
+			if (end > start) {
+				int eq = start;
+				while (eq < end && query.charAt(eq) != '=') {
+					eq++;
+				}
+				// key-value query param
+				if (eq > start && eq < end) {
+					final String name = decodeComponent(query, start, eq);
+					final String value = decodeComponent(query, eq + 1, end);
+					params.put(name, value);
+
+					// respect trailing equals for key-only params
+					if (eq == end - 1) {
+						trailingEquals.put(name, true);
+					}
 				}
+				// key only
+				else {
+					params.put(decodeComponent(query, start, end), "");
+				}
+			}
+			start = end + 1;
+		}
+	}
 
-				queryParams.add(name, "");
+	static String decodeComponent(String s, int start, int end) {
+		int i = start;
+		while (i < end) {
+			final char c = s.charAt(i);
+			if (c == '%' || c == '+') {
+				break;
 			}
+			i++;
+		}
+		if (i == end) {
+			return s.substring(start, end);
 		}
 
-		return queryParams;
+		final StringBuilder sb = new StringBuilder(end - start);
+		sb.append(s, start, i);
+		byte[] bytes = null;
+		while (i < end) {
+			final char c = s.charAt(i);
+			if (c == '+') {
+				sb.append(' ');
+				i++;
+			} else if (c == '%') {
+				if (bytes == null) {
+					bytes = new byte[(end - i) / 3];
+				}
+				int n = 0;
+				while (i < end && s.charAt(i) == '%') {
+					if (i + 2 >= end) {
+						return s.substring(start, end);
+					}
+					final int hi = Character.digit(s.charAt(i + 1), 16);
+					final int lo = Character.digit(s.charAt(i + 2), 16);
+					if (hi < 0 || lo < 0) {
+						return s.substring(start, end);
+					}
+					bytes[n++] = (byte) ((hi << 4) + lo);
+					i += 3;
+				}
+				sb.append(new String(bytes, 0, n, StandardCharsets.UTF_8));
+			} else {
+				sb.append(c);
+				i++;
+			}
+		}
+		return sb.toString();
 	}
 
 	/**
@@ -108,7 +186,7 @@ public class HttpQueryParams implements Cloneable {
 	 * @return
 	 */
 	public String getFirst(String name) {
-		List<String> values = delegate.get(name);
+		List<String> values = params().get(name);
 		if (values != null) {
 			if (values.size() > 0) {
 				return values.get(0);
@@ -118,15 +196,22 @@ public class HttpQueryParams implements Cloneable {
 	}
 
 	public List<String> get(String name) {
-		return delegate.get(name.toLowerCase());
+		return params().get(name.toLowerCase());
 	}
 
 	public boolean contains(String name) {
-		return delegate.containsKey(name);
+		return params().containsKey(name);
 	}
 
 	public boolean contains(String name, String value) {
-		return delegate.containsEntry(name, value);
+		return params().containsEntry(name, value);
+	}
+
+	public boolean isEmpty() {
+		if (delegate == null && rawQuery.isEmpty()) {
+			return true;
+		}
+		return params().isEmpty();
 	}
 
 	/**
@@ -136,28 +221,45 @@ public class HttpQueryParams implements Cloneable {
 	 * @param value
 	 */
 	public void set(String name, String value) {
-		delegate.removeAll(name);
-		delegate.put(name, value);
+		final ListMultimap<String, String> params = paramsForUpdate();
+		params.removeAll(name);
+		params.put(name, value);
 	}
 
 	public void add(String name, String value) {
-		delegate.put(name, value);
+		paramsForUpdate().put(name, value);
 	}
 
 	public void removeAll(String name) {
-		delegate.removeAll(name);
+		paramsForUpdate().removeAll(name);
 	}
 
 	public void clear() {
-		delegate.clear();
+		paramsForUpdate().clear();
 	}
 
 	public Collection<Map.Entry<String, String>> entries() {
-		return delegate.entries();
+		return params().entries();
 	}
 
 	public Set<String> keySet() {
-		return delegate.keySet();
+		return params().keySet();
+	}
+
+	/**
+	 * The query string these params were parsed from, or null if they weren't parsed from one or have been modified
+	 * since.
+	 */
+	public String getRawQuery() {
+		return rawQuery;
+	}
+
+	/**
+	 * The query string to send on to an origin. This is the original raw query if no filter has modified the params,
+	 * which avoids decoding and re-encoding it, and otherwise the re-encoded params.
+	 */
+	public String toRawOrEncodedString() {
+		return (rawQuery != null) ? rawQuery : toEncodedString();
 	}
 
 	public String toEncodedString() {
@@ -204,15 +306,16 @@ public class HttpQueryParams implements Cloneable {
 		return sb.toString();
 	}
 
+	/**
+	 * Copies are parsed up front, rather than on first access, so that they're complete when handed to another thread.
+	 */
 	@Override
 	protected HttpQueryParams clone() {
-		HttpQueryParams copy = new HttpQueryParams();
-		copy.delegate.putAll(this.delegate);
-		return copy;
+		return new HttpQueryParams(ArrayListMultimap.create(params()), trailingEquals, rawQuery);
 	}
 
 	public HttpQueryParams immutableCopy() {
-		return new HttpQueryParams(ImmutableListMultimap.copyOf(delegate));
+		return new HttpQueryParams(ImmutableListMultimap.copyOf(params()), trailingEquals, rawQuery);
 	}
 
 	public boolean isImmutable() {
@@ -220,16 +323,18 @@ public class HttpQueryParams implements Cloneable {
 	}
 
 	public boolean isTrailingEquals(String key) {
+		params();
 		return trailingEquals.getOrDefault(key, false);
 	}
 
 	public void setTrailingEquals(String key, boolean trailingEquals) {
+		paramsForUpdate();
 		this.trailingEquals.put(key, trailingEquals);
 	}
 
 	@Override
 	public int hashCode() {
-		return delegate.hashCode();
+		return params().hashCode();
 	}
 
 	@Override
@@ -240,7 +345,7 @@ public class HttpQueryParams implements Cloneable {
 			return false;
 
 		HttpQueryParams hqp2 = (HttpQueryParams) obj;
-		return Iterables.elementsEqual(delegate.entries(), hqp2.delegate.entries());
+		return Iterables.elementsEqual(entries(), hqp2.entries());
 	}
 
 
@@ -355,5 +460,48 @@ public class HttpQueryParams implements Cloneable {
 			assertEquals("k1=&k2=v2&k3&k4=v4", actual.toEncodedString());
 		}
 
+		@Test
+		public void testDecodeMatchesUrlDecoder() throws Exception {
+			String[] components = {"plain", "a+b", "%E2%82%AC10", "k%271", "100%", "%zz", "%4", "a%20b%2Bc", "%C3%A9t%C3%A9"};
+			for (String component : components) {
+				String expected;
+				try {
+					expected = java.net.URLDecoder.decode(component, "UTF-8");
+				} catch (IllegalArgumentException e) {
+					expected = component;
+				}
+				assertEquals(expected, decodeComponent(component, 0, component.length()));
+			}
+		}
+
+		@Test
+		public void testForwardsRawQueryUntilModified() {
+			HttpQueryParams qp = HttpQueryParams.parse("b=2&a=%7e&&c");
+			assertEquals("b=2&a=%7e&&c", qp.toRawOrEncodedString());
+			assertEquals("~", qp.getFirst("a"));
+			assertEquals("b=2&a=%7e&&c", qp.toRawOrEncodedString());
+
+			qp.add("d", "4");
+			assertNull(qp.getRawQuery());
+			assertEquals(qp.toEncodedString(), qp.toRawOrEncodedString());
+			assertEquals("%7E", qp.toEncodedString().replaceAll(".*a=([^&]*).*", "$1"));
+		}
+
+		@Test
+		public void testCopiesAreParsed() {
+			HttpQueryParams qp = HttpQueryParams.parse("k1=v1&k2=").immutableCopy();
+			assertNotNull(qp.delegate);
+			assertEquals("k1=v1&k2=", qp.getRawQuery());
+			assertEquals("k1=v1&k2=", qp.toEncodedString());
+			assertEquals("v1", qp.getFirst("k1"));
+			assertEquals(true, qp.isImmutable());
+
+			HttpQueryParams clone = HttpQueryParams.parse("k1=v1").clone();
+			assertNotNull(clone.delegate);
+			assertEquals(false, clone.isImmutable());
+			clone.add("k2", "v2");
+			assertEquals("k1=v1&k2=v2", clone.toRawOrEncodedString());
+		}
+
 	}
 }
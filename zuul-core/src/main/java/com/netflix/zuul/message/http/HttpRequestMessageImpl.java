@@ -282,8 +282,8 @@ public class HttpRequestMessageImpl implements HttpRequestMessage {
 	}
 
 	protected String generatePathAndQuery() {
-		if (queryParams != null && queryParams.entries().size() > 0) {
-			return getPath() + "?" + queryParams.toEncodedString();
+		if (queryParams != null && !queryParams.isEmpty()) {
+			return getPath() + "?" + queryParams.toRawOrEncodedString();
 		} else {
 			return getPath();
 		}
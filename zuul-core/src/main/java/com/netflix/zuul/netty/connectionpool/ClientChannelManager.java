@@ -55,4 +55,12 @@ public interface ClientChannelManager {
 	int getConnsInUse();
 
 	ConnectionPoolConfig getConfig();
+
+	/* Record a response from the given server, used to eject outlier servers from selection. */
+	default void recordServerResponse(Server server, int statusCode, long durationMs) {
+	}
+
+	/* Record a reset, read timeout or other non-response failure from the given server. */
+	default void recordServerFailure(Server server) {
+	}
 }
@@ -32,6 +32,16 @@ public interface ConnectionPoolConfig {
 
 	int perServerWaterline();
 
+	/* Number of idle connections to pre-open per server per event-loop, 0 to disable pre-warming */
+	default int getPrewarmConnsPerServer() {
+		return 0;
+	}
+
+	/* Number of milliseconds between top-ups of pre-warmed connection pools, 0 to only warm on startup and discovery changes */
+	default int getPrewarmMaintenanceInterval() {
+		return 0;
+	}
+
 	/* Origin client TCP configuration options */
 	int getConnectTimeout();
 
@@ -52,6 +62,11 @@ public interface ConnectionPoolConfig {
 
 	boolean getNettyAutoRead();
 
+	/* Max number of flushes coalesced before an explicit flush of the origin channel, 0 to disable */
+	default int getFlushConsolidationMaxFlushes() {
+		return 0;
+	}
+
 	boolean isSecure();
 
 	boolean useIPAddrForServer();
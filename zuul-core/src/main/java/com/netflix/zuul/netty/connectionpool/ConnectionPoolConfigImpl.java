@@ -36,12 +36,15 @@ public class ConnectionPoolConfigImpl implements ConnectionPoolConfig {
 
 	private final CachedDynamicIntProperty MAX_REQUESTS_PER_CONNECTION;
 	private final CachedDynamicIntProperty PER_SERVER_WATERLINE;
+	private final CachedDynamicIntProperty PREWARM_CONNS_PER_SERVER;
+	private final CachedDynamicIntProperty PREWARM_MAINTENANCE_INTERVAL;
 
 	private final CachedDynamicBooleanProperty SOCKET_KEEP_ALIVE;
 	private final CachedDynamicBooleanProperty TCP_NO_DELAY;
 	private final CachedDynamicIntProperty WRITE_BUFFER_HIGH_WATER_MARK;
 	private final CachedDynamicIntProperty WRITE_BUFFER_LOW_WATER_MARK;
 	private final CachedDynamicBooleanProperty AUTO_READ;
+	private final CachedDynamicIntProperty FLUSH_CONSOLIDATION_MAX_FLUSHES;
 
 
 	public ConnectionPoolConfigImpl(final String originName, IClientConfig clientConfig) {
@@ -52,12 +55,15 @@ public class ConnectionPoolConfigImpl implements ConnectionPoolConfig {
 
 		// NOTE that the each eventloop has it's own connection pool per host, and this is applied per event-loop.
 		this.PER_SERVER_WATERLINE = new CachedDynamicIntProperty(originName + ".netty.client.perServerWaterline", 4);
+		this.PREWARM_CONNS_PER_SERVER = new CachedDynamicIntProperty(originName + ".netty.client.prewarm.connsPerServer", 0);
+		this.PREWARM_MAINTENANCE_INTERVAL = new CachedDynamicIntProperty(originName + ".netty.client.prewarm.maintenanceIntervalMs", 10000);
 
 		this.SOCKET_KEEP_ALIVE = new CachedDynamicBooleanProperty(originName + ".netty.client.TcpKeepAlive", false);
 		this.TCP_NO_DELAY = new CachedDynamicBooleanProperty(originName + ".netty.client.TcpNoDelay", false);
 		this.WRITE_BUFFER_HIGH_WATER_MARK = new CachedDynamicIntProperty(originName + ".netty.client.WriteBufferHighWaterMark", 32 * 1024);
 		this.WRITE_BUFFER_LOW_WATER_MARK = new CachedDynamicIntProperty(originName + ".netty.client.WriteBufferLowWaterMark", 8 * 1024);
 		this.AUTO_READ = new CachedDynamicBooleanProperty(originName + ".netty.client.AutoRead", false);
+		this.FLUSH_CONSOLIDATION_MAX_FLUSHES = new CachedDynamicIntProperty(originName + ".netty.client.FlushConsolidationMaxFlushes", 0);
 	}
 
 	@Override
@@ -85,6 +91,16 @@ public class ConnectionPoolConfigImpl implements ConnectionPoolConfig {
 		return PER_SERVER_WATERLINE.get();
 	}
 
+	@Override
+	public int getPrewarmConnsPerServer() {
+		return PREWARM_CONNS_PER_SERVER.get();
+	}
+
+	@Override
+	public int getPrewarmMaintenanceInterval() {
+		return PREWARM_MAINTENANCE_INTERVAL.get();
+	}
+
 	@Override
 	public int getIdleTimeout() {
 		return clientConfig.getPropertyAsInteger(IClientConfigKey.Keys.ConnIdleEvictTimeMilliSeconds, DEFAULT_IDLE_TIMEOUT);
@@ -125,6 +141,11 @@ public class ConnectionPoolConfigImpl implements ConnectionPoolConfig {
 		return AUTO_READ.get();
 	}
 
+	@Override
+	public int getFlushConsolidationMaxFlushes() {
+		return FLUSH_CONSOLIDATION_MAX_FLUSHES.get();
+	}
+
 	@Override
 	public boolean isSecure() {
 		return clientConfig.getPropertyAsBoolean(IClientConfigKey.Keys.IsSecure, false);
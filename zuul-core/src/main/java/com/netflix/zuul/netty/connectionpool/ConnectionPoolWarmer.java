@@ -0,0 +1,322 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ *      Licensed under the Apache License, Version 2.0 (the "License");
+ *      you may not use this file except in compliance with the License.
+ *      You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *      Unless required by applicable law or agreed to in writing, software
+ *      distributed under the License is distributed on an "AS IS" BASIS,
+ *      WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *      See the License for the specific language governing permissions and
+ *      limitations under the License.
+ */
+
+package com.netflix.zuul.netty.connectionpool;
+
+import com.netflix.loadbalancer.Server;
+import com.netflix.zuul.netty.SpectatorUtils;
+import com.netflix.zuul.passport.CurrentPassport;
+import com.netflix.loadbalancer.DynamicServerListLoadBalancer;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.EventLoop;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.Promise;
+import io.netty.util.concurrent.ScheduledFuture;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Opens idle connections to an origin's servers ahead of traffic, so that the first requests after startup or after a
+ * new server appears in discovery don't pay for the connect and TLS handshake.
+ *
+ * Connections are opened on each of the server's worker event-loops, as origin connections are pooled per event-loop,
+ * and then released into the pool. A periodic task tops the pools back up to the configured idle level.
+ *
+ * Connections still being opened count towards the idle level, so that a slow connect isn't duplicated by the next
+ * top-up. Pre-warmed connections are kept out of the server's request stats until they are used for a request.
+ */
+public class ConnectionPoolWarmer {
+	private static final Logger LOG = LoggerFactory.getLogger(ConnectionPoolWarmer.class);
+
+	private static final Set<ConnectionPoolWarmer> WARMERS = ConcurrentHashMap.newKeySet();
+
+	private final DefaultClientChannelManager channelManager;
+	private final ConnectionPoolConfig config;
+	private final EventLoopGroup eventLoopGroup;
+
+	/* Connects in progress per server, for each event-loop. Each inner map is only used from its own event-loop. */
+	private final ConcurrentHashMap<EventLoop, Map<Server, Integer>> pendingConnects = new ConcurrentHashMap<>();
+
+	/* Connections of the initial warm-up still being opened, for health checks to wait on */
+	private final AtomicInteger warmupPending;
+	private final AtomicInteger warmupRequested = new AtomicInteger();
+	private final AtomicInteger warmupCompleted = new AtomicInteger();
+
+	private volatile boolean started = false;
+	private volatile boolean shutdown = false;
+	private volatile ScheduledFuture<?> maintenanceTask;
+
+	public ConnectionPoolWarmer(DefaultClientChannelManager channelManager, ConnectionPoolConfig config,
+								EventLoopGroup eventLoopGroup) {
+		this.channelManager = channelManager;
+		this.config = config;
+		this.eventLoopGroup = eventLoopGroup;
+		this.warmupPending = SpectatorUtils.newGauge(DefaultClientChannelManager.METRIC_PREFIX + "_warmupPending",
+				config.getOriginName(), new AtomicInteger());
+	}
+
+	/**
+	 * Whether any origin is still opening the connections of its initial warm-up.
+	 */
+	public static boolean isAnyWarmingUp() {
+		for (ConnectionPoolWarmer warmer : WARMERS) {
+			if (warmer.isWarmingUp()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Fraction of the initial warm-up connections across all origins that have been attempted, from 0 to 1.
+	 */
+	public static double getOverallProgress() {
+		int requested = 0;
+		int completed = 0;
+		for (ConnectionPoolWarmer warmer : WARMERS) {
+			requested += warmer.warmupRequested.get();
+			completed += warmer.warmupCompleted.get();
+		}
+		return requested == 0 ? 1.0 : (double) completed / requested;
+	}
+
+	public void start() {
+		if (shutdown || config.getPrewarmConnsPerServer() <= 0) {
+			return;
+		}
+		synchronized (this) {
+			if (started) {
+				return;
+			}
+			started = true;
+		}
+		WARMERS.add(this);
+
+		warm(channelManager.getLoadBalancer().getAllServers(), true);
+
+		final long interval = config.getPrewarmMaintenanceInterval();
+		if (interval > 0) {
+			maintenanceTask = eventLoopGroup.next().scheduleWithFixedDelay(this::maintain, interval, interval, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	public void shutdown() {
+		shutdown = true;
+		WARMERS.remove(this);
+		final ScheduledFuture<?> task = maintenanceTask;
+		if (task != null) {
+			task.cancel(false);
+		}
+	}
+
+	/**
+	 * Warm the connection pools of servers that have just appeared in the server list.
+	 */
+	public void warmNewServers(Collection<Server> servers) {
+		if (started && !shutdown && !servers.isEmpty()) {
+			warm(servers, true);
+		}
+	}
+
+	public boolean isWarmingUp() {
+		return warmupPending.get() > 0;
+	}
+
+	public double getProgress() {
+		final int requested = warmupRequested.get();
+		return requested == 0 ? 1.0 : (double) warmupCompleted.get() / requested;
+	}
+
+	protected void maintain() {
+		try {
+			warm(channelManager.getLoadBalancer().getAllServers(), false);
+		} catch (Exception e) {
+			LOG.warn("Error maintaining warm connection pools. origin = " + config.getOriginName(), e);
+		}
+	}
+
+	private void warm(Collection<Server> servers, boolean trackProgress) {
+		if (shutdown) {
+			return;
+		}
+		for (EventExecutor executor : eventLoopGroup) {
+			final EventLoop eventLoop = (EventLoop) executor;
+			for (Server server : servers) {
+				eventLoop.execute(() -> topUp(server, eventLoop, trackProgress));
+			}
+		}
+	}
+
+	private void topUp(Server server, EventLoop eventLoop, boolean trackProgress) {
+		if (shutdown || channelManager.getOutlierDetector().isEjected(server)) {
+			return;
+		}
+
+		int target = config.getPrewarmConnsPerServer();
+		final int waterline = config.perServerWaterline();
+		if (waterline > -1) {
+			target = Math.min(target, waterline);
+		}
+
+		final IConnectionPool pool = channelManager.getOrCreateConnectionPool(server);
+		final Map<Server, Integer> pending = pendingConnects.computeIfAbsent(eventLoop, loop -> new HashMap<>());
+		final int needed = target - pool.getConnsInPool(eventLoop) - pending.getOrDefault(server, 0);
+		for (int i = 0; i < needed; i++) {
+			if (trackProgress) {
+				warmupRequested.incrementAndGet();
+				warmupPending.incrementAndGet();
+			}
+			pending.merge(server, 1, Integer::sum);
+			pool.acquireNew(eventLoop, CurrentPassport.create()).addListener(future -> {
+				pending.computeIfPresent(server, (s, count) -> count > 1 ? count - 1 : null);
+				if (future.isSuccess()) {
+					final PooledConnection conn = (PooledConnection) future.getNow();
+					conn.setConnectionState(PooledConnection.ConnectionState.WRITE_READY);
+					conn.release();
+				} else {
+					LOG.debug("Failed to pre-warm connection. origin = {}, server = {}",
+							config.getOriginName(), server.getHostPort(), future.cause());
+				}
+				if (trackProgress) {
+					warmupCompleted.incrementAndGet();
+					warmupPending.decrementAndGet();
+				}
+			});
+		}
+	}
+
+	public static class UnitTest {
+		private final Server server = new Server("host1", 7001);
+		private final List<Promise<PooledConnection>> connects = new ArrayList<>();
+		private final AtomicInteger connsInPool = new AtomicInteger();
+
+		private EmbeddedChannel channel;
+		private ConnectionPoolWarmer warmer;
+
+		@Before
+		public void setup() {
+			channel = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+			final EventLoop eventLoop = channel.eventLoop();
+
+			final IConnectionPool pool = mock(IConnectionPool.class);
+			when(pool.getConnsInPool(eventLoop)).thenAnswer(invocation -> connsInPool.get());
+			when(pool.acquireNew(any(EventLoop.class), any(CurrentPassport.class))).thenAnswer(invocation -> {
+				Promise<PooledConnection> promise = eventLoop.newPromise();
+				connects.add(promise);
+				return promise;
+			});
+
+			final DynamicServerListLoadBalancer<?> loadBalancer = mock(DynamicServerListLoadBalancer.class);
+			when(loadBalancer.getAllServers()).thenReturn(Collections.singletonList(server));
+
+			final DefaultClientChannelManager channelManager = mock(DefaultClientChannelManager.class);
+			when(channelManager.getLoadBalancer()).thenReturn(loadBalancer);
+			when(channelManager.getOutlierDetector()).thenReturn(new OutlierDetector("warmer-test", () -> 1));
+			when(channelManager.getOrCreateConnectionPool(server)).thenReturn(pool);
+
+			final ConnectionPoolConfig config = mock(ConnectionPoolConfig.class);
+			when(config.getOriginName()).thenReturn("warmer-test");
+			when(config.getPrewarmConnsPerServer()).thenReturn(3);
+			when(config.perServerWaterline()).thenReturn(-1);
+
+			warmer = new ConnectionPoolWarmer(channelManager, config, eventLoop);
+		}
+
+		@After
+		public void teardown() {
+			warmer.shutdown();
+			channel.finishAndReleaseAll();
+		}
+
+		private PooledConnection connection() {
+			final PooledConnection conn = mock(PooledConnection.class);
+			doAnswer(invocation -> connsInPool.incrementAndGet()).when(conn).release();
+			return conn;
+		}
+
+		@Test
+		public void testWarmsEachServerOnTheGivenEventLoops() {
+			warmer.start();
+			channel.runPendingTasks();
+
+			assertEquals(3, connects.size());
+			assertTrue(warmer.isWarmingUp());
+			assertTrue(ConnectionPoolWarmer.isAnyWarmingUp());
+		}
+
+		@Test
+		public void testPendingConnectsCountTowardsTarget() {
+			warmer.start();
+			channel.runPendingTasks();
+
+			warmer.maintain();
+			channel.runPendingTasks();
+			assertEquals(3, connects.size());
+
+			connects.get(0).setFailure(new Exception("connect failed"));
+			warmer.maintain();
+			channel.runPendingTasks();
+			assertEquals(4, connects.size());
+
+			connects.get(1).setSuccess(connection());
+			warmer.maintain();
+			channel.runPendingTasks();
+			assertEquals(4, connects.size());
+		}
+
+		@Test
+		public void testReleasesWarmedConnectionsIntoPool() {
+			warmer.start();
+			channel.runPendingTasks();
+
+			final PooledConnection conn = connection();
+			connects.get(0).setSuccess(conn);
+			verify(conn).setConnectionState(PooledConnection.ConnectionState.WRITE_READY);
+			verify(conn).release();
+			assertEquals(1, connsInPool.get());
+
+			connects.get(1).setSuccess(connection());
+			connects.get(2).setFailure(new Exception("connect failed"));
+			assertFalse(warmer.isWarmingUp());
+			assertEquals(1.0, warmer.getProgress(), 0.0);
+		}
+	}
+}
@@ -33,13 +33,17 @@ import io.netty.channel.Channel;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelPipeline;
 import io.netty.channel.EventLoop;
+import io.netty.channel.EventLoopGroup;
 import io.netty.handler.timeout.IdleStateHandler;
 import io.netty.util.concurrent.Promise;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
@@ -66,6 +70,9 @@ public class DefaultClientChannelManager implements ClientChannelManager {
 	/* DeploymentContextBasedVIP for which to maintain this connection pool */
 	private final String vip;
 
+	/* All initialized channel managers, for diagnostics */
+	private static final Set<DefaultClientChannelManager> MANAGERS = ConcurrentHashMap.newKeySet();
+
 	private static final Throwable SHUTTING_DOWN_ERR = new IllegalStateException("ConnectionPool is shutting down now.");
 	private volatile boolean shuttingDown = false;
 
@@ -86,12 +93,18 @@ public class DefaultClientChannelManager implements ClientChannelManager {
 	private final AtomicInteger connsInUse;
 
 	private final ConcurrentHashMap<Server, IConnectionPool> perServerPools;
+	private final OutlierDetector outlierDetector;
+	private final Counter outlierSkippedCounter;
 
 	private NettyClientConnectionFactory clientConnFactory;
 	private OriginChannelInitializer channelInitializer;
+	private volatile ConnectionPoolWarmer connPoolWarmer;
 
 	public static final String IDLE_STATE_HANDLER_NAME = "idleStateHandler";
 
+	/* Number of times to re-choose when the load-balancer picks an ejected outlier server */
+	private static final int MAX_OUTLIER_RESELECTS = 3;
+
 	public DefaultClientChannelManager(String originName, String vip, IClientConfig clientConfig, Registry spectatorRegistry) {
 		this.loadBalancer = createLoadBalancer(clientConfig);
 
@@ -101,7 +114,10 @@ public class DefaultClientChannelManager implements ClientChannelManager {
 		this.perServerPools = new ConcurrentHashMap<>(200);
 
 		// Setup a listener for Discovery serverlist changes.
-		this.loadBalancer.addServerListChangeListener((oldList, newList) -> removeMissingServerConnectionPools(oldList, newList));
+		this.loadBalancer.addServerListChangeListener((oldList, newList) -> {
+			removeMissingServerConnectionPools(oldList, newList);
+			warmNewServerConnectionPools(oldList, newList);
+		});
 
 		this.connPoolConfig = new ConnectionPoolConfigImpl(originName, this.clientConfig);
 
@@ -120,6 +136,9 @@ public class DefaultClientChannelManager implements ClientChannelManager {
 		this.connEstablishTimer = PercentileTimer.get(spectatorRegistry, spectatorRegistry.createId(METRIC_PREFIX + "_createTiming", "id", originName));
 		this.connsInPool = SpectatorUtils.newGauge(METRIC_PREFIX + "_inPool", originName, new AtomicInteger());
 		this.connsInUse = SpectatorUtils.newGauge(METRIC_PREFIX + "_inUse", originName, new AtomicInteger());
+
+		this.outlierDetector = createOutlierDetector(originName);
+		this.outlierSkippedCounter = SpectatorUtils.newCounter(METRIC_PREFIX + "_outlierSkipped", originName);
 	}
 
 	@Override
@@ -128,6 +147,32 @@ public class DefaultClientChannelManager implements ClientChannelManager {
 		// We don't do this within the constructor because some subclass may not be initialized until post-construct.
 		this.channelInitializer = createChannelInitializer(clientConfig, connPoolConfig, spectatorRegistry);
 		this.clientConnFactory = createNettyClientConnectionFactory(connPoolConfig, channelInitializer);
+
+		MANAGERS.add(this);
+	}
+
+	/**
+	 * Sets the event-loops that connections to the origin are made from, ie. the server's worker event-loops, and
+	 * starts pre-warming the connection pools on them. Origins created before the server has started get these from
+	 * the server, and others from their first request.
+	 */
+	public void setEventLoopGroup(EventLoopGroup eventLoopGroup) {
+		final ConnectionPoolWarmer warmer;
+		synchronized (this) {
+			if (connPoolWarmer != null || eventLoopGroup == null || shuttingDown) {
+				return;
+			}
+			warmer = connPoolWarmer = createConnectionPoolWarmer(connPoolConfig, eventLoopGroup);
+		}
+		warmer.start();
+	}
+
+	public static Collection<DefaultClientChannelManager> getAllManagers() {
+		return Collections.unmodifiableSet(MANAGERS);
+	}
+
+	protected ConnectionPoolWarmer createConnectionPoolWarmer(ConnectionPoolConfig connPoolConfig, EventLoopGroup eventLoopGroup) {
+		return new ConnectionPoolWarmer(this, connPoolConfig, eventLoopGroup);
 	}
 
 	protected OriginChannelInitializer createChannelInitializer(IClientConfig clientConfig, ConnectionPoolConfig connPoolConfig, Registry registry) {
@@ -157,6 +202,10 @@ public class DefaultClientChannelManager implements ClientChannelManager {
 		return lb;
 	}
 
+	protected OutlierDetector createOutlierDetector(String originName) {
+		return new OutlierDetector(originName, () -> loadBalancer.getAllServers().size());
+	}
+
 	protected Class<? extends DynamicServerListLoadBalancer> getLoadBalancerClass() {
 		return ZoneAwareLoadBalancer.class;
 	}
@@ -175,10 +224,18 @@ public class DefaultClientChannelManager implements ClientChannelManager {
 				if (pool != null) {
 					pool.shutdown();
 				}
+				outlierDetector.remove(s);
 			}
 		}
 	}
 
+	protected void warmNewServerConnectionPools(List<Server> oldList, List<Server> newList) {
+		final ConnectionPoolWarmer warmer = connPoolWarmer;
+		if (warmer != null) {
+			warmer.warmNewServers(Sets.difference(new HashSet<>(newList), new HashSet<>(oldList)));
+		}
+	}
+
 	@Override
 	public ConnectionPoolConfig getConfig() {
 		return connPoolConfig;
@@ -191,7 +248,8 @@ public class DefaultClientChannelManager implements ClientChannelManager {
 
 	@Override
 	public boolean isCold() {
-		return false;
+		final ConnectionPoolWarmer warmer = connPoolWarmer;
+		return warmer != null && warmer.isWarmingUp();
 	}
 
 	@Override
@@ -202,6 +260,11 @@ public class DefaultClientChannelManager implements ClientChannelManager {
 	@Override
 	public void shutdown() {
 		this.shuttingDown = true;
+		MANAGERS.remove(this);
+
+		if (connPoolWarmer != null) {
+			connPoolWarmer.shutdown();
+		}
 
 		loadBalancer.shutdown();
 
@@ -213,13 +276,15 @@ public class DefaultClientChannelManager implements ClientChannelManager {
 	@Override
 	public boolean release(final PooledConnection conn) {
 
-		conn.stopRequestTimer();
 		releaseConnCounter.increment();
 		connsInUse.decrementAndGet();
 
 		final ServerStats stats = conn.getServerStats();
-		stats.decrementActiveRequestsCount();
-		stats.incrementNumRequests();
+		if (!conn.isPrewarmed()) {
+			conn.stopRequestTimer();
+			stats.decrementActiveRequestsCount();
+			stats.incrementNumRequests();
+		}
 
 		if (shuttingDown) {
 			return false;
@@ -322,25 +387,40 @@ public class DefaultClientChannelManager implements ClientChannelManager {
 			return promise;
 		}
 
+		if (connPoolWarmer == null) {
+			setEventLoopGroup(eventLoop.parent());
+		}
+
 		// Choose the next load-balanced server.
-		final Server chosenServer = loadBalancer.chooseServer(key);
+		final Server chosenServer = chooseServer(key);
 		if (chosenServer == null) {
 			Promise<PooledConnection> promise = eventLoop.newPromise();
 			promise.setFailure(new OriginConnectException("No servers available", OutboundErrorType.NO_AVAILABLE_SERVERS));
 			return promise;
 		}
 
-		final InstanceInfo instanceInfo = chosenServer instanceof DiscoveryEnabledServer ?
-				((DiscoveryEnabledServer) chosenServer).getInstanceInfo() :
-				// create mock instance info for non-discovery instances
-				new InstanceInfo(chosenServer.getId(), null, null, chosenServer.getHost(), chosenServer.getId(),
-						null, null, null, null, null, null, null, null, 0, null, null, null, null, null, null, null, null, null, null, null, null);
-
-
 		selectedServer.set(chosenServer);
 
 		// Now get the connection-pool for this server.
-		IConnectionPool pool = perServerPools.computeIfAbsent(chosenServer, s -> {
+		IConnectionPool pool = getOrCreateConnectionPool(chosenServer);
+
+		final Promise<PooledConnection> promise = pool.acquire(eventLoop, null, httpMethod, uri, attemptNum, passport, selectedHostAdddr);
+		promise.addListener(future -> {
+			if (!future.isSuccess() && isServerConnectFailure(future.cause())) {
+				outlierDetector.recordFailure(chosenServer);
+			}
+		});
+		return promise;
+	}
+
+	protected IConnectionPool getOrCreateConnectionPool(final Server chosenServer) {
+		return perServerPools.computeIfAbsent(chosenServer, s -> {
+			final InstanceInfo instanceInfo = chosenServer instanceof DiscoveryEnabledServer ?
+					((DiscoveryEnabledServer) chosenServer).getInstanceInfo() :
+					// create mock instance info for non-discovery instances
+					new InstanceInfo(chosenServer.getId(), null, null, chosenServer.getHost(), chosenServer.getId(),
+							null, null, null, null, null, null, null, null, 0, null, null, null, null, null, null, null, null, null, null, null, null);
+
 			// Get the stats from LB for this server.
 			LoadBalancerStats lbStats = loadBalancer.getLoadBalancerStats();
 			ServerStats stats = lbStats.getSingleServerStat(chosenServer);
@@ -354,8 +434,33 @@ public class DefaultClientChannelManager implements ClientChannelManager {
 					requestConnCounter, reuseConnCounter, connTakenFromPoolIsNotOpen, maxConnsPerHostExceededCounter,
 					connEstablishTimer, connsInPool, connsInUse);
 		});
+	}
+
+	protected Server chooseServer(Object key) {
+		Server server = loadBalancer.chooseServer(key);
+
+		// Skip servers currently ejected as outliers. If the load-balancer keeps picking ejected servers, then
+		// fail open and use the last one chosen rather than failing the request.
+		for (int i = 0; server != null && i < MAX_OUTLIER_RESELECTS && outlierDetector.isEjected(server); i++) {
+			outlierSkippedCounter.increment();
+			server = loadBalancer.chooseServer(key);
+		}
+		return server;
+	}
 
-		return pool.acquire(eventLoop, null, httpMethod, uri, attemptNum, passport, selectedHostAdddr);
+	private static boolean isServerConnectFailure(Throwable cause) {
+		return cause instanceof OriginConnectException
+				&& ((OriginConnectException) cause).getErrorType() == OutboundErrorType.CONNECT_ERROR;
+	}
+
+	@Override
+	public void recordServerResponse(Server server, int statusCode, long durationMs) {
+		outlierDetector.recordResponse(server, statusCode, durationMs);
+	}
+
+	@Override
+	public void recordServerFailure(Server server) {
+		outlierDetector.recordFailure(server);
 	}
 
 	protected PooledConnectionFactory createPooledConnectionFactory(Server chosenServer, InstanceInfo instanceInfo, ServerStats stats, ClientChannelManager clientChannelMgr,
@@ -411,7 +516,19 @@ public class DefaultClientChannelManager implements ClientChannelManager {
 		return this.loadBalancer.getClientConfig();
 	}
 
+	public OutlierDetector getOutlierDetector() {
+		return outlierDetector;
+	}
+
 	protected ConcurrentHashMap<Server, IConnectionPool> getPerServerPools() {
 		return perServerPools;
 	}
+
+	public Map<Server, IConnectionPool> getServerPools() {
+		return Collections.unmodifiableMap(perServerPools);
+	}
+
+	public String getVip() {
+		return vip;
+	}
 }
@@ -26,10 +26,12 @@ import com.netflix.zuul.netty.ssl.ClientSslContextFactory;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelPipeline;
 import io.netty.handler.codec.http.HttpClientCodec;
+import io.netty.handler.flush.FlushConsolidationHandler;
 import io.netty.handler.logging.LogLevel;
 import io.netty.handler.logging.LoggingHandler;
 import io.netty.handler.ssl.SslContext;
 
+import static com.netflix.zuul.netty.server.BaseZuulChannelInitializer.FLUSH_CONSOLIDATION_HANDLER_NAME;
 import static com.netflix.zuul.netty.server.BaseZuulChannelInitializer.HTTP_CODEC_HANDLER_NAME;
 
 /**
@@ -64,6 +66,12 @@ public class DefaultOriginChannelInitializer extends OriginChannelInitializer {
 			pipeline.addLast("ssl", sslContext.newHandler(ch.alloc()));
 		}
 
+		// Request body chunks are written and flushed to the origin individually, so coalesce those flushes.
+		final int maxFlushes = connectionPoolConfig.getFlushConsolidationMaxFlushes();
+		if (maxFlushes > 0) {
+			pipeline.addLast(FLUSH_CONSOLIDATION_HANDLER_NAME, new FlushConsolidationHandler(maxFlushes, true));
+		}
+
 		pipeline.addLast(HTTP_CODEC_HANDLER_NAME, new HttpClientCodec(
 				BaseZuulChannelInitializer.MAX_INITIAL_LINE_LENGTH.get(),
 				BaseZuulChannelInitializer.MAX_HEADER_SIZE.get(),
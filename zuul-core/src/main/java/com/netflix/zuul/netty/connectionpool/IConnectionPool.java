@@ -31,6 +31,15 @@ public interface IConnectionPool {
 	Promise<PooledConnection> acquire(EventLoop eventLoop, Object key, String httpMethod, String uri,
 									  int retryNum, CurrentPassport passport, AtomicReference<String> selectedHostAddr);
 
+	/* Open a new connection on the given event-loop for pre-warming the pool, bypassing any idle connections already in
+	   the pool, and without it counting as a request in the server's stats. Pools that don't support pre-warming fail
+	   the promise. */
+	default Promise<PooledConnection> acquireNew(EventLoop eventLoop, CurrentPassport passport) {
+		final Promise<PooledConnection> promise = eventLoop.newPromise();
+		promise.setFailure(new UnsupportedOperationException("Pre-warming not supported by " + getClass().getName()));
+		return promise;
+	}
+
 	boolean release(PooledConnection conn);
 
 	boolean remove(PooledConnection conn);
@@ -43,5 +52,10 @@ public interface IConnectionPool {
 
 	int getConnsInPool();
 
+	/* Number of idle connections pooled for the given event-loop */
+	default int getConnsInPool(EventLoop eventLoop) {
+		return 0;
+	}
+
 	ConnectionPoolConfig getConfig();
 }
@@ -0,0 +1,432 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ *      Licensed under the Apache License, Version 2.0 (the "License");
+ *      you may not use this file except in compliance with the License.
+ *      You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *      Unless required by applicable law or agreed to in writing, software
+ *      distributed under the License is distributed on an "AS IS" BASIS,
+ *      WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *      See the License for the specific language governing permissions and
+ *      limitations under the License.
+ */
+
+package com.netflix.zuul.netty.connectionpool;
+
+import com.netflix.config.CachedDynamicBooleanProperty;
+import com.netflix.config.CachedDynamicDoubleProperty;
+import com.netflix.config.CachedDynamicIntProperty;
+import com.netflix.config.ConfigurationManager;
+import com.netflix.loadbalancer.Server;
+import com.netflix.spectator.api.Counter;
+import com.netflix.zuul.netty.SpectatorUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tracks per-server failures and latency for a single origin, and temporarily ejects outlier servers from
+ * load-balancer selection.
+ *
+ * A server is ejected when it returns too many consecutive failures (connect errors, resets, read timeouts or 5xx
+ * responses), or when its mean latency over an evaluation window is a multiple of the median across the origin's
+ * servers. Each repeated ejection of the same server doubles the ejection interval up to a maximum, and no more than
+ * a configured percentage of the origin's servers is ejected at any one time, so small origins may not eject any.
+ *
+ * Off unless enabled per origin with {@code <origin>.netty.client.outlier.enabled}.
+ */
+public class OutlierDetector {
+	private static final Logger LOG = LoggerFactory.getLogger(OutlierDetector.class);
+
+	public static final String METRIC_PREFIX = "zuul.origin.outlier";
+
+	public static final String REASON_CONSECUTIVE_FAILURES = "consecutive_failures";
+	public static final String REASON_LATENCY = "latency";
+
+	private final String originName;
+	private final IntSupplier totalServerCount;
+	private final ConcurrentHashMap<Server, ServerState> servers = new ConcurrentHashMap<>();
+	private final AtomicLong lastLatencyEvaluation;
+	private final AtomicInteger ejectedGauge;
+	private final Counter failureEjections;
+	private final Counter latencyEjections;
+	private final Counter failureEjectionsCapped;
+	private final Counter latencyEjectionsCapped;
+
+	private final CachedDynamicBooleanProperty ENABLED;
+	private final CachedDynamicIntProperty CONSECUTIVE_FAILURES;
+	private final CachedDynamicIntProperty BASE_EJECTION_TIME_MS;
+	private final CachedDynamicIntProperty MAX_EJECTION_TIME_MS;
+	private final CachedDynamicIntProperty MAX_EJECTION_PERCENT;
+	private final CachedDynamicDoubleProperty LATENCY_FACTOR;
+	private final CachedDynamicIntProperty LATENCY_MIN_REQUESTS;
+	private final CachedDynamicIntProperty LATENCY_MIN_SERVERS;
+	private final CachedDynamicIntProperty LATENCY_INTERVAL_MS;
+
+	public OutlierDetector(String originName, IntSupplier totalServerCount) {
+		this.originName = originName;
+		this.totalServerCount = totalServerCount;
+		this.lastLatencyEvaluation = new AtomicLong(currentTimeMillis());
+		this.ejectedGauge = SpectatorUtils.newGauge(METRIC_PREFIX + ".ejected", originName, new AtomicInteger());
+		this.failureEjections = SpectatorUtils.newCounter(METRIC_PREFIX + ".ejections", originName, "reason", REASON_CONSECUTIVE_FAILURES);
+		this.latencyEjections = SpectatorUtils.newCounter(METRIC_PREFIX + ".ejections", originName, "reason", REASON_LATENCY);
+		this.failureEjectionsCapped = SpectatorUtils.newCounter(METRIC_PREFIX + ".capped", originName, "reason", REASON_CONSECUTIVE_FAILURES);
+		this.latencyEjectionsCapped = SpectatorUtils.newCounter(METRIC_PREFIX + ".capped", originName, "reason", REASON_LATENCY);
+
+		String prefix = originName + ".netty.client.outlier.";
+		this.ENABLED = new CachedDynamicBooleanProperty(prefix + "enabled", false);
+		this.CONSECUTIVE_FAILURES = new CachedDynamicIntProperty(prefix + "consecutiveFailures", 5);
+		this.BASE_EJECTION_TIME_MS = new CachedDynamicIntProperty(prefix + "baseEjectionTimeMs", 30000);
+		this.MAX_EJECTION_TIME_MS = new CachedDynamicIntProperty(prefix + "maxEjectionTimeMs", 300000);
+		this.MAX_EJECTION_PERCENT = new CachedDynamicIntProperty(prefix + "maxEjectionPercent", 20);
+		// Latency based ejection is off unless a factor greater than 1 is configured.
+		this.LATENCY_FACTOR = new CachedDynamicDoubleProperty(prefix + "latencyFactor", 0);
+		this.LATENCY_MIN_REQUESTS = new CachedDynamicIntProperty(prefix + "latencyMinRequests", 50);
+		this.LATENCY_MIN_SERVERS = new CachedDynamicIntProperty(prefix + "latencyMinServers", 3);
+		this.LATENCY_INTERVAL_MS = new CachedDynamicIntProperty(prefix + "latencyIntervalMs", 10000);
+	}
+
+	public boolean isEnabled() {
+		return ENABLED.get();
+	}
+
+	/**
+	 * Whether the given server is currently ejected from selection. An ejection that has expired is cleared here, and
+	 * the server is given a fresh run of consecutive failures before it can be ejected again.
+	 */
+	public boolean isEjected(Server server) {
+		if (server == null || !isEnabled()) {
+			return false;
+		}
+		ServerState state = servers.get(server);
+		if (state == null) {
+			return false;
+		}
+		synchronized (state) {
+			if (state.ejectedUntil == 0) {
+				return false;
+			}
+			if (state.ejectedUntil > currentTimeMillis()) {
+				return true;
+			}
+			state.ejectedUntil = 0;
+			state.consecutiveFailures = 0;
+		}
+		ejectedGauge.decrementAndGet();
+		LOG.info("Returning server to selection after ejection. origin = {}, server = {}", originName, server.getHostPort());
+		return false;
+	}
+
+	/**
+	 * Record a connect error, reset or read timeout against the given server.
+	 */
+	public void recordFailure(Server server) {
+		if (server == null || !isEnabled()) {
+			return;
+		}
+		ServerState state = stateFor(server);
+		int failures;
+		synchronized (state) {
+			failures = ++state.consecutiveFailures;
+		}
+		if (failures >= CONSECUTIVE_FAILURES.get()) {
+			eject(server, state, REASON_CONSECUTIVE_FAILURES);
+		}
+	}
+
+	/**
+	 * Record a response received from the given server. Any 5xx status counts as a failure, anything else resets the
+	 * server's consecutive failure count.
+	 */
+	public void recordResponse(Server server, int statusCode, long durationMs) {
+		if (server == null || !isEnabled()) {
+			return;
+		}
+		if (statusCode >= 500) {
+			recordFailure(server);
+		} else {
+			ServerState state = stateFor(server);
+			synchronized (state) {
+				state.consecutiveFailures = 0;
+				state.windowLatencyTotal += durationMs;
+				state.windowCount++;
+			}
+		}
+		maybeEvaluateLatency();
+	}
+
+	public void remove(Server server) {
+		ServerState state = servers.remove(server);
+		if (state != null && state.ejectedUntil != 0) {
+			ejectedGauge.decrementAndGet();
+		}
+	}
+
+	public int getEjectedCount() {
+		long now = currentTimeMillis();
+		int count = 0;
+		for (ServerState state : servers.values()) {
+			if (state.ejectedUntil > now) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Called after a server has been ejected. Override to publish the ejection elsewhere.
+	 */
+	protected void onServerEjected(Server server, String reason, long ejectionMs) {
+	}
+
+	protected long currentTimeMillis() {
+		return System.currentTimeMillis();
+	}
+
+	private ServerState stateFor(Server server) {
+		return servers.computeIfAbsent(server, s -> new ServerState());
+	}
+
+	private boolean eject(Server server, ServerState state, String reason) {
+		final long now = currentTimeMillis();
+		final int ejected = getEjectedCount();
+		final int total = totalServerCount.getAsInt();
+
+		// Never eject the only server, nor more than the max percent of them.
+		if (total <= 1 || (ejected + 1) * 100 > total * MAX_EJECTION_PERCENT.get()) {
+			(REASON_LATENCY.equals(reason) ? latencyEjectionsCapped : failureEjectionsCapped).increment();
+			return false;
+		}
+
+		final long ejectionMs;
+		final boolean expiredNotCleared;
+		synchronized (state) {
+			if (state.ejectedUntil > now) {
+				return false;
+			}
+			expiredNotCleared = state.ejectedUntil != 0;
+			// Forget earlier ejections once the server has stayed healthy for longer than the max ejection time.
+			if (state.lastEjectedAt > 0 && now - state.lastEjectedAt > MAX_EJECTION_TIME_MS.get() + state.lastEjectionMs) {
+				state.ejectionCount = 0;
+			}
+			state.ejectionCount++;
+			ejectionMs = ejectionTime(state.ejectionCount);
+			state.lastEjectedAt = now;
+			state.lastEjectionMs = ejectionMs;
+			state.ejectedUntil = now + ejectionMs;
+			state.consecutiveFailures = 0;
+			state.resetWindow();
+		}
+
+		if (!expiredNotCleared) {
+			ejectedGauge.incrementAndGet();
+		}
+		(REASON_LATENCY.equals(reason) ? latencyEjections : failureEjections).increment();
+		LOG.warn("Ejecting outlier server. origin = {}, server = {}, reason = {}, ejectionMs = {}",
+				originName, server.getHostPort(), reason, ejectionMs);
+		onServerEjected(server, reason, ejectionMs);
+		return true;
+	}
+
+	private long ejectionTime(int ejectionCount) {
+		long base = BASE_EJECTION_TIME_MS.get();
+		long max = MAX_EJECTION_TIME_MS.get();
+		int shift = Math.min(ejectionCount - 1, 30);
+		return Math.min(base << shift, max);
+	}
+
+	private void maybeEvaluateLatency() {
+		final double factor = LATENCY_FACTOR.get();
+		if (factor <= 1) {
+			return;
+		}
+		final long now = currentTimeMillis();
+		final long last = lastLatencyEvaluation.get();
+		if (now - last < LATENCY_INTERVAL_MS.get() || !lastLatencyEvaluation.compareAndSet(last, now)) {
+			return;
+		}
+
+		final int minRequests = LATENCY_MIN_REQUESTS.get();
+		final List<Map.Entry<Server, Double>> means = new ArrayList<>(servers.size());
+		for (Map.Entry<Server, ServerState> entry : servers.entrySet()) {
+			ServerState state = entry.getValue();
+			synchronized (state) {
+				if (state.windowCount >= minRequests) {
+					means.add(new AbstractMap.SimpleImmutableEntry<>(entry.getKey(),
+							(double) state.windowLatencyTotal / state.windowCount));
+				}
+				state.resetWindow();
+			}
+		}
+		if (means.size() < LATENCY_MIN_SERVERS.get()) {
+			return;
+		}
+
+		final List<Double> sorted = new ArrayList<>(means.size());
+		for (Map.Entry<Server, Double> mean : means) {
+			sorted.add(mean.getValue());
+		}
+		Collections.sort(sorted);
+		final int mid = sorted.size() / 2;
+		final double median = (sorted.size() % 2 == 1) ? sorted.get(mid) : (sorted.get(mid - 1) + sorted.get(mid)) / 2;
+
+		for (Map.Entry<Server, Double> mean : means) {
+			if (mean.getValue() > median * factor) {
+				ServerState state = servers.get(mean.getKey());
+				if (state != null) {
+					eject(mean.getKey(), state, REASON_LATENCY);
+				}
+			}
+		}
+	}
+
+	private static final class ServerState {
+		int consecutiveFailures;
+		int ejectionCount;
+		long lastEjectedAt;
+		long lastEjectionMs;
+		volatile long ejectedUntil;
+		long windowLatencyTotal;
+		long windowCount;
+
+		void resetWindow() {
+			windowLatencyTotal = 0;
+			windowCount = 0;
+		}
+	}
+
+	public static class UnitTest {
+		private long now = 1000;
+
+		@Before
+		public void setup() {
+			ConfigurationManager.getConfigInstance().setProperty("outlier-test.netty.client.outlier.enabled", true);
+		}
+
+		@After
+		public void teardown() {
+			ConfigurationManager.getConfigInstance().clearProperty("outlier-test.netty.client.outlier.enabled");
+		}
+
+		private OutlierDetector detector(int serverCount) {
+			return new OutlierDetector("outlier-test", () -> serverCount) {
+				@Override
+				protected long currentTimeMillis() {
+					return now;
+				}
+			};
+		}
+
+		@Test
+		public void testEjectsAfterConsecutiveFailures() {
+			OutlierDetector detector = detector(10);
+			Server server = new Server("host1", 7001);
+
+			for (int i = 0; i < 4; i++) {
+				detector.recordFailure(server);
+			}
+			assertFalse(detector.isEjected(server));
+
+			detector.recordResponse(server, 200, 5);
+			detector.recordFailure(server);
+			assertFalse(detector.isEjected(server));
+
+			for (int i = 0; i < 4; i++) {
+				detector.recordResponse(server, 503, 5);
+			}
+			assertTrue(detector.isEjected(server));
+			assertEquals(1, detector.getEjectedCount());
+		}
+
+		@Test
+		public void testEjectionTimeGrowsExponentially() {
+			OutlierDetector detector = detector(10);
+			Server server = new Server("host1", 7001);
+
+			for (int i = 0; i < 5; i++) {
+				detector.recordFailure(server);
+			}
+			now += 29999;
+			assertTrue(detector.isEjected(server));
+			now += 1;
+			assertFalse(detector.isEjected(server));
+
+			for (int i = 0; i < 5; i++) {
+				detector.recordFailure(server);
+			}
+			now += 59999;
+			assertTrue(detector.isEjected(server));
+			now += 1;
+			assertFalse(detector.isEjected(server));
+		}
+
+		@Test
+		public void testCapsEjectedFraction() {
+			OutlierDetector detector = detector(5);
+			Server server1 = new Server("host1", 7001);
+			Server server2 = new Server("host2", 7001);
+
+			for (int i = 0; i < 5; i++) {
+				detector.recordFailure(server1);
+				detector.recordFailure(server2);
+			}
+			assertTrue(detector.isEjected(server1));
+			assertFalse(detector.isEjected(server2));
+			assertEquals(1, detector.getEjectedCount());
+		}
+
+		@Test
+		public void testDisabledByDefault() {
+			ConfigurationManager.getConfigInstance().clearProperty("outlier-test.netty.client.outlier.enabled");
+			OutlierDetector detector = detector(10);
+			Server server = new Server("host1", 7001);
+
+			for (int i = 0; i < 10; i++) {
+				detector.recordFailure(server);
+			}
+			assertFalse(detector.isEjected(server));
+		}
+
+		@Test
+		public void testCapAppliesToSmallOrigins() {
+			// 20% of 2 servers is less than one.
+			OutlierDetector detector = detector(2);
+			Server server = new Server("host1", 7001);
+
+			for (int i = 0; i < 10; i++) {
+				detector.recordFailure(server);
+			}
+			assertFalse(detector.isEjected(server));
+		}
+
+		@Test
+		public void testNeverEjectsOnlyServer() {
+			OutlierDetector detector = detector(1);
+			Server server = new Server("host1", 7001);
+
+			for (int i = 0; i < 10; i++) {
+				detector.recordFailure(server);
+			}
+			assertFalse(detector.isEjected(server));
+		}
+	}
+}
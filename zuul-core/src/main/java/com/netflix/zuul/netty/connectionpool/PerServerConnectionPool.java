@@ -175,6 +175,18 @@ public class PerServerConnectionPool implements IConnectionPool {
 		return promise;
 	}
 
+	@Override
+	public Promise<PooledConnection> acquireNew(EventLoop eventLoop, CurrentPassport passport) {
+		Promise<PooledConnection> promise = eventLoop.newPromise();
+		promise.addListener(future -> {
+			if (future.isSuccess()) {
+				((PooledConnection) future.getNow()).markPrewarmed();
+			}
+		});
+		tryMakingNewConnection(eventLoop, promise, null, null, 1, passport, new AtomicReference<>(), false);
+		return promise;
+	}
+
 	public PooledConnection tryGettingFromConnectionPool(EventLoop eventLoop) {
 		PooledConnection conn;
 		Deque<PooledConnection> connections = getPoolForEventLoop(eventLoop);
@@ -222,6 +234,17 @@ public class PerServerConnectionPool implements IConnectionPool {
 	protected void tryMakingNewConnection(final EventLoop eventLoop, final Promise<PooledConnection> promise,
 										  final String httpMethod, final String uri, final int attemptNum,
 										  final CurrentPassport passport, final AtomicReference<String> selectedHostAddr) {
+		tryMakingNewConnection(eventLoop, promise, httpMethod, uri, attemptNum, passport, selectedHostAddr, true);
+	}
+
+	/**
+	 * @param forRequest whether the connection is for a request, rather than for pre-warming, and so counted in the
+	 *                   server's request stats
+	 */
+	protected void tryMakingNewConnection(final EventLoop eventLoop, final Promise<PooledConnection> promise,
+										  final String httpMethod, final String uri, final int attemptNum,
+										  final CurrentPassport passport, final AtomicReference<String> selectedHostAddr,
+										  final boolean forRequest) {
 		// Enforce MaxConnectionsPerHost config.
 		int maxConnectionsPerHost = config.maxConnectionsPerHost();
 		int openAndOpeningConnectionCount = stats.getOpenConnectionsCount() + connCreationsInProgress.get();
@@ -254,13 +277,13 @@ public class PerServerConnectionPool implements IConnectionPool {
 			if (cf.isDone()) {
 				endConnEstablishTimer(timing);
 				handleConnectCompletion(cf, promise, httpMethod, uri, attemptNum,
-						passport);
+						passport, forRequest);
 			} else {
 				cf.addListener(future -> {
 					try {
 						endConnEstablishTimer(timing);
 						handleConnectCompletion((ChannelFuture) future, promise, httpMethod, uri, attemptNum,
-								passport);
+								passport, forRequest);
 					} catch (Throwable e) {
 						if (!promise.isDone()) {
 							promise.setFailure(e);
@@ -312,6 +335,16 @@ public class PerServerConnectionPool implements IConnectionPool {
 										   final String uri,
 										   final int attemptNum,
 										   final CurrentPassport passport) {
+		handleConnectCompletion(cf, callerPromise, httpMethod, uri, attemptNum, passport, true);
+	}
+
+	protected void handleConnectCompletion(final ChannelFuture cf,
+										   final Promise<PooledConnection> callerPromise,
+										   final String httpMethod,
+										   final String uri,
+										   final int attemptNum,
+										   final CurrentPassport passport,
+										   final boolean forRequest) {
 		connCreationsInProgress.decrementAndGet();
 
 		if (cf.isSuccess()) {
@@ -324,9 +357,11 @@ public class PerServerConnectionPool implements IConnectionPool {
 
 			createConnection(cf, callerPromise, httpMethod, uri, attemptNum, passport);
 		} else {
-			stats.incrementSuccessiveConnectionFailureCount();
-			stats.addToFailureCount();
-			stats.decrementActiveRequestsCount();
+			if (forRequest) {
+				stats.incrementSuccessiveConnectionFailureCount();
+				stats.addToFailureCount();
+				stats.decrementActiveRequestsCount();
+			}
 			createConnFailedCounter.increment();
 			callerPromise.setFailure(new OriginConnectException(cf.cause().getMessage(), OutboundErrorType.CONNECT_ERROR));
 		}
@@ -416,6 +451,11 @@ public class PerServerConnectionPool implements IConnectionPool {
 		return connsInPool.get();
 	}
 
+	@Override
+	public int getConnsInPool(EventLoop eventLoop) {
+		return getPoolForEventLoop(eventLoop).size();
+	}
+
 	@Override
 	public int getConnsInUse() {
 		return connsInUse.get();
@@ -71,6 +71,9 @@ public class PooledConnection {
 	private boolean inPool = false;
 	private boolean shouldClose = false;
 	private boolean released = false;
+	/* Opened by pre-warming and not yet used for a request, so kept out of the server's request stats */
+	private boolean prewarmed = false;
+	private int readTimeout = -1;
 
 	public PooledConnection(final Channel channel, final Server server, final ClientChannelManager channelManager,
 							final InstanceInfo serverKey,
@@ -95,6 +98,7 @@ public class PooledConnection {
 	public void setInUse() {
 		this.connectionState = ConnectionState.WRITE_BUSY;
 		this.released = false;
+		this.prewarmed = false;
 	}
 
 	public void setConnectionState(ConnectionState state) {
@@ -137,6 +141,22 @@ public class PooledConnection {
 		return System.currentTimeMillis() - creationTS;
 	}
 
+	public void recordResponse(int statusCode, long durationMs) {
+		channelManager.recordServerResponse(server, statusCode, durationMs);
+	}
+
+	public void recordFailure() {
+		channelManager.recordServerFailure(server);
+	}
+
+	public void markPrewarmed() {
+		this.prewarmed = true;
+	}
+
+	public boolean isPrewarmed() {
+		return prewarmed;
+	}
+
 	public ServerStats getServerStats() {
 		return serverStats;
 	}
@@ -229,9 +249,24 @@ public class PooledConnection {
 	}
 
 	public void startReadTimeoutHandler(int readTimeout) {
+		this.readTimeout = readTimeout;
 		channel.pipeline().addBefore("originNettyLogger", READ_TIMEOUT_HANDLER_NAME, new ReadTimeoutHandler(readTimeout, TimeUnit.MILLISECONDS));
 	}
 
+	/**
+	 * Temporarily remove the readTimeoutHandler, for when we have deliberately stopped reading from this channel
+	 * (ie. because the client is not keeping up) and so the origin should not be timed-out for it.
+	 */
+	public void suspendReadTimeoutHandler() {
+		removeReadTimeoutHandler();
+	}
+
+	public void resumeReadTimeoutHandler() {
+		if (readTimeout > 0 && !released && getChannel().pipeline().get(READ_TIMEOUT_HANDLER_NAME) == null) {
+			startReadTimeoutHandler(readTimeout);
+		}
+	}
+
 
 	@Override
 	public String toString() {
@@ -25,18 +25,34 @@ import com.netflix.zuul.context.SessionContext;
 import com.netflix.zuul.exception.ZuulException;
 import com.netflix.zuul.filters.*;
 import com.netflix.zuul.message.ZuulMessage;
+import com.netflix.zuul.message.ZuulMessageImpl;
 import com.netflix.zuul.message.http.HttpRequestInfo;
 import com.netflix.zuul.message.http.HttpRequestMessage;
 import com.netflix.zuul.message.http.HttpResponseMessage;
 import com.netflix.zuul.netty.server.MethodBinding;
+import com.netflix.zuul.tracing.RequestTrace;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.DefaultEventLoop;
 import io.netty.handler.codec.http.HttpContent;
+import io.netty.util.concurrent.EventExecutor;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import rx.Observer;
 import rx.schedulers.Schedulers;
 
 import javax.annotation.concurrent.ThreadSafe;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -45,6 +61,13 @@ import static com.netflix.zuul.ExecutionStatus.*;
 import static com.netflix.zuul.context.CommonContextKeys.NETTY_SERVER_CHANNEL_HANDLER_CONTEXT;
 import static com.netflix.zuul.filters.FilterType.ENDPOINT;
 import static com.netflix.zuul.filters.FilterType.INBOUND;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 /**
  * Subclasses of this class are supposed to be thread safe and hence should not have any non final member variables
@@ -121,7 +144,7 @@ public abstract class BaseZuulFilterRunner<I extends ZuulMessage, O extends Zuul
 	}
 
 	protected final O filter(final ZuulFilter<I, O> filter, final I inMesg) {
-		final long startTime = System.currentTimeMillis();
+		final long startTime = System.nanoTime();
 		final ZuulMessage snapshot = inMesg.getContext().debugRouting() ? inMesg.clone() : null;
 		FilterChainResumer resumer = null;
 
@@ -169,6 +192,11 @@ public abstract class BaseZuulFilterRunner<I extends ZuulMessage, O extends Zuul
 			// async filter
 			filter.incrementConcurrency();
 			resumer = new FilterChainResumer(inMesg, filter, snapshot, startTime);
+
+			if (filter instanceof CompletableZuulFilter) {
+				return applyCompletable((CompletableZuulFilter<I, O>) filter, inMesg, resumer);
+			}
+
 			filter.applyAsync(inMesg)
 					.observeOn(Schedulers.from(getChannelHandlerContext(inMesg).executor()))
 					.doOnUnsubscribe(resumer::decrementConcurrency)
@@ -186,6 +214,40 @@ public abstract class BaseZuulFilterRunner<I extends ZuulMessage, O extends Zuul
 		}
 	}
 
+	/**
+	 * Runs a CompletionStage based async filter. If the stage is already complete and we're on the channel's event-loop
+	 * then the output is returned directly, as for a sync filter. Otherwise null is returned and the filter chain is
+	 * resumed once the stage completes, hopping onto the event-loop only if completed from another thread.
+	 */
+	private O applyCompletable(final CompletableZuulFilter<I, O> filter, final I inMesg,
+							   final FilterChainResumer resumer) throws Throwable {
+		final EventExecutor executor = getChannelHandlerContext(inMesg).executor();
+		final CompletableFuture<O> future = filter.applyCompletable(inMesg).toCompletableFuture();
+
+		if (future.isDone() && executor.inEventLoop()) {
+			resumer.decrementConcurrency();
+			final O outMesg;
+			try {
+				outMesg = future.join();
+			} catch (CompletionException | CancellationException e) {
+				throw BaseCompletableFilter.unwrap(e);
+			}
+			recordFilterCompletion(SUCCESS, filter, resumer.startTime, inMesg, resumer.snapshot);
+			return (outMesg != null) ? outMesg : filter.getDefaultOutput(inMesg);
+		}
+
+		future.whenComplete((outMesg, ex) -> {
+			// Only resume inline once this method has returned, otherwise the chain would be re-entered.
+			if (resumer.awaitingStage && executor.inEventLoop()) {
+				resumer.onStageComplete(outMesg, ex);
+			} else {
+				executor.execute(() -> resumer.onStageComplete(outMesg, ex));
+			}
+		});
+		resumer.awaitingStage = true;
+		return null;  //wait for the async filter to finish
+	}
+
 	/* This is typically set by a filter when wanting to reject a request and also reduce load on the server by
 	   not processing any more filterChain */
 	protected final boolean shouldSkipFilter(final I inMesg, final ZuulFilter<I, O> filter) {
@@ -239,11 +301,25 @@ public abstract class BaseZuulFilterRunner<I extends ZuulMessage, O extends Zuul
 		}
 	}
 
+	/**
+	 * @param startTime the filter's start, from {@link System#nanoTime()}
+	 */
 	protected void recordFilterCompletion(final ExecutionStatus status, final ZuulFilter<I, O> filter, long startTime,
 										  final ZuulMessage zuulMesg, final ZuulMessage startSnapshot) {
 
 		final SessionContext zuulCtx = zuulMesg.getContext();
-		final long execTime = System.currentTimeMillis() - startTime;
+		final long execNanos = System.nanoTime() - startTime;
+		final long execTime = TimeUnit.NANOSECONDS.toMillis(execNanos);
+		if (FilterProfiler.isEnabled()) {
+			FilterProfiler.record(filter, status, execNanos);
+		}
+		final RequestTrace trace = RequestTrace.fromSessionContext(zuulCtx);
+		if (trace != null && trace.isRecording()) {
+			trace.startSpan("filter:" + filter.filterName(), null, startTime)
+					.tag("filter.type", filter.filterType())
+					.tag("filter.status", status)
+					.finish(startTime + execNanos);
+		}
 		if (execTime >= FILTER_EXCESSIVE_EXEC_TIME.get()) {
 			LOG.warn("Filter {} took {} ms to complete! status = {}", filter.filterName(), execTime, status.name());
 		}
@@ -307,6 +383,7 @@ public abstract class BaseZuulFilterRunner<I extends ZuulMessage, O extends Zuul
 		private ZuulMessage snapshot;
 		private final long startTime;
 		private AtomicBoolean concurrencyDecremented;
+		private volatile boolean awaitingStage;
 
 		public FilterChainResumer(I inMesg, ZuulFilter<I, O> filter, ZuulMessage snapshot, long startTime) {
 			this.inMesg = Preconditions.checkNotNull(inMesg, "input message");
@@ -353,6 +430,200 @@ public abstract class BaseZuulFilterRunner<I extends ZuulMessage, O extends Zuul
 		public void onCompleted() {
 			decrementConcurrency();
 		}
+
+		void onStageComplete(O outMesg, Throwable ex) {
+			if (ex != null) {
+				onError(BaseCompletableFilter.unwrap(ex));
+			} else {
+				decrementConcurrency();
+				onNext(outMesg);
+			}
+		}
 	}
 
+
+	public static class UnitTest {
+		private DefaultEventLoop eventLoop;
+		private FilterUsageNotifier usageNotifier;
+		private TestRunner runner;
+		private ZuulMessage inMesg;
+
+		/* Records each resume, and whether it was on the channel's event-loop */
+		private final List<ZuulMessage> resumed = new CopyOnWriteArrayList<>();
+		private final List<Boolean> resumedOnEventLoop = new CopyOnWriteArrayList<>();
+		private final CountDownLatch resumeLatch = new CountDownLatch(1);
+
+		private class TestRunner extends BaseZuulFilterRunner<ZuulMessage, ZuulMessage> {
+			TestRunner() {
+				super(INBOUND, usageNotifier, null);
+			}
+
+			@Override
+			public void filter(ZuulMessage zuulMesg) {
+			}
+
+			@Override
+			public void filter(ZuulMessage zuulMesg, HttpContent chunk) {
+			}
+
+			@Override
+			protected void resume(ZuulMessage zuulMesg) {
+				resumed.add(zuulMesg);
+				resumedOnEventLoop.add(eventLoop.inEventLoop());
+				resumeLatch.countDown();
+			}
+		}
+
+		private static class TestFilter extends BaseCompletableFilter<ZuulMessage, ZuulMessage> {
+			private final CompletableFuture<ZuulMessage> result;
+			private int concurrency = 0;
+
+			TestFilter(CompletableFuture<ZuulMessage> result) {
+				this.result = result;
+			}
+
+			@Override
+			public CompletionStage<ZuulMessage> applyCompletable(ZuulMessage input) {
+				return result;
+			}
+
+			@Override
+			public int filterOrder() {
+				return 0;
+			}
+
+			@Override
+			public FilterType filterType() {
+				return FilterType.INBOUND;
+			}
+
+			@Override
+			public boolean shouldFilter(ZuulMessage msg) {
+				return true;
+			}
+
+			@Override
+			public void incrementConcurrency() {
+				concurrency++;
+			}
+
+			@Override
+			public void decrementConcurrency() {
+				concurrency--;
+			}
+		}
+
+		@Before
+		public void setup() {
+			eventLoop = new DefaultEventLoop();
+			usageNotifier = mock(FilterUsageNotifier.class);
+			runner = new TestRunner();
+
+			final ChannelHandlerContext ctx = mock(ChannelHandlerContext.class);
+			when(ctx.executor()).thenReturn(eventLoop);
+			final SessionContext context = new SessionContext();
+			context.put(NETTY_SERVER_CHANNEL_HANDLER_CONTEXT, ctx);
+			inMesg = new ZuulMessageImpl(context);
+		}
+
+		@After
+		public void teardown() {
+			eventLoop.shutdownGracefully(0, 0, TimeUnit.SECONDS);
+		}
+
+		private <T> T onEventLoop(Callable<T> task) throws Exception {
+			return eventLoop.submit(task).get(5, TimeUnit.SECONDS);
+		}
+
+		@Test
+		public void testCompletedStageReturnsInline() throws Exception {
+			final ZuulMessage outMesg = new ZuulMessageImpl(inMesg.getContext());
+			final TestFilter filter = new TestFilter(CompletableFuture.completedFuture(outMesg));
+
+			assertSame(outMesg, onEventLoop(() -> runner.filter(filter, inMesg)));
+			assertTrue(resumed.isEmpty());
+			assertEquals(0, filter.concurrency);
+			verify(usageNotifier).notify(filter, SUCCESS);
+		}
+
+		@Test
+		public void testFailedStageHandledInline() throws Exception {
+			final IllegalStateException failure = new IllegalStateException("boom");
+			final CompletableFuture<ZuulMessage> result = new CompletableFuture<>();
+			result.completeExceptionally(failure);
+			final TestFilter filter = new TestFilter(result);
+
+			assertSame(inMesg, onEventLoop(() -> runner.filter(filter, inMesg)));
+			assertTrue(resumed.isEmpty());
+			assertSame(failure, inMesg.getContext().getError());
+			assertEquals(0, filter.concurrency);
+			verify(usageNotifier).notify(filter, FAILED);
+		}
+
+		@Test
+		public void testStageCompletedOffEventLoopResumesOnEventLoop() throws Exception {
+			final CompletableFuture<ZuulMessage> result = new CompletableFuture<>();
+			final TestFilter filter = new TestFilter(result);
+
+			assertNull(onEventLoop(() -> runner.filter(filter, inMesg)));
+			assertEquals(1, filter.concurrency);
+
+			final ZuulMessage outMesg = new ZuulMessageImpl(inMesg.getContext());
+			result.complete(outMesg);
+			assertTrue(resumeLatch.await(5, TimeUnit.SECONDS));
+			onEventLoop(() -> null);
+
+			assertEquals(1, resumed.size());
+			assertSame(outMesg, resumed.get(0));
+			assertTrue(resumedOnEventLoop.get(0));
+			assertEquals(0, filter.concurrency);
+			verify(usageNotifier).notify(filter, SUCCESS);
+		}
+
+		@Test
+		public void testStageFailedOffEventLoopResumesOnEventLoop() throws Exception {
+			final CompletableFuture<ZuulMessage> result = new CompletableFuture<>();
+			final TestFilter filter = new TestFilter(result);
+
+			assertNull(onEventLoop(() -> runner.filter(filter, inMesg)));
+
+			final IllegalStateException failure = new IllegalStateException("boom");
+			result.completeExceptionally(failure);
+			assertTrue(resumeLatch.await(5, TimeUnit.SECONDS));
+			onEventLoop(() -> null);
+
+			assertEquals(1, resumed.size());
+			assertSame(inMesg, resumed.get(0));
+			assertTrue(resumedOnEventLoop.get(0));
+			assertSame(failure, inMesg.getContext().getError());
+			assertEquals(0, filter.concurrency);
+			verify(usageNotifier).notify(filter, FAILED);
+		}
+
+		@Test
+		public void testStageCompletedOnEventLoopResumesOnce() throws Exception {
+			final CompletableFuture<ZuulMessage> result = new CompletableFuture<>();
+			final TestFilter filter = new TestFilter(result);
+
+			assertNull(onEventLoop(() -> runner.filter(filter, inMesg)));
+			onEventLoop(() -> result.complete(inMesg));
+
+			assertEquals(1, resumed.size());
+			assertTrue(resumedOnEventLoop.get(0));
+			assertEquals(0, filter.concurrency);
+		}
+
+		@Test
+		public void testCompletedStageOffEventLoopResumesOnEventLoop() throws Exception {
+			final TestFilter filter = new TestFilter(CompletableFuture.completedFuture(inMesg));
+
+			assertNull(runner.filter(filter, inMesg));
+			assertTrue(resumeLatch.await(5, TimeUnit.SECONDS));
+			onEventLoop(() -> null);
+
+			assertEquals(1, resumed.size());
+			assertTrue(resumedOnEventLoop.get(0));
+			assertEquals(0, filter.concurrency);
+		}
+	}
 }
@@ -0,0 +1,277 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ *      Licensed under the Apache License, Version 2.0 (the "License");
+ *      you may not use this file except in compliance with the License.
+ *      You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *      Unless required by applicable law or agreed to in writing, software
+ *      distributed under the License is distributed on an "AS IS" BASIS,
+ *      WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *      See the License for the specific language governing permissions and
+ *      limitations under the License.
+ */
+
+package com.netflix.zuul.netty.filter;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.netflix.config.CachedDynamicBooleanProperty;
+import com.netflix.config.CachedDynamicIntProperty;
+import com.netflix.config.ConfigurationManager;
+import com.netflix.spectator.api.histogram.PercentileBuckets;
+import com.netflix.zuul.ExecutionStatus;
+import com.netflix.zuul.filters.FilterType;
+import com.netflix.zuul.filters.ZuulFilter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Per-filter execution profile, for finding which filters are worth optimizing.
+ *
+ * When turned on at runtime with zuul.filters.profiling.enabled, each filter's executions are counted by status, and
+ * the execution time of a sample of them (zuul.filters.profiling.samplePercent) is recorded in nanoseconds into an
+ * in-memory histogram using spectator's percentile buckets. When off, the cost to the filter runners is a single
+ * property check.
+ */
+public final class FilterProfiler {
+	private static final CachedDynamicBooleanProperty ENABLED =
+			new CachedDynamicBooleanProperty("zuul.filters.profiling.enabled", false);
+	private static final CachedDynamicIntProperty SAMPLE_PERCENT =
+			new CachedDynamicIntProperty("zuul.filters.profiling.samplePercent", 100);
+
+	private static final ObjectMapper JACKSON_MAPPER = new ObjectMapper();
+	private static final ConcurrentHashMap<String, FilterProfile> PROFILES = new ConcurrentHashMap<>();
+
+	private FilterProfiler() {
+	}
+
+	public static boolean isEnabled() {
+		return ENABLED.get();
+	}
+
+	public static void record(ZuulFilter<?, ?> filter, ExecutionStatus status, long execNanos) {
+		final String key = filter.filterType() + ":" + filter.filterName();
+		FilterProfile profile = PROFILES.get(key);
+		if (profile == null) {
+			profile = PROFILES.computeIfAbsent(key, k -> new FilterProfile(filter.filterName(), filter.filterType()));
+		}
+		profile.record(status, execNanos);
+	}
+
+	/**
+	 * @return the filter's profile, or null if it hasn't run while profiling was on
+	 */
+	public static FilterProfile getProfile(ZuulFilter<?, ?> filter) {
+		return PROFILES.get(filter.filterType() + ":" + filter.filterName());
+	}
+
+	/**
+	 * The profiled filters with the highest 99th percentile execution time, slowest first.
+	 */
+	public static List<FilterProfile> getSlowest(int n) {
+		return PROFILES.values().stream()
+				.sorted(Comparator.comparingDouble((FilterProfile p) -> p.getPercentileNanos(99)).reversed())
+				.limit(n)
+				.collect(Collectors.toList());
+	}
+
+	public static ArrayNode toJsonNode(int n) {
+		final ArrayNode array = JACKSON_MAPPER.createArrayNode();
+		for (FilterProfile profile : getSlowest(n)) {
+			array.add(profile.toJsonNode());
+		}
+		return array;
+	}
+
+	public static String toJSON(int n) {
+		try {
+			return JACKSON_MAPPER.writeValueAsString(toJsonNode(n));
+		} catch (JsonProcessingException e) {
+			throw new RuntimeException("Error serializing filter profiles!", e);
+		}
+	}
+
+	public static void reset() {
+		PROFILES.clear();
+	}
+
+	private static boolean shouldSample() {
+		final int percent = SAMPLE_PERCENT.get();
+		return percent >= 100 || ThreadLocalRandom.current().nextInt(100) < percent;
+	}
+
+
+	public static final class FilterProfile {
+		private final String name;
+		private final FilterType type;
+
+		private final LongAdder success = new LongAdder();
+		private final LongAdder failed = new LongAdder();
+		private final LongAdder skipped = new LongAdder();
+		private final LongAdder disabled = new LongAdder();
+
+		private final AtomicLongArray buckets = new AtomicLongArray(PercentileBuckets.length());
+		private final LongAdder sampledCount = new LongAdder();
+		private final LongAdder sampledTotalNanos = new LongAdder();
+
+		FilterProfile(String name, FilterType type) {
+			this.name = name;
+			this.type = type;
+		}
+
+		void record(ExecutionStatus status, long execNanos) {
+			switch (status) {
+				case SUCCESS:
+					success.increment();
+					break;
+				case FAILED:
+					failed.increment();
+					break;
+				case SKIPPED:
+					skipped.increment();
+					break;
+				case DISABLED:
+					disabled.increment();
+					break;
+				default:
+					return;
+			}
+
+			// Skipped and disabled filters didn't run, so their time says nothing about the filter.
+			if ((status == ExecutionStatus.SUCCESS || status == ExecutionStatus.FAILED) && shouldSample()) {
+				buckets.incrementAndGet(PercentileBuckets.indexOf(Math.max(execNanos, 0)));
+				sampledCount.increment();
+				sampledTotalNanos.add(execNanos);
+			}
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public FilterType getType() {
+			return type;
+		}
+
+		public double getPercentileNanos(double percentile) {
+			final long[] counts = new long[buckets.length()];
+			for (int i = 0; i < counts.length; i++) {
+				counts[i] = buckets.get(i);
+			}
+			return PercentileBuckets.percentile(counts, percentile);
+		}
+
+		public double getMeanNanos() {
+			final long count = sampledCount.sum();
+			return count == 0 ? 0 : (double) sampledTotalNanos.sum() / count;
+		}
+
+		public ObjectNode toJsonNode() {
+			final ObjectNode root = JACKSON_MAPPER.createObjectNode();
+			root.put("name", name);
+			root.put("type", type.toString());
+			root.put("success", success.sum());
+			root.put("failed", failed.sum());
+			root.put("skipped", skipped.sum());
+			root.put("disabled", disabled.sum());
+			root.put("sampled", sampledCount.sum());
+			root.put("meanMicros", toMicros(getMeanNanos()));
+			root.put("p50Micros", toMicros(getPercentileNanos(50)));
+			root.put("p90Micros", toMicros(getPercentileNanos(90)));
+			root.put("p99Micros", toMicros(getPercentileNanos(99)));
+			return root;
+		}
+
+		private static double toMicros(double nanos) {
+			return nanos / TimeUnit.MICROSECONDS.toNanos(1);
+		}
+	}
+
+
+	public static class UnitTest {
+		@Before
+		public void setup() {
+			ConfigurationManager.getConfigInstance().setProperty("zuul.filters.profiling.enabled", true);
+			reset();
+		}
+
+		@After
+		public void teardown() {
+			ConfigurationManager.getConfigInstance().clearProperty("zuul.filters.profiling.enabled");
+			ConfigurationManager.getConfigInstance().clearProperty("zuul.filters.profiling.samplePercent");
+			reset();
+		}
+
+		private static ZuulFilter<?, ?> filter(String name) {
+			final ZuulFilter<?, ?> filter = mock(ZuulFilter.class);
+			when(filter.filterName()).thenReturn(name);
+			when(filter.filterType()).thenReturn(FilterType.INBOUND);
+			return filter;
+		}
+
+		@Test
+		public void testSlowestFirst() {
+			final ZuulFilter<?, ?> fast = filter("fast");
+			final ZuulFilter<?, ?> slow = filter("slow");
+			for (int i = 0; i < 100; i++) {
+				record(fast, ExecutionStatus.SUCCESS, 2_000);
+				record(slow, ExecutionStatus.SUCCESS, 900_000);
+			}
+			record(fast, ExecutionStatus.SKIPPED, 10);
+			record(slow, ExecutionStatus.FAILED, 1_000_000);
+
+			final List<FilterProfile> slowest = getSlowest(10);
+			assertEquals(2, slowest.size());
+			assertEquals("slow", slowest.get(0).getName());
+			assertTrue(slowest.get(0).getPercentileNanos(50) > slowest.get(1).getPercentileNanos(99));
+
+			final ObjectNode fastNode = slowest.get(1).toJsonNode();
+			assertEquals(100, fastNode.get("success").asLong());
+			assertEquals(1, fastNode.get("skipped").asLong());
+			assertEquals(100, fastNode.get("sampled").asLong());
+			assertEquals(1, slowest.get(0).toJsonNode().get("failed").asLong());
+
+			assertEquals(1, getSlowest(1).size());
+		}
+
+		@Test
+		public void testSampling() {
+			ConfigurationManager.getConfigInstance().setProperty("zuul.filters.profiling.samplePercent", 0);
+			final ZuulFilter<?, ?> filter = filter("unsampled");
+			record(filter, ExecutionStatus.SUCCESS, 5_000);
+
+			final ObjectNode node = getSlowest(1).get(0).toJsonNode();
+			assertEquals(1, node.get("success").asLong());
+			assertEquals(0, node.get("sampled").asLong());
+		}
+
+		@Test
+		public void testToggledAtRuntime() {
+			assertTrue(isEnabled());
+			ConfigurationManager.getConfigInstance().setProperty("zuul.filters.profiling.enabled", false);
+			assertFalse(isEnabled());
+		}
+	}
+}
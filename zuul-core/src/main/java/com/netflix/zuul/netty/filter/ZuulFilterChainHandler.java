@@ -105,6 +105,17 @@ public class ZuulFilterChainHandler extends ChannelInboundHandlerAdapter {
 		super.userEventTriggered(ctx, evt);
 	}
 
+	@Override
+	public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+		if (zuulRequest != null) {
+			final ZuulFilter<?, ?> endpoint = ZuulEndPointRunner.getEndpoint(zuulRequest);
+			if (endpoint instanceof ProxyEndpoint) {
+				((ProxyEndpoint) endpoint).clientWritabilityChanged(ctx.channel().isWritable());
+			}
+		}
+		super.channelWritabilityChanged(ctx);
+	}
+
 	private void sendResponse(final StatusCategory statusCategory, final int status, ChannelHandlerContext ctx) {
 		if (zuulRequest == null) {
 			ctx.close();
@@ -83,6 +83,10 @@ public class PassportLoggingHandler extends ChannelInboundHandlerAdapter {
 
 		String topLevelRequestId = getRequestId(channel, ctx);
 
+		if (SlowRequestRecorder.isEnabled()) {
+			recordForSampling(request, response, passport);
+		}
+
 		// Do some debug logging of the Passport.
 		if (LOG.isDebugEnabled()) {
 			LOG.debug("State after complete. "
@@ -133,6 +137,14 @@ public class PassportLoggingHandler extends ChannelInboundHandlerAdapter {
 		}
 	}
 
+	protected void recordForSampling(HttpRequestMessage request, HttpResponseMessage response, CurrentPassport passport) {
+		if (request == null || passport.getHistory().isEmpty() || isHealthcheckRequest(request)) {
+			return;
+		}
+		long durationNs = passport.calculateTimeBetweenFirstAnd(PassportState.OUT_RESP_LAST_CONTENT_SENT);
+		SlowRequestRecorder.record(request, response, passport, durationNs);
+	}
+
 	protected boolean isHealthcheckRequest(HttpRequestMessage req) {
 		return req.getPath().equals("/healthcheck");
 	}
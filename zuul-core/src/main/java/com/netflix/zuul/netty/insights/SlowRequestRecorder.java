@@ -0,0 +1,419 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ *      Licensed under the Apache License, Version 2.0 (the "License");
+ *      you may not use this file except in compliance with the License.
+ *      You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *      Unless required by applicable law or agreed to in writing, software
+ *      distributed under the License is distributed on an "AS IS" BASIS,
+ *      WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *      See the License for the specific language governing permissions and
+ *      limitations under the License.
+ */
+
+package com.netflix.zuul.netty.insights;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.netflix.config.CachedDynamicBooleanProperty;
+import com.netflix.config.CachedDynamicDoubleProperty;
+import com.netflix.config.CachedDynamicIntProperty;
+import com.netflix.config.CachedDynamicLongProperty;
+import com.netflix.config.ConfigurationManager;
+import com.netflix.config.DynamicIntProperty;
+import com.netflix.config.DynamicStringProperty;
+import com.netflix.spectator.api.Counter;
+import com.netflix.spectator.api.Spectator;
+import com.netflix.spectator.api.histogram.PercentileBuckets;
+import com.netflix.zuul.context.SessionContext;
+import com.netflix.zuul.message.Headers;
+import com.netflix.zuul.message.http.HttpQueryParams;
+import com.netflix.zuul.message.http.HttpRequestMessage;
+import com.netflix.zuul.message.http.HttpRequestMessageImpl;
+import com.netflix.zuul.message.http.HttpResponseMessage;
+import com.netflix.zuul.message.http.HttpResponseMessageImpl;
+import com.netflix.zuul.niws.RequestAttempt;
+import com.netflix.zuul.niws.RequestAttempts;
+import com.netflix.zuul.passport.CurrentPassport;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.BiPredicate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tail-sampling recorder of slow requests.
+ *
+ * Every completed request's duration is counted into a histogram, and requests slower than the configured percentile
+ * of the previous window (zuul.passport.sampling.percentile), or matching one of the registered capture conditions,
+ * are captured with their full passport, request attempts, filter execution summary and a configurable set of request
+ * headers. Captures are kept in a fixed size ring buffer so that the newest ones are always available from the admin
+ * port, and can optionally be appended as JSON lines to a file by a background thread.
+ *
+ * The ring buffer is sized once at startup by zuul.passport.sampling.capacity.
+ */
+public final class SlowRequestRecorder {
+	private static final Logger LOG = LoggerFactory.getLogger(SlowRequestRecorder.class);
+
+	private static final CachedDynamicBooleanProperty ENABLED =
+			new CachedDynamicBooleanProperty("zuul.passport.sampling.enabled", false);
+	private static final CachedDynamicDoubleProperty PERCENTILE =
+			new CachedDynamicDoubleProperty("zuul.passport.sampling.percentile", 99.9);
+	private static final CachedDynamicLongProperty MIN_DURATION_MS =
+			new CachedDynamicLongProperty("zuul.passport.sampling.minDurationMs", 100);
+	private static final CachedDynamicLongProperty WINDOW_MS =
+			new CachedDynamicLongProperty("zuul.passport.sampling.windowMs", 60 * 1000);
+	private static final CachedDynamicIntProperty MIN_WINDOW_REQUESTS =
+			new CachedDynamicIntProperty("zuul.passport.sampling.minWindowRequests", 1000);
+	private static final DynamicStringProperty HEADERS =
+			new DynamicStringProperty("zuul.passport.sampling.headers", "host,user-agent,x-forwarded-for");
+	private static final DynamicStringProperty FLUSH_DIR =
+			new DynamicStringProperty("zuul.passport.sampling.flush.dir", "");
+	private static final DynamicIntProperty FLUSH_INTERVAL_SEC =
+			new DynamicIntProperty("zuul.passport.sampling.flush.intervalSec", 60);
+
+	static final String FLUSH_FILE_NAME = "slow-requests.jsonl";
+
+	private static final ObjectMapper JACKSON_MAPPER = new ObjectMapper();
+	private static final Counter CAPTURED = Spectator.globalRegistry().counter("zuul.passport.sampling.captured");
+
+	private static final List<BiPredicate<HttpRequestMessage, HttpResponseMessage>> CAPTURE_CONDITIONS =
+			new CopyOnWriteArrayList<>();
+
+	private static final AtomicReferenceArray<ObjectNode> RING =
+			new AtomicReferenceArray<>(Math.max(1, new DynamicIntProperty("zuul.passport.sampling.capacity", 256).get()));
+	private static final AtomicLong SEQUENCE = new AtomicLong();
+
+	/* Durations of the current window, and the capture threshold derived from the previous one */
+	private static volatile AtomicLongArray window = new AtomicLongArray(PercentileBuckets.length());
+	private static final AtomicLong WINDOW_COUNT = new AtomicLong();
+	private static final AtomicLong WINDOW_START_MS = new AtomicLong(System.currentTimeMillis());
+	private static volatile long thresholdNanos = Long.MAX_VALUE;
+
+	private static volatile ScheduledExecutorService flushExecutor;
+	private static long lastFlushedSequence = 0;
+
+	private SlowRequestRecorder() {
+	}
+
+	public static boolean isEnabled() {
+		return ENABLED.get();
+	}
+
+	/**
+	 * Captures requests matching the condition regardless of their duration, eg. all requests that were retried.
+	 * The condition is called for every completed request, so it needs to be cheap. The response may be null.
+	 */
+	public static void addCaptureCondition(BiPredicate<HttpRequestMessage, HttpResponseMessage> condition) {
+		CAPTURE_CONDITIONS.add(condition);
+	}
+
+	/**
+	 * Records a completed request, capturing it if it's slower than the current threshold.
+	 *
+	 * @return whether the request was captured
+	 */
+	public static boolean record(HttpRequestMessage request, HttpResponseMessage response, CurrentPassport passport,
+								 long durationNanos) {
+		if (request == null) {
+			return false;
+		}
+		durationNanos = Math.max(durationNanos, 0);
+		countDuration(durationNanos);
+
+		boolean capture = durationNanos >= getThresholdNanos();
+		for (int i = 0; !capture && i < CAPTURE_CONDITIONS.size(); i++) {
+			capture = CAPTURE_CONDITIONS.get(i).test(request, response);
+		}
+		if (capture) {
+			capture(request, response, passport, durationNanos);
+		}
+		return capture;
+	}
+
+	/**
+	 * @return the duration above which requests are currently captured
+	 */
+	public static long getThresholdNanos() {
+		return Math.max(thresholdNanos, TimeUnit.MILLISECONDS.toNanos(MIN_DURATION_MS.get()));
+	}
+
+	/**
+	 * @return the captured requests, newest first
+	 */
+	public static ArrayNode getCaptured() {
+		final ArrayNode array = JACKSON_MAPPER.createArrayNode();
+		final long last = SEQUENCE.get();
+		for (long seq = last; seq > 0 && seq > last - RING.length(); seq--) {
+			final ObjectNode node = RING.get(index(seq));
+			if (node != null && node.get("seq").asLong() == seq) {
+				array.add(node);
+			}
+		}
+		return array;
+	}
+
+	public static ObjectNode toJsonNode() {
+		final ObjectNode root = JACKSON_MAPPER.createObjectNode();
+		root.put("enabled", isEnabled());
+		final long threshold = getThresholdNanos();
+		root.put("thresholdMs", threshold == Long.MAX_VALUE ? -1 : TimeUnit.NANOSECONDS.toMillis(threshold));
+		root.put("capacity", RING.length());
+		root.put("captured", SEQUENCE.get());
+		root.set("requests", getCaptured());
+		return root;
+	}
+
+	/**
+	 * Appends the requests captured since the last flush to the given file, one JSON object per line.
+	 */
+	public static synchronized void flushTo(File file) throws IOException {
+		final ArrayNode captured = getCaptured();
+		long newest = lastFlushedSequence;
+		try (Writer writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8,
+				StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+			// Oldest first, so that the file stays in capture order.
+			for (int i = captured.size() - 1; i >= 0; i--) {
+				final long seq = captured.get(i).get("seq").asLong();
+				if (seq > lastFlushedSequence) {
+					writer.write(JACKSON_MAPPER.writeValueAsString(captured.get(i)));
+					writer.write('\n');
+					newest = Math.max(newest, seq);
+				}
+			}
+		}
+		lastFlushedSequence = newest;
+	}
+
+	static synchronized void reset() {
+		for (int i = 0; i < RING.length(); i++) {
+			RING.set(i, null);
+		}
+		SEQUENCE.set(0);
+		lastFlushedSequence = 0;
+		window = new AtomicLongArray(PercentileBuckets.length());
+		WINDOW_COUNT.set(0);
+		WINDOW_START_MS.set(System.currentTimeMillis());
+		thresholdNanos = Long.MAX_VALUE;
+		CAPTURE_CONDITIONS.clear();
+	}
+
+	private static void countDuration(long durationNanos) {
+		final long now = System.currentTimeMillis();
+		final long windowStart = WINDOW_START_MS.get();
+		if (now - windowStart >= WINDOW_MS.get() && WINDOW_START_MS.compareAndSet(windowStart, now)) {
+			rollWindow();
+		}
+		window.incrementAndGet(PercentileBuckets.indexOf(durationNanos));
+		WINDOW_COUNT.incrementAndGet();
+	}
+
+	/**
+	 * Derives the threshold from the window just ended. Too quiet a window says little about the tail, so the previous
+	 * threshold is kept until there's a window with enough requests in it.
+	 */
+	private static void rollWindow() {
+		final AtomicLongArray ended = window;
+		window = new AtomicLongArray(PercentileBuckets.length());
+		final long count = WINDOW_COUNT.getAndSet(0);
+		if (count < MIN_WINDOW_REQUESTS.get()) {
+			return;
+		}
+		final long[] counts = new long[ended.length()];
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] = ended.get(i);
+		}
+		thresholdNanos = (long) PercentileBuckets.percentile(counts, PERCENTILE.get());
+	}
+
+	private static void capture(HttpRequestMessage request, HttpResponseMessage response, CurrentPassport passport,
+								long durationNanos) {
+		final long seq = SEQUENCE.incrementAndGet();
+		final ObjectNode node = JACKSON_MAPPER.createObjectNode();
+		node.put("seq", seq);
+		node.put("timestamp", System.currentTimeMillis());
+
+		final SessionContext context = request.getContext();
+		node.put("id", context == null ? "-" : context.getUUID());
+		node.put("method", request.getMethod());
+		node.put("uri", request.getPathAndQuery());
+		node.put("status", response == null ? -1 : response.getStatus());
+		node.put("durationMs", (double) durationNanos / TimeUnit.MILLISECONDS.toNanos(1));
+
+		final ObjectNode headers = node.putObject("headers");
+		for (String name : HEADERS.get().split(",")) {
+			final String value = request.getHeaders().getFirst(name.trim());
+			if (value != null) {
+				headers.put(name.trim(), value);
+			}
+		}
+
+		if (context != null) {
+			final RequestAttempts attempts = RequestAttempts.getFromSessionContext(context);
+			if (attempts != null) {
+				final ArrayNode attemptsNode = node.putArray("attempts");
+				for (RequestAttempt attempt : attempts) {
+					attemptsNode.add(attempt.toJsonNode());
+				}
+			}
+			if (context.getFilterExecutionSummary() != null) {
+				node.put("filters", context.getFilterExecutionSummary().toString());
+			}
+			if (context.getError() != null) {
+				node.put("error", String.valueOf(context.getError()));
+			}
+		}
+		node.put("passport", String.valueOf(passport));
+
+		RING.set(index(seq), node);
+		CAPTURED.increment();
+		startFlushingIfConfigured();
+	}
+
+	private static int index(long seq) {
+		return (int) (seq % RING.length());
+	}
+
+	private static void startFlushingIfConfigured() {
+		if (flushExecutor != null || FLUSH_DIR.get().isEmpty()) {
+			return;
+		}
+		synchronized (SlowRequestRecorder.class) {
+			if (flushExecutor != null) {
+				return;
+			}
+			flushExecutor = Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("ZuulSlowRequestFlush", true));
+			final long interval = Math.max(1, FLUSH_INTERVAL_SEC.get());
+			flushExecutor.scheduleWithFixedDelay(() -> {
+				final String dir = FLUSH_DIR.get();
+				if (dir.isEmpty()) {
+					return;
+				}
+				try {
+					flushTo(new File(dir, FLUSH_FILE_NAME));
+				} catch (Exception e) {
+					LOG.warn("Error flushing slow requests to " + dir, e);
+				}
+			}, interval, interval, TimeUnit.SECONDS);
+		}
+	}
+
+
+	public static class UnitTest {
+		@Before
+		public void setup() {
+			ConfigurationManager.getConfigInstance().setProperty("zuul.passport.sampling.minDurationMs", 0);
+			reset();
+		}
+
+		@After
+		public void teardown() {
+			ConfigurationManager.getConfigInstance().clearProperty("zuul.passport.sampling.minDurationMs");
+			ConfigurationManager.getConfigInstance().clearProperty("zuul.passport.sampling.minWindowRequests");
+			reset();
+		}
+
+		private static HttpRequestMessage request(String path) {
+			final Headers headers = new Headers();
+			headers.add("Host", "api.netflix.com");
+			return new HttpRequestMessageImpl(new SessionContext(), "HTTP/1.1", "GET", path, new HttpQueryParams(),
+					headers, "127.0.0.1", "http", 7001, "localhost");
+		}
+
+		private static boolean record(String path, long durationMs) {
+			final HttpRequestMessage request = request(path);
+			final HttpResponseMessage response = new HttpResponseMessageImpl(request.getContext(), request, 200);
+			return SlowRequestRecorder.record(request, response, CurrentPassport.create(),
+					TimeUnit.MILLISECONDS.toNanos(durationMs));
+		}
+
+		@Test
+		public void testNothingCapturedUntilThresholdKnown() {
+			assertFalse(record("/slow", 10_000));
+			assertEquals(0, getCaptured().size());
+		}
+
+		@Test
+		public void testCapturesAboveWindowPercentile() {
+			ConfigurationManager.getConfigInstance().setProperty("zuul.passport.sampling.minWindowRequests", 100);
+			for (int i = 0; i < 1000; i++) {
+				record("/fast", 5);
+			}
+			// End the window, so the threshold is derived from the fast requests.
+			WINDOW_START_MS.set(0);
+			assertFalse(record("/fast", 1));
+			assertTrue(record("/slow", 500));
+
+			final ArrayNode captured = getCaptured();
+			assertEquals(1, captured.size());
+			assertEquals("/slow", captured.get(0).get("uri").asText());
+			assertEquals(200, captured.get(0).get("status").asInt());
+			assertEquals("api.netflix.com", captured.get(0).get("headers").get("host").asText());
+			assertTrue(captured.get(0).get("passport").asText().startsWith("CurrentPassport"));
+		}
+
+		@Test
+		public void testCaptureCondition() {
+			addCaptureCondition((req, resp) -> req.getPath().equals("/matched"));
+			assertFalse(record("/other", 1));
+			assertTrue(record("/matched", 1));
+			assertEquals("/matched", getCaptured().get(0).get("uri").asText());
+		}
+
+		@Test
+		public void testRingKeepsNewest() {
+			addCaptureCondition((req, resp) -> true);
+			for (int i = 0; i < RING.length() + 10; i++) {
+				record("/" + i, 1);
+			}
+			final ArrayNode captured = getCaptured();
+			assertEquals(RING.length(), captured.size());
+			assertEquals("/" + (RING.length() + 9), captured.get(0).get("uri").asText());
+			assertEquals("/10", captured.get(captured.size() - 1).get("uri").asText());
+		}
+
+		@Test
+		public void testFlushAppendsOnlyNewCaptures() throws IOException {
+			addCaptureCondition((req, resp) -> true);
+			final File file = File.createTempFile("slow-requests", ".jsonl");
+			try {
+				record("/a", 1);
+				flushTo(file);
+				record("/b", 1);
+				flushTo(file);
+
+				final List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+				assertEquals(2, lines.size());
+				assertEquals("/a", JACKSON_MAPPER.readTree(lines.get(0)).get("uri").asText());
+				assertEquals("/b", JACKSON_MAPPER.readTree(lines.get(1)).get("uri").asText());
+			} finally {
+				file.delete();
+			}
+		}
+	}
+}
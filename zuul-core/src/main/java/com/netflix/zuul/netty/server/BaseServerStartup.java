@@ -35,6 +35,10 @@ import com.netflix.zuul.FilterLoader;
 import com.netflix.zuul.FilterUsageNotifier;
 import com.netflix.zuul.RequestCompleteHandler;
 import com.netflix.zuul.context.SessionContextDecorator;
+import com.netflix.zuul.netty.filter.FilterProfiler;
+import com.netflix.zuul.netty.insights.SlowRequestRecorder;
+import com.netflix.zuul.netty.server.admin.AdminEndpoints;
+import com.netflix.zuul.netty.server.admin.AdminServer;
 import com.netflix.zuul.netty.ratelimiting.NullChannelHandlerProvider;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.group.ChannelGroup;
@@ -65,6 +69,7 @@ public abstract class BaseServerStartup {
 	private Map<Integer, ChannelInitializer> portsToChannelInitializers;
 	private ClientConnectionsShutdown clientConnectionsShutdown;
 	private Server server;
+	private AdminServer adminServer;
 
 
 	@Inject
@@ -91,6 +96,10 @@ public abstract class BaseServerStartup {
 		return server;
 	}
 
+	public AdminServer adminServer() {
+		return adminServer;
+	}
+
 	@PostConstruct
 	public void init() throws Exception {
 		// Channel的一些配置管理
@@ -106,6 +115,23 @@ public abstract class BaseServerStartup {
 		portsToChannelInitializers = choosePortsAndChannels(clientChannels, channelDeps);
 		// 根据上面的信息构建Server
 		server = new Server(portsToChannelInitializers, serverStatusManager, clientConnectionsShutdown, eventLoopGroupMetrics);
+
+		final int adminPort = AdminServer.PORT.get();
+		if (adminPort > -1) {
+			adminServer = new AdminServer();
+			addAdminEndpoints(adminServer);
+			adminServer.start(AdminServer.BIND_ADDRESS.get(), adminPort);
+			server.setAdminServer(adminServer);
+		}
+	}
+
+	/**
+	 * Registers the diagnostics served on the admin port. Override to add application specific endpoints.
+	 */
+	protected void addAdminEndpoints(AdminServer adminServer) {
+		AdminEndpoints.addAll(adminServer, filterLoader, eventLoopGroupMetrics, directMemoryMonitor);
+		adminServer.addEndpoint("/filters/profile", () -> FilterProfiler.toJsonNode(20))
+				.addEndpoint("/passports", SlowRequestRecorder::toJsonNode);
 	}
 
 	protected abstract Map<Integer, ChannelInitializer> choosePortsAndChannels(
@@ -152,6 +178,8 @@ public abstract class BaseServerStartup {
 				new DynamicIntProperty("server.connection.idle.timeout", 65 * 1000).get()));
 		config.add(new ChannelConfigValue(CommonChannelConfigKeys.httpRequestReadTimeout,
 				new DynamicIntProperty("server.http.request.read.timeout", 5000).get()));
+		config.add(new ChannelConfigValue<>(CommonChannelConfigKeys.flushConsolidationMaxFlushes,
+				new DynamicIntProperty("server.connection.flush.consolidation.max", CommonChannelConfigKeys.flushConsolidationMaxFlushes.defaultValue()).get()));
 
 		// For security, default to NEVER allowing XFF/Proxy headers from client.
 		config.add(new ChannelConfigValue(CommonChannelConfigKeys.allowProxyHeadersWhen, StripUntrustedProxyHeadersHandler.AllowWhen.NEVER));
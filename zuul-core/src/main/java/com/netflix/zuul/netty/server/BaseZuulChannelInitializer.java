@@ -48,17 +48,18 @@ import com.netflix.zuul.netty.insights.PassportLoggingHandler;
 import com.netflix.zuul.netty.insights.PassportStateHttpServerHandler;
 import com.netflix.zuul.netty.insights.PassportStateServerHandler;
 import com.netflix.zuul.netty.server.ssl.SslHandshakeInfoHandler;
+import com.netflix.zuul.netty.server.ssl.SslHandshakeThrottleHandler;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelPipeline;
 import io.netty.channel.group.ChannelGroup;
 import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.flush.FlushConsolidationHandler;
 import io.netty.handler.logging.LogLevel;
 import io.netty.handler.logging.LoggingHandler;
 import io.netty.handler.timeout.IdleStateHandler;
 
-import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 import static com.netflix.zuul.passport.PassportState.*;
@@ -70,6 +71,7 @@ import static com.netflix.zuul.passport.PassportState.*;
  */
 public abstract class BaseZuulChannelInitializer extends ChannelInitializer<Channel> {
 	public static final String HTTP_CODEC_HANDLER_NAME = "codec";
+	public static final String FLUSH_CONSOLIDATION_HANDLER_NAME = "flushConsolidation";
 
 	protected static final LoggingHandler nettyLogger = new LoggingHandler("zuul.server.nettylog", LogLevel.INFO);
 
@@ -86,6 +88,9 @@ public abstract class BaseZuulChannelInitializer extends ChannelInitializer<Chan
 	protected final int maxRequestsPerConnectionInBrownout;
 	protected final int connectionExpiry;
 	protected final int maxConnections;
+	protected final int flushConsolidationMaxFlushes;
+	protected final int maxPipelinedRequests;
+	protected final int maxPipelinedBytes;
 	private final int connCloseDelay;
 
 	protected final Registry registry;
@@ -147,6 +152,9 @@ public abstract class BaseZuulChannelInitializer extends ChannelInitializer<Chan
 		this.maxRequestsPerConnectionInBrownout = channelConfig.get(CommonChannelConfigKeys.maxRequestsPerConnectionInBrownout);
 		this.connectionExpiry = channelConfig.get(CommonChannelConfigKeys.connectionExpiry);
 		this.connCloseDelay = channelConfig.get(CommonChannelConfigKeys.connCloseDelay);
+		this.flushConsolidationMaxFlushes = channelConfig.get(CommonChannelConfigKeys.flushConsolidationMaxFlushes);
+		this.maxPipelinedRequests = channelConfig.get(CommonChannelConfigKeys.maxPipelinedRequests);
+		this.maxPipelinedBytes = channelConfig.get(CommonChannelConfigKeys.maxPipelinedBytes);
 
 		StripUntrustedProxyHeadersHandler.AllowWhen allowProxyHeadersWhen = channelConfig.get(CommonChannelConfigKeys.allowProxyHeadersWhen);
 		this.stripInboundProxyHeadersHandler = new StripUntrustedProxyHeadersHandler(allowProxyHeadersWhen);
@@ -186,12 +194,30 @@ public abstract class BaseZuulChannelInitializer extends ChannelInitializer<Chan
 		pipeline.addLast(maxConnectionsHandler);
 	}
 
+	/**
+	 * Coalesce the per-chunk flushes done when proxying a response, so that a chunky origin response costs us fewer
+	 * syscalls (and TLS records). Flushes done outside of a read on this channel (ie. when the data came from the
+	 * origin channel) are deferred until the end of the current event-loop cycle.
+	 *
+	 * Needs to be added on the application side of any SslHandler.
+	 */
+	protected void addFlushConsolidationHandler(ChannelPipeline pipeline) {
+		if (flushConsolidationMaxFlushes > 0) {
+			pipeline.addLast(FLUSH_CONSOLIDATION_HANDLER_NAME, new FlushConsolidationHandler(flushConsolidationMaxFlushes, true));
+		}
+	}
+
 	protected void addHttp1Handlers(ChannelPipeline pipeline) {
+		addFlushConsolidationHandler(pipeline);
 		pipeline.addLast(HTTP_CODEC_HANDLER_NAME, createHttpServerCodec());
 
 		pipeline.addLast(new Http1ConnectionCloseHandler(connCloseDelay));
 		pipeline.addLast("conn_expiry_handler",
 				new Http1ConnectionExpiryHandler(maxRequestsPerConnection, maxRequestsPerConnectionInBrownout, connectionExpiry));
+
+		if (maxPipelinedRequests > 0) {
+			pipeline.addLast(new HttpPipeliningHandler(maxPipelinedRequests, maxPipelinedBytes));
+		}
 	}
 
 	protected HttpServerCodec createHttpServerCodec() {
@@ -233,6 +259,12 @@ public abstract class BaseZuulChannelInitializer extends ChannelInitializer<Chan
 		pipeline.addLast(new CloseOnIdleStateHandler());
 	}
 
+	protected void addSslHandshakeThrottle(ChannelPipeline pipeline) {
+		if (SslHandshakeThrottleHandler.isEnabled()) {
+			pipeline.addLast("ssl_handshake_throttle", new SslHandshakeThrottleHandler());
+		}
+	}
+
 	protected void addSslInfoHandlers(ChannelPipeline pipeline, boolean isSSlFromIntermediary) {
 		pipeline.addLast("ssl_info", new SslHandshakeInfoHandler(registry, isSSlFromIntermediary));
 	}
@@ -295,12 +327,10 @@ public abstract class BaseZuulChannelInitializer extends ChannelInitializer<Chan
 	}
 
 	public <T extends ZuulMessage> ZuulFilter<T, T>[] getFilters(final ZuulFilter start, final ZuulFilter stop) {
-		final List<ZuulFilter> zuulFilters = filterLoader.getFiltersByType(start.filterType());
-		final ZuulFilter[] filters = new ZuulFilter[zuulFilters.size() + 2];
+		final ZuulFilter[] zuulFilters = filterLoader.getFilterArrayByType(start.filterType());
+		final ZuulFilter[] filters = new ZuulFilter[zuulFilters.length + 2];
 		filters[0] = start;
-		for (int i = 1, j = 0; i < filters.length && j < zuulFilters.size(); i++, j++) {
-			filters[i] = zuulFilters.get(j);
-		}
+		System.arraycopy(zuulFilters, 0, filters, 1, zuulFilters.length);
 		filters[filters.length - 1] = stop;
 		return filters;
 	}
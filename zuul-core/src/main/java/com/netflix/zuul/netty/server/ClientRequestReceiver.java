@@ -22,6 +22,7 @@ import com.netflix.zuul.context.CommonContextKeys;
 import com.netflix.zuul.context.Debug;
 import com.netflix.zuul.context.SessionContext;
 import com.netflix.zuul.context.SessionContextDecorator;
+import com.netflix.zuul.context.SessionContextRecycler;
 import com.netflix.zuul.exception.ZuulException;
 import com.netflix.zuul.message.Headers;
 import com.netflix.zuul.message.http.HttpQueryParams;
@@ -32,6 +33,7 @@ import com.netflix.zuul.netty.ChannelUtils;
 import com.netflix.zuul.netty.server.ssl.SslHandshakeInfoHandler;
 import com.netflix.zuul.passport.CurrentPassport;
 import com.netflix.zuul.passport.PassportState;
+import com.netflix.zuul.tracing.Tracing;
 import com.netflix.zuul.stats.status.StatusCategoryUtils;
 import com.netflix.zuul.stats.status.ZuulStatusCategory;
 import com.netflix.zuul.util.HttpUtils;
@@ -117,6 +119,7 @@ public class ClientRequestReceiver extends ChannelDuplexHandler {
 			}
 
 			zuulRequest = buildZuulHttpRequest(clientRequest, ctx);
+			Tracing.startRequest(zuulRequest);
 			handleExpect100Continue(ctx, clientRequest);
 
 			//Send the request down the filter pipeline
@@ -150,6 +153,7 @@ public class ClientRequestReceiver extends ChannelDuplexHandler {
 					// Only log this state if the response does not seem to have completed normally.
 					passport.add(PassportState.IN_REQ_CANCELLED);
 				}
+				Tracing.completeRequest(zuulRequest.getContext(), getResponseFromChannel(ctx.channel()), passport);
 			}
 
 			if (reason != SESSION_COMPLETE && zuulRequest != null) {
@@ -209,12 +213,12 @@ public class ClientRequestReceiver extends ChannelDuplexHandler {
 		// Setup the context for this request.
 		final SessionContext context;
 		if (decorator != null) { // Optionally decorate the context.
-			SessionContext tempContext = new SessionContext();
+			SessionContext tempContext = SessionContextRecycler.acquire(clientCtx.channel());
 			// Store the netty channel in SessionContext.
 			tempContext.set(CommonContextKeys.NETTY_SERVER_CHANNEL_HANDLER_CONTEXT, clientCtx);
 			context = decorator.decorate(tempContext);
 		} else {
-			context = new SessionContext();
+			context = SessionContextRecycler.acquire(clientCtx.channel());
 		}
 
 		// Get the client IP (ignore XFF headers at this point, as that can be app specific).
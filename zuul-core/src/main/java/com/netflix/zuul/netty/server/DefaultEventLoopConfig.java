@@ -25,6 +25,13 @@ public class DefaultEventLoopConfig implements EventLoopConfig {
 			new DynamicIntProperty("zuul.server.netty.threads.acceptor", 1);
 	private static final DynamicIntProperty WORKER_THREADS =
 			new DynamicIntProperty("zuul.server.netty.threads.worker", -1);
+	private static final DynamicIntProperty ACCEPT_BACKLOG =
+			new DynamicIntProperty("zuul.server.netty.socket.backlog", 128);
+	private static final DynamicIntProperty REUSEPORT_BINDS =
+			new DynamicIntProperty("zuul.server.netty.socket.reuseport.binds", 1);
+	private static final DynamicIntProperty TCP_FASTOPEN_QUEUE =
+			new DynamicIntProperty("zuul.server.netty.socket.tcpFastOpen.queueLength", 0);
+
 	private static final int PROCESSOR_COUNT = Runtime.getRuntime().availableProcessors();
 
 	private final int eventLoopCount;
@@ -49,4 +56,19 @@ public class DefaultEventLoopConfig implements EventLoopConfig {
 	public int acceptorCount() {
 		return acceptorCount;
 	}
+
+	@Override
+	public int acceptBacklog() {
+		return ACCEPT_BACKLOG.get();
+	}
+
+	@Override
+	public int reusePortBindCount() {
+		return Math.max(1, REUSEPORT_BINDS.get());
+	}
+
+	@Override
+	public int tcpFastOpenQueueLength() {
+		return TCP_FASTOPEN_QUEUE.get();
+	}
 }
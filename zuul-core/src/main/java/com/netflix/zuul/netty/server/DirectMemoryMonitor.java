@@ -61,6 +61,14 @@ public class DirectMemoryMonitor {
 		service.shutdown();
 	}
 
+	/**
+	 * @return the direct memory currently reserved through netty, or null if it couldn't be read
+	 */
+	public Long getReservedMemory() {
+		Current current = new Task().measure();
+		return current == null ? null : current.reservedMemory;
+	}
+
 	class Task implements Runnable {
 		@Override
 		public void run() {
@@ -19,4 +19,26 @@ public interface EventLoopConfig {
 	int eventLoopCount();
 
 	int acceptorCount();
+
+	/**
+	 * Listen backlog of each server socket.
+	 */
+	default int acceptBacklog() {
+		return 128;
+	}
+
+	/**
+	 * Number of times each port is bound with SO_REUSEPORT, each on its own acceptor event-loop, so that the kernel
+	 * load-balances new connections across them. Only applies to the epoll transport, and 1 binds once as usual.
+	 */
+	default int reusePortBindCount() {
+		return 1;
+	}
+
+	/**
+	 * Queue length for server-side TCP Fast Open, or 0 to leave it disabled. Only applies to the epoll transport.
+	 */
+	default int tcpFastOpenQueueLength() {
+		return 0;
+	}
 }
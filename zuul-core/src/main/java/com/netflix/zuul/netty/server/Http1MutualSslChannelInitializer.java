@@ -18,8 +18,12 @@ package com.netflix.zuul.netty.server;
 
 import com.netflix.netty.common.channel.config.ChannelConfig;
 import com.netflix.netty.common.channel.config.CommonChannelConfigKeys;
+import com.netflix.zuul.netty.server.ssl.SniSslHandler;
+import com.netflix.zuul.netty.ssl.OcspStapler;
+import com.netflix.zuul.netty.ssl.SniSslContextMapping;
 import com.netflix.zuul.netty.ssl.SslContextFactory;
 import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelPipeline;
 import io.netty.channel.group.ChannelGroup;
 import io.netty.handler.ssl.SslContext;
@@ -34,7 +38,7 @@ import javax.net.ssl.SSLException;
  */
 public class Http1MutualSslChannelInitializer extends BaseZuulChannelInitializer {
 	private final SslContextFactory sslContextFactory;
-	private final SslContext sslContext;
+	private final SniSslContextMapping sslContexts;
 	private final boolean isSSlFromIntermediary;
 
 	public Http1MutualSslChannelInitializer(
@@ -47,6 +51,14 @@ public class Http1MutualSslChannelInitializer extends BaseZuulChannelInitializer
 		this.isSSlFromIntermediary = channelConfig.get(CommonChannelConfigKeys.isSSlFromIntermediary);
 
 		this.sslContextFactory = channelConfig.get(CommonChannelConfigKeys.sslContextFactory);
+		this.sslContexts = new SniSslContextMapping(sslContextFactory,
+				channelConfig.get(CommonChannelConfigKeys.sniSslContextFactories),
+				(hostname, factory) -> buildSslContext(factory, hostname == null ? Integer.toString(port) : port + "-" + hostname));
+		sslContexts.startReloading();
+	}
+
+	private static SslContext buildSslContext(SslContextFactory sslContextFactory, String sslContextId) {
+		final SslContext sslContext;
 		try {
 			sslContext = sslContextFactory.createBuilderForServer().build();
 		} catch (SSLException e) {
@@ -56,14 +68,30 @@ public class Http1MutualSslChannelInitializer extends BaseZuulChannelInitializer
 		// Enable TLS Session Tickets support.
 		sslContextFactory.enableSessionTickets(sslContext);
 
+		// Size the server-side session cache.
+		sslContextFactory.configureSessionCache(sslContext);
+
+		// Staple OCSP responses for the certificate.
+		sslContextFactory.configureOcspStapling(sslContext);
+
 		// Setup metrics tracking the OpenSSL stats.
-		sslContextFactory.configureOpenSslStatsMetrics(sslContext, Integer.toString(port));
+		sslContextFactory.configureOpenSslStatsMetrics(sslContext, sslContextId);
+
+		return sslContext;
 	}
 
 	@Override
 	protected void initChannel(Channel ch) throws Exception {
-		SslHandler sslHandler = sslContext.newHandler(ch.alloc());
-		sslHandler.engine().setEnabledProtocols(sslContextFactory.getProtocols());
+		final ChannelHandler sslHandler;
+		if (sslContexts.hasSniHostnames()) {
+			sslHandler = new SniSslHandler(sslContexts, sslContextFactory.getProtocols());
+		} else {
+			SslContext sslContext = sslContexts.getDefaultContext();
+			SslHandler handler = sslContext.newHandler(ch.alloc());
+			handler.engine().setEnabledProtocols(sslContextFactory.getProtocols());
+			OcspStapler.staple(sslContext, handler);
+			sslHandler = handler;
+		}
 
 		// Configure our pipeline of ChannelHandlerS.
 		ChannelPipeline pipeline = ch.pipeline();
@@ -73,6 +101,7 @@ public class Http1MutualSslChannelInitializer extends BaseZuulChannelInitializer
 		addPassportHandler(pipeline);
 		addTcpRelatedHandlers(pipeline);
 		pipeline.addLast("ssl", sslHandler);
+		addSslHandshakeThrottle(pipeline);
 		addSslInfoHandlers(pipeline, isSSlFromIntermediary);
 		addSslClientCertChecks(pipeline);
 		addHttp1Handlers(pipeline);
@@ -20,7 +20,6 @@ import com.netflix.zuul.exception.OutboundException;
 import com.netflix.zuul.exception.ZuulException;
 import com.netflix.zuul.filters.endpoint.ProxyEndpoint;
 import com.netflix.zuul.message.Header;
-import com.netflix.zuul.message.http.HttpQueryParams;
 import com.netflix.zuul.message.http.HttpRequestMessage;
 import com.netflix.zuul.netty.ChannelUtils;
 import com.netflix.zuul.netty.connectionpool.OriginConnectException;
@@ -67,7 +66,7 @@ public class OriginResponseReceiver extends ChannelDuplexHandler {
 			if (edgeProxy != null) {
 				edgeProxy.responseFromOrigin((HttpResponse) msg);
 			}
-			ctx.channel().read();
+			readFromOrigin(ctx);
 		} else if (msg instanceof HttpContent) {
 			final HttpContent chunk = (HttpContent) msg;
 			if (edgeProxy != null) {
@@ -75,7 +74,7 @@ public class OriginResponseReceiver extends ChannelDuplexHandler {
 			} else {
 				chunk.release();
 			}
-			ctx.channel().read();
+			readFromOrigin(ctx);
 		} else {
 			//should never happen
 			ReferenceCountUtil.release(msg);
@@ -87,6 +86,24 @@ public class OriginResponseReceiver extends ChannelDuplexHandler {
 		}
 	}
 
+	private void readFromOrigin(final ChannelHandlerContext ctx) {
+		final ProxyEndpoint ep = edgeProxy;
+		if (ep != null) {
+			// Let the endpoint decide, as it may want to hold off until the client channel is writable again.
+			ep.readFromOrigin(ctx.channel());
+		} else {
+			ctx.channel().read();
+		}
+	}
+
+	@Override
+	public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+		if (edgeProxy != null) {
+			edgeProxy.originWritabilityChanged(ctx.channel().isWritable());
+		}
+		super.channelWritabilityChanged(ctx);
+	}
+
 	@Override
 	public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
 		if (evt instanceof CompleteEvent) {
@@ -150,13 +167,12 @@ public class OriginResponseReceiver extends ChannelDuplexHandler {
 	}
 
 	private static String pathAndQueryString(HttpRequestMessage request) {
-		// parsing the params cleans up any empty/null params using the logic of the HttpQueryParams class
-		final HttpQueryParams cleanParams = HttpQueryParams.parse(request.getQueryParams().toEncodedString());
-		final String cleanQueryStr = cleanParams.toEncodedString();
-		if (cleanQueryStr == null || cleanQueryStr.isEmpty()) {
+		// Forwards the client's raw query string untouched unless a filter has modified the params.
+		final String queryStr = request.getQueryParams().toRawOrEncodedString();
+		if (queryStr == null || queryStr.isEmpty()) {
 			return request.getPath();
 		} else {
-			return request.getPath() + "?" + cleanParams.toEncodedString();
+			return request.getPath() + "?" + queryStr;
 		}
 	}
 
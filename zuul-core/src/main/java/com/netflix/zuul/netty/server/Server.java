@@ -22,6 +22,8 @@ import com.netflix.netty.common.CategorizedThreadFactory;
 import com.netflix.netty.common.LeastConnsEventLoopChooserFactory;
 import com.netflix.netty.common.metrics.EventLoopGroupMetrics;
 import com.netflix.netty.common.status.ServerStatusManager;
+import com.netflix.zuul.netty.connectionpool.DefaultClientChannelManager;
+import com.netflix.zuul.netty.server.admin.AdminServer;
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.*;
 import io.netty.channel.epoll.EpollChannelOption;
@@ -88,6 +90,10 @@ public class Server {
 	 * EventLoop配置
 	 */
 	private final EventLoopConfig eventLoopConfig;
+	/**
+	 * 管理端口服务，随Server一起停止
+	 */
+	private volatile AdminServer adminServer;
 
 	public Server(Map<Integer, ChannelInitializer> portsToChannelInitializers, ServerStatusManager serverStatusManager, ClientConnectionsShutdown clientConnectionsShutdown, EventLoopGroupMetrics eventLoopGroupMetrics) {
 		this(portsToChannelInitializers, serverStatusManager, clientConnectionsShutdown, eventLoopGroupMetrics, new DefaultEventLoopConfig());
@@ -102,6 +108,13 @@ public class Server {
 		this.jvmShutdownHook = new Thread(() -> stop(), "Zuul-JVM-shutdown-hook");
 	}
 
+	/**
+	 * Sets the admin server to stop along with this server.
+	 */
+	public void setAdminServer(AdminServer adminServer) {
+		this.adminServer = adminServer;
+	}
+
 	public void stop() {
 		LOG.warn("Shutting down Zuul.");
 		// 停止服务，加锁
@@ -119,7 +132,10 @@ public class Server {
 
 	public void start(boolean sync) {
 		// 设置服务组的接收线程数量和工作线程数量，以及计数器
-		serverGroup = new ServerGroup("Salamander", eventLoopConfig.acceptorCount(), eventLoopConfig.eventLoopCount(), eventLoopGroupMetrics);
+		// With SO_REUSEPORT each bind of a port gets its own acceptor event-loop.
+		final int bindsPerPort = USE_EPOLL.get() ? eventLoopConfig.reusePortBindCount() : 1;
+		serverGroup = new ServerGroup("Salamander", Math.max(eventLoopConfig.acceptorCount(), bindsPerPort),
+				eventLoopConfig.eventLoopCount(), eventLoopGroupMetrics);
 		// 创建模型线程池
 		serverGroup.initializeTransport();
 		try {
@@ -127,7 +143,9 @@ public class Server {
 
 			for (Map.Entry<Integer, ChannelInitializer> entry : portsToChannelInitializers.entrySet()) {
 				// 根据端口和ChannelInitializer，添加对应的ChannelFuture任务
-				allBindFutures.add(setupServerBootstrap(entry.getKey(), entry.getValue()));
+				for (int i = 0; i < bindsPerPort; i++) {
+					allBindFutures.add(setupServerBootstrap(entry.getKey(), entry.getValue(), bindsPerPort > 1));
+				}
 			}
 
 			for (ChannelFuture f : allBindFutures) {
@@ -153,7 +171,7 @@ public class Server {
 		}
 	}
 
-	private ChannelFuture setupServerBootstrap(int port, ChannelInitializer channelInitializer)
+	private ChannelFuture setupServerBootstrap(int port, ChannelInitializer channelInitializer, boolean reusePort)
 			throws InterruptedException {
 		// 使用Netty的ServerBootstrap构建主线程池和工作线程池
 		ServerBootstrap serverBootstrap = new ServerBootstrap().group(
@@ -162,7 +180,7 @@ public class Server {
 
 		// 处理socket参数
 		Map<ChannelOption, Object> channelOptions = new HashMap<>();
-		channelOptions.put(ChannelOption.SO_BACKLOG, 128);
+		channelOptions.put(ChannelOption.SO_BACKLOG, eventLoopConfig.acceptBacklog());
 		//channelOptions.put(ChannelOption.SO_TIMEOUT, SERVER_SOCKET_TIMEOUT.get());
 		channelOptions.put(ChannelOption.SO_LINGER, -1);
 		channelOptions.put(ChannelOption.TCP_NODELAY, true);
@@ -173,6 +191,12 @@ public class Server {
 			LOG.warn("Proxy listening with TCP transport using EPOLL");
 			serverBootstrap = serverBootstrap.channel(EpollServerSocketChannel.class);
 			channelOptions.put(EpollChannelOption.TCP_DEFER_ACCEPT, Integer.valueOf(-1));
+			if (reusePort) {
+				channelOptions.put(EpollChannelOption.SO_REUSEPORT, true);
+			}
+			if (eventLoopConfig.tcpFastOpenQueueLength() > 0) {
+				channelOptions.put(EpollChannelOption.TCP_FASTOPEN, eventLoopConfig.tcpFastOpenQueueLength());
+			}
 		} else {
 			LOG.warn("Proxy listening with TCP transport using NIO");
 			serverBootstrap = serverBootstrap.channel(NioServerSocketChannel.class);
@@ -188,7 +212,7 @@ public class Server {
 		// 校验Netty的ChannelHandler和工作线程是否存在
 		serverBootstrap.validate();
 
-		LOG.info("Binding to port: " + port);
+		LOG.info("Binding to port: " + port + (reusePort ? " (SO_REUSEPORT)" : ""));
 
 		// 绑定端口前先更改Server状态
 		serverStatusManager.localStatus(InstanceInfo.InstanceStatus.UP);
@@ -294,6 +318,12 @@ public class Server {
 				((NioEventLoopGroup) clientToProxyWorkerPool).setIoRatio(90);
 			}
 
+			// Origin connections are made from the worker event-loops, so pre-warm the pools of the origins created
+			// so far there.
+			for (DefaultClientChannelManager manager : DefaultClientChannelManager.getAllManagers()) {
+				manager.setEventLoopGroup(clientToProxyWorkerPool);
+			}
+
 			// 创建完客户端的管理线程池和工作线程池的的后置处理
 			postEventLoopCreationHook(clientToProxyBossPool, clientToProxyWorkerPool);
 		}
@@ -313,6 +343,13 @@ public class Server {
 			// 核心思想方法是关闭所有的Channel，将Channel的close()事件放入到ChannelFuture中，然后等待所有ChannelFuture完成
 			clientConnectionsShutdown.gracefullyShutdownClientChannels();
 
+			// Kept up while client connections drain, so the server can still be inspected.
+			final AdminServer admin = adminServer;
+			if (admin != null) {
+				LOG.warn("Shutting down admin server");
+				admin.stop();
+			}
+
 			LOG.warn("Shutting down event loops");
 			List<EventLoopGroup> allEventLoopGroups = new ArrayList<>();
 			allEventLoopGroups.add(clientToProxyBossPool);
@@ -0,0 +1,199 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ *      Licensed under the Apache License, Version 2.0 (the "License");
+ *      you may not use this file except in compliance with the License.
+ *      You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *      Unless required by applicable law or agreed to in writing, software
+ *      distributed under the License is distributed on an "AS IS" BASIS,
+ *      WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *      See the License for the specific language governing permissions and
+ *      limitations under the License.
+ */
+
+package com.netflix.zuul.netty.server.admin;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.netflix.loadbalancer.Server;
+import com.netflix.netty.common.metrics.EventLoopGroupMetrics;
+import com.netflix.zuul.FilterLoader;
+import com.netflix.zuul.filters.FilterSyncType;
+import com.netflix.zuul.filters.FilterType;
+import com.netflix.zuul.filters.ZuulFilter;
+import com.netflix.zuul.netty.connectionpool.DefaultClientChannelManager;
+import com.netflix.zuul.netty.connectionpool.IConnectionPool;
+import com.netflix.zuul.netty.filter.FilterProfiler;
+import com.netflix.zuul.netty.server.DirectMemoryMonitor;
+import io.netty.buffer.PoolArenaMetric;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocatorMetric;
+import io.netty.util.internal.PlatformDependent;
+import org.junit.Test;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * The standard endpoints of the {@link AdminServer}.
+ */
+public final class AdminEndpoints {
+	private static final ObjectMapper JACKSON_MAPPER = new ObjectMapper();
+
+	private AdminEndpoints() {
+	}
+
+	public static void addAll(AdminServer adminServer, FilterLoader filterLoader, EventLoopGroupMetrics eventLoopGroupMetrics,
+							  DirectMemoryMonitor directMemoryMonitor) {
+		adminServer.addEndpoint("/pools", AdminEndpoints::connectionPools)
+				.addEndpoint("/eventloops", () -> eventLoops(eventLoopGroupMetrics))
+				.addEndpoint("/filters", () -> filters(filterLoader))
+				.addEndpoint("/memory", () -> memory(directMemoryMonitor));
+	}
+
+	/**
+	 * Connection pool state per origin, and per server of each origin.
+	 */
+	public static JsonNode connectionPools() {
+		ArrayNode origins = JACKSON_MAPPER.createArrayNode();
+		for (DefaultClientChannelManager manager : DefaultClientChannelManager.getAllManagers()) {
+			ObjectNode origin = origins.addObject();
+			origin.put("origin", manager.getConfig().getOriginName());
+			origin.put("vip", manager.getVip());
+			origin.put("connsInPool", manager.getConnsInPool());
+			origin.put("connsInUse", manager.getConnsInUse());
+			origin.put("inflightRequests", manager.getInflightRequestsCount());
+			origin.put("available", manager.isAvailable());
+			origin.put("cold", manager.isCold());
+
+			ArrayNode servers = origin.putArray("servers");
+			for (Map.Entry<Server, IConnectionPool> entry : manager.getServerPools().entrySet()) {
+				ObjectNode server = servers.addObject();
+				server.put("server", entry.getKey().getHostPort());
+				server.put("connsInPool", entry.getValue().getConnsInPool());
+				server.put("connsInUse", entry.getValue().getConnsInUse());
+				server.put("ejected", manager.getOutlierDetector().isEjected(entry.getKey()));
+			}
+		}
+		return origins;
+	}
+
+	/**
+	 * Current connections and requests on each worker event-loop.
+	 */
+	public static JsonNode eventLoops(EventLoopGroupMetrics metrics) {
+		ArrayNode eventLoops = JACKSON_MAPPER.createArrayNode();
+		Map<Thread, Integer> requests = metrics.httpRequestsPerEventLoop();
+		for (Map.Entry<Thread, Integer> entry : metrics.connectionsPerEventLoop().entrySet()) {
+			ObjectNode eventLoop = eventLoops.addObject();
+			eventLoop.put("name", entry.getKey().getName());
+			eventLoop.put("connections", entry.getValue());
+			eventLoop.put("requests", requests.getOrDefault(entry.getKey(), 0));
+		}
+		return eventLoops;
+	}
+
+	/**
+	 * Loaded filters in the order they run, with their execution profile if profiling is on.
+	 */
+	public static JsonNode filters(FilterLoader filterLoader) {
+		ArrayNode filters = JACKSON_MAPPER.createArrayNode();
+		for (FilterType type : FilterType.values()) {
+			for (ZuulFilter<?, ?> filter : filterLoader.getFilterArrayByType(type)) {
+				ObjectNode node = filters.addObject();
+				node.put("name", filter.filterName());
+				node.put("type", type.toString());
+				node.put("order", filter.filterOrder());
+				node.put("sync", filter.getSyncType().toString());
+				node.put("disabled", filter.isDisabled());
+
+				FilterProfiler.FilterProfile profile = FilterProfiler.getProfile(filter);
+				if (profile != null) {
+					node.set("profile", profile.toJsonNode());
+				}
+			}
+		}
+		return filters;
+	}
+
+	/**
+	 * Direct memory use, and the state of the pooled allocator's arenas.
+	 */
+	public static JsonNode memory(DirectMemoryMonitor directMemoryMonitor) {
+		ObjectNode memory = JACKSON_MAPPER.createObjectNode();
+		memory.put("maxDirectMemory", PlatformDependent.maxDirectMemory());
+		if (directMemoryMonitor != null) {
+			memory.put("nettyReservedDirectMemory", directMemoryMonitor.getReservedMemory());
+		}
+		for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+			ObjectNode node = memory.with("bufferPools").putObject(pool.getName());
+			node.put("count", pool.getCount());
+			node.put("memoryUsed", pool.getMemoryUsed());
+			node.put("totalCapacity", pool.getTotalCapacity());
+		}
+
+		PooledByteBufAllocatorMetric metric = PooledByteBufAllocator.DEFAULT.metric();
+		ObjectNode allocator = memory.putObject("pooledAllocator");
+		allocator.put("usedDirectMemory", metric.usedDirectMemory());
+		allocator.put("usedHeapMemory", metric.usedHeapMemory());
+		allocator.put("chunkSize", metric.chunkSize());
+		allocator.put("threadLocalCaches", metric.numThreadLocalCaches());
+		allocator.set("directArenas", arenas(metric.directArenas()));
+		allocator.set("heapArenas", arenas(metric.heapArenas()));
+		return memory;
+	}
+
+	private static ArrayNode arenas(List<PoolArenaMetric> arenaMetrics) {
+		ArrayNode arenas = JACKSON_MAPPER.createArrayNode();
+		for (PoolArenaMetric arenaMetric : arenaMetrics) {
+			ObjectNode arena = arenas.addObject();
+			arena.put("threadCaches", arenaMetric.numThreadCaches());
+			arena.put("activeAllocations", arenaMetric.numActiveAllocations());
+			arena.put("activeBytes", arenaMetric.numActiveBytes());
+			arena.put("allocations", arenaMetric.numAllocations());
+			arena.put("deallocations", arenaMetric.numDeallocations());
+			arena.put("hugeAllocations", arenaMetric.numHugeAllocations());
+		}
+		return arenas;
+	}
+
+
+	public static class UnitTest {
+		@Test
+		public void testFilters() {
+			ZuulFilter<?, ?> filter = mock(ZuulFilter.class);
+			when(filter.filterName()).thenReturn("TestFilter");
+			when(filter.filterOrder()).thenReturn(5);
+			when(filter.getSyncType()).thenReturn(FilterSyncType.SYNC);
+			FilterLoader filterLoader = mock(FilterLoader.class);
+			when(filterLoader.getFilterArrayByType(FilterType.INBOUND)).thenReturn(new ZuulFilter<?, ?>[]{filter});
+			when(filterLoader.getFilterArrayByType(FilterType.ENDPOINT)).thenReturn(new ZuulFilter<?, ?>[0]);
+			when(filterLoader.getFilterArrayByType(FilterType.OUTBOUND)).thenReturn(new ZuulFilter<?, ?>[0]);
+
+			JsonNode filters = filters(filterLoader);
+			assertEquals(1, filters.size());
+			assertEquals("TestFilter", filters.get(0).get("name").asText());
+			assertEquals("in", filters.get(0).get("type").asText());
+			assertEquals(5, filters.get(0).get("order").asInt());
+		}
+
+		@Test
+		public void testMemory() {
+			JsonNode memory = memory(null);
+			assertTrue(memory.get("maxDirectMemory").asLong() > 0);
+			assertTrue(memory.get("pooledAllocator").get("directArenas").isArray());
+		}
+	}
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ *      Licensed under the Apache License, Version 2.0 (the "License");
+ *      you may not use this file except in compliance with the License.
+ *      You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *      Unless required by applicable law or agreed to in writing, software
+ *      distributed under the License is distributed on an "AS IS" BASIS,
+ *      WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *      See the License for the specific language governing permissions and
+ *      limitations under the License.
+ */
+
+package com.netflix.zuul.netty.server.admin;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.netflix.config.DynamicIntProperty;
+import com.netflix.config.DynamicStringProperty;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.QueryStringDecoder;
+import io.netty.util.CharsetUtil;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * A small HTTP listener, on its own port and event-loop, serving JSON views of the server's internals for diagnosing
+ * it in production, eg. connection pools, event-loop load and filters. See {@link AdminEndpoints} for the standard
+ * endpoints.
+ *
+ * A GET of "/" lists the endpoints. It's off unless zuul.admin.port is set, and only listens on the loopback
+ * interface unless zuul.admin.bindAddress says otherwise, as nothing here is authenticated.
+ */
+public class AdminServer {
+	private static final Logger LOG = LoggerFactory.getLogger(AdminServer.class);
+
+	public static final DynamicIntProperty PORT = new DynamicIntProperty("zuul.admin.port", -1);
+	public static final DynamicStringProperty BIND_ADDRESS = new DynamicStringProperty("zuul.admin.bindAddress", "127.0.0.1");
+
+	private static final ObjectMapper JACKSON_MAPPER = new ObjectMapper();
+
+	private final Map<String, Supplier<JsonNode>> endpoints = new ConcurrentSkipListMap<>();
+
+	private EventLoopGroup eventLoopGroup;
+	private Channel serverChannel;
+
+	public AdminServer addEndpoint(String path, Supplier<JsonNode> supplier) {
+		endpoints.put(path, supplier);
+		return this;
+	}
+
+	public synchronized void start(String bindAddress, int port) throws InterruptedException {
+		if (serverChannel != null) {
+			return;
+		}
+		eventLoopGroup = new NioEventLoopGroup(1, new DefaultThreadFactory("ZuulAdmin", true));
+
+		ServerBootstrap bootstrap = new ServerBootstrap()
+				.group(eventLoopGroup)
+				.channel(NioServerSocketChannel.class)
+				.childHandler(new ChannelInitializer<Channel>() {
+					@Override
+					protected void initChannel(Channel ch) {
+						ch.pipeline().addLast(new HttpServerCodec());
+						ch.pipeline().addLast(new HttpObjectAggregator(8192));
+						ch.pipeline().addLast(new AdminRequestHandler());
+					}
+				});
+		serverChannel = bootstrap.bind(bindAddress, port).sync().channel();
+		LOG.warn("Admin server listening on " + serverChannel.localAddress());
+	}
+
+	public int getPort() {
+		return ((InetSocketAddress) serverChannel.localAddress()).getPort();
+	}
+
+	public synchronized void stop() {
+		if (serverChannel != null) {
+			serverChannel.close();
+			eventLoopGroup.shutdownGracefully();
+			serverChannel = null;
+		}
+	}
+
+	private JsonNode listEndpoints() {
+		ArrayNode array = JACKSON_MAPPER.createArrayNode();
+		endpoints.keySet().forEach(array::add);
+		return array;
+	}
+
+	private class AdminRequestHandler extends SimpleChannelInboundHandler<FullHttpRequest> {
+		@Override
+		protected void channelRead0(ChannelHandlerContext ctx, FullHttpRequest request) {
+			final String path = new QueryStringDecoder(request.uri()).path();
+			final Supplier<JsonNode> endpoint = "/".equals(path) ? AdminServer.this::listEndpoints : endpoints.get(path);
+
+			HttpResponseStatus status = HttpResponseStatus.OK;
+			JsonNode body;
+			if (request.method() != HttpMethod.GET) {
+				status = HttpResponseStatus.METHOD_NOT_ALLOWED;
+				body = error("Only GET is supported");
+			} else if (endpoint == null) {
+				status = HttpResponseStatus.NOT_FOUND;
+				body = error("No such endpoint: " + path);
+			} else {
+				try {
+					body = endpoint.get();
+				} catch (Exception e) {
+					LOG.warn("Error serving admin endpoint. path = " + path, e);
+					status = HttpResponseStatus.INTERNAL_SERVER_ERROR;
+					body = error(String.valueOf(e));
+				}
+			}
+
+			byte[] content;
+			try {
+				content = JACKSON_MAPPER.writeValueAsBytes(body);
+			} catch (JsonProcessingException e) {
+				status = HttpResponseStatus.INTERNAL_SERVER_ERROR;
+				content = e.toString().getBytes(CharsetUtil.UTF_8);
+			}
+
+			final FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, status, Unpooled.wrappedBuffer(content));
+			response.headers().set(HttpHeaderNames.CONTENT_TYPE, HttpHeaderValues.APPLICATION_JSON);
+			HttpUtil.setContentLength(response, content.length);
+
+			if (HttpUtil.isKeepAlive(request)) {
+				ctx.writeAndFlush(response);
+			} else {
+				ctx.writeAndFlush(response).addListener(ChannelFutureListener.CLOSE);
+			}
+		}
+
+		private JsonNode error(String message) {
+			ObjectNode node = JACKSON_MAPPER.createObjectNode();
+			node.put("error", message);
+			return node;
+		}
+	}
+
+
+	public static class UnitTest {
+		private AdminServer server;
+
+		@Before
+		public void setup() throws InterruptedException {
+			server = new AdminServer();
+			server.addEndpoint("/test", () -> JACKSON_MAPPER.createObjectNode().put("ok", true));
+			server.addEndpoint("/broken", () -> {
+				throw new IllegalStateException("broken");
+			});
+			server.start("127.0.0.1", 0);
+		}
+
+		@After
+		public void teardown() {
+			server.stop();
+		}
+
+		private HttpURLConnection get(String path) throws IOException {
+			return (HttpURLConnection) new URL("http://127.0.0.1:" + server.getPort() + path).openConnection();
+		}
+
+		private static String read(InputStream in) throws IOException {
+			try (InputStream is = in) {
+				byte[] buf = new byte[4096];
+				int n = is.read(buf);
+				return new String(buf, 0, n, CharsetUtil.UTF_8);
+			}
+		}
+
+		@Test
+		public void testServesEndpoint() throws IOException {
+			HttpURLConnection conn = get("/test?x=1");
+			assertEquals(200, conn.getResponseCode());
+			assertEquals("application/json", conn.getContentType());
+			assertEquals("{\"ok\":true}", read(conn.getInputStream()));
+		}
+
+		@Test
+		public void testListsEndpoints() throws IOException {
+			HttpURLConnection conn = get("/");
+			assertEquals(200, conn.getResponseCode());
+			assertEquals("[\"/broken\",\"/test\"]", read(conn.getInputStream()));
+		}
+
+		@Test
+		public void testErrors() throws IOException {
+			assertEquals(404, get("/missing").getResponseCode());
+
+			HttpURLConnection conn = get("/broken");
+			assertEquals(500, conn.getResponseCode());
+			assertTrue(read(conn.getErrorStream()).contains("broken"));
+		}
+	}
+}
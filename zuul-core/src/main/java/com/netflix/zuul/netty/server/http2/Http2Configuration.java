@@ -32,6 +32,10 @@ public class Http2Configuration {
 
 
 	public static SslContext configureSSL(SslContextFactory sslContextFactory, int port) {
+		return configureSSL(sslContextFactory, Integer.toString(port));
+	}
+
+	public static SslContext configureSSL(SslContextFactory sslContextFactory, String sslContextId) {
 		SslContextBuilder builder = sslContextFactory.createBuilderForServer();
 
 		String[] supportedProtocol;
@@ -62,8 +66,14 @@ public class Http2Configuration {
 		// Enable TLS Session Tickets support.
 		sslContextFactory.enableSessionTickets(sslContext);
 
+		// Size the server-side session cache.
+		sslContextFactory.configureSessionCache(sslContext);
+
+		// Staple OCSP responses for the certificate.
+		sslContextFactory.configureOcspStapling(sslContext);
+
 		// Setup metrics tracking the OpenSSL stats.
-		sslContextFactory.configureOpenSslStatsMetrics(sslContext, Integer.toString(port));
+		sslContextFactory.configureOpenSslStatsMetrics(sslContext, sslContextId);
 
 		return sslContext;
 	}
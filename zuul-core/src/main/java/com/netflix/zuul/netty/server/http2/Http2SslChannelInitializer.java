@@ -24,8 +24,12 @@ import com.netflix.netty.common.metrics.Http2MetricsChannelHandlers;
 import com.netflix.netty.common.ssl.ServerSslConfig;
 import com.netflix.zuul.logging.Http2FrameLoggingPerClientIpHandler;
 import com.netflix.zuul.netty.server.BaseZuulChannelInitializer;
+import com.netflix.zuul.netty.server.ssl.SniSslHandler;
+import com.netflix.zuul.netty.ssl.OcspStapler;
+import com.netflix.zuul.netty.ssl.SniSslContextMapping;
 import com.netflix.zuul.netty.ssl.SslContextFactory;
 import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelPipeline;
 import io.netty.channel.group.ChannelGroup;
 import io.netty.handler.ssl.SslContext;
@@ -43,7 +47,7 @@ public class Http2SslChannelInitializer extends BaseZuulChannelInitializer {
 	private static final DummyChannelHandler DUMMY_HANDLER = new DummyChannelHandler();
 
 	private final ServerSslConfig serverSslConfig;
-	private final SslContext sslContext;
+	private final SniSslContextMapping sslContexts;
 	private final boolean isSSlFromIntermediary;
 
 
@@ -57,26 +61,21 @@ public class Http2SslChannelInitializer extends BaseZuulChannelInitializer {
 		this.isSSlFromIntermediary = channelConfig.get(CommonChannelConfigKeys.isSSlFromIntermediary);
 
 		SslContextFactory sslContextFactory = channelConfig.get(CommonChannelConfigKeys.sslContextFactory);
-		sslContext = Http2Configuration.configureSSL(sslContextFactory, port);
+		sslContexts = new SniSslContextMapping(sslContextFactory,
+				channelConfig.get(CommonChannelConfigKeys.sniSslContextFactories),
+				(hostname, factory) -> Http2Configuration.configureSSL(factory,
+						hostname == null ? Integer.toString(port) : port + "-" + hostname));
+		sslContexts.startReloading();
 	}
 
 	@Override
 	protected void initChannel(Channel ch) throws Exception {
-		SslHandler sslHandler = sslContext.newHandler(ch.alloc());
-		sslHandler.engine().setEnabledProtocols(serverSslConfig.getProtocols());
-
-//        SSLParameters sslParameters = new SSLParameters();
-//        AlgorithmConstraints algoConstraints = new AlgorithmConstraints();
-//        sslParameters.setAlgorithmConstraints(algoConstraints);
-//        sslParameters.setUseCipherSuitesOrder(true);
-//        sslHandler.engine().setSSLParameters(sslParameters);
-
-		if (LOG.isDebugEnabled()) {
-			LOG.debug("ssl protocols supported: {}", String.join(", ", sslHandler.engine().getSupportedProtocols()));
-			LOG.debug("ssl protocols enabled: {}", String.join(", ", sslHandler.engine().getEnabledProtocols()));
-
-			LOG.debug("ssl ciphers supported: {}", String.join(", ", sslHandler.engine().getSupportedCipherSuites()));
-			LOG.debug("ssl ciphers enabled: {}", String.join(", ", sslHandler.engine().getEnabledCipherSuites()));
+		// With SNI hostnames configured, the SslHandler is only created once the ClientHello has been read.
+		final ChannelHandler sslHandler;
+		if (sslContexts.hasSniHostnames()) {
+			sslHandler = new SniSslHandler(sslContexts, serverSslConfig.getProtocols());
+		} else {
+			sslHandler = newSslHandler(ch, sslContexts.getDefaultContext());
 		}
 
 		// Configure our pipeline of ChannelHandlerS.
@@ -88,8 +87,10 @@ public class Http2SslChannelInitializer extends BaseZuulChannelInitializer {
 		addTcpRelatedHandlers(pipeline);
 		pipeline.addLast(new Http2FrameLoggingPerClientIpHandler());
 		pipeline.addLast("ssl", sslHandler);
+		addSslHandshakeThrottle(pipeline);
 		addSslInfoHandlers(pipeline, isSSlFromIntermediary);
 		addSslClientCertChecks(pipeline);
+		addFlushConsolidationHandler(pipeline);
 
 		Http2MetricsChannelHandlers http2MetricsChannelHandlers = new Http2MetricsChannelHandlers(registry, "server", "http2-" + port);
 		Http2ConnectionCloseHandler connectionCloseHandler = new Http2ConnectionCloseHandler(channelConfig.get(CommonChannelConfigKeys.connCloseDelay), registry);
@@ -105,6 +106,28 @@ public class Http2SslChannelInitializer extends BaseZuulChannelInitializer {
 		pipeline.addLast("codec_placeholder", DUMMY_HANDLER);
 	}
 
+	protected SslHandler newSslHandler(Channel ch, SslContext sslContext) {
+		SslHandler sslHandler = sslContext.newHandler(ch.alloc());
+		sslHandler.engine().setEnabledProtocols(serverSslConfig.getProtocols());
+		OcspStapler.staple(sslContext, sslHandler);
+
+//        SSLParameters sslParameters = new SSLParameters();
+//        AlgorithmConstraints algoConstraints = new AlgorithmConstraints();
+//        sslParameters.setAlgorithmConstraints(algoConstraints);
+//        sslParameters.setUseCipherSuitesOrder(true);
+//        sslHandler.engine().setSSLParameters(sslParameters);
+
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("ssl protocols supported: {}", String.join(", ", sslHandler.engine().getSupportedProtocols()));
+			LOG.debug("ssl protocols enabled: {}", String.join(", ", sslHandler.engine().getEnabledProtocols()));
+
+			LOG.debug("ssl ciphers supported: {}", String.join(", ", sslHandler.engine().getSupportedCipherSuites()));
+			LOG.debug("ssl ciphers enabled: {}", String.join(", ", sslHandler.engine().getEnabledCipherSuites()));
+		}
+
+		return sslHandler;
+	}
+
 	protected void http1Handlers(ChannelPipeline pipeline) {
 		addHttpRelatedHandlers(pipeline);
 		addZuulHandlers(pipeline);
@@ -23,25 +23,50 @@ import com.netflix.netty.common.metrics.Http2MetricsChannelHandlers;
 import com.netflix.netty.common.proxyprotocol.ElbProxyProtocolChannelHandler;
 import com.netflix.zuul.netty.server.ssl.SslHandshakeInfoHandler;
 import io.netty.channel.*;
-import io.netty.handler.codec.http2.Http2StreamFrameToHttpObjectCodec;
+import io.netty.channel.embedded.EmbeddedChannel;
 import io.netty.util.AttributeKey;
+import org.junit.Test;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.function.Consumer;
 
 import static com.netflix.zuul.netty.server.http2.Http2OrHttpHandler.PROTOCOL_NAME;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 
 /**
  * TODO - can this be done when we create the Http2StreamChannelBootstrap instead now?
  */
 @ChannelHandler.Sharable
 public class Http2StreamInitializer extends ChannelInboundHandlerAdapter {
-	private static final Http2StreamHeaderCleaner http2StreamHeaderCleaner = new Http2StreamHeaderCleaner();
 	private static final Http2ResetFrameHandler http2ResetFrameHandler = new Http2ResetFrameHandler();
 	private static final Http2StreamErrorHandler http2StreamErrorHandler = new Http2StreamErrorHandler();
 
+	private static final List<AttributeKey<?>> ATTRS_TO_COPY = Collections.unmodifiableList(Arrays.asList(
+			SourceAddressChannelHandler.ATTR_LOCAL_ADDRESS,
+			SourceAddressChannelHandler.ATTR_LOCAL_INET_ADDR,
+			SourceAddressChannelHandler.ATTR_LOCAL_PORT,
+			SourceAddressChannelHandler.ATTR_SOURCE_ADDRESS,
+			SourceAddressChannelHandler.ATTR_SOURCE_INET_ADDR,
+			SourceAddressChannelHandler.ATTR_SOURCE_PORT,
+			SourceAddressChannelHandler.ATTR_SERVER_LOCAL_ADDRESS,
+			SourceAddressChannelHandler.ATTR_SERVER_LOCAL_PORT,
+
+			PROTOCOL_NAME,
+			SslHandshakeInfoHandler.ATTR_SSL_INFO,
+			ElbProxyProtocolChannelHandler.ATTR_HAPROXY_MESSAGE,
+			ElbProxyProtocolChannelHandler.ATTR_HAPROXY_VERSION,
+			SourceAddressChannelHandler.ATTR_TCP_PASSTHROUGH_INBOUND_CONN
+	));
+
 	private final Channel parent;
 	private final Consumer<ChannelPipeline> addHttpHandlerFn;
 
+	/* Shared by all the streams of the connection */
+	private final Http2StreamRequestCodec requestCodec = new Http2StreamRequestCodec();
+
 	private final Http2MetricsChannelHandlers http2MetricsChannelHandlers;
 	private final Http2ConnectionCloseHandler connectionCloseHandler;
 	private final Http2ConnectionExpiryHandler connectionExpiryHandler;
@@ -75,35 +100,38 @@ public class Http2StreamInitializer extends ChannelInboundHandlerAdapter {
 		pipeline.addLast("h2_conn_close", connectionCloseHandler);
 
 		pipeline.addLast(http2ResetFrameHandler);
-		pipeline.addLast("h2_downgrader", new Http2StreamFrameToHttpObjectCodec(true));
+		pipeline.addLast("h2_downgrader", requestCodec);
 		pipeline.addLast(http2StreamErrorHandler);
-		pipeline.addLast(http2StreamHeaderCleaner);
 	}
 
 	protected void copyAttrsFromParentChannel(Channel parent, Channel child) {
-		AttributeKey[] attributesToCopy = {
-				SourceAddressChannelHandler.ATTR_LOCAL_ADDRESS,
-				SourceAddressChannelHandler.ATTR_LOCAL_INET_ADDR,
-				SourceAddressChannelHandler.ATTR_LOCAL_PORT,
-				SourceAddressChannelHandler.ATTR_SOURCE_ADDRESS,
-				SourceAddressChannelHandler.ATTR_SOURCE_INET_ADDR,
-				SourceAddressChannelHandler.ATTR_SOURCE_PORT,
-				SourceAddressChannelHandler.ATTR_SERVER_LOCAL_ADDRESS,
-				SourceAddressChannelHandler.ATTR_SERVER_LOCAL_PORT,
-
-				PROTOCOL_NAME,
-				SslHandshakeInfoHandler.ATTR_SSL_INFO,
-				ElbProxyProtocolChannelHandler.ATTR_HAPROXY_MESSAGE,
-				ElbProxyProtocolChannelHandler.ATTR_HAPROXY_VERSION,
-				SourceAddressChannelHandler.ATTR_TCP_PASSTHROUGH_INBOUND_CONN,
-		};
-
-		for (AttributeKey key : attributesToCopy) {
+		// Read from the connection for each stream, as some of them may be set after its first stream has opened.
+		for (AttributeKey<?> key : ATTRS_TO_COPY) {
 			copyAttrFromParentChannel(parent, child, key);
 		}
 	}
 
-	protected void copyAttrFromParentChannel(Channel parent, Channel child, AttributeKey key) {
+	protected <T> void copyAttrFromParentChannel(Channel parent, Channel child, AttributeKey<T> key) {
 		child.attr(key).set(parent.attr(key).get());
 	}
+
+
+	public static class UnitTest {
+		@Test
+		public void testAttrsSetAfterFirstStreamAreCopied() {
+			final EmbeddedChannel parent = new EmbeddedChannel();
+			final Http2StreamInitializer initializer = new Http2StreamInitializer(parent, pipeline -> {}, null, null, null);
+			parent.attr(SourceAddressChannelHandler.ATTR_SOURCE_PORT).set(1234);
+
+			final EmbeddedChannel first = new EmbeddedChannel();
+			initializer.copyAttrsFromParentChannel(parent, first);
+			assertEquals(Integer.valueOf(1234), first.attr(SourceAddressChannelHandler.ATTR_SOURCE_PORT).get());
+			assertNull(first.attr(PROTOCOL_NAME).get());
+
+			parent.attr(PROTOCOL_NAME).set("h2");
+			final EmbeddedChannel second = new EmbeddedChannel();
+			initializer.copyAttrsFromParentChannel(parent, second);
+			assertEquals("h2", second.attr(PROTOCOL_NAME).get());
+		}
+	}
 }
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ *      Licensed under the Apache License, Version 2.0 (the "License");
+ *      you may not use this file except in compliance with the License.
+ *      You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *      Unless required by applicable law or agreed to in writing, software
+ *      distributed under the License is distributed on an "AS IS" BASIS,
+ *      WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *      See the License for the specific language governing permissions and
+ *      limitations under the License.
+ */
+
+package com.netflix.zuul.netty.server.http2;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.DefaultHttpHeaders;
+import io.netty.handler.codec.http.DefaultHttpRequest;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http2.DefaultHttp2Headers;
+import io.netty.handler.codec.http2.DefaultHttp2HeadersFrame;
+import io.netty.handler.codec.http2.Http2Error;
+import io.netty.handler.codec.http2.Http2Exception;
+import io.netty.handler.codec.http2.Http2FrameStream;
+import io.netty.handler.codec.http2.Http2Headers;
+import io.netty.handler.codec.http2.Http2HeadersFrame;
+import io.netty.handler.codec.http2.Http2StreamFrame;
+import io.netty.handler.codec.http2.Http2StreamFrameToHttpObjectCodec;
+import io.netty.util.AsciiString;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Converts the request headers of an HTTP/2 stream straight into the HttpRequest that the rest of the zuul pipeline
+ * consumes, in a single pass over the HPACK decoded headers.
+ *
+ * Unlike the netty codec, this keeps the decoded header name and value objects rather than copying them, and doesn't
+ * add the "x-http2-" extension headers. Any that the client sent are dropped, as {@link Http2StreamHeaderCleaner} did,
+ * so that they can't be mistaken for ones zuul set. Body and trailer frames, and all outbound conversion, are left to
+ * the netty codec.
+ *
+ * A single instance is shared by all the streams of a connection.
+ */
+@ChannelHandler.Sharable
+public class Http2StreamRequestCodec extends Http2StreamFrameToHttpObjectCodec {
+	private static final String EXTENSION_HEADER_PREFIX = "x-http2-";
+
+	public Http2StreamRequestCodec() {
+		// Headers are already validated by the connection's Http2FrameCodec.
+		super(true, false);
+	}
+
+	@Override
+	protected void decode(ChannelHandlerContext ctx, Http2StreamFrame frame, List<Object> out) throws Exception {
+		if (frame instanceof Http2HeadersFrame) {
+			final Http2HeadersFrame headersFrame = (Http2HeadersFrame) frame;
+			if (headersFrame.headers().method() != null) {
+				out.add(toHttpRequest(headersFrame));
+				return;
+			}
+		}
+		super.decode(ctx, frame, out);
+	}
+
+	protected HttpRequest toHttpRequest(Http2HeadersFrame headersFrame) throws Http2Exception {
+		final Http2Headers h2Headers = headersFrame.headers();
+		final CharSequence path = h2Headers.path();
+		if (path == null) {
+			final Http2FrameStream stream = headersFrame.stream();
+			throw Http2Exception.streamError(stream == null ? 0 : stream.id(), Http2Error.PROTOCOL_ERROR,
+					"Missing :path pseudo-header");
+		}
+		final HttpMethod method = HttpMethod.valueOf(h2Headers.method().toString());
+
+		final HttpHeaders headers = new DefaultHttpHeaders(false);
+		CharSequence authority = null;
+		StringBuilder cookies = null;
+		for (Map.Entry<CharSequence, CharSequence> entry : h2Headers) {
+			final CharSequence name = entry.getKey();
+			if (name.length() > 0 && name.charAt(0) == ':') {
+				if (Http2Headers.PseudoHeaderName.AUTHORITY.value().contentEquals(name)) {
+					authority = entry.getValue();
+				}
+			}
+			else if (HttpHeaderNames.COOKIE.contentEqualsIgnoreCase(name)) {
+				// HTTP/2 allows the cookie header to be split up, which HTTP/1 origins won't expect.
+				if (cookies == null) {
+					cookies = new StringBuilder(entry.getValue());
+				} else {
+					cookies.append("; ").append(entry.getValue());
+				}
+			}
+			else if (!HttpHeaderNames.TRANSFER_ENCODING.contentEqualsIgnoreCase(name)
+					&& !HttpHeaderNames.TRAILER.contentEqualsIgnoreCase(name)
+					&& !isExtensionHeader(name)) {
+				headers.add(name, entry.getValue());
+			}
+		}
+		if (cookies != null) {
+			headers.add(HttpHeaderNames.COOKIE, cookies.toString());
+		}
+		if (authority != null && !headers.contains(HttpHeaderNames.HOST)) {
+			headers.add(HttpHeaderNames.HOST, authority);
+		}
+
+		if (headersFrame.isEndStream()) {
+			return new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, method, path.toString(), Unpooled.EMPTY_BUFFER,
+					headers, new DefaultHttpHeaders(false));
+		}
+		final HttpRequest request = new DefaultHttpRequest(HttpVersion.HTTP_1_1, method, path.toString(), headers);
+		if (!HttpUtil.isContentLengthSet(request)) {
+			request.headers().add(HttpHeaderNames.TRANSFER_ENCODING, HttpHeaderValues.CHUNKED);
+		}
+		return request;
+	}
+
+	private static boolean isExtensionHeader(CharSequence name) {
+		return name.length() >= EXTENSION_HEADER_PREFIX.length()
+				&& AsciiString.regionMatches(name, true, 0, EXTENSION_HEADER_PREFIX, 0, EXTENSION_HEADER_PREFIX.length());
+	}
+
+	public static class UnitTest {
+		private HttpRequest decode(Http2Headers h2Headers, boolean endStream) {
+			EmbeddedChannel channel = new EmbeddedChannel(new Http2StreamRequestCodec());
+			channel.writeInbound(new DefaultHttp2HeadersFrame(h2Headers, endStream));
+			HttpRequest request = channel.readInbound();
+			channel.finishAndReleaseAll();
+			return request;
+		}
+
+		private Http2Headers requestHeaders() {
+			return new DefaultHttp2Headers()
+					.method("POST")
+					.path("/some/where?k=v")
+					.scheme("https")
+					.authority("api.netflix.com");
+		}
+
+		@Test
+		public void testRequestWithBody() {
+			Http2Headers h2Headers = requestHeaders()
+					.add("x-custom", "one")
+					.add("x-custom", "two");
+
+			HttpRequest request = decode(h2Headers, false);
+			assertFalse(request instanceof FullHttpRequest);
+			assertEquals(HttpMethod.POST, request.method());
+			assertEquals("/some/where?k=v", request.uri());
+			assertEquals("api.netflix.com", request.headers().get(HttpHeaderNames.HOST));
+			assertEquals(2, request.headers().getAll("x-custom").size());
+			assertEquals("chunked", request.headers().get(HttpHeaderNames.TRANSFER_ENCODING));
+			for (String name : request.headers().names()) {
+				assertFalse(name, name.startsWith(":") || name.startsWith("x-http2-"));
+			}
+		}
+
+		@Test
+		public void testRequestWithoutBody() {
+			Http2Headers h2Headers = requestHeaders()
+					.add(HttpHeaderNames.CONTENT_LENGTH, "0");
+
+			HttpRequest request = decode(h2Headers, true);
+			assertTrue(request instanceof FullHttpRequest);
+			assertNull(request.headers().get(HttpHeaderNames.TRANSFER_ENCODING));
+		}
+
+		@Test
+		public void testClientExtensionHeadersStripped() {
+			Http2Headers h2Headers = requestHeaders()
+					.add("x-http2-scheme", "http")
+					.add("x-http2-stream-id", "7")
+					.add("x-custom", "one");
+
+			HttpRequest request = decode(h2Headers, true);
+			assertNull(request.headers().get("x-http2-scheme"));
+			assertNull(request.headers().get("x-http2-stream-id"));
+			assertEquals("one", request.headers().get("x-custom"));
+		}
+
+		@Test
+		public void testCookiesJoined() {
+			Http2Headers h2Headers = requestHeaders()
+					.add(AsciiString.of("cookie"), "a=1")
+					.add(AsciiString.of("cookie"), "b=2")
+					.authority("other.netflix.com")
+					.add(HttpHeaderNames.HOST, "api.netflix.com");
+
+			HttpRequest request = decode(h2Headers, true);
+			assertEquals("a=1; b=2", request.headers().get(HttpHeaderNames.COOKIE));
+			assertEquals("api.netflix.com", request.headers().get(HttpHeaderNames.HOST));
+		}
+	}
+}
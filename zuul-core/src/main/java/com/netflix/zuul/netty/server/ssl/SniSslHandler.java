@@ -0,0 +1,57 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ *      Licensed under the Apache License, Version 2.0 (the "License");
+ *      you may not use this file except in compliance with the License.
+ *      You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *      Unless required by applicable law or agreed to in writing, software
+ *      distributed under the License is distributed on an "AS IS" BASIS,
+ *      WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *      See the License for the specific language governing permissions and
+ *      limitations under the License.
+ */
+
+package com.netflix.zuul.netty.server.ssl;
+
+import com.netflix.zuul.netty.ssl.OcspStapler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.ssl.SniHandler;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.util.Mapping;
+import io.netty.util.ReferenceCountUtil;
+
+/**
+ * Chooses the SslContext for a connection from the SNI hostname in its ClientHello, and then replaces itself with an
+ * SslHandler for that context under the same "ssl" name, so that the rest of the pipeline can find it as usual.
+ */
+public class SniSslHandler extends SniHandler {
+	private final String[] protocols;
+
+	public SniSslHandler(Mapping<? super String, ? extends SslContext> mapping, String[] protocols) {
+		super(mapping);
+		this.protocols = protocols;
+	}
+
+	@Override
+	protected void replaceHandler(ChannelHandlerContext ctx, String hostname, SslContext sslContext) throws Exception {
+		SslHandler sslHandler = null;
+		try {
+			sslHandler = sslContext.newHandler(ctx.alloc());
+			if (protocols != null) {
+				sslHandler.engine().setEnabledProtocols(protocols);
+			}
+			OcspStapler.staple(sslContext, sslHandler);
+			ctx.pipeline().replace(this, ctx.name(), sslHandler);
+			sslHandler = null;
+		} finally {
+			// Release the engine if the handler couldn't be added, as it may be reference counted.
+			if (sslHandler != null) {
+				ReferenceCountUtil.safeRelease(sslHandler.engine());
+			}
+		}
+	}
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ *      Licensed under the Apache License, Version 2.0 (the "License");
+ *      you may not use this file except in compliance with the License.
+ *      You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *      Unless required by applicable law or agreed to in writing, software
+ *      distributed under the License is distributed on an "AS IS" BASIS,
+ *      WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *      See the License for the specific language governing permissions and
+ *      limitations under the License.
+ */
+
+package com.netflix.zuul.netty.server.ssl;
+
+import com.netflix.config.CachedDynamicIntProperty;
+import com.netflix.config.ConfigurationManager;
+import com.netflix.netty.common.ChannelReadPauses;
+import com.netflix.spectator.api.Counter;
+import com.netflix.spectator.api.Spectator;
+import com.netflix.spectator.api.patterns.PolledMeter;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.ssl.SslHandshakeCompletionEvent;
+import io.netty.util.concurrent.FastThreadLocal;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Bounds the number of TLS handshakes in progress on each event-loop, so that a burst of new connections (eg. a
+ * reconnect storm after a failover) can't starve the requests of established connections on the same threads.
+ *
+ * Connections over the limit stop reading, and so don't start their handshake, until a slot frees up. They are
+ * admitted in arrival order, and the SslHandler's handshake timeout still applies while they wait. Once the wait queue
+ * is full, further connections are closed straight away.
+ *
+ * Must be added after the SslHandler, so that it sees the handshake completion.
+ */
+public class SslHandshakeThrottleHandler extends ChannelInboundHandlerAdapter {
+	private static final CachedDynamicIntProperty MAX_CONCURRENT =
+			new CachedDynamicIntProperty("server.ssl.handshake.maxConcurrentPerEventLoop", 0);
+	private static final CachedDynamicIntProperty MAX_QUEUED =
+			new CachedDynamicIntProperty("server.ssl.handshake.maxQueuedPerEventLoop", 1000);
+
+	private static final FastThreadLocal<Slots> SLOTS = new FastThreadLocal<Slots>() {
+		@Override
+		protected Slots initialValue() {
+			return new Slots();
+		}
+	};
+
+	private static final AtomicInteger inProgressGauge = PolledMeter.using(Spectator.globalRegistry())
+			.withName("server.ssl.handshake.inProgress").monitorValue(new AtomicInteger());
+	private static final AtomicInteger queuedGauge = PolledMeter.using(Spectator.globalRegistry())
+			.withName("server.ssl.handshake.queued").monitorValue(new AtomicInteger());
+	private static final Counter queuedCounter = Spectator.globalRegistry().counter("server.ssl.handshake.throttled", "action", "queued");
+	private static final Counter rejectedCounter = Spectator.globalRegistry().counter("server.ssl.handshake.throttled", "action", "rejected");
+
+	private boolean holdingSlot = false;
+	private boolean queued = false;
+
+	public static boolean isEnabled() {
+		return MAX_CONCURRENT.get() > 0;
+	}
+
+	@Override
+	public void channelActive(ChannelHandlerContext ctx) throws Exception {
+		final Slots slots = SLOTS.get();
+		if (slots.inProgress < MAX_CONCURRENT.get()) {
+			acquire(slots);
+		}
+		else if (slots.waiting.size() < MAX_QUEUED.get()) {
+			// Not reading means the ClientHello isn't processed, so the handshake doesn't start yet.
+			ChannelReadPauses.pause(ctx.channel(), ChannelReadPauses.Reason.SSL_HANDSHAKE_QUEUED);
+			queued = true;
+			slots.waiting.add(ctx);
+			queuedGauge.incrementAndGet();
+			queuedCounter.increment();
+		}
+		else {
+			rejectedCounter.increment();
+			super.channelActive(ctx);
+			ctx.close();
+			return;
+		}
+		super.channelActive(ctx);
+	}
+
+	@Override
+	public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+		if (evt instanceof SslHandshakeCompletionEvent) {
+			release();
+		}
+		super.userEventTriggered(ctx, evt);
+	}
+
+	@Override
+	public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+		if (queued) {
+			queued = false;
+			if (SLOTS.get().waiting.remove(ctx)) {
+				queuedGauge.decrementAndGet();
+			}
+		}
+		release();
+		super.channelInactive(ctx);
+	}
+
+	private void acquire(Slots slots) {
+		holdingSlot = true;
+		slots.inProgress++;
+		inProgressGauge.incrementAndGet();
+	}
+
+	private void release() {
+		if (!holdingSlot) {
+			return;
+		}
+		holdingSlot = false;
+		final Slots slots = SLOTS.get();
+		slots.inProgress--;
+		inProgressGauge.decrementAndGet();
+
+		// Admit the next waiting connections.
+		ChannelHandlerContext next;
+		while (slots.inProgress < MAX_CONCURRENT.get() && (next = slots.waiting.poll()) != null) {
+			queuedGauge.decrementAndGet();
+			final SslHandshakeThrottleHandler handler = (SslHandshakeThrottleHandler) next.handler();
+			handler.queued = false;
+			if (next.channel().isActive()) {
+				handler.acquire(slots);
+				// Also triggers a read, unless reads are still paused for some other reason.
+				ChannelReadPauses.resume(next.channel(), ChannelReadPauses.Reason.SSL_HANDSHAKE_QUEUED);
+			}
+		}
+	}
+
+	/* Only ever accessed from its event-loop */
+	private static final class Slots {
+		int inProgress = 0;
+		final ArrayDeque<ChannelHandlerContext> waiting = new ArrayDeque<>();
+	}
+
+	public static class UnitTest {
+		@Before
+		public void setup() {
+			ConfigurationManager.getConfigInstance().setProperty("server.ssl.handshake.maxConcurrentPerEventLoop", 1);
+			ConfigurationManager.getConfigInstance().setProperty("server.ssl.handshake.maxQueuedPerEventLoop", 1);
+		}
+
+		@After
+		public void teardown() {
+			ConfigurationManager.getConfigInstance().clearProperty("server.ssl.handshake.maxConcurrentPerEventLoop");
+			ConfigurationManager.getConfigInstance().clearProperty("server.ssl.handshake.maxQueuedPerEventLoop");
+		}
+
+		@Test
+		public void testQueuedUntilHandshakeCompletes() {
+			EmbeddedChannel first = new EmbeddedChannel(new SslHandshakeThrottleHandler());
+			EmbeddedChannel second = new EmbeddedChannel(new SslHandshakeThrottleHandler());
+			assertTrue(first.config().isAutoRead());
+			assertFalse(second.config().isAutoRead());
+
+			first.pipeline().fireUserEventTriggered(SslHandshakeCompletionEvent.SUCCESS);
+			assertTrue(second.config().isAutoRead());
+
+			second.close();
+			first.close();
+		}
+
+		@Test
+		public void testRejectedWhenQueueFull() {
+			EmbeddedChannel first = new EmbeddedChannel(new SslHandshakeThrottleHandler());
+			EmbeddedChannel second = new EmbeddedChannel(new SslHandshakeThrottleHandler());
+			EmbeddedChannel third = new EmbeddedChannel(new SslHandshakeThrottleHandler());
+			assertFalse(third.isOpen());
+
+			// A waiting connection that closes gives up its place.
+			second.close();
+			EmbeddedChannel fourth = new EmbeddedChannel(new SslHandshakeThrottleHandler());
+			assertTrue(fourth.isOpen());
+			assertFalse(fourth.config().isAutoRead());
+
+			first.close();
+			assertTrue(fourth.config().isAutoRead());
+			fourth.close();
+		}
+	}
+}
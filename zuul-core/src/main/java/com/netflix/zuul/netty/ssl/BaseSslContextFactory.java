@@ -17,10 +17,12 @@
 package com.netflix.zuul.netty.ssl;
 
 import com.netflix.config.DynamicBooleanProperty;
+import com.netflix.config.DynamicIntProperty;
 import com.netflix.netty.common.ssl.ServerSslConfig;
 import com.netflix.spectator.api.Id;
 import com.netflix.spectator.api.Registry;
 import io.netty.handler.ssl.*;
+import io.netty.util.ReferenceCounted;
 import org.apache.commons.io.FileUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -36,7 +38,10 @@ import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.Base64;
 import java.util.Enumeration;
+import java.util.WeakHashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.function.ToDoubleFunction;
 
 import static org.apache.commons.collections.CollectionUtils.isNotEmpty;
@@ -50,6 +55,8 @@ public class BaseSslContextFactory implements SslContextFactory {
 	private static final Logger LOG = LoggerFactory.getLogger(BaseSslContextFactory.class);
 
 	private static final DynamicBooleanProperty ALLOW_USE_OPENSSL = new DynamicBooleanProperty("zuul.ssl.openssl.allow", true);
+	private static final DynamicBooleanProperty SESSION_CACHE_ENABLED = new DynamicBooleanProperty("server.ssl.session.cache.enabled", true);
+	private static final DynamicIntProperty SESSION_CACHE_SIZE = new DynamicIntProperty("server.ssl.session.cache.size", 0);
 
 	static {
 		// Install BouncyCastle provider.
@@ -58,6 +65,9 @@ public class BaseSslContextFactory implements SslContextFactory {
 
 	protected final Registry spectatorRegistry;
 	protected final ServerSslConfig serverSslConfig;
+	/* One stapler per context built by this factory, eg. for each SNI mapping or listener. Held weakly so that a
+	   context that is dropped without being released doesn't leak. */
+	private final Map<SslContext, OcspStapler> ocspStaplers = new WeakHashMap<>();
 
 	public BaseSslContextFactory(Registry spectatorRegistry, ServerSslConfig serverSslConfig) {
 		this.spectatorRegistry = spectatorRegistry;
@@ -80,6 +90,10 @@ public class BaseSslContextFactory implements SslContextFactory {
 					.sessionTimeout(serverSslConfig.getSessionTimeout())
 					.sslProvider(sslProvider);
 
+			if (OcspStapler.isEnabled() && sslProvider == SslProvider.OPENSSL && OpenSsl.isOcspSupported()) {
+				builder = builder.enableOcsp(true);
+			}
+
 			if (serverSslConfig.getClientAuth() != null && isNotEmpty(trustedCerts)) {
 				builder = builder
 						.trustManager(trustedCerts.toArray(new X509Certificate[0]))
@@ -94,7 +108,71 @@ public class BaseSslContextFactory implements SslContextFactory {
 
 	@Override
 	public void enableSessionTickets(SslContext sslContext) {
-		// TODO
+		if (!serverSslConfig.sessionTicketsEnabled()) {
+			return;
+		}
+		if (sslContext instanceof ReferenceCountedOpenSslContext) {
+			getSessionTicketKeyManager().register(((ReferenceCountedOpenSslContext) sslContext).sessionContext());
+		} else {
+			LOG.warn("TLS session ticket keys are only managed for OpenSSL, not for " + sslContext.getClass().getName());
+		}
+	}
+
+	/**
+	 * Can be overridden to share ticket keys differently, eg. per listener.
+	 */
+	protected SessionTicketKeyManager getSessionTicketKeyManager() {
+		return SessionTicketKeyManager.getInstance();
+	}
+
+	@Override
+	public void configureSessionCache(SslContext sslContext) {
+		if (sslContext instanceof ReferenceCountedOpenSslContext) {
+			OpenSslSessionContext sessionContext = ((ReferenceCountedOpenSslContext) sslContext).sessionContext();
+			sessionContext.setSessionCacheEnabled(SESSION_CACHE_ENABLED.get());
+			sessionContext.setSessionTimeout((int) serverSslConfig.getSessionTimeout());
+			// Otherwise leave it at the OpenSSL default size.
+			if (SESSION_CACHE_SIZE.get() > 0) {
+				sessionContext.setSessionCacheSize(SESSION_CACHE_SIZE.get());
+			}
+		}
+	}
+
+	@Override
+	public synchronized void configureOcspStapling(SslContext sslContext) {
+		if (!OcspStapler.isEnabled() || !(sslContext instanceof ReferenceCountedOpenSslContext) || !OpenSsl.isOcspSupported()) {
+			return;
+		}
+
+		// The certificate may have changed if this context is being configured again, so start over with a new stapler.
+		// Staplers of other contexts are left running, unless their context has since been released.
+		final Iterator<Map.Entry<SslContext, OcspStapler>> it = ocspStaplers.entrySet().iterator();
+		while (it.hasNext()) {
+			final Map.Entry<SslContext, OcspStapler> entry = it.next();
+			if (entry.getKey() == sslContext || ((ReferenceCounted) entry.getKey()).refCnt() == 0) {
+				entry.getValue().stop();
+				it.remove();
+			}
+		}
+
+		final OcspStapler ocspStapler;
+		try {
+			ocspStapler = OcspStapler.fromCertChainFile(serverSslConfig.getCertChainFile(), spectatorRegistry);
+		} catch (Exception e) {
+			LOG.warn("Not stapling OCSP responses for certChainFile - " + serverSslConfig.getCertChainFile(), e);
+			return;
+		}
+		ocspStapler.start();
+		ocspStaplers.put(sslContext, ocspStapler);
+		OcspStapler.register(sslContext, ocspStapler);
+	}
+
+	@Override
+	public synchronized void releaseSslContext(SslContext sslContext) {
+		final OcspStapler ocspStapler = ocspStaplers.remove(sslContext);
+		if (ocspStapler != null) {
+			ocspStapler.stop();
+		}
 	}
 
 	public void configureOpenSslStatsMetrics(SslContext sslContext, String sslContextId) {
@@ -118,9 +196,18 @@ public class BaseSslContextFactory implements SslContextFactory {
 			openSslStatGauge(stats, sslContextId, "ticket_key_new", OpenSslSessionStats::ticketKeyNew);
 			openSslStatGauge(stats, sslContextId, "ticket_key_renew", OpenSslSessionStats::ticketKeyRenew);
 			openSslStatGauge(stats, sslContextId, "ticket_key_resume", OpenSslSessionStats::ticketKeyResume);
+			openSslStatGauge(stats, sslContextId, "resumption_rate", BaseSslContextFactory::resumptionRate);
 		}
 	}
 
+	/**
+	 * Fraction of the successful handshakes that resumed a session, either from the session cache or from a ticket.
+	 */
+	static double resumptionRate(OpenSslSessionStats stats) {
+		long accepted = stats.acceptGood();
+		return accepted == 0 ? 0 : (double) (stats.hits() + stats.ticketKeyResume()) / accepted;
+	}
+
 	private void openSslStatGauge(OpenSslSessionStats stats, String sslContextId, String statName, ToDoubleFunction<OpenSslSessionStats> value) {
 		Id id = spectatorRegistry.createId("server.ssl.stats", "id", sslContextId, "stat", statName);
 		spectatorRegistry.gauge(id, stats, value);
@@ -0,0 +1,453 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ *      Licensed under the Apache License, Version 2.0 (the "License");
+ *      you may not use this file except in compliance with the License.
+ *      You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *      Unless required by applicable law or agreed to in writing, software
+ *      distributed under the License is distributed on an "AS IS" BASIS,
+ *      WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *      See the License for the specific language governing permissions and
+ *      limitations under the License.
+ */
+
+package com.netflix.zuul.netty.ssl;
+
+import com.netflix.config.DynamicBooleanProperty;
+import com.netflix.config.DynamicIntProperty;
+import com.netflix.config.DynamicLongProperty;
+import com.netflix.config.DynamicStringProperty;
+import com.netflix.spectator.api.Counter;
+import com.netflix.spectator.api.DefaultRegistry;
+import com.netflix.spectator.api.Id;
+import com.netflix.spectator.api.Registry;
+import com.netflix.spectator.api.patterns.PolledMeter;
+import com.sun.net.httpserver.HttpServer;
+import io.netty.handler.ssl.ReferenceCountedOpenSslEngine;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslHandler;
+import org.apache.commons.io.IOUtils;
+import org.bouncycastle.asn1.ASN1Encodable;
+import org.bouncycastle.asn1.ASN1GeneralizedTime;
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.ASN1OctetString;
+import org.bouncycastle.asn1.ASN1Primitive;
+import org.bouncycastle.asn1.DERBitString;
+import org.bouncycastle.asn1.DERIA5String;
+import org.bouncycastle.asn1.DERNull;
+import org.bouncycastle.asn1.DEROctetString;
+import org.bouncycastle.asn1.DERSequence;
+import org.bouncycastle.asn1.ocsp.BasicOCSPResponse;
+import org.bouncycastle.asn1.ocsp.CertID;
+import org.bouncycastle.asn1.ocsp.CertStatus;
+import org.bouncycastle.asn1.ocsp.OCSPObjectIdentifiers;
+import org.bouncycastle.asn1.ocsp.OCSPRequest;
+import org.bouncycastle.asn1.ocsp.OCSPResponse;
+import org.bouncycastle.asn1.ocsp.OCSPResponseStatus;
+import org.bouncycastle.asn1.ocsp.Request;
+import org.bouncycastle.asn1.ocsp.ResponderID;
+import org.bouncycastle.asn1.ocsp.ResponseBytes;
+import org.bouncycastle.asn1.ocsp.ResponseData;
+import org.bouncycastle.asn1.ocsp.SingleResponse;
+import org.bouncycastle.asn1.ocsp.TBSRequest;
+import org.bouncycastle.asn1.oiw.OIWObjectIdentifiers;
+import org.bouncycastle.asn1.pkcs.PKCSObjectIdentifiers;
+import org.bouncycastle.asn1.x509.AccessDescription;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.asn1.x509.AuthorityInformationAccess;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.Extensions;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.asn1.x509.SubjectPublicKeyInfo;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Fetches the OCSP response for a server certificate in the background, so that it can be stapled to TLS handshakes
+ * and clients don't need to make their own OCSP lookups.
+ *
+ * Only responses saying the certificate is good are stapled. A response is refreshed halfway through its validity
+ * period (capped by "server.ssl.ocsp.maxRefreshIntervalSec"), and after a failed fetch the current response keeps
+ * being stapled until it expires, while fetches are retried.
+ */
+public class OcspStapler {
+	private static final Logger LOG = LoggerFactory.getLogger(OcspStapler.class);
+
+	private static final DynamicBooleanProperty ENABLED =
+			new DynamicBooleanProperty("server.ssl.ocsp.stapling.enabled", false);
+	private static final DynamicStringProperty RESPONDER_URL =
+			new DynamicStringProperty("server.ssl.ocsp.responderUrl", "");
+	private static final DynamicLongProperty RETRY_INTERVAL =
+			new DynamicLongProperty("server.ssl.ocsp.retryIntervalSec", 60);
+	private static final DynamicLongProperty MAX_REFRESH_INTERVAL =
+			new DynamicLongProperty("server.ssl.ocsp.maxRefreshIntervalSec", 3600);
+	private static final DynamicIntProperty FETCH_TIMEOUT =
+			new DynamicIntProperty("server.ssl.ocsp.fetchTimeoutMs", 5000);
+
+	private static final AlgorithmIdentifier SHA1 = new AlgorithmIdentifier(OIWObjectIdentifiers.idSHA1, DERNull.INSTANCE);
+
+	private static final ScheduledExecutorService FETCH_EXECUTOR = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread t = new Thread(r, "zuul-ssl-ocsp");
+		t.setDaemon(true);
+		return t;
+	});
+
+	/* The stapler for the certificate of each server context, weakly held as contexts are replaced on reload */
+	private static final Map<SslContext, OcspStapler> STAPLERS = Collections.synchronizedMap(new WeakHashMap<>());
+	private static volatile boolean anyRegistered = false;
+
+	private final String id;
+	private final CertID certId;
+	private final String responderUrl;
+
+	private final Registry registry;
+	private final Id stapleAgeId;
+	private final Counter fetchSuccessCounter;
+	private final Counter fetchFailureCounter;
+
+	private volatile Staple staple;
+	private volatile boolean stopped = false;
+	private ScheduledFuture<?> fetchTask;
+
+	protected OcspStapler(String id, CertID certId, String responderUrl, Registry registry) {
+		this.id = id;
+		this.certId = certId;
+		this.responderUrl = responderUrl;
+
+		this.registry = registry;
+		this.fetchSuccessCounter = registry.counter("server.ssl.ocsp.fetch", "id", id, "status", "success");
+		this.fetchFailureCounter = registry.counter("server.ssl.ocsp.fetch", "id", id, "status", "failure");
+		this.stapleAgeId = registry.createId("server.ssl.ocsp.stapleAge", "id", id);
+		PolledMeter.using(registry).withId(stapleAgeId).monitorValue(this, OcspStapler::getStapleAgeSeconds);
+	}
+
+	public static boolean isEnabled() {
+		return ENABLED.get();
+	}
+
+	/**
+	 * Creates a stapler for the first certificate in the given PEM chain, which must also contain its issuer.
+	 */
+	public static OcspStapler fromCertChainFile(File certChainFile, Registry registry) throws Exception {
+		final List<X509Certificate> chain = new ArrayList<>();
+		try (InputStream in = new FileInputStream(certChainFile)) {
+			Collection<? extends Certificate> certs = CertificateFactory.getInstance("X.509").generateCertificates(in);
+			for (Certificate cert : certs) {
+				chain.add((X509Certificate) cert);
+			}
+		}
+		if (chain.size() < 2) {
+			throw new IllegalArgumentException("Certificate chain needs the issuer for OCSP stapling: " + certChainFile);
+		}
+
+		final X509Certificate cert = chain.get(0);
+		String url = RESPONDER_URL.get();
+		if (url == null || url.isEmpty()) {
+			url = getOcspUrl(cert);
+		}
+		if (url == null) {
+			throw new IllegalArgumentException("Certificate has no OCSP responder: " + certChainFile);
+		}
+		return new OcspStapler(certChainFile.getName(), toCertId(cert, chain.get(1)), url, registry);
+	}
+
+	static CertID toCertId(X509Certificate cert, X509Certificate issuer) throws Exception {
+		final MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+		final byte[] issuerNameHash = sha1.digest(issuer.getSubjectX500Principal().getEncoded());
+		final byte[] issuerKeyHash = sha1.digest(
+				SubjectPublicKeyInfo.getInstance(issuer.getPublicKey().getEncoded()).getPublicKeyData().getBytes());
+		return new CertID(SHA1, new DEROctetString(issuerNameHash), new DEROctetString(issuerKeyHash),
+				new ASN1Integer(cert.getSerialNumber()));
+	}
+
+	static String getOcspUrl(X509Certificate cert) throws IOException {
+		final byte[] extension = cert.getExtensionValue(Extension.authorityInfoAccess.getId());
+		if (extension == null) {
+			return null;
+		}
+		final ASN1Primitive aiaValue = ASN1Primitive.fromByteArray(ASN1OctetString.getInstance(extension).getOctets());
+		for (AccessDescription access : AuthorityInformationAccess.getInstance(aiaValue).getAccessDescriptions()) {
+			final GeneralName location = access.getAccessLocation();
+			if (AccessDescription.id_ad_ocsp.equals(access.getAccessMethod())
+					&& location.getTagNo() == GeneralName.uniformResourceIdentifier) {
+				return DERIA5String.getInstance(location.getName()).getString();
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Registers the stapler whose responses should be stapled to handshakes using the given context.
+	 */
+	public static void register(SslContext sslContext, OcspStapler stapler) {
+		STAPLERS.put(sslContext, stapler);
+		anyRegistered = true;
+	}
+
+	/**
+	 * Staples the current OCSP response, if any, for the given context's certificate to a new server SslHandler.
+	 */
+	public static void staple(SslContext sslContext, SslHandler sslHandler) {
+		if (!anyRegistered || !(sslHandler.engine() instanceof ReferenceCountedOpenSslEngine)) {
+			return;
+		}
+		final OcspStapler stapler = STAPLERS.get(sslContext);
+		if (stapler != null) {
+			final byte[] response = stapler.getResponse();
+			if (response != null) {
+				((ReferenceCountedOpenSslEngine) sslHandler.engine()).setOcspResponse(response);
+			}
+		}
+	}
+
+	public synchronized void start() {
+		if (fetchTask == null && !stopped) {
+			scheduleFetch(0);
+		}
+	}
+
+	public synchronized void stop() {
+		stopped = true;
+		if (fetchTask != null) {
+			fetchTask.cancel(false);
+		}
+		// A replacement stapler for the same certificate reports under the same id.
+		PolledMeter.remove(registry, stapleAgeId);
+	}
+
+	/**
+	 * The current response, or null if there is none that is still valid.
+	 */
+	public byte[] getResponse() {
+		final Staple current = staple;
+		if (current == null || current.nextUpdate < System.currentTimeMillis()) {
+			return null;
+		}
+		return current.encoded;
+	}
+
+	public double getStapleAgeSeconds() {
+		final Staple current = staple;
+		return current == null ? -1 : (System.currentTimeMillis() - current.thisUpdate) / 1000.0;
+	}
+
+	private synchronized void scheduleFetch(long delayMs) {
+		if (!stopped) {
+			fetchTask = FETCH_EXECUTOR.schedule(this::fetch, delayMs, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	protected void fetch() {
+		long nextFetchMs;
+		try {
+			final byte[] encoded = post(responderUrl, buildRequest());
+			final Staple fetched = parseResponse(encoded);
+			staple = fetched;
+			fetchSuccessCounter.increment();
+
+			final long now = System.currentTimeMillis();
+			nextFetchMs = Math.min((fetched.nextUpdate - now) / 2, TimeUnit.SECONDS.toMillis(MAX_REFRESH_INTERVAL.get()));
+			LOG.debug("Fetched OCSP response for {}, next update at {}", id, new Date(fetched.nextUpdate));
+		} catch (Exception e) {
+			fetchFailureCounter.increment();
+			LOG.warn("Error fetching OCSP response for " + id + " from " + responderUrl, e);
+			nextFetchMs = 0;
+		}
+		scheduleFetch(Math.max(nextFetchMs, TimeUnit.SECONDS.toMillis(RETRY_INTERVAL.get())));
+	}
+
+	protected byte[] buildRequest() throws IOException {
+		final TBSRequest tbsRequest = new TBSRequest(null, new DERSequence(new Request(certId, null)), (Extensions) null);
+		return new OCSPRequest(tbsRequest, null).getEncoded();
+	}
+
+	protected byte[] post(String url, byte[] request) throws IOException {
+		final HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+		try {
+			conn.setConnectTimeout(FETCH_TIMEOUT.get());
+			conn.setReadTimeout(FETCH_TIMEOUT.get());
+			conn.setDoOutput(true);
+			conn.setRequestMethod("POST");
+			conn.setRequestProperty("Content-Type", "application/ocsp-request");
+			conn.setRequestProperty("Accept", "application/ocsp-response");
+			try (OutputStream out = conn.getOutputStream()) {
+				out.write(request);
+			}
+			if (conn.getResponseCode() != 200) {
+				throw new IOException("OCSP responder returned status " + conn.getResponseCode());
+			}
+			try (InputStream in = conn.getInputStream()) {
+				return IOUtils.toByteArray(in);
+			}
+		} finally {
+			conn.disconnect();
+		}
+	}
+
+	protected Staple parseResponse(byte[] encoded) throws Exception {
+		final OCSPResponse response = OCSPResponse.getInstance(encoded);
+		if (response.getResponseStatus().getValue().intValue() != OCSPResponseStatus.SUCCESSFUL) {
+			throw new IOException("OCSP response status " + response.getResponseStatus().getValue());
+		}
+		final ResponseBytes responseBytes = response.getResponseBytes();
+		if (responseBytes == null || !OCSPObjectIdentifiers.id_pkix_ocsp_basic.equals(responseBytes.getResponseType())) {
+			throw new IOException("Unsupported OCSP response type");
+		}
+
+		final BasicOCSPResponse basic = BasicOCSPResponse.getInstance(responseBytes.getResponse().getOctets());
+		final BigInteger serial = certId.getSerialNumber().getValue();
+		for (ASN1Encodable encodable : basic.getTbsResponseData().getResponses()) {
+			final SingleResponse single = SingleResponse.getInstance(encodable);
+			if (!serial.equals(single.getCertID().getSerialNumber().getValue())) {
+				continue;
+			}
+			if (single.getCertStatus().getTagNo() != 0) {
+				throw new IOException("OCSP certificate status is not good: " + single.getCertStatus().getTagNo());
+			}
+
+			final long thisUpdate = single.getThisUpdate().getDate().getTime();
+			final long nextUpdate = single.getNextUpdate() != null
+					? single.getNextUpdate().getDate().getTime()
+					: System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(MAX_REFRESH_INTERVAL.get());
+			return new Staple(encoded, thisUpdate, nextUpdate);
+		}
+		throw new IOException("OCSP response has no status for certificate serial " + serial);
+	}
+
+	protected static final class Staple {
+		final byte[] encoded;
+		final long thisUpdate;
+		final long nextUpdate;
+
+		Staple(byte[] encoded, long thisUpdate, long nextUpdate) {
+			this.encoded = encoded;
+			this.thisUpdate = thisUpdate;
+			this.nextUpdate = nextUpdate;
+		}
+	}
+
+	public static class UnitTest {
+		private final CertID certId = new CertID(SHA1, new DEROctetString(new byte[20]), new DEROctetString(new byte[20]),
+				new ASN1Integer(1234));
+
+		private HttpServer responder;
+		private byte[] responseBody;
+
+		@Before
+		public void setup() throws Exception {
+			responder = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+			responder.createContext("/", exchange -> {
+				IOUtils.toByteArray(exchange.getRequestBody());
+				exchange.sendResponseHeaders(200, responseBody.length);
+				try (OutputStream out = exchange.getResponseBody()) {
+					out.write(responseBody);
+				}
+			});
+			responder.start();
+		}
+
+		@After
+		public void teardown() {
+			responder.stop(0);
+		}
+
+		private OcspStapler stapler() {
+			return new OcspStapler("test", certId, "http://127.0.0.1:" + responder.getAddress().getPort() + "/",
+					new DefaultRegistry());
+		}
+
+		private byte[] ocspResponse(CertStatus status, long nextUpdate) throws IOException {
+			SingleResponse single = new SingleResponse(certId, status,
+					new ASN1GeneralizedTime(new Date(System.currentTimeMillis() - 60000)),
+					new ASN1GeneralizedTime(new Date(nextUpdate)), (Extensions) null);
+			ResponseData data = new ResponseData(new ResponderID(new DEROctetString(new byte[20])),
+					new ASN1GeneralizedTime(new Date()), new DERSequence(single), (Extensions) null);
+			BasicOCSPResponse basic = new BasicOCSPResponse(data,
+					new AlgorithmIdentifier(PKCSObjectIdentifiers.sha256WithRSAEncryption), new DERBitString(new byte[64]), null);
+			return new OCSPResponse(new OCSPResponseStatus(OCSPResponseStatus.SUCCESSFUL),
+					new ResponseBytes(OCSPObjectIdentifiers.id_pkix_ocsp_basic, new DEROctetString(basic.getEncoded()))).getEncoded();
+		}
+
+		@Test
+		public void testFetchGoodResponse() throws Exception {
+			responseBody = ocspResponse(new CertStatus(), System.currentTimeMillis() + 3600000);
+			OcspStapler stapler = stapler();
+			stapler.fetch();
+			stapler.stop();
+
+			assertArrayEquals(responseBody, stapler.getResponse());
+			assertTrue(stapler.getStapleAgeSeconds() >= 60);
+		}
+
+		@Test
+		public void testRevokedNotStapled() throws Exception {
+			responseBody = ocspResponse(new CertStatus(2, DERNull.INSTANCE), System.currentTimeMillis() + 3600000);
+			OcspStapler stapler = stapler();
+			stapler.fetch();
+			stapler.stop();
+
+			assertNull(stapler.getResponse());
+			assertEquals(-1, stapler.getStapleAgeSeconds(), 0);
+		}
+
+		@Test
+		public void testExpiredNotStapled() throws Exception {
+			responseBody = ocspResponse(new CertStatus(), System.currentTimeMillis() - 1000);
+			OcspStapler stapler = stapler();
+			stapler.fetch();
+			stapler.stop();
+
+			assertNull(stapler.getResponse());
+		}
+
+		@Test
+		public void testFailedFetchKeepsCurrent() throws Exception {
+			responseBody = ocspResponse(new CertStatus(), System.currentTimeMillis() + 3600000);
+			OcspStapler stapler = stapler();
+			stapler.fetch();
+			byte[] good = responseBody;
+
+			responseBody = new byte[] {1, 2, 3};
+			stapler.fetch();
+			stapler.stop();
+
+			assertArrayEquals(good, stapler.getResponse());
+		}
+	}
+}
@@ -0,0 +1,289 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ *      Licensed under the Apache License, Version 2.0 (the "License");
+ *      you may not use this file except in compliance with the License.
+ *      You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *      Unless required by applicable law or agreed to in writing, software
+ *      distributed under the License is distributed on an "AS IS" BASIS,
+ *      WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *      See the License for the specific language governing permissions and
+ *      limitations under the License.
+ */
+
+package com.netflix.zuul.netty.ssl;
+
+import com.netflix.config.DynamicIntProperty;
+import com.netflix.config.DynamicLongProperty;
+import com.netflix.config.DynamicStringProperty;
+import com.netflix.spectator.api.Counter;
+import com.netflix.spectator.api.Registry;
+import com.netflix.spectator.api.Spectator;
+import com.netflix.spectator.api.patterns.PolledMeter;
+import io.netty.handler.ssl.OpenSslSessionContext;
+import io.netty.handler.ssl.OpenSslSessionTicketKey;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Manages the TLS session ticket keys of all the server's OpenSSL contexts, and rotates them on a schedule.
+ *
+ * The first key is used to encrypt new tickets, and the remaining ones are only used to decrypt tickets issued before
+ * the latest rotation, so that clients holding those can still resume.
+ *
+ * If "server.ssl.session.tickets.keys.path" is set, the keys are reloaded from it on each rotation. This lets every
+ * instance in a cluster share the same keys, so a client can resume on whichever instance it next connects to. The
+ * path is either a file, or a directory whose files are used newest first. Each file holds one or more 48 byte keys,
+ * each made of a 16 byte name, a 16 byte HMAC secret and a 16 byte AES key. Otherwise, keys are generated locally, and
+ * tickets can only be resumed on this instance.
+ */
+public class SessionTicketKeyManager {
+	private static final Logger LOG = LoggerFactory.getLogger(SessionTicketKeyManager.class);
+
+	private static final DynamicStringProperty KEYS_PATH =
+			new DynamicStringProperty("server.ssl.session.tickets.keys.path", "");
+	private static final DynamicLongProperty ROTATION_INTERVAL =
+			new DynamicLongProperty("server.ssl.session.tickets.rotationIntervalSec", 3600);
+	private static final DynamicIntProperty MAX_KEYS =
+			new DynamicIntProperty("server.ssl.session.tickets.maxKeys", 3);
+
+	private static volatile SessionTicketKeyManager instance;
+
+	/* Weakly held, as contexts are replaced when their certificates are reloaded. Guarded by this */
+	private final Set<OpenSslSessionContext> sessionContexts = Collections.newSetFromMap(new WeakHashMap<>());
+	private final Deque<OpenSslSessionTicketKey> generatedKeys = new ArrayDeque<>();
+	private final SecureRandom random = new SecureRandom();
+	private volatile OpenSslSessionTicketKey[] currentKeys = new OpenSslSessionTicketKey[0];
+	private ScheduledExecutorService scheduler;
+
+	private final Counter rotationCounter;
+	private final Counter loadErrorCounter;
+	private final AtomicInteger keyCount;
+
+	public SessionTicketKeyManager(Registry registry) {
+		this.rotationCounter = registry.counter("server.ssl.ticketKeys.rotations");
+		this.loadErrorCounter = registry.counter("server.ssl.ticketKeys.loadErrors");
+		this.keyCount = PolledMeter.using(registry).withName("server.ssl.ticketKeys.count").monitorValue(new AtomicInteger());
+	}
+
+	public static SessionTicketKeyManager getInstance() {
+		if (instance == null) {
+			synchronized (SessionTicketKeyManager.class) {
+				if (instance == null) {
+					instance = new SessionTicketKeyManager(Spectator.globalRegistry());
+				}
+			}
+		}
+		return instance;
+	}
+
+	/**
+	 * Applies the current keys to the given session context, and keeps them rotated from now on.
+	 */
+	public synchronized void register(OpenSslSessionContext sessionContext) {
+		sessionContexts.add(sessionContext);
+		if (currentKeys.length == 0) {
+			rotate();
+		} else {
+			sessionContext.setTicketKeys(currentKeys);
+		}
+
+		if (scheduler == null) {
+			scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread t = new Thread(r, "zuul-ssl-ticket-keys");
+				t.setDaemon(true);
+				return t;
+			});
+			scheduleRotation();
+		}
+	}
+
+	/**
+	 * Loads or generates the next set of keys, and applies them to all registered session contexts. If the keys
+	 * can't be loaded the existing ones are kept.
+	 */
+	public synchronized void rotate() {
+		final OpenSslSessionTicketKey[] keys;
+		final String path = KEYS_PATH.get();
+		if (path != null && !path.isEmpty()) {
+			try {
+				keys = loadKeys(new File(path));
+			} catch (Exception e) {
+				loadErrorCounter.increment();
+				LOG.error("Error loading TLS session ticket keys from " + path + ", keeping existing keys.", e);
+				return;
+			}
+		} else {
+			keys = nextGeneratedKeys();
+		}
+
+		if (keys.length == 0) {
+			loadErrorCounter.increment();
+			LOG.error("No TLS session ticket keys found at {}, keeping existing keys.", path);
+			return;
+		}
+
+		currentKeys = keys;
+		keyCount.set(keys.length);
+		for (OpenSslSessionContext sessionContext : sessionContexts) {
+			sessionContext.setTicketKeys(keys);
+		}
+		rotationCounter.increment();
+		LOG.info("Rotated TLS session ticket keys, now using {} key(s)", keys.length);
+	}
+
+	public OpenSslSessionTicketKey[] getCurrentKeys() {
+		return currentKeys;
+	}
+
+	private void scheduleRotation() {
+		scheduler.schedule(() -> {
+			try {
+				rotate();
+			} catch (Exception e) {
+				LOG.error("Error rotating TLS session ticket keys", e);
+			} finally {
+				scheduleRotation();
+			}
+		}, Math.max(1, ROTATION_INTERVAL.get()), TimeUnit.SECONDS);
+	}
+
+	protected OpenSslSessionTicketKey[] nextGeneratedKeys() {
+		generatedKeys.addFirst(newRandomKey());
+		while (generatedKeys.size() > Math.max(1, MAX_KEYS.get())) {
+			generatedKeys.removeLast();
+		}
+		return generatedKeys.toArray(new OpenSslSessionTicketKey[0]);
+	}
+
+	protected OpenSslSessionTicketKey newRandomKey() {
+		final byte[] bytes = new byte[OpenSslSessionTicketKey.TICKET_KEY_SIZE];
+		random.nextBytes(bytes);
+		return toKey(bytes, 0);
+	}
+
+	protected OpenSslSessionTicketKey[] loadKeys(File path) throws IOException {
+		final List<File> files = new ArrayList<>();
+		if (path.isDirectory()) {
+			final File[] dirFiles = path.listFiles(File::isFile);
+			if (dirFiles != null) {
+				files.addAll(Arrays.asList(dirFiles));
+			}
+			// Newest file first, so that its key is the one used for encrypting.
+			files.sort(Comparator.comparingLong(File::lastModified).reversed().thenComparing(File::getName));
+		} else {
+			files.add(path);
+		}
+
+		final int maxKeys = Math.max(1, MAX_KEYS.get());
+		final List<OpenSslSessionTicketKey> keys = new ArrayList<>();
+		for (File file : files) {
+			final byte[] bytes = Files.readAllBytes(file.toPath());
+			if (bytes.length == 0 || bytes.length % OpenSslSessionTicketKey.TICKET_KEY_SIZE != 0) {
+				throw new IOException("Invalid TLS session ticket key file " + file + ", length = " + bytes.length);
+			}
+			for (int offset = 0; offset < bytes.length && keys.size() < maxKeys; offset += OpenSslSessionTicketKey.TICKET_KEY_SIZE) {
+				keys.add(toKey(bytes, offset));
+			}
+		}
+		return keys.toArray(new OpenSslSessionTicketKey[0]);
+	}
+
+	private static OpenSslSessionTicketKey toKey(byte[] bytes, int offset) {
+		final int hmacOffset = offset + OpenSslSessionTicketKey.NAME_SIZE;
+		final int aesOffset = hmacOffset + OpenSslSessionTicketKey.HMAC_KEY_SIZE;
+		return new OpenSslSessionTicketKey(
+				Arrays.copyOfRange(bytes, offset, hmacOffset),
+				Arrays.copyOfRange(bytes, hmacOffset, aesOffset),
+				Arrays.copyOfRange(bytes, aesOffset, aesOffset + OpenSslSessionTicketKey.AES_KEY_SIZE));
+	}
+
+	public static class UnitTest {
+		@Rule
+		public TemporaryFolder tmp = new TemporaryFolder();
+
+		private final SessionTicketKeyManager manager = new SessionTicketKeyManager(new com.netflix.spectator.api.DefaultRegistry());
+
+		private byte[] keyBytes(int fill) {
+			byte[] bytes = new byte[OpenSslSessionTicketKey.TICKET_KEY_SIZE];
+			Arrays.fill(bytes, (byte) fill);
+			return bytes;
+		}
+
+		@Test
+		public void testGeneratedKeysKeepPrevious() {
+			OpenSslSessionTicketKey[] first = manager.nextGeneratedKeys();
+			assertEquals(1, first.length);
+
+			manager.nextGeneratedKeys();
+			OpenSslSessionTicketKey[] third = manager.nextGeneratedKeys();
+			OpenSslSessionTicketKey[] fourth = manager.nextGeneratedKeys();
+			assertEquals(3, fourth.length);
+			assertSame(third[0], fourth[1]);
+		}
+
+		@Test
+		public void testLoadFromFile() throws Exception {
+			File file = tmp.newFile("keys");
+			byte[] bytes = new byte[OpenSslSessionTicketKey.TICKET_KEY_SIZE * 2];
+			System.arraycopy(keyBytes(1), 0, bytes, 0, OpenSslSessionTicketKey.TICKET_KEY_SIZE);
+			System.arraycopy(keyBytes(2), 0, bytes, OpenSslSessionTicketKey.TICKET_KEY_SIZE, OpenSslSessionTicketKey.TICKET_KEY_SIZE);
+			Files.write(file.toPath(), bytes);
+
+			OpenSslSessionTicketKey[] keys = manager.loadKeys(file);
+			assertEquals(2, keys.length);
+			assertArrayEquals(Arrays.copyOfRange(keyBytes(1), 0, 16), keys[0].name());
+			assertArrayEquals(Arrays.copyOfRange(keyBytes(2), 0, 16), keys[1].aesKey());
+		}
+
+		@Test
+		public void testLoadFromDirectoryNewestFirst() throws Exception {
+			File dir = tmp.newFolder("keys");
+			File older = new File(dir, "older");
+			File newer = new File(dir, "newer");
+			Files.write(older.toPath(), keyBytes(1));
+			Files.write(newer.toPath(), keyBytes(2));
+			older.setLastModified(System.currentTimeMillis() - 60000);
+
+			OpenSslSessionTicketKey[] keys = manager.loadKeys(dir);
+			assertEquals(2, keys.length);
+			assertEquals(2, keys[0].name()[0]);
+			assertEquals(1, keys[1].name()[0]);
+		}
+
+		@Test(expected = IOException.class)
+		public void testInvalidKeyFile() throws Exception {
+			File file = tmp.newFile("keys");
+			Files.write(file.toPath(), new byte[10]);
+			manager.loadKeys(file);
+		}
+	}
+}
@@ -0,0 +1,316 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ *      Licensed under the Apache License, Version 2.0 (the "License");
+ *      you may not use this file except in compliance with the License.
+ *      You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *      Unless required by applicable law or agreed to in writing, software
+ *      distributed under the License is distributed on an "AS IS" BASIS,
+ *      WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *      See the License for the specific language governing permissions and
+ *      limitations under the License.
+ */
+
+package com.netflix.zuul.netty.ssl;
+
+import com.netflix.config.DynamicLongProperty;
+import com.netflix.netty.common.ssl.ServerSslConfig;
+import com.netflix.spectator.api.Counter;
+import com.netflix.spectator.api.Spectator;
+import io.netty.handler.ssl.SslContext;
+import io.netty.util.Mapping;
+import io.netty.util.ReferenceCountUtil;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Maps the SNI hostname sent by a client to the SslContext of the certificate to serve it, so that one listener can
+ * serve many certificates. Hostnames are matched exactly, or against a "*.example.com" style wildcard covering one
+ * label, and anything else (including clients that don't send SNI) gets the default context.
+ *
+ * All contexts are built up front. Then, for factories that are {@link BaseSslContextFactory}s, the certificate chain
+ * and key files are polled for changes, and the context rebuilt and swapped in when they change. Connections already
+ * established keep their original context, and only new handshakes use the new one. The replaced context is then
+ * released, along with anything its factory started for it such as OCSP stapling. If a rebuild fails, the previous
+ * context is kept.
+ */
+public class SniSslContextMapping implements Mapping<String, SslContext> {
+	private static final Logger LOG = LoggerFactory.getLogger(SniSslContextMapping.class);
+
+	private static final DynamicLongProperty RELOAD_INTERVAL =
+			new DynamicLongProperty("server.ssl.certs.reload.intervalSec", 60);
+
+	private static final ScheduledExecutorService RELOAD_EXECUTOR = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread t = new Thread(r, "zuul-ssl-cert-reload");
+		t.setDaemon(true);
+		return t;
+	});
+
+	private static final Counter reloadCounter = Spectator.globalRegistry().counter("server.ssl.certs.reload", "status", "success");
+	private static final Counter reloadErrorCounter = Spectator.globalRegistry().counter("server.ssl.certs.reload", "status", "error");
+
+	/* Builds the context for a factory, given the hostname it serves, or null for the default context */
+	private final BiFunction<String, SslContextFactory, SslContext> contextBuilder;
+
+	private final Entry defaultEntry;
+	private final Map<String, Entry> entries;
+
+	private volatile SslContext defaultContext;
+	private volatile Map<String, SslContext> exactContexts = Collections.emptyMap();
+	private volatile Map<String, SslContext> wildcardContexts = Collections.emptyMap();
+
+	private ScheduledFuture<?> reloadTask;
+
+	public SniSslContextMapping(SslContextFactory defaultFactory, Map<String, SslContextFactory> factoriesByHostname,
+								BiFunction<String, SslContextFactory, SslContext> contextBuilder) {
+		this.contextBuilder = contextBuilder;
+		this.defaultEntry = new Entry(null, defaultFactory);
+		this.entries = new LinkedHashMap<>();
+		if (factoriesByHostname != null) {
+			for (Map.Entry<String, SslContextFactory> e : factoriesByHostname.entrySet()) {
+				final String hostname = e.getKey().toLowerCase(Locale.ROOT);
+				entries.put(hostname, new Entry(hostname, e.getValue()));
+			}
+		}
+
+		// Preload all the contexts, failing startup if any can't be built.
+		defaultEntry.build();
+		for (Entry entry : entries.values()) {
+			entry.build();
+		}
+		publish();
+	}
+
+	public boolean hasSniHostnames() {
+		return !entries.isEmpty();
+	}
+
+	public SslContext getDefaultContext() {
+		return defaultContext;
+	}
+
+	@Override
+	public SslContext map(String hostname) {
+		if (hostname != null) {
+			final String host = hostname.toLowerCase(Locale.ROOT);
+			SslContext context = exactContexts.get(host);
+			if (context != null) {
+				return context;
+			}
+			final int dot = host.indexOf('.');
+			if (dot > 0) {
+				context = wildcardContexts.get(host.substring(dot + 1));
+				if (context != null) {
+					return context;
+				}
+			}
+		}
+		return defaultContext;
+	}
+
+	/**
+	 * Starts polling the certificate files for changes.
+	 */
+	public synchronized void startReloading() {
+		final long interval = RELOAD_INTERVAL.get();
+		if (reloadTask == null && interval > 0) {
+			reloadTask = RELOAD_EXECUTOR.scheduleWithFixedDelay(this::reloadChanged, interval, interval, TimeUnit.SECONDS);
+		}
+	}
+
+	public synchronized void stopReloading() {
+		if (reloadTask != null) {
+			reloadTask.cancel(false);
+			reloadTask = null;
+		}
+	}
+
+	/**
+	 * Rebuilds the contexts whose certificate or key files have changed since they were last built.
+	 */
+	public synchronized void reloadChanged() {
+		final Map<SslContext, SslContextFactory> replaced = new IdentityHashMap<>();
+		boolean changed = reloadIfChanged(defaultEntry, replaced);
+		for (Entry entry : entries.values()) {
+			changed |= reloadIfChanged(entry, replaced);
+		}
+		if (changed) {
+			publish();
+		}
+
+		// Only once no new handshakes can pick them up. Established connections hold on to their own context.
+		for (Map.Entry<SslContext, SslContextFactory> e : replaced.entrySet()) {
+			e.getValue().releaseSslContext(e.getKey());
+			ReferenceCountUtil.release(e.getKey());
+		}
+	}
+
+	private boolean reloadIfChanged(Entry entry, Map<SslContext, SslContextFactory> replaced) {
+		if (!entry.hasChanged()) {
+			return false;
+		}
+		final SslContext previous = entry.context;
+		try {
+			entry.build();
+			if (previous != null && previous != entry.context) {
+				replaced.put(previous, entry.factory);
+			}
+			reloadCounter.increment();
+			LOG.info("Reloaded SSL certificate for {}", entry.hostname == null ? "default" : entry.hostname);
+			return true;
+		} catch (Exception e) {
+			reloadErrorCounter.increment();
+			LOG.error("Error reloading SSL certificate for " + (entry.hostname == null ? "default" : entry.hostname)
+					+ ", keeping the current one.", e);
+			return false;
+		}
+	}
+
+	private void publish() {
+		final Map<String, SslContext> exact = new HashMap<>();
+		final Map<String, SslContext> wildcard = new HashMap<>();
+		for (Entry entry : entries.values()) {
+			if (entry.hostname.startsWith("*.")) {
+				wildcard.put(entry.hostname.substring(2), entry.context);
+			} else {
+				exact.put(entry.hostname, entry.context);
+			}
+		}
+		exactContexts = exact;
+		wildcardContexts = wildcard;
+		defaultContext = defaultEntry.context;
+	}
+
+	private final class Entry {
+		final String hostname;
+		final SslContextFactory factory;
+		SslContext context;
+		long certLastModified;
+		long keyLastModified;
+
+		Entry(String hostname, SslContextFactory factory) {
+			this.hostname = hostname;
+			this.factory = factory;
+		}
+
+		void build() {
+			// Record the timestamps first, so that a change made during the build is picked up next time.
+			final long certModified = lastModified(certFile());
+			final long keyModified = lastModified(keyFile());
+			context = contextBuilder.apply(hostname, factory);
+			certLastModified = certModified;
+			keyLastModified = keyModified;
+		}
+
+		boolean hasChanged() {
+			return lastModified(certFile()) != certLastModified || lastModified(keyFile()) != keyLastModified;
+		}
+
+		private File certFile() {
+			final ServerSslConfig config = serverSslConfig();
+			return config == null ? null : config.getCertChainFile();
+		}
+
+		private File keyFile() {
+			final ServerSslConfig config = serverSslConfig();
+			return config == null ? null : config.getKeyFile();
+		}
+
+		private ServerSslConfig serverSslConfig() {
+			return factory instanceof BaseSslContextFactory ? ((BaseSslContextFactory) factory).getServerSslConfig() : null;
+		}
+
+		private long lastModified(File file) {
+			return file == null ? 0 : file.lastModified();
+		}
+	}
+
+	public static class UnitTest {
+		private SslContext defaultCtx = mock(SslContext.class);
+		private SslContext apiCtx = mock(SslContext.class);
+		private SslContext wildcardCtx = mock(SslContext.class);
+
+		private SniSslContextMapping mapping() {
+			SslContextFactory defaultFactory = mock(SslContextFactory.class);
+			Map<String, SslContextFactory> factories = new LinkedHashMap<>();
+			factories.put("API.netflix.com", mock(SslContextFactory.class));
+			factories.put("*.netflix.com", mock(SslContextFactory.class));
+
+			return new SniSslContextMapping(defaultFactory, factories, (hostname, factory) -> {
+				if (hostname == null) {
+					return defaultCtx;
+				}
+				return hostname.startsWith("*") ? wildcardCtx : apiCtx;
+			});
+		}
+
+		@Test
+		public void testLookup() {
+			SniSslContextMapping mapping = mapping();
+			assertTrue(mapping.hasSniHostnames());
+			assertSame(apiCtx, mapping.map("api.netflix.com"));
+			assertSame(apiCtx, mapping.map("Api.Netflix.com"));
+			assertSame(wildcardCtx, mapping.map("www.netflix.com"));
+			assertSame(defaultCtx, mapping.map("a.b.netflix.com"));
+			assertSame(defaultCtx, mapping.map("netflix.com"));
+			assertSame(defaultCtx, mapping.map(null));
+		}
+
+		@Test
+		public void testReloadOnCertChange() throws Exception {
+			File cert = File.createTempFile("cert", ".pem");
+			File key = File.createTempFile("key", ".pem");
+			cert.deleteOnExit();
+			key.deleteOnExit();
+
+			BaseSslContextFactory factory = mock(BaseSslContextFactory.class);
+			when(factory.getServerSslConfig()).thenReturn(new ServerSslConfig(new String[0], new String[0], cert, key));
+
+			int[] builds = {0};
+			SniSslContextMapping mapping = new SniSslContextMapping(factory, null, (hostname, f) -> {
+				builds[0]++;
+				return mock(SslContext.class);
+			});
+			assertFalse(mapping.hasSniHostnames());
+			SslContext original = mapping.getDefaultContext();
+
+			mapping.reloadChanged();
+			assertEquals(1, builds[0]);
+			assertSame(original, mapping.map("api.netflix.com"));
+
+			cert.setLastModified(cert.lastModified() - 60000);
+			mapping.reloadChanged();
+			assertEquals(2, builds[0]);
+			assertNotSame(original, mapping.getDefaultContext());
+			verify(factory).releaseSslContext(original);
+			verify(factory, never()).releaseSslContext(mapping.getDefaultContext());
+		}
+	}
+}
@@ -36,5 +36,18 @@ public interface SslContextFactory {
 
 	void enableSessionTickets(SslContext sslContext);
 
+	default void configureSessionCache(SslContext sslContext) {
+	}
+
+	default void configureOcspStapling(SslContext sslContext) {
+	}
+
+	/**
+	 * Stops anything started for a context that has been replaced and won't be used for new connections, such as its
+	 * OCSP stapling.
+	 */
+	default void releaseSslContext(SslContext sslContext) {
+	}
+
 	void configureOpenSslStatsMetrics(SslContext sslContext, String sslContextId);
 }
@@ -65,11 +65,14 @@ public class BasicNettyOrigin implements NettyOrigin {
 	private final IClientConfig config;
 	private final ClientChannelManager clientChannelManager;
 	private final NettyRequestAttemptFactory requestAttemptFactory;
+	private final RetryBudget retryBudget;
+	private final LatencyEstimate latencyEstimate;
 
 	private final AtomicInteger concurrentRequests;
 	private final Counter rejectedRequests;
 	private final CachedDynamicIntProperty concurrencyMax;
 	private final CachedDynamicBooleanProperty concurrencyProtectionEnabled;
+	private final OriginRequestQueue requestQueue;
 
 	public BasicNettyOrigin(String name, String vip, Registry registry) {
 		this.name = name;
@@ -79,11 +82,15 @@ public class BasicNettyOrigin implements NettyOrigin {
 		this.clientChannelManager = new DefaultClientChannelManager(name, vip, config, registry);
 		this.clientChannelManager.init();
 		this.requestAttemptFactory = new NettyRequestAttemptFactory();
+		this.retryBudget = new RetryBudget(name);
+		this.latencyEstimate = new LatencyEstimate(name);
 
 		this.concurrentRequests = SpectatorUtils.newGauge("zuul.origin.concurrent.requests", name, new AtomicInteger(0));
 		this.rejectedRequests = SpectatorUtils.newCounter("zuul.origin.rejected.requests", name);
 		this.concurrencyMax = new CachedDynamicIntProperty("zuul.origin." + name + ".concurrency.max.requests", 200);
 		this.concurrencyProtectionEnabled = new CachedDynamicBooleanProperty("zuul.origin." + name + ".concurrency.protect.enabled", true);
+		this.requestQueue = new OriginRequestQueue(name, concurrentRequests,
+				() -> concurrencyProtectionEnabled.get() ? concurrencyMax.get() : Integer.MAX_VALUE);
 	}
 
 	protected IClientConfig setupClientConfig(String name) {
@@ -132,6 +139,21 @@ public class BasicNettyOrigin implements NettyOrigin {
 		return config.get(CommonClientConfigKey.MaxAutoRetriesNextServer, 0);
 	}
 
+	@Override
+	public RetryBudget getRetryBudget() {
+		return retryBudget;
+	}
+
+	@Override
+	public LatencyEstimate getLatencyEstimate() {
+		return latencyEstimate;
+	}
+
+	@Override
+	public OriginRequestQueue getRequestQueue() {
+		return requestQueue;
+	}
+
 	@Override
 	public RequestAttempt newRequestAttempt(Server server, SessionContext zuulCtx, int attemptNum) {
 		return new RequestAttempt(server, config, attemptNum, config.get(CommonClientConfigKey.ReadTimeout));
@@ -234,6 +256,7 @@ public class BasicNettyOrigin implements NettyOrigin {
 	@Override
 	public void recordProxyRequestEnd() {
 		concurrentRequests.decrementAndGet();
+		requestQueue.dispatch();
 	}
 
 	/* Not required for basic operation */
@@ -274,5 +297,6 @@ public class BasicNettyOrigin implements NettyOrigin {
 
 	@Override
 	public void recordSuccessResponse() {
+		retryBudget.recordSuccess();
 	}
 }
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ *      Licensed under the Apache License, Version 2.0 (the "License");
+ *      you may not use this file except in compliance with the License.
+ *      You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *      Unless required by applicable law or agreed to in writing, software
+ *      distributed under the License is distributed on an "AS IS" BASIS,
+ *      WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *      See the License for the specific language governing permissions and
+ *      limitations under the License.
+ */
+
+package com.netflix.zuul.origins;
+
+import com.netflix.config.CachedDynamicLongProperty;
+import com.netflix.config.ConfigurationManager;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * How long an origin is expected to take to respond, for deciding whether a request still has time for an attempt.
+ *
+ * This is zuul.origin.[name].deadline.expectedLatencyMs if set, otherwise an exponentially weighted moving average of
+ * the origin's successful response times, once there have been enough of them to go by.
+ */
+public class LatencyEstimate {
+	static final double ALPHA = 0.05;
+	static final int MIN_SAMPLES = 20;
+
+	private final CachedDynamicLongProperty configured;
+
+	/* The average, as the bits of a double so it can be updated without locking */
+	private final AtomicLong averageBits = new AtomicLong(Double.doubleToLongBits(0));
+	private final AtomicLong samples = new AtomicLong();
+
+	public LatencyEstimate(String originName) {
+		this.configured = new CachedDynamicLongProperty("zuul.origin." + originName + ".deadline.expectedLatencyMs", -1);
+	}
+
+	public void record(long latencyMs) {
+		if (latencyMs < 0) {
+			return;
+		}
+		// Start from the plain mean of the first samples, so that the average isn't skewed towards zero.
+		final long n = samples.incrementAndGet();
+		final double alpha = Math.max(ALPHA, 1.0 / n);
+		long current;
+		long next;
+		do {
+			current = averageBits.get();
+			final double average = Double.longBitsToDouble(current);
+			next = Double.doubleToLongBits(average + alpha * (latencyMs - average));
+		} while (!averageBits.compareAndSet(current, next));
+	}
+
+	/**
+	 * @return the expected latency in milliseconds, or 0 if not known yet
+	 */
+	public long getExpectedLatencyMs() {
+		final long configuredMs = configured.get();
+		if (configuredMs >= 0) {
+			return configuredMs;
+		}
+		if (samples.get() < MIN_SAMPLES) {
+			return 0;
+		}
+		return (long) Double.longBitsToDouble(averageBits.get());
+	}
+
+
+	public static class UnitTest {
+		@After
+		public void teardown() {
+			ConfigurationManager.getConfigInstance().clearProperty("zuul.origin.latency-test.deadline.expectedLatencyMs");
+		}
+
+		@Test
+		public void testAverage() {
+			final LatencyEstimate estimate = new LatencyEstimate("latency-test");
+			for (int i = 0; i < MIN_SAMPLES - 1; i++) {
+				estimate.record(100);
+			}
+			assertEquals(0, estimate.getExpectedLatencyMs());
+			estimate.record(100);
+			assertEquals(100, estimate.getExpectedLatencyMs());
+
+			for (int i = 0; i < 200; i++) {
+				estimate.record(300);
+			}
+			assertTrue(estimate.getExpectedLatencyMs() > 290 && estimate.getExpectedLatencyMs() <= 300);
+		}
+
+		@Test
+		public void testConfigured() {
+			ConfigurationManager.getConfigInstance().setProperty("zuul.origin.latency-test.deadline.expectedLatencyMs", 50);
+			assertEquals(50, new LatencyEstimate("latency-test").getExpectedLatencyMs());
+		}
+	}
+}
@@ -72,6 +72,33 @@ public interface NettyOrigin extends InstrumentedOrigin {
 	 */
 	int getMaxRetriesForRequest(SessionContext context);
 
+	/**
+	 * 获取Origin的重试预算，每次重试前都要从中申请
+	 *
+	 * @return 重试预算，没有则返回null，即不限制重试
+	 */
+	default RetryBudget getRetryBudget() {
+		return null;
+	}
+
+	/**
+	 * 获取Origin的预期响应时间，用于判断请求剩余的时间是否还够一次尝试
+	 *
+	 * @return 预期响应时间，没有则返回null，即按0处理
+	 */
+	default LatencyEstimate getLatencyEstimate() {
+		return null;
+	}
+
+	/**
+	 * 获取Origin的请求等待队列，并发请求数达到上限时请求在其中排队，而不是直接被拒绝
+	 *
+	 * @return 请求等待队列，没有则返回null，即不排队
+	 */
+	default OriginRequestQueue getRequestQueue() {
+		return null;
+	}
+
 	/**
 	 * 请求开始执行
 	 *
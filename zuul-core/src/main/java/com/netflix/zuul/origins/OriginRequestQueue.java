@@ -0,0 +1,586 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ *      Licensed under the Apache License, Version 2.0 (the "License");
+ *      you may not use this file except in compliance with the License.
+ *      You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *      Unless required by applicable law or agreed to in writing, software
+ *      distributed under the License is distributed on an "AS IS" BASIS,
+ *      WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *      See the License for the specific language governing permissions and
+ *      limitations under the License.
+ */
+
+package com.netflix.zuul.origins;
+
+import com.netflix.config.CachedDynamicBooleanProperty;
+import com.netflix.config.CachedDynamicIntProperty;
+import com.netflix.config.CachedDynamicLongProperty;
+import com.netflix.config.ConfigurationManager;
+import com.netflix.config.DynamicStringProperty;
+import com.netflix.spectator.api.Counter;
+import com.netflix.zuul.context.CommonContextKeys;
+import com.netflix.zuul.context.SessionContext;
+import com.netflix.zuul.message.Headers;
+import com.netflix.zuul.message.http.HttpQueryParams;
+import com.netflix.zuul.message.http.HttpRequestMessage;
+import com.netflix.zuul.message.http.HttpRequestMessageImpl;
+import com.netflix.zuul.netty.SpectatorUtils;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.ScheduledFuture;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.IntSupplier;
+import java.util.function.LongSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Holds requests that arrive while an origin is at its concurrency limit, instead of rejecting them straight away,
+ * and admits them as in-flight requests to the origin complete. Disabled by default, with
+ * zuul.origin.[name].queue.enabled.
+ *
+ * Requests are queued in three priority classes, and the highest non-empty class is always admitted first. The
+ * priority is taken from the {@link CommonContextKeys#ORIGIN_QUEUE_PRIORITY} context key, which filters can set eg.
+ * per route. When the queue is full, a request evicts the oldest request of a lower priority class, or is rejected if
+ * there isn't one.
+ *
+ * The priority can also be taken from a request header ("high", "normal" or "low") named by
+ * zuul.origin.queue.priority.header. That's unset by default, as any client could otherwise jump the queue, so only
+ * set it where the header comes from a trusted hop, or is removed from client requests by an inbound filter.
+ *
+ * A request waits at most zuul.origin.[name].queue.maxWaitMs, or until its {@link com.netflix.zuul.context.RequestDeadline}.
+ * When the queue hasn't been empty for zuul.origin.[name].queue.codel.intervalMs, it's taken to be a standing queue
+ * rather than a burst, and like CoDel it then sheds the requests that have waited longer than
+ * zuul.origin.[name].queue.codel.targetMs, and admits the newest requests first, as those whose clients are least
+ * likely to have given up.
+ *
+ * The concurrency slot of a completed request is handed directly to the admitted one, so that new arrivals can't take
+ * it first. Rejected requests fail with {@link OriginConcurrencyExceededException}, as they would without the queue.
+ */
+public class OriginRequestQueue {
+	public static final int PRIORITY_HIGH = 0;
+	public static final int PRIORITY_NORMAL = 1;
+	public static final int PRIORITY_LOW = 2;
+
+	private static final String[] PRIORITY_NAMES = {"high", "normal", "low"};
+
+	private static final DynamicStringProperty PRIORITY_HEADER =
+			new DynamicStringProperty("zuul.origin.queue.priority.header", "");
+
+	private final String originName;
+	private final AtomicInteger concurrentRequests;
+	private final IntSupplier concurrencyLimit;
+	private final LongSupplier clock;
+
+	private final CachedDynamicBooleanProperty enabled;
+	private final CachedDynamicIntProperty maxSize;
+	private final CachedDynamicLongProperty maxWaitMs;
+	private final CachedDynamicLongProperty targetMs;
+	private final CachedDynamicLongProperty intervalMs;
+
+	/* Guarded by this */
+	private final List<ArrayDeque<Waiter>> classes = new ArrayList<>();
+	private long lastEmptyNanos;
+
+	private final AtomicInteger size;
+	private final Counter admitted;
+	private final Counter rejectedFull;
+	private final Counter rejectedEvicted;
+	private final Counter rejectedExpired;
+	private final Counter rejectedDropped;
+
+	/**
+	 * @param concurrentRequests the origin's count of in-flight requests, incremented for each admitted request
+	 * @param concurrencyLimit   the count above which the origin is busy and requests are queued
+	 */
+	public OriginRequestQueue(String originName, AtomicInteger concurrentRequests, IntSupplier concurrencyLimit) {
+		this(originName, concurrentRequests, concurrencyLimit, System::nanoTime);
+	}
+
+	OriginRequestQueue(String originName, AtomicInteger concurrentRequests, IntSupplier concurrencyLimit, LongSupplier clock) {
+		this.originName = originName;
+		this.concurrentRequests = concurrentRequests;
+		this.concurrencyLimit = concurrencyLimit;
+		this.clock = clock;
+
+		final String prefix = "zuul.origin." + originName + ".queue.";
+		this.enabled = new CachedDynamicBooleanProperty(prefix + "enabled", false);
+		this.maxSize = new CachedDynamicIntProperty(prefix + "maxSize", 100);
+		this.maxWaitMs = new CachedDynamicLongProperty(prefix + "maxWaitMs", 1000);
+		this.targetMs = new CachedDynamicLongProperty(prefix + "codel.targetMs", 10);
+		this.intervalMs = new CachedDynamicLongProperty(prefix + "codel.intervalMs", 100);
+
+		for (int i = 0; i < PRIORITY_NAMES.length; i++) {
+			classes.add(new ArrayDeque<>());
+		}
+		this.lastEmptyNanos = clock.getAsLong();
+
+		this.size = SpectatorUtils.newGauge("zuul.origin.queue.size", originName, new AtomicInteger());
+		this.admitted = SpectatorUtils.newCounter("zuul.origin.queue.admitted", originName);
+		this.rejectedFull = newRejectedCounter("full");
+		this.rejectedEvicted = newRejectedCounter("evicted");
+		this.rejectedExpired = newRejectedCounter("expired");
+		this.rejectedDropped = newRejectedCounter("dropped");
+	}
+
+	private Counter newRejectedCounter(String reason) {
+		return SpectatorUtils.newCounter("zuul.origin.queue.rejected", originName, "reason", reason);
+	}
+
+	public boolean isEnabled() {
+		return enabled.get();
+	}
+
+	public int size() {
+		return size.get();
+	}
+
+	/**
+	 * The priority class of the request, from {@link CommonContextKeys#ORIGIN_QUEUE_PRIORITY} or else the priority
+	 * header, defaulting to {@link #PRIORITY_NORMAL}.
+	 */
+	public static int priorityOf(HttpRequestMessage request) {
+		final Object fromContext = request.getContext().get(CommonContextKeys.ORIGIN_QUEUE_PRIORITY);
+		if (fromContext instanceof Integer) {
+			return Math.max(PRIORITY_HIGH, Math.min(PRIORITY_LOW, (Integer) fromContext));
+		}
+		final String headerName = PRIORITY_HEADER.get();
+		if (headerName != null && !headerName.isEmpty()) {
+			final String value = request.getHeaders().getFirst(headerName);
+			for (int i = 0; value != null && i < PRIORITY_NAMES.length; i++) {
+				if (PRIORITY_NAMES[i].equalsIgnoreCase(value.trim())) {
+					return i;
+				}
+			}
+		}
+		return PRIORITY_NORMAL;
+	}
+
+	/**
+	 * Queues the request if the queue is enabled and the origin is busy, or others are already waiting for it.
+	 *
+	 * Once the request is admitted, onAdmit is run on the executor, and the request holds one of the origin's
+	 * concurrency slots, as if it had passed {@link NettyOrigin#preRequestChecks}. If it's rejected after being
+	 * queued, onReject is run on the executor instead.
+	 *
+	 * @param timeLeftMs the most the request can wait, eg. until its deadline
+	 * @return the queued request, or null if the request can go ahead without queueing
+	 * @throws OriginConcurrencyExceededException if the queue is full
+	 */
+	public Waiter enqueueIfBusy(HttpRequestMessage request, EventExecutor executor, long timeLeftMs,
+								Runnable onAdmit, Consumer<Throwable> onReject) {
+		if (!isEnabled() || (size.get() == 0 && !isBusy())) {
+			return null;
+		}
+
+		final long maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, Math.min(maxWaitMs.get(), timeLeftMs)));
+		final Waiter waiter = new Waiter(priorityOf(request), clock.getAsLong(), maxWaitNanos, executor, onAdmit, onReject);
+		final Waiter evicted;
+		synchronized (this) {
+			evicted = size.get() >= maxSize.get() ? evictLowerThan(waiter.priority) : null;
+			if (size.get() >= maxSize.get()) {
+				rejectedFull.increment();
+				throw new OriginConcurrencyExceededException(originName);
+			}
+			if (size.get() == 0) {
+				lastEmptyNanos = waiter.enqueuedNanos;
+			}
+			classes.get(waiter.priority).addLast(waiter);
+			size.incrementAndGet();
+		}
+		if (evicted != null) {
+			rejectedEvicted.increment();
+			evicted.reject(new OriginConcurrencyExceededException(originName));
+		}
+
+		waiter.timeout = executor.schedule(() -> expire(waiter), maxWaitNanos, TimeUnit.NANOSECONDS);
+
+		// A request may have completed while this one was being queued, with nothing yet queued for it to admit.
+		dispatch();
+		return waiter;
+	}
+
+	/**
+	 * Admits queued requests for as long as the origin has capacity for them. To be called whenever one of the origin's
+	 * requests completes.
+	 */
+	public void dispatch() {
+		while (size.get() > 0) {
+			final List<Waiter> dropped = new ArrayList<>();
+			final Waiter next;
+			synchronized (this) {
+				if (!tryAcquireSlot()) {
+					return;
+				}
+				next = poll(dropped);
+				if (next == null) {
+					concurrentRequests.decrementAndGet();
+				} else {
+					next.state = Waiter.ADMITTED;
+				}
+			}
+
+			for (Waiter waiter : dropped) {
+				rejectedDropped.increment();
+				waiter.reject(new OriginConcurrencyExceededException(originName));
+			}
+			if (next == null) {
+				return;
+			}
+			admitted.increment();
+			next.cancelTimeout();
+			next.executor.execute(next.onAdmit);
+		}
+	}
+
+	private boolean isBusy() {
+		return concurrentRequests.get() > concurrencyLimit.getAsInt();
+	}
+
+	private boolean tryAcquireSlot() {
+		while (true) {
+			final int current = concurrentRequests.get();
+			if (current > concurrencyLimit.getAsInt()) {
+				return false;
+			}
+			if (concurrentRequests.compareAndSet(current, current + 1)) {
+				return true;
+			}
+		}
+	}
+
+	/* Guarded by this */
+	private Waiter poll(List<Waiter> dropped) {
+		final long now = clock.getAsLong();
+		final boolean standing = now - lastEmptyNanos > TimeUnit.MILLISECONDS.toNanos(intervalMs.get());
+		final long targetNanos = TimeUnit.MILLISECONDS.toNanos(targetMs.get());
+
+		for (ArrayDeque<Waiter> queue : classes) {
+			Waiter oldest;
+			while ((oldest = queue.peekFirst()) != null) {
+				final long waited = now - oldest.enqueuedNanos;
+				if (waited <= oldest.maxWaitNanos && !(standing && waited > targetNanos)) {
+					break;
+				}
+				removeHead(queue, now);
+				dropped.add(oldest);
+			}
+			if (!queue.isEmpty()) {
+				final Waiter next = standing ? queue.pollLast() : queue.pollFirst();
+				removed(now);
+				return next;
+			}
+		}
+		return null;
+	}
+
+	/* Guarded by this */
+	private Waiter evictLowerThan(int priority) {
+		for (int i = classes.size() - 1; i > priority; i--) {
+			final ArrayDeque<Waiter> queue = classes.get(i);
+			if (!queue.isEmpty()) {
+				return removeHead(queue, clock.getAsLong());
+			}
+		}
+		return null;
+	}
+
+	/* Guarded by this */
+	private Waiter removeHead(ArrayDeque<Waiter> queue, long now) {
+		final Waiter waiter = queue.pollFirst();
+		waiter.state = Waiter.REJECTED;
+		removed(now);
+		return waiter;
+	}
+
+	/* Guarded by this */
+	private void removed(long now) {
+		if (size.decrementAndGet() == 0) {
+			lastEmptyNanos = now;
+		}
+	}
+
+	private void expire(Waiter waiter) {
+		synchronized (this) {
+			if (waiter.state != Waiter.QUEUED) {
+				return;
+			}
+			classes.get(waiter.priority).remove(waiter);
+			waiter.state = Waiter.REJECTED;
+			removed(clock.getAsLong());
+		}
+		rejectedExpired.increment();
+		waiter.onReject.accept(new OriginConcurrencyExceededException(originName));
+	}
+
+	private boolean cancel(Waiter waiter) {
+		synchronized (this) {
+			if (waiter.state != Waiter.QUEUED) {
+				return false;
+			}
+			classes.get(waiter.priority).remove(waiter);
+			waiter.state = Waiter.CANCELLED;
+			removed(clock.getAsLong());
+		}
+		waiter.cancelTimeout();
+		return true;
+	}
+
+	/**
+	 * A request waiting in the queue.
+	 */
+	public final class Waiter {
+		private static final int QUEUED = 0;
+		private static final int ADMITTED = 1;
+		private static final int REJECTED = 2;
+		private static final int CANCELLED = 3;
+
+		private final int priority;
+		private final long enqueuedNanos;
+		private final long maxWaitNanos;
+		private final EventExecutor executor;
+		private final Runnable onAdmit;
+		private final Consumer<Throwable> onReject;
+
+		/* Guarded by the queue */
+		private int state = QUEUED;
+		private volatile ScheduledFuture<?> timeout;
+
+		private Waiter(int priority, long enqueuedNanos, long maxWaitNanos, EventExecutor executor,
+					   Runnable onAdmit, Consumer<Throwable> onReject) {
+			this.priority = priority;
+			this.enqueuedNanos = enqueuedNanos;
+			this.maxWaitNanos = maxWaitNanos;
+			this.executor = executor;
+			this.onAdmit = onAdmit;
+			this.onReject = onReject;
+		}
+
+		/**
+		 * Removes the request from the queue, eg. as the client has gone away.
+		 *
+		 * @return false if the request was no longer queued, in which case it may already have been admitted
+		 */
+		public boolean cancel() {
+			return OriginRequestQueue.this.cancel(this);
+		}
+
+		public boolean isAdmitted() {
+			synchronized (OriginRequestQueue.this) {
+				return state == ADMITTED;
+			}
+		}
+
+		public int getPriority() {
+			return priority;
+		}
+
+		private void reject(Throwable cause) {
+			cancelTimeout();
+			executor.execute(() -> onReject.accept(cause));
+		}
+
+		private void cancelTimeout() {
+			final ScheduledFuture<?> scheduled = timeout;
+			if (scheduled != null) {
+				scheduled.cancel(false);
+			}
+		}
+	}
+
+	public static class UnitTest {
+		private static final String PREFIX = "zuul.origin.test.queue.";
+
+		private final AtomicLong now = new AtomicLong(1_000_000_000L);
+		private final AtomicInteger concurrent = new AtomicInteger();
+		private final List<String> admittedOrder = new ArrayList<>();
+		private final List<String> rejected = new ArrayList<>();
+		private EmbeddedChannel channel;
+		private OriginRequestQueue queue;
+
+		@Before
+		public void setup() {
+			ConfigurationManager.getConfigInstance().setProperty(PREFIX + "enabled", true);
+			ConfigurationManager.getConfigInstance().setProperty(PREFIX + "maxSize", 3);
+			ConfigurationManager.getConfigInstance().setProperty("zuul.origin.queue.priority.header", "x-zuul-priority");
+			channel = new EmbeddedChannel();
+			// Busy once more than one request is in flight, as with zuul.origin.[name].concurrency.max.requests.
+			queue = new OriginRequestQueue("test", concurrent, () -> 1, now::get);
+			concurrent.set(2);
+		}
+
+		@After
+		public void teardown() {
+			ConfigurationManager.getConfigInstance().clearProperty(PREFIX + "enabled");
+			ConfigurationManager.getConfigInstance().clearProperty(PREFIX + "maxSize");
+			ConfigurationManager.getConfigInstance().clearProperty("zuul.origin.queue.priority.header");
+			channel.finishAndReleaseAll();
+		}
+
+		private HttpRequestMessage request(String priority) {
+			final HttpRequestMessage request = new HttpRequestMessageImpl(new SessionContext(), "HTTP/1.1", "GET", "/",
+					new HttpQueryParams(), new Headers(), "127.0.0.1", "http", 80, "localhost");
+			if (priority != null) {
+				request.getHeaders().set("x-zuul-priority", priority);
+			}
+			return request;
+		}
+
+		private Waiter enqueue(String name, String priority) {
+			return queue.enqueueIfBusy(request(priority), channel.eventLoop(), Long.MAX_VALUE,
+					() -> admittedOrder.add(name), cause -> rejected.add(name));
+		}
+
+		private void completeOne() {
+			concurrent.decrementAndGet();
+			queue.dispatch();
+			channel.runPendingTasks();
+		}
+
+		@Test
+		public void testNotQueuedWhenNotBusy() {
+			concurrent.set(1);
+			assertNull(enqueue("a", null));
+		}
+
+		@Test
+		public void testNotQueuedWhenDisabled() {
+			ConfigurationManager.getConfigInstance().setProperty(PREFIX + "enabled", false);
+			assertNull(enqueue("a", null));
+		}
+
+		@Test
+		public void testAdmittedInPriorityOrderWithSlotHandedOver() {
+			assertNotNull(enqueue("low", "low"));
+			assertNotNull(enqueue("normal", null));
+			assertNotNull(enqueue("high", "HIGH"));
+			assertEquals(3, queue.size());
+
+			completeOne();
+			assertEquals("[high]", admittedOrder.toString());
+			assertEquals(2, concurrent.get());
+
+			completeOne();
+			completeOne();
+			assertEquals("[high, normal, low]", admittedOrder.toString());
+			assertEquals(0, queue.size());
+		}
+
+		@Test
+		public void testArrivalsQueueBehindWaiters() {
+			enqueue("a", null);
+			concurrent.set(0);
+			// Not busy any more, but "a" is still waiting so "b" goes behind it.
+			assertNotNull(enqueue("b", null));
+			channel.runPendingTasks();
+			assertEquals("[a, b]", admittedOrder.toString());
+		}
+
+		@Test
+		public void testFullQueueEvictsLowerPriority() {
+			enqueue("low", "low");
+			enqueue("normal1", null);
+			enqueue("normal2", null);
+
+			assertNotNull(enqueue("high", "high"));
+			channel.runPendingTasks();
+			assertEquals("[low]", rejected.toString());
+
+			try {
+				enqueue("low2", "low");
+				fail();
+			} catch (OriginConcurrencyExceededException e) {
+				// expected
+			}
+			assertEquals(3, queue.size());
+		}
+
+		@Test
+		public void testStandingQueueShedsOldAndServesNewest() {
+			enqueue("a", null);
+			now.addAndGet(TimeUnit.MILLISECONDS.toNanos(95));
+			enqueue("b", null);
+			now.addAndGet(TimeUnit.MILLISECONDS.toNanos(2));
+			enqueue("c", null);
+			now.addAndGet(TimeUnit.MILLISECONDS.toNanos(5));
+
+			// Non-empty for over the 100ms interval, so "a" is dropped for having waited over the 10ms target,
+			// and the newest is admitted first.
+			completeOne();
+			assertEquals("[a]", rejected.toString());
+			assertEquals("[c]", admittedOrder.toString());
+
+			completeOne();
+			assertEquals("[c, b]", admittedOrder.toString());
+		}
+
+		@Test
+		public void testBurstServedInOrder() {
+			enqueue("a", null);
+			now.addAndGet(TimeUnit.MILLISECONDS.toNanos(20));
+			enqueue("b", null);
+
+			completeOne();
+			completeOne();
+			assertEquals("[a, b]", admittedOrder.toString());
+			assertTrue(rejected.isEmpty());
+		}
+
+		@Test
+		public void testExpiredAfterMaxWait() {
+			final Waiter waiter = queue.enqueueIfBusy(request(null), channel.eventLoop(), 0,
+					() -> admittedOrder.add("a"), cause -> rejected.add("a"));
+			assertNotNull(waiter);
+			channel.runPendingTasks();
+			assertEquals("[a]", rejected.toString());
+			assertEquals(0, queue.size());
+			assertFalse(waiter.cancel());
+		}
+
+		@Test
+		public void testCancel() {
+			final Waiter waiter = enqueue("a", null);
+			assertTrue(waiter.cancel());
+			assertEquals(0, queue.size());
+
+			completeOne();
+			assertTrue(admittedOrder.isEmpty());
+			assertFalse(waiter.isAdmitted());
+			assertEquals(1, concurrent.get());
+		}
+
+		@Test
+		public void testPriorityFromContext() {
+			final HttpRequestMessage request = request("low");
+			request.getContext().set(CommonContextKeys.ORIGIN_QUEUE_PRIORITY, PRIORITY_HIGH);
+			assertEquals(PRIORITY_HIGH, priorityOf(request));
+			assertEquals(PRIORITY_LOW, priorityOf(request("low")));
+			assertEquals(PRIORITY_NORMAL, priorityOf(request("bogus")));
+		}
+
+		@Test
+		public void testPriorityHeaderIgnoredByDefault() {
+			ConfigurationManager.getConfigInstance().clearProperty("zuul.origin.queue.priority.header");
+			assertEquals(PRIORITY_NORMAL, priorityOf(request("high")));
+		}
+	}
+}
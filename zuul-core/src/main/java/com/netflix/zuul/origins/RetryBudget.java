@@ -0,0 +1,217 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ *      Licensed under the Apache License, Version 2.0 (the "License");
+ *      you may not use this file except in compliance with the License.
+ *      You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *      Unless required by applicable law or agreed to in writing, software
+ *      distributed under the License is distributed on an "AS IS" BASIS,
+ *      WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *      See the License for the specific language governing permissions and
+ *      limitations under the License.
+ */
+
+package com.netflix.zuul.origins;
+
+import com.netflix.config.CachedDynamicBooleanProperty;
+import com.netflix.config.CachedDynamicDoubleProperty;
+import com.netflix.config.CachedDynamicIntProperty;
+import com.netflix.config.ConfigurationManager;
+import com.netflix.config.DynamicIntProperty;
+import com.netflix.spectator.api.Counter;
+import com.netflix.zuul.netty.SpectatorUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Limits the retries to an origin to a fraction of its recent successful requests, so that when an origin is
+ * failing, retries don't multiply the load on it.
+ *
+ * This is a token bucket where each successful request deposits zuul.origin.[name].retry.budget.ratio tokens, each
+ * retry withdraws one, and deposits expire after zuul.origin.[name].retry.budget.windowSeconds. On top of that,
+ * zuul.origin.[name].retry.budget.minRetriesPerSecond retries are always allowed, so that origins with little traffic
+ * can still be retried. Retries denied by the budget are counted in zuul.origin.retry.budget.exhausted.
+ *
+ * The budget applies in addition to the per-request retry limit.
+ */
+public class RetryBudget {
+	private final CachedDynamicBooleanProperty enabled;
+	private final CachedDynamicDoubleProperty ratio;
+	private final CachedDynamicIntProperty minRetriesPerSecond;
+	private final LongSupplier clock;
+
+	/* One slot per second of the window, reused round-robin */
+	private final Slot[] slots;
+
+	private final Counter allowed;
+	private final Counter exhausted;
+
+	public RetryBudget(String originName) {
+		this(originName, System::currentTimeMillis);
+	}
+
+	RetryBudget(String originName, LongSupplier clock) {
+		final String prefix = "zuul.origin." + originName + ".retry.budget.";
+		this.enabled = new CachedDynamicBooleanProperty(prefix + "enabled", true);
+		this.ratio = new CachedDynamicDoubleProperty(prefix + "ratio", 0.2);
+		this.minRetriesPerSecond = new CachedDynamicIntProperty(prefix + "minRetriesPerSecond", 10);
+		this.clock = clock;
+
+		final int windowSeconds = Math.max(1, new DynamicIntProperty(prefix + "windowSeconds", 10).get());
+		this.slots = new Slot[windowSeconds];
+		for (int i = 0; i < slots.length; i++) {
+			slots[i] = new Slot();
+		}
+
+		this.allowed = SpectatorUtils.newCounter("zuul.origin.retry.budget.allowed", originName);
+		this.exhausted = SpectatorUtils.newCounter("zuul.origin.retry.budget.exhausted", originName);
+	}
+
+	public void recordSuccess() {
+		currentSlot().successes.increment();
+	}
+
+	/**
+	 * Withdraws a retry from the budget.
+	 *
+	 * @return whether the retry is allowed
+	 */
+	public boolean tryAcquireRetry() {
+		if (!enabled.get()) {
+			return true;
+		}
+		final long second = currentSecond();
+		long successes = 0;
+		long retries = 0;
+		for (Slot slot : slots) {
+			if (second - slot.second.get() < slots.length) {
+				successes += slot.successes.sum();
+				retries += slot.retries.sum();
+			}
+		}
+
+		// Concurrent retries can overdraw this slightly, which is fine for a budget.
+		final double balance = successes * ratio.get() + (double) minRetriesPerSecond.get() * slots.length - retries;
+		if (balance < 1) {
+			exhausted.increment();
+			return false;
+		}
+		slotFor(second).retries.increment();
+		allowed.increment();
+		return true;
+	}
+
+	private long currentSecond() {
+		return clock.getAsLong() / 1000;
+	}
+
+	private Slot currentSlot() {
+		return slotFor(currentSecond());
+	}
+
+	private Slot slotFor(long second) {
+		final Slot slot = slots[(int) (second % slots.length)];
+		final long slotSecond = slot.second.get();
+		if (slotSecond != second) {
+			synchronized (slot) {
+				// The window has moved on since this slot was last used, so drop its expired counts.
+				if (slot.second.get() != second) {
+					slot.successes.reset();
+					slot.retries.reset();
+					slot.second.set(second);
+				}
+			}
+		}
+		return slot;
+	}
+
+	private static final class Slot {
+		private final AtomicLong second = new AtomicLong(Long.MIN_VALUE / 2);
+		private final LongAdder successes = new LongAdder();
+		private final LongAdder retries = new LongAdder();
+	}
+
+
+	public static class UnitTest {
+		private final AtomicLong now = new AtomicLong(1_000_000);
+
+		@Before
+		public void setup() {
+			ConfigurationManager.getConfigInstance().setProperty("zuul.origin.test.retry.budget.minRetriesPerSecond", 0);
+		}
+
+		@After
+		public void teardown() {
+			ConfigurationManager.getConfigInstance().clearProperty("zuul.origin.test.retry.budget.minRetriesPerSecond");
+			ConfigurationManager.getConfigInstance().clearProperty("zuul.origin.test.retry.budget.enabled");
+		}
+
+		private int acquireAll(RetryBudget budget) {
+			int count = 0;
+			while (budget.tryAcquireRetry()) {
+				count++;
+			}
+			return count;
+		}
+
+		@Test
+		public void testRatioOfSuccesses() {
+			final RetryBudget budget = new RetryBudget("test", now::get);
+			assertFalse(budget.tryAcquireRetry());
+			for (int i = 0; i < 100; i++) {
+				budget.recordSuccess();
+			}
+			assertEquals(20, acquireAll(budget));
+		}
+
+		@Test
+		public void testMinimumRate() {
+			ConfigurationManager.getConfigInstance().setProperty("zuul.origin.test.retry.budget.minRetriesPerSecond", 2);
+			final RetryBudget budget = new RetryBudget("test", now::get);
+			assertEquals(20, acquireAll(budget));
+		}
+
+		@Test
+		public void testDepositsExpire() {
+			final RetryBudget budget = new RetryBudget("test", now::get);
+			for (int i = 0; i < 50; i++) {
+				budget.recordSuccess();
+			}
+			now.addAndGet(5_000);
+			for (int i = 0; i < 50; i++) {
+				budget.recordSuccess();
+			}
+			assertEquals(20, acquireAll(budget));
+
+			// Only the later deposits are left, and they've been used up by the retries.
+			now.addAndGet(6_000);
+			assertFalse(budget.tryAcquireRetry());
+
+			// Everything has expired.
+			now.addAndGet(5_000);
+			for (int i = 0; i < 50; i++) {
+				budget.recordSuccess();
+			}
+			assertEquals(10, acquireAll(budget));
+		}
+
+		@Test
+		public void testDisabled() {
+			ConfigurationManager.getConfigInstance().setProperty("zuul.origin.test.retry.budget.enabled", false);
+			final RetryBudget budget = new RetryBudget("test", now::get);
+			assertTrue(budget.tryAcquireRetry());
+		}
+	}
+}
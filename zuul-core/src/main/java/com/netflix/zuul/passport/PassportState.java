@@ -62,6 +62,9 @@ public enum PassportState {
 	ORIGIN_CONN_ACQUIRE_END,
 	ORIGIN_CONN_ACQUIRE_FAILED,
 
+	ORIGIN_QUEUE_START,
+	ORIGIN_QUEUE_END,
+
 	MISC_IO_START,
 	MISC_IO_STOP,
 
@@ -74,6 +77,8 @@ public enum PassportState {
 	SERVER_CH_THROTTLING,
 	SERVER_CH_REJECTING,
 	SERVER_CH_SSL_HANDSHAKE_COMPLETE,
+	SERVER_CH_READ_PAUSED,
+	SERVER_CH_READ_RESUMED,
 
 	ORIGIN_CH_CONNECTING,
 	ORIGIN_CH_CONNECTED,
@@ -86,5 +91,7 @@ public enum PassportState {
 	ORIGIN_CH_POOL_RETURNED,
 	ORIGIN_CH_READ_TIMEOUT,
 	ORIGIN_CH_IO_EX,
+	ORIGIN_CH_READ_PAUSED,
+	ORIGIN_CH_READ_RESUMED,
 	ORIGIN_RETRY_START,
 }
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ *      Licensed under the Apache License, Version 2.0 (the "License");
+ *      you may not use this file except in compliance with the License.
+ *      You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *      Unless required by applicable law or agreed to in writing, software
+ *      distributed under the License is distributed on an "AS IS" BASIS,
+ *      WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *      See the License for the specific language governing permissions and
+ *      limitations under the License.
+ */
+
+package com.netflix.zuul.routing;
+
+import com.netflix.zuul.message.http.HttpRequestInfo;
+import com.netflix.zuul.netty.filter.ZuulEndPointRunner;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A declarative route, matching requests by host, path, method and headers, and naming the endpoint, VIP and any
+ * per-route config to use for them.
+ *
+ * Paths are matched segment by segment. A "*" segment matches any single segment, and a trailing "/**" matches the
+ * rest of the path, so "/api/**" matches "/api" and everything below it. Hosts may be exact, or a wildcard such as
+ * "*.example.com" which matches any sub-domain. Routes with no hosts match any host.
+ */
+public final class Route {
+	/** The config key of the read timeout, in milliseconds, to use in place of the origin's. */
+	public static final String CONFIG_READ_TIMEOUT = "readTimeout";
+
+	private final String id;
+	private final List<String> hosts;
+	private final String path;
+	private final Set<String> methods;
+	private final Map<String, String> headers;
+	private final String endpoint;
+	private final String vip;
+	private final Map<String, String> config;
+
+	/**
+	 * @param headers header names that must be present, mapped to the value they must have, or to null if any value
+	 *                is allowed
+	 * @param endpoint the endpoint filter to use, defaulting to the proxy endpoint if null
+	 */
+	public Route(String id, List<String> hosts, String path, Set<String> methods, Map<String, String> headers,
+				 String endpoint, String vip, Map<String, String> config) {
+		if (path == null || !path.startsWith("/")) {
+			throw new IllegalArgumentException("Route path must start with '/'. route = " + id + ", path = " + path);
+		}
+		if (endpoint == null && vip == null) {
+			throw new IllegalArgumentException("Route must have an endpoint or a vip. route = " + id);
+		}
+		this.id = id;
+		this.hosts = hosts == null ? Collections.emptyList() : Collections.unmodifiableList(hosts);
+		this.path = path;
+		this.methods = upperCase(methods);
+		this.headers = headers == null ? Collections.emptyMap() : Collections.unmodifiableMap(new LinkedHashMap<>(headers));
+		this.endpoint = endpoint == null ? ZuulEndPointRunner.PROXY_ENDPOINT_FILTER_NAME : endpoint;
+		this.vip = vip;
+		this.config = config == null ? Collections.emptyMap() : Collections.unmodifiableMap(new LinkedHashMap<>(config));
+	}
+
+	private static Set<String> upperCase(Set<String> methods) {
+		if (methods == null || methods.isEmpty()) {
+			return Collections.emptySet();
+		}
+		Set<String> upper = new HashSet<>();
+		for (String method : methods) {
+			upper.add(method.toUpperCase(Locale.ROOT));
+		}
+		return Collections.unmodifiableSet(upper);
+	}
+
+	/**
+	 * Checks the method and header predicates. Host and path are matched by the {@link RouteTable} index.
+	 */
+	boolean matchesPredicates(HttpRequestInfo request) {
+		if (!methods.isEmpty() && !methods.contains(request.getMethod().toUpperCase(Locale.ROOT))) {
+			return false;
+		}
+		for (Map.Entry<String, String> header : headers.entrySet()) {
+			final String value = request.getHeaders().getFirst(header.getKey());
+			if (value == null || (header.getValue() != null && !header.getValue().equals(value))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public List<String> getHosts() {
+		return hosts;
+	}
+
+	public String getPath() {
+		return path;
+	}
+
+	public Set<String> getMethods() {
+		return methods;
+	}
+
+	public Map<String, String> getHeaders() {
+		return headers;
+	}
+
+	public String getEndpoint() {
+		return endpoint;
+	}
+
+	public String getVip() {
+		return vip;
+	}
+
+	public Map<String, String> getConfig() {
+		return config;
+	}
+
+	@Override
+	public String toString() {
+		return "Route{id=" + id + ", hosts=" + hosts + ", path=" + path + ", methods=" + methods
+				+ ", endpoint=" + endpoint + ", vip=" + vip + "}";
+	}
+}
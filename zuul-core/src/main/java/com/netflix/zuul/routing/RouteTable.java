@@ -0,0 +1,284 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ *      Licensed under the Apache License, Version 2.0 (the "License");
+ *      you may not use this file except in compliance with the License.
+ *      You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *      Unless required by applicable law or agreed to in writing, software
+ *      distributed under the License is distributed on an "AS IS" BASIS,
+ *      WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *      See the License for the specific language governing permissions and
+ *      limitations under the License.
+ */
+
+package com.netflix.zuul.routing;
+
+import com.netflix.config.CachedDynamicBooleanProperty;
+import com.netflix.config.ConfigurationManager;
+import com.netflix.zuul.context.SessionContext;
+import com.netflix.zuul.message.Headers;
+import com.netflix.zuul.message.http.HttpHeaderNames;
+import com.netflix.zuul.message.http.HttpRequestInfo;
+import com.netflix.zuul.message.http.HttpRequestMessageImpl;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * An immutable index of routes, compiled into a hash of hosts to a trie of path segments so that a request is matched
+ * in time proportional to its path length rather than to the number of routes.
+ *
+ * When more than one route matches a request the most specific one wins: exact hosts over wildcard hosts over any
+ * host, and literal path segments over "*" segments over "/**" prefixes. Routes that are otherwise equally specific are
+ * tried in the order they were defined, and the first whose method and header predicates match is used.
+ *
+ * Hosts are matched against the Host header. The X-Forwarded-Host header is only used instead if
+ * zuul.routing.host.forwarded.trusted is set, which should only be done when every request comes through a proxy that
+ * sets it, as otherwise any client could pick the route of another host.
+ */
+public final class RouteTable {
+	public static final RouteTable EMPTY = new RouteTable(Collections.emptyList());
+
+	private static final String WILDCARD_SEGMENT = "*";
+	private static final String PREFIX_SEGMENT = "**";
+	private static final CachedDynamicBooleanProperty TRUST_FORWARDED_HOST =
+			new CachedDynamicBooleanProperty("zuul.routing.host.forwarded.trusted", false);
+
+	private final List<Route> routes;
+	private final Map<String, Node> exactHosts = new HashMap<>();
+	private final Map<String, Node> wildcardHosts = new HashMap<>();
+	private final Node anyHost = new Node();
+
+	public RouteTable(List<Route> routes) {
+		this.routes = Collections.unmodifiableList(new ArrayList<>(routes));
+		for (Route route : routes) {
+			if (route.getHosts().isEmpty()) {
+				insert(anyHost, route);
+				continue;
+			}
+			for (String host : route.getHosts()) {
+				final String h = host.toLowerCase(Locale.ROOT);
+				if (h.startsWith("*.")) {
+					insert(wildcardHosts.computeIfAbsent(h.substring(2), k -> new Node()), route);
+				} else {
+					insert(exactHosts.computeIfAbsent(h, k -> new Node()), route);
+				}
+			}
+		}
+	}
+
+	public List<Route> getRoutes() {
+		return routes;
+	}
+
+	public int size() {
+		return routes.size();
+	}
+
+	/**
+	 * Returns the route for the given request, or null if none match.
+	 */
+	public Route match(HttpRequestInfo request) {
+		final String path = request.getPath();
+		final String host = TRUST_FORWARDED_HOST.get() ? request.getOriginalHost() : getHost(request);
+
+		if (host != null && !(exactHosts.isEmpty() && wildcardHosts.isEmpty())) {
+			final String h = host.toLowerCase(Locale.ROOT);
+			Node hostNode = exactHosts.get(h);
+			if (hostNode != null) {
+				final Route route = find(hostNode, path, 0, request);
+				if (route != null) {
+					return route;
+				}
+			}
+			// Try each parent domain against the wildcard hosts, most specific first.
+			for (int dot = h.indexOf('.'); dot != -1; dot = h.indexOf('.', dot + 1)) {
+				hostNode = wildcardHosts.get(h.substring(dot + 1));
+				if (hostNode != null) {
+					final Route route = find(hostNode, path, 0, request);
+					if (route != null) {
+						return route;
+					}
+				}
+			}
+		}
+		return find(anyHost, path, 0, request);
+	}
+
+	private static void insert(Node root, Route route) {
+		Node node = root;
+		final String[] segments = route.getPath().split("/");
+		for (int i = 0; i < segments.length; i++) {
+			final String segment = segments[i];
+			if (segment.isEmpty()) {
+				continue;
+			}
+			if (PREFIX_SEGMENT.equals(segment)) {
+				if (i != segments.length - 1) {
+					throw new IllegalArgumentException("'**' is only allowed as the last path segment. route = " + route.getId());
+				}
+				node.prefixRoutes.add(route);
+				return;
+			}
+			if (WILDCARD_SEGMENT.equals(segment)) {
+				if (node.wildcard == null) {
+					node.wildcard = new Node();
+				}
+				node = node.wildcard;
+			} else {
+				node = node.children.computeIfAbsent(segment, k -> new Node());
+			}
+		}
+		node.routes.add(route);
+	}
+
+	private static Route find(Node node, String path, int pos, HttpRequestInfo request) {
+		final int len = path.length();
+		while (pos < len && path.charAt(pos) == '/') {
+			pos++;
+		}
+
+		if (pos >= len) {
+			final Route route = firstMatching(node.routes, request);
+			return route != null ? route : firstMatching(node.prefixRoutes, request);
+		}
+
+		int end = path.indexOf('/', pos);
+		if (end == -1) {
+			end = len;
+		}
+
+		if (!node.children.isEmpty()) {
+			final Node child = node.children.get(path.substring(pos, end));
+			if (child != null) {
+				final Route route = find(child, path, end, request);
+				if (route != null) {
+					return route;
+				}
+			}
+		}
+		if (node.wildcard != null) {
+			final Route route = find(node.wildcard, path, end, request);
+			if (route != null) {
+				return route;
+			}
+		}
+		return firstMatching(node.prefixRoutes, request);
+	}
+
+	private static Route firstMatching(List<Route> routes, HttpRequestInfo request) {
+		for (int i = 0; i < routes.size(); i++) {
+			final Route route = routes.get(i);
+			if (route.matchesPredicates(request)) {
+				return route;
+			}
+		}
+		return null;
+	}
+
+	private static String getHost(HttpRequestInfo request) {
+		final String host = request.getHeaders().getFirst(HttpHeaderNames.HOST);
+		if (host == null) {
+			return request.getServerName();
+		}
+		// Strip any port, allowing for a bracketed IPv6 address.
+		final int colon = host.indexOf(':', host.startsWith("[") ? Math.max(host.indexOf(']'), 0) : 0);
+		return colon == -1 ? host : host.substring(0, colon);
+	}
+
+	private static final class Node {
+		final Map<String, Node> children = new HashMap<>();
+		final List<Route> routes = new ArrayList<>(1);
+		final List<Route> prefixRoutes = new ArrayList<>(1);
+		Node wildcard;
+	}
+
+	public static class UnitTest {
+		private static Route route(String id, String host, String path) {
+			return new Route(id, host == null ? null : Collections.singletonList(host), path, null, null, null, id, null);
+		}
+
+		private static HttpRequestInfo request(String method, String host, String path) {
+			Headers headers = new Headers();
+			headers.add("Host", host);
+			return new HttpRequestMessageImpl(new SessionContext(), "HTTP/1.1", method, path, null, headers,
+					"127.0.0.1", "http", 80, host);
+		}
+
+		@Test
+		public void testMostSpecificPathWins() {
+			RouteTable table = new RouteTable(Arrays.asList(
+					route("all", null, "/**"),
+					route("users", null, "/users/**"),
+					route("profile", null, "/users/*/profile"),
+					route("me", null, "/users/me/profile")));
+
+			assertEquals("me", table.match(request("GET", "a.com", "/users/me/profile")).getId());
+			assertEquals("profile", table.match(request("GET", "a.com", "/users/42/profile")).getId());
+			assertEquals("users", table.match(request("GET", "a.com", "/users/42/other")).getId());
+			assertEquals("users", table.match(request("GET", "a.com", "/users")).getId());
+			assertEquals("all", table.match(request("GET", "a.com", "/")).getId());
+			assertEquals("all", table.match(request("GET", "a.com", "/usersX")).getId());
+		}
+
+		@Test
+		public void testHostMatching() {
+			RouteTable table = new RouteTable(Arrays.asList(
+					route("any", null, "/**"),
+					route("wild", "*.example.com", "/**"),
+					route("exact", "api.example.com", "/api/**")));
+
+			assertEquals("exact", table.match(request("GET", "API.example.com", "/api/x")).getId());
+			assertEquals("wild", table.match(request("GET", "api.example.com", "/other")).getId());
+			assertEquals("wild", table.match(request("GET", "a.b.example.com", "/")).getId());
+			assertEquals("any", table.match(request("GET", "example.org", "/api/x")).getId());
+		}
+
+		@Test
+		public void testForwardedHostOnlyWhenTrusted() {
+			RouteTable table = new RouteTable(Arrays.asList(
+					route("any", null, "/**"),
+					route("internal", "internal.example.com", "/**")));
+
+			HttpRequestInfo request = request("GET", "www.example.com:8080", "/");
+			request.getHeaders().add("X-Forwarded-Host", "internal.example.com");
+			assertEquals("any", table.match(request).getId());
+			assertEquals("internal", table.match(request("GET", "internal.example.com:8080", "/")).getId());
+
+			ConfigurationManager.getConfigInstance().setProperty("zuul.routing.host.forwarded.trusted", true);
+			try {
+				assertEquals("internal", table.match(request).getId());
+			} finally {
+				ConfigurationManager.getConfigInstance().clearProperty("zuul.routing.host.forwarded.trusted");
+			}
+		}
+
+		@Test
+		public void testPredicates() {
+			Map<String, String> headers = new HashMap<>();
+			headers.put("X-Canary", "true");
+			RouteTable table = new RouteTable(Arrays.asList(
+					new Route("canary", null, "/api/**", null, headers, null, "api-canary", null),
+					new Route("post", null, "/api/**", Collections.singleton("post"), null, null, "api-write", null)));
+
+			assertEquals("post", table.match(request("POST", "a.com", "/api/x")).getId());
+			assertNull(table.match(request("GET", "a.com", "/api/x")));
+
+			HttpRequestInfo canary = request("GET", "a.com", "/api/x");
+			canary.getHeaders().add("X-Canary", "true");
+			assertEquals("canary", table.match(canary).getId());
+		}
+	}
+}
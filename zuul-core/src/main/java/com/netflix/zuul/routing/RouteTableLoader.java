@@ -0,0 +1,251 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ *      Licensed under the Apache License, Version 2.0 (the "License");
+ *      you may not use this file except in compliance with the License.
+ *      You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *      Unless required by applicable law or agreed to in writing, software
+ *      distributed under the License is distributed on an "AS IS" BASIS,
+ *      WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *      See the License for the specific language governing permissions and
+ *      limitations under the License.
+ */
+
+package com.netflix.zuul.routing;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.netflix.config.DynamicIntProperty;
+import com.netflix.config.DynamicStringProperty;
+import com.netflix.spectator.api.Counter;
+import com.netflix.spectator.api.Spectator;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Loads a {@link RouteTable} from a JSON file of route definitions, and polls the file so that changes are compiled
+ * and swapped in atomically. If a changed file fails to parse, the previous table is kept.
+ *
+ * The file holds an array of routes, for example:
+ * <pre>
+ * [
+ *   {"id": "healthcheck", "path": "/healthcheck", "endpoint": "com.netflix.zuul.sample.filters.endpoint.Healthcheck"},
+ *   {"id": "origin-one", "path": "/origin/one/**", "vip": "origin-one"},
+ *   {"id": "api", "hosts": ["*.example.com"], "path": "/**", "methods": ["GET", "POST"],
+ *    "headers": {"X-Canary": null}, "vip": "api", "config": {"readTimeout": "2000"}}
+ * ]
+ * </pre>
+ *
+ * A route's config can set "readTimeout", in milliseconds, which is used for its requests in place of the origin's read
+ * timeout, and "deadlineMs" for the {@link com.netflix.zuul.context.RequestDeadline} of its requests. Filters can read
+ * any other values from the {@link com.netflix.zuul.context.CommonContextKeys#ROUTE_CONFIG} of the request's context.
+ */
+public class RouteTableLoader {
+	private static final Logger LOG = LoggerFactory.getLogger(RouteTableLoader.class);
+
+	private static final DynamicStringProperty ROUTES_FILE = new DynamicStringProperty("zuul.routing.routes.file", null);
+	private static final DynamicIntProperty POLL_INTERVAL_SEC = new DynamicIntProperty("zuul.routing.routes.pollIntervalSec", 10);
+
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+	private static RouteTableLoader INSTANCE;
+
+	private final File file;
+	private final AtomicReference<RouteTable> routeTable = new AtomicReference<>(RouteTable.EMPTY);
+	private final Counter reloadCounter;
+	private final Counter reloadFailedCounter;
+	private volatile long lastModified = -1;
+	private volatile boolean running = false;
+	private Thread poller;
+
+	public RouteTableLoader(File file) {
+		this.file = file;
+		this.reloadCounter = Spectator.globalRegistry().counter("zuul.routing.reload", "status", "success");
+		this.reloadFailedCounter = Spectator.globalRegistry().counter("zuul.routing.reload", "status", "failure");
+	}
+
+	/**
+	 * The shared loader for the file configured by zuul.routing.routes.file, started on first use. If no file is
+	 * configured then the table is empty until one is set programmatically.
+	 */
+	public static synchronized RouteTableLoader getInstance() {
+		if (INSTANCE == null) {
+			final String fileName = ROUTES_FILE.get();
+			INSTANCE = new RouteTableLoader(fileName == null ? null : new File(fileName));
+			INSTANCE.start();
+		}
+		return INSTANCE;
+	}
+
+	public RouteTable getRouteTable() {
+		return routeTable.get();
+	}
+
+	/**
+	 * Atomically replaces the route table in use.
+	 */
+	public void setRouteTable(RouteTable table) {
+		routeTable.set(table);
+	}
+
+	public synchronized void start() {
+		if (file == null || running) {
+			return;
+		}
+		reloadIfChanged();
+
+		running = true;
+		poller = new Thread("RouteTableLoaderPoller") {
+			@Override
+			public void run() {
+				while (running) {
+					try {
+						sleep(POLL_INTERVAL_SEC.get() * 1000L);
+						reloadIfChanged();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						return;
+					} catch (Exception e) {
+						LOG.error("Error polling routes file " + file, e);
+					}
+				}
+			}
+		};
+		poller.setDaemon(true);
+		poller.start();
+	}
+
+	public synchronized void stop() {
+		running = false;
+		if (poller != null) {
+			poller.interrupt();
+		}
+	}
+
+	/**
+	 * Re-reads the routes file if it has changed since it was last loaded.
+	 *
+	 * @return true if a new route table was swapped in
+	 */
+	public boolean reloadIfChanged() {
+		final long modified = file.lastModified();
+		if (modified == 0 || modified == lastModified) {
+			return false;
+		}
+		try {
+			final RouteTable table = parse(MAPPER.readTree(file));
+			routeTable.set(table);
+			lastModified = modified;
+			reloadCounter.increment();
+			LOG.info("Loaded {} routes from {}", table.size(), file);
+			return true;
+		} catch (IOException | RuntimeException e) {
+			// Don't retry the same broken file until it changes again.
+			lastModified = modified;
+			reloadFailedCounter.increment();
+			LOG.error("Error loading routes from " + file + ", keeping previous routes", e);
+			return false;
+		}
+	}
+
+	public static RouteTable parse(String json) throws IOException {
+		return parse(MAPPER.readTree(json));
+	}
+
+	static RouteTable parse(JsonNode root) {
+		if (root == null || !root.isArray()) {
+			throw new IllegalArgumentException("Routes must be a JSON array");
+		}
+		final List<Route> routes = new ArrayList<>(root.size());
+		for (JsonNode node : root) {
+			routes.add(new Route(
+					text(node, "id"),
+					stringList(node.get("hosts")),
+					text(node, "path"),
+					stringSet(node.get("methods")),
+					stringMap(node.get("headers")),
+					text(node, "endpoint"),
+					text(node, "vip"),
+					stringMap(node.get("config"))));
+		}
+		return new RouteTable(routes);
+	}
+
+	private static String text(JsonNode node, String field) {
+		final JsonNode value = node.get(field);
+		return (value == null || value.isNull()) ? null : value.asText();
+	}
+
+	private static List<String> stringList(JsonNode node) {
+		if (node == null || node.isNull()) {
+			return null;
+		}
+		final List<String> values = new ArrayList<>(node.size());
+		for (JsonNode value : node) {
+			values.add(value.asText());
+		}
+		return values;
+	}
+
+	private static Set<String> stringSet(JsonNode node) {
+		final List<String> values = stringList(node);
+		return values == null ? null : new LinkedHashSet<>(values);
+	}
+
+	private static Map<String, String> stringMap(JsonNode node) {
+		if (node == null || node.isNull()) {
+			return null;
+		}
+		final Map<String, String> values = new LinkedHashMap<>();
+		final Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
+		while (fields.hasNext()) {
+			final Map.Entry<String, JsonNode> field = fields.next();
+			values.put(field.getKey(), field.getValue().isNull() ? null : field.getValue().asText());
+		}
+		return values;
+	}
+
+	public static class UnitTest {
+		@Test
+		public void testParse() throws Exception {
+			RouteTable table = parse("[" +
+					"{\"id\": \"hc\", \"path\": \"/healthcheck\", \"endpoint\": \"Healthcheck\"}," +
+					"{\"id\": \"api\", \"hosts\": [\"*.example.com\"], \"path\": \"/**\", \"methods\": [\"get\"]," +
+					" \"headers\": {\"X-Canary\": null}, \"vip\": \"api\", \"config\": {\"readTimeout\": \"2000\"}}]");
+
+			assertEquals(2, table.size());
+			Route hc = table.getRoutes().get(0);
+			assertEquals("Healthcheck", hc.getEndpoint());
+			assertNull(hc.getVip());
+
+			Route api = table.getRoutes().get(1);
+			assertEquals("api", api.getVip());
+			assertEquals("*.example.com", api.getHosts().get(0));
+			assertEquals(true, api.getMethods().contains("GET"));
+			assertEquals(true, api.getHeaders().containsKey("X-Canary"));
+			assertEquals("2000", api.getConfig().get("readTimeout"));
+		}
+
+		@Test(expected = IllegalArgumentException.class)
+		public void testRejectsRouteWithoutTarget() throws Exception {
+			parse("[{\"id\": \"broken\", \"path\": \"/x\"}]");
+		}
+	}
+}
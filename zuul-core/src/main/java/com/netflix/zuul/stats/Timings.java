@@ -24,42 +24,84 @@ import java.util.concurrent.ConcurrentHashMap;
  * Time: 4:16 PM
  */
 public class Timings {
-	private final Timing request = new Timing("_requestTiming");
-	private final Timing requestProxy = new Timing("_requestProxyTiming");
-	private final Timing requestBodyRead = new Timing("_requestBodyReadTiming");
-	private final Timing responseBodyRead = new Timing("_responseBodyReadTiming");
-	private final Timing requestBodyWrite = new Timing("_requestBodyWriteTiming");
-	private final Timing responseBodyWrite = new Timing("_responseBodyWriteTiming");
+	// The standard timings are created on first use, as most requests only use some of them.
+	private Timing request;
+	private Timing requestProxy;
+	private Timing requestBodyRead;
+	private Timing responseBodyRead;
+	private Timing requestBodyWrite;
+	private Timing responseBodyWrite;
 
-	protected final ConcurrentHashMap<String, Timing> additionalTimings = new ConcurrentHashMap<>();
+	protected volatile ConcurrentHashMap<String, Timing> additionalTimings;
 
 	public Timing get(String name) {
-		return additionalTimings.computeIfAbsent(name, (newName) -> new Timing(newName));
+		ConcurrentHashMap<String, Timing> timings = additionalTimings;
+		if (timings == null) {
+			synchronized (this) {
+				timings = additionalTimings;
+				if (timings == null) {
+					timings = new ConcurrentHashMap<>();
+					additionalTimings = timings;
+				}
+			}
+		}
+		return timings.computeIfAbsent(name, (newName) -> new Timing(newName));
+	}
+
+	/**
+	 * Discards all timings, so that this instance can be reused for another request.
+	 */
+	public void reset() {
+		request = null;
+		requestProxy = null;
+		requestBodyRead = null;
+		responseBodyRead = null;
+		requestBodyWrite = null;
+		responseBodyWrite = null;
+		additionalTimings = null;
 	}
 
 	/* Following are some standard Zuul timings: */
 
 	public Timing getRequest() {
+		if (request == null) {
+			request = new Timing("_requestTiming");
+		}
 		return request;
 	}
 
 	public Timing getRequestProxy() {
+		if (requestProxy == null) {
+			requestProxy = new Timing("_requestProxyTiming");
+		}
 		return requestProxy;
 	}
 
 	public Timing getRequestBodyRead() {
+		if (requestBodyRead == null) {
+			requestBodyRead = new Timing("_requestBodyReadTiming");
+		}
 		return requestBodyRead;
 	}
 
 	public Timing getResponseBodyRead() {
+		if (responseBodyRead == null) {
+			responseBodyRead = new Timing("_responseBodyReadTiming");
+		}
 		return responseBodyRead;
 	}
 
 	public Timing getRequestBodyWrite() {
+		if (requestBodyWrite == null) {
+			requestBodyWrite = new Timing("_requestBodyWriteTiming");
+		}
 		return requestBodyWrite;
 	}
 
 	public Timing getResponseBodyWrite() {
+		if (responseBodyWrite == null) {
+			responseBodyWrite = new Timing("_responseBodyWriteTiming");
+		}
 		return responseBodyWrite;
 	}
 }
@@ -0,0 +1,207 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ *      Licensed under the Apache License, Version 2.0 (the "License");
+ *      you may not use this file except in compliance with the License.
+ *      You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *      Unless required by applicable law or agreed to in writing, software
+ *      distributed under the License is distributed on an "AS IS" BASIS,
+ *      WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *      See the License for the specific language governing permissions and
+ *      limitations under the License.
+ */
+
+package com.netflix.zuul.tracing;
+
+import com.netflix.spectator.api.Counter;
+import com.netflix.spectator.api.Spectator;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Hands finished spans from the event-loops to a {@link SpanExporter} on a background thread.
+ *
+ * Spans are queued in a bounded queue, and exported in batches of up to maxBatchSize, whenever a full batch is queued
+ * and at least every interval. When the exporter can't keep up and the queue is full, further spans are dropped rather
+ * than slowing down requests.
+ */
+public class BatchSpanProcessor {
+	private static final Logger LOG = LoggerFactory.getLogger(BatchSpanProcessor.class);
+
+	private final SpanExporter exporter;
+	private final BlockingQueue<Span> queue;
+	private final int maxBatchSize;
+	private final long intervalMs;
+	private final Object batchReady = new Object();
+	private final Counter exported;
+	private final Counter dropped;
+	private final Counter failed;
+
+	private volatile boolean running = false;
+	private Thread thread;
+
+	public BatchSpanProcessor(SpanExporter exporter, int queueSize, int maxBatchSize, long intervalMs) {
+		this.exporter = exporter;
+		this.queue = new ArrayBlockingQueue<>(queueSize);
+		this.maxBatchSize = maxBatchSize;
+		this.intervalMs = intervalMs;
+		this.exported = Spectator.globalRegistry().counter("zuul.tracing.spans.exported");
+		this.dropped = Spectator.globalRegistry().counter("zuul.tracing.spans.dropped");
+		this.failed = Spectator.globalRegistry().counter("zuul.tracing.spans.failed");
+	}
+
+	public void start() {
+		synchronized (batchReady) {
+			if (running) {
+				return;
+			}
+			running = true;
+			thread = new DefaultThreadFactory("ZuulSpanExporter", true).newThread(this::run);
+			thread.start();
+		}
+	}
+
+	public void submit(List<Span> spans) {
+		for (int i = 0; i < spans.size(); i++) {
+			if (!queue.offer(spans.get(i))) {
+				dropped.increment(spans.size() - i);
+				break;
+			}
+		}
+		if (queue.size() >= maxBatchSize) {
+			synchronized (batchReady) {
+				batchReady.notify();
+			}
+		}
+	}
+
+	/**
+	 * Exports everything queued so far on the calling thread, after any export already in progress.
+	 */
+	public synchronized void flush() {
+		final List<Span> batch = new ArrayList<>(maxBatchSize);
+		while (queue.drainTo(batch, maxBatchSize) > 0) {
+			export(batch);
+			batch.clear();
+		}
+	}
+
+	public void shutdown() {
+		final Thread t;
+		synchronized (batchReady) {
+			running = false;
+			t = thread;
+			thread = null;
+		}
+		if (t != null) {
+			t.interrupt();
+			try {
+				t.join(TimeUnit.SECONDS.toMillis(5));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		flush();
+		exporter.shutdown();
+	}
+
+	public int getQueueSize() {
+		return queue.size();
+	}
+
+	private void run() {
+		while (running) {
+			try {
+				synchronized (batchReady) {
+					if (queue.size() < maxBatchSize) {
+						batchReady.wait(intervalMs);
+					}
+				}
+			} catch (InterruptedException e) {
+				break;
+			}
+			flush();
+		}
+	}
+
+	private void export(List<Span> batch) {
+		if (batch.isEmpty()) {
+			return;
+		}
+		try {
+			exporter.export(Collections.unmodifiableList(batch));
+			exported.increment(batch.size());
+		} catch (Exception e) {
+			failed.increment(batch.size());
+			LOG.warn("Error exporting {} spans", batch.size(), e);
+		}
+	}
+
+
+	public static class UnitTest {
+		private static List<Span> spans(int count) {
+			final RequestTrace trace = new RequestTrace(null, true, true);
+			final List<Span> spans = new ArrayList<>();
+			for (int i = 0; i < count; i++) {
+				final Span span = trace.startSpan("span" + i, null);
+				span.finish();
+				spans.add(span);
+			}
+			return spans;
+		}
+
+		@Test
+		public void testFlushInBatches() {
+			final List<Integer> batchSizes = new ArrayList<>();
+			final BatchSpanProcessor processor = new BatchSpanProcessor(batch -> batchSizes.add(batch.size()), 100, 4, 1000);
+			processor.submit(spans(10));
+			processor.flush();
+			assertEquals(Arrays.asList(4, 4, 2), batchSizes);
+		}
+
+		@Test
+		public void testDropsWhenFull() {
+			final InMemorySpanExporter exporter = new InMemorySpanExporter();
+			final BatchSpanProcessor processor = new BatchSpanProcessor(exporter, 5, 10, 1000);
+			processor.submit(spans(8));
+			assertEquals(5, processor.getQueueSize());
+			processor.flush();
+			assertEquals("span0", exporter.getSpans().get(0).getName());
+			assertEquals(5, exporter.getSpans().size());
+		}
+
+		@Test
+		public void testExportsInBackground() throws InterruptedException {
+			final InMemorySpanExporter exporter = new InMemorySpanExporter();
+			final BatchSpanProcessor processor = new BatchSpanProcessor(exporter, 100, 10, 10);
+			processor.start();
+			try {
+				processor.submit(spans(3));
+				final long deadline = System.currentTimeMillis() + 5000;
+				while (exporter.getSpans().size() < 3 && System.currentTimeMillis() < deadline) {
+					Thread.sleep(5);
+				}
+				assertEquals(3, exporter.getSpans().size());
+				assertTrue(exporter.getSpans().get(0).isFinished());
+			} finally {
+				processor.shutdown();
+			}
+		}
+	}
+}
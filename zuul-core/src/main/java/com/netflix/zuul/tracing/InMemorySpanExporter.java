@@ -0,0 +1,50 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ *      Licensed under the Apache License, Version 2.0 (the "License");
+ *      you may not use this file except in compliance with the License.
+ *      You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *      Unless required by applicable law or agreed to in writing, software
+ *      distributed under the License is distributed on an "AS IS" BASIS,
+ *      WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *      See the License for the specific language governing permissions and
+ *      limitations under the License.
+ */
+
+package com.netflix.zuul.tracing;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Keeps exported spans in memory, for tests.
+ */
+public class InMemorySpanExporter implements SpanExporter {
+	private final List<Span> spans = new CopyOnWriteArrayList<>();
+
+	@Override
+	public void export(List<Span> batch) {
+		spans.addAll(batch);
+	}
+
+	public List<Span> getSpans() {
+		return new ArrayList<>(spans);
+	}
+
+	public Span findSpan(String name) {
+		for (Span span : spans) {
+			if (span.getName().equals(name)) {
+				return span;
+			}
+		}
+		return null;
+	}
+
+	public void reset() {
+		spans.clear();
+	}
+}
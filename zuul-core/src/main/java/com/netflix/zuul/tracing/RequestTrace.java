@@ -0,0 +1,110 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ *      Licensed under the Apache License, Version 2.0 (the "License");
+ *      you may not use this file except in compliance with the License.
+ *      You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *      Unless required by applicable law or agreed to in writing, software
+ *      distributed under the License is distributed on an "AS IS" BASIS,
+ *      WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *      See the License for the specific language governing permissions and
+ *      limitations under the License.
+ */
+
+package com.netflix.zuul.tracing;
+
+import com.netflix.zuul.context.SessionContext;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The spans of one request, kept in its {@link SessionContext}.
+ *
+ * A trace that isn't recording still carries the trace id, so that it is propagated to origins, but creates no spans.
+ */
+public class RequestTrace {
+	public static final String CONTEXT_KEY = "_zuul_request_trace";
+
+	private final String traceId;
+	private final String parentSpanId;
+	private final boolean headSampled;
+	private final boolean recording;
+	private final long anchorEpochMicros;
+	private final long anchorNanos;
+	private final List<Span> spans;
+	private Span root;
+
+	RequestTrace(TraceContext parent, boolean headSampled, boolean recording) {
+		this.traceId = parent == null ? TraceContext.newTraceId() : parent.getTraceId();
+		this.parentSpanId = parent == null ? null : parent.getSpanId();
+		this.headSampled = headSampled;
+		this.recording = recording;
+		this.anchorEpochMicros = TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis());
+		this.anchorNanos = System.nanoTime();
+		this.spans = recording ? new ArrayList<>(16) : null;
+	}
+
+	public static RequestTrace fromSessionContext(SessionContext context) {
+		return context == null ? null : (RequestTrace) context.get(CONTEXT_KEY);
+	}
+
+	public String getTraceId() {
+		return traceId;
+	}
+
+	public boolean isHeadSampled() {
+		return headSampled;
+	}
+
+	public boolean isRecording() {
+		return recording;
+	}
+
+	/**
+	 * @return the span covering the whole request, or null if not recording
+	 */
+	public Span getRoot() {
+		return root;
+	}
+
+	void setRoot(Span root) {
+		this.root = root;
+	}
+
+	/**
+	 * Starts a span now, as a child of the given span, or of the root span if null. Must only be called when recording.
+	 */
+	public Span startSpan(String name, Span parent) {
+		return startSpan(name, parent, System.nanoTime());
+	}
+
+	/**
+	 * @param startNanos start time, from {@link System#nanoTime()}
+	 */
+	public Span startSpan(String name, Span parent, long startNanos) {
+		final Span parentSpan = parent == null ? root : parent;
+		final Span span = new Span(this, name, parentSpan == null ? parentSpanId : parentSpan.getSpanId(), startNanos);
+		spans.add(span);
+		return span;
+	}
+
+	/**
+	 * @return the trace context to send to a downstream service called within the given span
+	 */
+	public TraceContext downstreamContext(Span span) {
+		return new TraceContext(traceId, span == null ? TraceContext.newSpanId() : span.getSpanId(), headSampled);
+	}
+
+	public List<Span> getSpans() {
+		return spans;
+	}
+
+	long toEpochMicros(long nanos) {
+		return anchorEpochMicros + TimeUnit.NANOSECONDS.toMicros(nanos - anchorNanos);
+	}
+}
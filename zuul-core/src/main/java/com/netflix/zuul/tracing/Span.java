@@ -0,0 +1,159 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ *      Licensed under the Apache License, Version 2.0 (the "License");
+ *      you may not use this file except in compliance with the License.
+ *      You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *      Unless required by applicable law or agreed to in writing, software
+ *      distributed under the License is distributed on an "AS IS" BASIS,
+ *      WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *      See the License for the specific language governing permissions and
+ *      limitations under the License.
+ */
+
+package com.netflix.zuul.tracing;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A timed operation within a request's trace.
+ *
+ * Spans of a request are started and finished on the request's event-loop, so they're not thread-safe. The exporter
+ * is handed {@link #snapshot() snapshots} of them instead, so that late changes, eg. from origin callbacks arriving
+ * after the request has completed, don't race with it.
+ */
+public class Span {
+	private static final ObjectMapper JACKSON_MAPPER = new ObjectMapper();
+
+	private final RequestTrace trace;
+	private final String name;
+	private final String spanId;
+	private final String parentSpanId;
+	private final long startNanos;
+	private final Map<String, String> tags;
+	private long endNanos = -1;
+	private boolean error;
+
+	Span(RequestTrace trace, String name, String parentSpanId, long startNanos) {
+		this.trace = trace;
+		this.name = name;
+		this.spanId = TraceContext.newSpanId();
+		this.parentSpanId = parentSpanId;
+		this.startNanos = startNanos;
+		this.tags = new LinkedHashMap<>(4);
+	}
+
+	private Span(Span span) {
+		this.trace = span.trace;
+		this.name = span.name;
+		this.spanId = span.spanId;
+		this.parentSpanId = span.parentSpanId;
+		this.startNanos = span.startNanos;
+		this.tags = Collections.unmodifiableMap(new LinkedHashMap<>(span.tags));
+		this.endNanos = span.endNanos;
+		this.error = span.error;
+	}
+
+	/**
+	 * An unchangeable copy of the span as it is now.
+	 */
+	Span snapshot() {
+		return new Span(this);
+	}
+
+	public Span tag(String key, Object value) {
+		tags.put(key, String.valueOf(value));
+		return this;
+	}
+
+	public Span error(Throwable t) {
+		error = true;
+		if (t != null) {
+			tags.put("error", t.getClass().getSimpleName() + ": " + t.getMessage());
+		}
+		return this;
+	}
+
+	public void finish() {
+		finish(System.nanoTime());
+	}
+
+	/**
+	 * @param endNanos end time, from {@link System#nanoTime()}
+	 */
+	public void finish(long endNanos) {
+		if (this.endNanos == -1) {
+			this.endNanos = Math.max(endNanos, startNanos);
+		}
+	}
+
+	public boolean isFinished() {
+		return endNanos != -1;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getTraceId() {
+		return trace.getTraceId();
+	}
+
+	public String getSpanId() {
+		return spanId;
+	}
+
+	public String getParentSpanId() {
+		return parentSpanId;
+	}
+
+	public long getDurationNanos() {
+		return isFinished() ? endNanos - startNanos : 0;
+	}
+
+	public long getStartEpochMicros() {
+		return trace.toEpochMicros(startNanos);
+	}
+
+	public Map<String, String> getTags() {
+		return tags;
+	}
+
+	public boolean isError() {
+		return error;
+	}
+
+	public ObjectNode toJsonNode() {
+		final ObjectNode node = JACKSON_MAPPER.createObjectNode();
+		node.put("traceId", getTraceId());
+		node.put("spanId", spanId);
+		if (parentSpanId != null) {
+			node.put("parentSpanId", parentSpanId);
+		}
+		node.put("name", name);
+		node.put("startEpochMicros", getStartEpochMicros());
+		node.put("durationMicros", TimeUnit.NANOSECONDS.toMicros(getDurationNanos()));
+		if (error) {
+			node.put("error", true);
+		}
+		if (!tags.isEmpty()) {
+			final ObjectNode tagsNode = node.putObject("tags");
+			tags.forEach(tagsNode::put);
+		}
+		return node;
+	}
+
+	@Override
+	public String toString() {
+		return toJsonNode().toString();
+	}
+}
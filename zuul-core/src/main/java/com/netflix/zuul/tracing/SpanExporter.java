@@ -0,0 +1,31 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ *      Licensed under the Apache License, Version 2.0 (the "License");
+ *      you may not use this file except in compliance with the License.
+ *      You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *      Unless required by applicable law or agreed to in writing, software
+ *      distributed under the License is distributed on an "AS IS" BASIS,
+ *      WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *      See the License for the specific language governing permissions and
+ *      limitations under the License.
+ */
+
+package com.netflix.zuul.tracing;
+
+import java.util.List;
+
+/**
+ * Sends finished spans to a tracing backend. Called from a single background thread with batches of spans, so
+ * implementations may block, but a slow exporter will cause spans to be dropped.
+ */
+public interface SpanExporter {
+
+	void export(List<Span> spans) throws Exception;
+
+	default void shutdown() {
+	}
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ *      Licensed under the Apache License, Version 2.0 (the "License");
+ *      you may not use this file except in compliance with the License.
+ *      You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *      Unless required by applicable law or agreed to in writing, software
+ *      distributed under the License is distributed on an "AS IS" BASIS,
+ *      WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *      See the License for the specific language governing permissions and
+ *      limitations under the License.
+ */
+
+package com.netflix.zuul.tracing;
+
+import org.junit.Test;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Trace id, parent span id and sampled flag, as carried by the W3C trace context {@code traceparent} header:
+ * {@code 00-<32 hex trace id>-<16 hex span id>-<2 hex flags>}.
+ */
+public final class TraceContext {
+	public static final String TRACEPARENT_HEADER = "traceparent";
+
+	private static final String VERSION = "00";
+	private static final String INVALID_TRACE_ID = "00000000000000000000000000000000";
+	private static final String INVALID_SPAN_ID = "0000000000000000";
+	private static final int FLAG_SAMPLED = 0x01;
+
+	private final String traceId;
+	private final String spanId;
+	private final boolean sampled;
+
+	public TraceContext(String traceId, String spanId, boolean sampled) {
+		this.traceId = traceId;
+		this.spanId = spanId;
+		this.sampled = sampled;
+	}
+
+	public static TraceContext newRoot(boolean sampled) {
+		return new TraceContext(newTraceId(), newSpanId(), sampled);
+	}
+
+	/**
+	 * @return the parsed header, or null if it's missing or malformed, in which case a new trace should be started
+	 */
+	public static TraceContext parse(String traceparent) {
+		if (traceparent == null) {
+			return null;
+		}
+		final String header = traceparent.trim();
+		// Later versions may append fields, but must keep the layout of the first four.
+		if (header.length() < 55 || (header.length() > 55 && header.charAt(55) != '-')
+				|| header.charAt(2) != '-' || header.charAt(35) != '-' || header.charAt(52) != '-') {
+			return null;
+		}
+		final String version = header.substring(0, 2);
+		final String traceId = header.substring(3, 35);
+		final String spanId = header.substring(36, 52);
+		final String flags = header.substring(53, 55);
+		if (!isLowerHex(version) || "ff".equals(version) || (VERSION.equals(version) && header.length() != 55)
+				|| !isLowerHex(traceId) || INVALID_TRACE_ID.equals(traceId)
+				|| !isLowerHex(spanId) || INVALID_SPAN_ID.equals(spanId)
+				|| !isLowerHex(flags)) {
+			return null;
+		}
+		return new TraceContext(traceId, spanId, (Integer.parseInt(flags, 16) & FLAG_SAMPLED) != 0);
+	}
+
+	public String format() {
+		return VERSION + '-' + traceId + '-' + spanId + '-' + (sampled ? "01" : "00");
+	}
+
+	/**
+	 * @return the context to send downstream of the given span of this trace
+	 */
+	public TraceContext withSpanId(String spanId) {
+		return new TraceContext(traceId, spanId, sampled);
+	}
+
+	public String getTraceId() {
+		return traceId;
+	}
+
+	public String getSpanId() {
+		return spanId;
+	}
+
+	public boolean isSampled() {
+		return sampled;
+	}
+
+	public static String newTraceId() {
+		final ThreadLocalRandom random = ThreadLocalRandom.current();
+		long high;
+		long low;
+		do {
+			high = random.nextLong();
+			low = random.nextLong();
+		} while (high == 0 && low == 0);
+		return toHex(high) + toHex(low);
+	}
+
+	public static String newSpanId() {
+		long id;
+		do {
+			id = ThreadLocalRandom.current().nextLong();
+		} while (id == 0);
+		return toHex(id);
+	}
+
+	private static String toHex(long value) {
+		final String hex = Long.toHexString(value);
+		return INVALID_SPAN_ID.substring(hex.length()) + hex;
+	}
+
+	private static boolean isLowerHex(String s) {
+		for (int i = 0; i < s.length(); i++) {
+			final char c = s.charAt(i);
+			if (!((c >= '0' && c <= '9') || (c >= 'a' && c <= 'f'))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		return format();
+	}
+
+
+	public static class UnitTest {
+		@Test
+		public void testRoundTrip() {
+			final String header = "00-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-01";
+			final TraceContext context = parse(header);
+			assertEquals("4bf92f3577b34da6a3ce929d0e0e4736", context.getTraceId());
+			assertEquals("00f067aa0ba902b7", context.getSpanId());
+			assertTrue(context.isSampled());
+			assertEquals(header, context.format());
+		}
+
+		@Test
+		public void testUnsampledAndFutureVersion() {
+			assertFalse(parse("00-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-00").isSampled());
+			assertTrue(parse("01-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-03-extra").isSampled());
+		}
+
+		@Test
+		public void testInvalid() {
+			assertNull(parse(null));
+			assertNull(parse("garbage"));
+			assertNull(parse("00-00000000000000000000000000000000-00f067aa0ba902b7-01"));
+			assertNull(parse("00-4bf92f3577b34da6a3ce929d0e0e4736-0000000000000000-01"));
+			assertNull(parse("00-4BF92F3577B34DA6A3CE929D0E0E4736-00f067aa0ba902b7-01"));
+			assertNull(parse("ff-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-01"));
+			assertNull(parse("00-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-01-extra"));
+		}
+
+		@Test
+		public void testNewIds() {
+			final TraceContext context = newRoot(true);
+			assertEquals(32, context.getTraceId().length());
+			assertEquals(16, context.getSpanId().length());
+			assertEquals(context.format(), parse(context.format()).format());
+		}
+	}
+}
@@ -0,0 +1,367 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ *      Licensed under the Apache License, Version 2.0 (the "License");
+ *      you may not use this file except in compliance with the License.
+ *      You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *      Unless required by applicable law or agreed to in writing, software
+ *      distributed under the License is distributed on an "AS IS" BASIS,
+ *      WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *      See the License for the specific language governing permissions and
+ *      limitations under the License.
+ */
+
+package com.netflix.zuul.tracing;
+
+import com.netflix.config.CachedDynamicBooleanProperty;
+import com.netflix.config.CachedDynamicDoubleProperty;
+import com.netflix.config.CachedDynamicLongProperty;
+import com.netflix.config.ConfigurationManager;
+import com.netflix.config.DynamicIntProperty;
+import com.netflix.config.DynamicLongProperty;
+import com.netflix.config.DynamicStringProperty;
+import com.netflix.zuul.context.CommonContextKeys;
+import com.netflix.zuul.context.SessionContext;
+import com.netflix.zuul.message.Headers;
+import com.netflix.zuul.message.http.HttpQueryParams;
+import com.netflix.zuul.message.http.HttpRequestMessage;
+import com.netflix.zuul.message.http.HttpRequestMessageImpl;
+import com.netflix.zuul.message.http.HttpResponseMessage;
+import com.netflix.zuul.message.http.HttpResponseMessageImpl;
+import com.netflix.zuul.passport.CurrentPassport;
+import com.netflix.zuul.passport.PassportItem;
+import com.netflix.zuul.passport.PassportState;
+import com.netflix.zuul.passport.StartAndEnd;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Request tracing with W3C trace context propagation.
+ *
+ * When zuul.tracing.enabled is set, each request gets a {@link RequestTrace}, continuing the trace of an incoming
+ * {@code traceparent} header if there is one, and the trace context is sent on to origins. Whether a trace is
+ * exported is decided:
+ * <ul>
+ * <li>up front (head sampling), by the sampled flag of the incoming header or else zuul.tracing.sampleRate</li>
+ * <li>once the request completes (tail sampling), when zuul.tracing.tail.enabled is set, for requests slower than
+ * zuul.tracing.tail.thresholdMs or that failed. This records spans for every request, so costs more than head
+ * sampling alone.</li>
+ * </ul>
+ * Recorded spans cover the whole request, receiving the request body, the inbound and outbound filter chains and each
+ * filter, each origin attempt and its connection acquisition, and writing the response. Sampled spans are exported in
+ * batches on a background thread to the {@link SpanExporter} set with {@link #setExporter(SpanExporter)}, or if there
+ * isn't one and zuul.tracing.export.file is set, appended to that file.
+ */
+public final class Tracing {
+	private static final CachedDynamicBooleanProperty ENABLED =
+			new CachedDynamicBooleanProperty("zuul.tracing.enabled", false);
+	private static final CachedDynamicDoubleProperty SAMPLE_RATE =
+			new CachedDynamicDoubleProperty("zuul.tracing.sampleRate", 0.01);
+	private static final CachedDynamicBooleanProperty RESPECT_PARENT_SAMPLED =
+			new CachedDynamicBooleanProperty("zuul.tracing.respectParentSampled", true);
+	private static final CachedDynamicBooleanProperty TAIL_ENABLED =
+			new CachedDynamicBooleanProperty("zuul.tracing.tail.enabled", false);
+	private static final CachedDynamicLongProperty TAIL_THRESHOLD_MS =
+			new CachedDynamicLongProperty("zuul.tracing.tail.thresholdMs", 1000);
+
+	private static final DynamicStringProperty EXPORT_FILE = new DynamicStringProperty("zuul.tracing.export.file", "");
+	private static final DynamicIntProperty EXPORT_QUEUE_SIZE = new DynamicIntProperty("zuul.tracing.export.queueSize", 8192);
+	private static final DynamicIntProperty EXPORT_BATCH_SIZE = new DynamicIntProperty("zuul.tracing.export.batchSize", 512);
+	private static final DynamicLongProperty EXPORT_INTERVAL_MS = new DynamicLongProperty("zuul.tracing.export.intervalMs", 1000);
+
+	private static volatile BatchSpanProcessor processor;
+	private static volatile boolean processorConfigured = false;
+
+	private Tracing() {
+	}
+
+	public static boolean isEnabled() {
+		return ENABLED.get();
+	}
+
+	/**
+	 * Replaces the exporter that sampled spans are sent to, shutting down the previous one.
+	 */
+	public static synchronized void setExporter(SpanExporter exporter) {
+		final BatchSpanProcessor previous = processor;
+		if (exporter == null) {
+			processor = null;
+		} else {
+			final BatchSpanProcessor next = new BatchSpanProcessor(exporter, EXPORT_QUEUE_SIZE.get(),
+					EXPORT_BATCH_SIZE.get(), EXPORT_INTERVAL_MS.get());
+			next.start();
+			processor = next;
+		}
+		processorConfigured = true;
+		if (previous != null) {
+			previous.shutdown();
+		}
+	}
+
+	/**
+	 * Exports any spans still queued, on the calling thread.
+	 */
+	public static void flush() {
+		final BatchSpanProcessor p = processor;
+		if (p != null) {
+			p.flush();
+		}
+	}
+
+	/**
+	 * Starts the trace of a request received from a client.
+	 *
+	 * @return the trace, or null if tracing is off
+	 */
+	public static RequestTrace startRequest(HttpRequestMessage request) {
+		if (!isEnabled()) {
+			return null;
+		}
+		final TraceContext parent = TraceContext.parse(request.getHeaders().getFirst(TraceContext.TRACEPARENT_HEADER));
+		final boolean headSampled = (parent != null && RESPECT_PARENT_SAMPLED.get())
+				? parent.isSampled()
+				: ThreadLocalRandom.current().nextDouble() < SAMPLE_RATE.get();
+		final RequestTrace trace = new RequestTrace(parent, headSampled, headSampled || TAIL_ENABLED.get());
+
+		if (trace.isRecording()) {
+			final CurrentPassport passport = CurrentPassport.fromSessionContext(request.getContext());
+			final PassportItem received = passport == null ? null : passport.findState(PassportState.IN_REQ_HEADERS_RECEIVED);
+			final long start = received == null ? System.nanoTime() : received.getTime();
+			final Span root = trace.startSpan("zuul.request", null, start)
+					.tag("http.method", request.getMethod())
+					.tag("http.path", request.getPath())
+					.tag("http.protocol", request.getProtocol());
+			trace.setRoot(root);
+		}
+		request.getContext().set(RequestTrace.CONTEXT_KEY, trace);
+		return trace;
+	}
+
+	/**
+	 * Adds the trace context to a request about to be sent downstream within the given span.
+	 */
+	public static void propagate(SessionContext context, Headers headers, Span span) {
+		final RequestTrace trace = RequestTrace.fromSessionContext(context);
+		if (trace != null) {
+			headers.set(TraceContext.TRACEPARENT_HEADER, trace.downstreamContext(span).format());
+		}
+	}
+
+	/**
+	 * Ends the trace of a request, adding the spans that the passport already has the timings for, and queues the
+	 * spans for export if the trace is sampled.
+	 */
+	public static void completeRequest(SessionContext context, HttpResponseMessage response, CurrentPassport passport) {
+		final RequestTrace trace = RequestTrace.fromSessionContext(context);
+		if (trace == null || !trace.isRecording() || trace.getRoot().isFinished()) {
+			return;
+		}
+		final Span root = trace.getRoot();
+		final long now = System.nanoTime();
+		if (passport != null) {
+			addPassportSpan(trace, passport, "request.receive", PassportState.IN_REQ_HEADERS_RECEIVED, PassportState.IN_REQ_LAST_CONTENT_RECEIVED);
+			addPassportSpan(trace, passport, "filters.inbound", PassportState.FILTERS_INBOUND_START, PassportState.FILTERS_INBOUND_END);
+			addPassportSpan(trace, passport, "filters.outbound", PassportState.FILTERS_OUTBOUND_START, PassportState.FILTERS_OUTBOUND_END);
+			addPassportSpan(trace, passport, "response.write", PassportState.OUT_RESP_HEADERS_SENDING, PassportState.OUT_RESP_LAST_CONTENT_SENT);
+		}
+
+		final int status = response == null ? -1 : response.getStatus();
+		root.tag("http.status", status);
+		final boolean failed = status == -1 || status >= 500 || context.getError() != null;
+		if (failed) {
+			root.error(context.getError());
+		}
+		root.finish(now);
+		final List<Span> snapshots = new ArrayList<>(trace.getSpans().size());
+		for (Span span : trace.getSpans()) {
+			if (!span.isFinished()) {
+				span.tag("incomplete", true);
+				span.finish(now);
+			}
+			snapshots.add(span.snapshot());
+		}
+
+		final boolean sampled = trace.isHeadSampled()
+				|| failed
+				|| root.getDurationNanos() >= TimeUnit.MILLISECONDS.toNanos(TAIL_THRESHOLD_MS.get());
+		if (sampled) {
+			final BatchSpanProcessor p = getProcessor();
+			if (p != null) {
+				p.submit(snapshots);
+			}
+		}
+	}
+
+	private static void addPassportSpan(RequestTrace trace, CurrentPassport passport, String name,
+										PassportState startState, PassportState endState) {
+		final StartAndEnd sae = passport.findFirstStartAndLastEndStates(startState, endState);
+		// The passport marks states it didn't find with -1.
+		if (sae.getStart() != -1 && sae.getEnd() != -1) {
+			trace.startSpan(name, null, sae.getStart()).finish(sae.getEnd());
+		}
+	}
+
+	private static BatchSpanProcessor getProcessor() {
+		if (!processorConfigured) {
+			synchronized (Tracing.class) {
+				if (!processorConfigured) {
+					final String file = EXPORT_FILE.get();
+					if (!file.isEmpty()) {
+						setExporter(new FileSpanExporter(new File(file)));
+					}
+					processorConfigured = true;
+				}
+			}
+		}
+		return processor;
+	}
+
+
+	public static class UnitTest {
+		private InMemorySpanExporter exporter;
+
+		@Before
+		public void setup() {
+			ConfigurationManager.getConfigInstance().setProperty("zuul.tracing.enabled", true);
+			exporter = new InMemorySpanExporter();
+			setExporter(exporter);
+		}
+
+		@After
+		public void teardown() {
+			ConfigurationManager.getConfigInstance().clearProperty("zuul.tracing.enabled");
+			ConfigurationManager.getConfigInstance().clearProperty("zuul.tracing.sampleRate");
+			ConfigurationManager.getConfigInstance().clearProperty("zuul.tracing.tail.enabled");
+			ConfigurationManager.getConfigInstance().clearProperty("zuul.tracing.tail.thresholdMs");
+			setExporter(null);
+		}
+
+		private static HttpRequestMessage request(String traceparent) {
+			final SessionContext context = new SessionContext();
+			final CurrentPassport passport = CurrentPassport.create();
+			passport.add(PassportState.IN_REQ_HEADERS_RECEIVED);
+			context.set(CommonContextKeys.PASSPORT, passport);
+			final Headers headers = new Headers();
+			if (traceparent != null) {
+				headers.add(TraceContext.TRACEPARENT_HEADER, traceparent);
+			}
+			return new HttpRequestMessageImpl(context, "HTTP/1.1", "GET", "/api", new HttpQueryParams(), headers,
+					"127.0.0.1", "http", 7001, "localhost");
+		}
+
+		private static void complete(HttpRequestMessage request, int status) {
+			final CurrentPassport passport = CurrentPassport.fromSessionContext(request.getContext());
+			passport.add(PassportState.IN_REQ_LAST_CONTENT_RECEIVED);
+			passport.add(PassportState.OUT_RESP_HEADERS_SENDING);
+			passport.add(PassportState.OUT_RESP_LAST_CONTENT_SENT);
+			completeRequest(request.getContext(), new HttpResponseMessageImpl(request.getContext(), request, status), passport);
+		}
+
+		@Test
+		public void testContinuesSampledParent() {
+			final HttpRequestMessage request = request("00-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-01");
+			final RequestTrace trace = startRequest(request);
+			assertTrue(trace.isRecording());
+
+			final Span attempt = trace.startSpan("origin.attempt", null);
+			final Headers originHeaders = new Headers();
+			propagate(request.getContext(), originHeaders, attempt);
+			attempt.finish();
+			complete(request, 200);
+			flush();
+
+			final TraceContext sent = TraceContext.parse(originHeaders.getFirst(TraceContext.TRACEPARENT_HEADER));
+			assertEquals("4bf92f3577b34da6a3ce929d0e0e4736", sent.getTraceId());
+			assertEquals(attempt.getSpanId(), sent.getSpanId());
+			assertTrue(sent.isSampled());
+
+			final Span root = exporter.findSpan("zuul.request");
+			assertEquals("00f067aa0ba902b7", root.getParentSpanId());
+			assertEquals("200", root.getTags().get("http.status"));
+			assertFalse(root.getTags().containsKey("incomplete"));
+			assertEquals(root.getSpanId(), exporter.findSpan("origin.attempt").getParentSpanId());
+			assertNotNull(exporter.findSpan("request.receive"));
+			assertNotNull(exporter.findSpan("response.write"));
+			assertEquals("4bf92f3577b34da6a3ce929d0e0e4736", exporter.findSpan("response.write").getTraceId());
+		}
+
+		@Test
+		public void testLateChangesNotExported() {
+			final HttpRequestMessage request = request("00-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-01");
+			final RequestTrace trace = startRequest(request);
+			final Span attempt = trace.startSpan("origin.attempt", null);
+			complete(request, 200);
+
+			// eg. an origin callback arriving after the response has been sent.
+			attempt.tag("server", "late");
+			flush();
+
+			final Span exported = exporter.findSpan("origin.attempt");
+			assertEquals("true", exported.getTags().get("incomplete"));
+			assertNull(exported.getTags().get("server"));
+		}
+
+		@Test
+		public void testUnsampledParentOnlyPropagates() {
+			final HttpRequestMessage request = request("00-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-00");
+			final RequestTrace trace = startRequest(request);
+			assertFalse(trace.isRecording());
+
+			final Headers originHeaders = new Headers();
+			propagate(request.getContext(), originHeaders, null);
+			complete(request, 200);
+			flush();
+
+			final TraceContext sent = TraceContext.parse(originHeaders.getFirst(TraceContext.TRACEPARENT_HEADER));
+			assertEquals("4bf92f3577b34da6a3ce929d0e0e4736", sent.getTraceId());
+			assertFalse(sent.isSampled());
+			assertTrue(exporter.getSpans().isEmpty());
+		}
+
+		@Test
+		public void testTailSamplesErrors() {
+			ConfigurationManager.getConfigInstance().setProperty("zuul.tracing.sampleRate", 0.0);
+			ConfigurationManager.getConfigInstance().setProperty("zuul.tracing.tail.enabled", true);
+
+			final HttpRequestMessage ok = request(null);
+			assertTrue(startRequest(ok).isRecording());
+			complete(ok, 200);
+			flush();
+			assertTrue(exporter.getSpans().isEmpty());
+
+			final HttpRequestMessage failed = request(null);
+			startRequest(failed);
+			complete(failed, 503);
+			flush();
+			final List<Span> spans = exporter.getSpans();
+			assertFalse(spans.isEmpty());
+			assertTrue(exporter.findSpan("zuul.request").isError());
+		}
+
+		@Test
+		public void testDisabled() {
+			ConfigurationManager.getConfigInstance().setProperty("zuul.tracing.enabled", false);
+			final HttpRequestMessage request = request(null);
+			assertNull(startRequest(request));
+			final Headers originHeaders = new Headers();
+			propagate(request.getContext(), originHeaders, null);
+			assertNull(originHeaders.getFirst(TraceContext.TRACEPARENT_HEADER));
+		}
+	}
+}
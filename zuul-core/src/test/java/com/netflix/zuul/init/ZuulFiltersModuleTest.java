@@ -16,6 +16,7 @@
 
 package com.netflix.zuul.init;
 
+import com.netflix.zuul.filters.common.AltSvcResponseFilter;
 import com.netflix.zuul.init2.TestZuulFilter2;
 import org.apache.commons.configuration.AbstractConfiguration;
 import org.junit.Test;
@@ -124,4 +125,30 @@ public class ZuulFiltersModuleTest {
 		assertThat(classNames[0], equalTo(expectedClass1.getCanonicalName()));
 		assertThat(classNames[1], equalTo(expectedClass2.getCanonicalName()));
 	}
-}
\ No newline at end of file
+
+	@Test
+	public void testPackagesFromIndex() {
+		when(configuration.getBoolean(eq("zuul.filters.index.enabled"), eq(true))).thenReturn(true);
+		when(configuration.getStringArray(eq("zuul.filters.classes"))).thenReturn(new String[0]);
+		when(configuration.getStringArray(eq("zuul.filters.packages"))).thenReturn(new String[]{"com.netflix.zuul.filters.common"});
+
+		String[] classNames = module.findClassNames(configuration);
+
+		assertThat(classNames.length, equalTo(4));
+		assertThat(classNames[0], equalTo(AltSvcResponseFilter.class.getCanonicalName()));
+	}
+
+	@Test
+	public void testUnindexedPackageScanned() {
+		Class expectedClass = TestZuulFilter2.class;
+
+		when(configuration.getBoolean(eq("zuul.filters.index.enabled"), eq(true))).thenReturn(true);
+		when(configuration.getStringArray(eq("zuul.filters.classes"))).thenReturn(new String[0]);
+		when(configuration.getStringArray(eq("zuul.filters.packages"))).thenReturn(new String[]{"com.netflix.zuul.filters.common", "com.netflix.zuul.init2"});
+
+		String[] classNames = module.findClassNames(configuration);
+
+		assertThat(classNames.length, equalTo(5));
+		assertThat(classNames[4], equalTo(expectedClass.getCanonicalName()));
+	}
+}
@@ -16,6 +16,7 @@
 
 package com.netflix.zuul.sample;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.netflix.appinfo.ApplicationInfoManager;
 import com.netflix.config.DynamicIntProperty;
 import com.netflix.discovery.EurekaClient;
@@ -32,6 +33,7 @@ import com.netflix.zuul.FilterUsageNotifier;
 import com.netflix.zuul.RequestCompleteHandler;
 import com.netflix.zuul.context.SessionContextDecorator;
 import com.netflix.zuul.netty.server.*;
+import com.netflix.zuul.netty.server.admin.AdminServer;
 import com.netflix.zuul.netty.server.http2.Http2SslChannelInitializer;
 import com.netflix.zuul.netty.server.push.PushConnectionRegistry;
 import com.netflix.zuul.netty.ssl.BaseSslContextFactory;
@@ -67,6 +69,8 @@ public class SampleServerStartup extends BaseServerStartup {
 
 	private static final String[] WWW_PROTOCOLS = new String[]{"TLSv1.2", "TLSv1.1", "TLSv1", "SSLv3"};
 	private static final ServerType SERVER_TYPE = ServerType.HTTP;
+	private static final ObjectMapper JACKSON_MAPPER = new ObjectMapper();
+
 	private final PushConnectionRegistry pushConnectionRegistry;
 	private final SamplePushMessageSenderInitializer pushSenderInitializer;
 
@@ -205,6 +209,13 @@ public class SampleServerStartup extends BaseServerStartup {
 		return portsToChannels;
 	}
 
+	@Override
+	protected void addAdminEndpoints(AdminServer adminServer) {
+		super.addAdminEndpoints(adminServer);
+		adminServer.addEndpoint("/push", () -> JACKSON_MAPPER.createObjectNode()
+				.put("registeredConnections", pushConnectionRegistry.size()));
+	}
+
 	private File loadFromResources(String s) {
 		return new File(ClassLoader.getSystemResource("ssl/" + s).getFile());
 	}